@@ -35,6 +35,7 @@ import java.io.IOException;
 import eu.geopaparazzi.core.database.DatabaseManager;
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.core.ResourcesManager;
+import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.gps.GpsServiceUtilities;
 import eu.geopaparazzi.library.profiles.ProfilesHandler;
 import eu.geopaparazzi.map.layers.LayerManager;
@@ -107,6 +108,7 @@ public class GeopaparazziApplication extends GPApplication {
     @Override
     public void closeDatabase() {
         if (database != null && database.isOpen()) {
+            GPLog.flush();
             database.close();
         }
         database = null;
@@ -20,6 +20,7 @@ package eu.geopaparazzi.core.database;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.location.Location;
 import android.util.Log;
@@ -29,6 +30,7 @@ import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.index.strtree.STRtree;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -38,6 +40,7 @@ import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IGpsLogDbHelper;
 import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.library.gpx.GpxItem;
+import eu.geopaparazzi.library.gpx.GpxUtilities;
 import eu.geopaparazzi.library.gpx.parser.GpxParser.Route;
 import eu.geopaparazzi.library.gpx.parser.GpxParser.TrackSegment;
 import eu.geopaparazzi.library.gpx.parser.RoutePoint;
@@ -47,6 +50,7 @@ import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.library.util.TimeUtilities;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.database.objects.GpsLogInfo;
+import eu.geopaparazzi.core.database.objects.GpxLogStream;
 import eu.geopaparazzi.core.database.objects.Line;
 import eu.geopaparazzi.core.database.objects.LogMapItem;
 import eu.geopaparazzi.map.GPGeoPoint;
@@ -867,6 +871,112 @@ public class DaoGpsLog implements IGpsLogDbHelper {
     }
 
 
+    /**
+     * Get the gps logs that have data, to be streamed to gpx.
+     *
+     * <p>Only the bounds of the logs are read here, the points are read while writing
+     * through {@link #writeGpxTrackPoints(long, Writer)}.</p>
+     *
+     * @return the list of logs, ordered by id.
+     * @throws IOException if something goes wrong.
+     */
+    public static List<GpxLogStream> getGpxLogStreams() throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String logIdField = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName();
+        String latField = GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName();
+        String lonField = GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName();
+        String query = "SELECT " + logIdField + ", min(" + latField + "), min(" + lonField + "), max(" + latField + "), max("
+                + lonField + ") FROM " + TABLE_GPSLOG_DATA + " GROUP BY " + logIdField + " ORDER BY " + logIdField;
+
+        List<GpxLogStream> logs = new ArrayList<>();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(query, null);
+            while (c.moveToNext()) {
+                logs.add(new GpxLogStream(c.getLong(0), c.getDouble(1), c.getDouble(2), c.getDouble(3), c.getDouble(4)));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        return logs;
+    }
+
+    /**
+     * Write the points of a log as gpx trackpoints, straight from the database cursor.
+     *
+     * @param logId  the id of the log.
+     * @param writer the writer to write to.
+     * @throws IOException if something goes wrong.
+     */
+    public static void writeGpxTrackPoints(long logId, Writer writer) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String[] asColumnsToReturn = {//
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName(),//
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(),//
+                GpsLogsDataTableFields.COLUMN_DATA_ALTIM.getFieldName(),//
+                GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName()//
+        };
+        String where = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = ?";
+        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, where, new String[]{String.valueOf(logId)}, null,
+                    null, strSortOrder);
+            while (c.moveToNext()) {
+                GpxUtilities.writeTrackPoint(writer, c.getDouble(0), c.getDouble(1), c.getDouble(2), c.getLong(3));
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    /**
+     * Write the points of a log as kml coordinates, straight from the database cursor.
+     *
+     * <p>Nothing is written if the log has no points. If reading fails midway, the points read
+     * so far are kept and the end is written anyway, so that the kml stays valid.</p>
+     *
+     * @param logId  the id of the log.
+     * @param writer the writer to write to.
+     * @param before the text to write before the coordinates.
+     * @param after  the text to write after the coordinates.
+     * @throws IOException if the log can't be read or the writer fails.
+     */
+    public static void writeKmlCoordinates(long logId, Writer writer, String before, String after) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String[] asColumnsToReturn = {//
+                GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName(),//
+                GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName()//
+        };
+        String where = GpsLogsDataTableFields.COLUMN_LOGID.getFieldName() + " = ?";
+        String strSortOrder = GpsLogsDataTableFields.COLUMN_DATA_TS.getFieldName() + " ASC";
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.query(TABLE_GPSLOG_DATA, asColumnsToReturn, where, new String[]{String.valueOf(logId)}, null,
+                    null, strSortOrder);
+            // the query runs here, before anything is written
+            if (!c.moveToFirst())
+                return;
+            writer.write(before);
+            try {
+                do {
+                    writer.write(String.valueOf(c.getDouble(0)));
+                    writer.write(',');
+                    writer.write(String.valueOf(c.getDouble(1)));
+                    writer.write(",1 \n");
+                } while (c.moveToNext());
+            } catch (SQLiteException e) {
+                GPLog.error("DAOGPSLOG", "Error reading the points of log " + logId, e);
+            }
+            writer.write(after);
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
     /**
      * Get a tree index of gps points in a defined area.
      *
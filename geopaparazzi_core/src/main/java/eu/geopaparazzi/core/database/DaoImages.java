@@ -18,21 +18,28 @@
 package eu.geopaparazzi.core.database;
 
 import android.content.ContentValues;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import eu.geopaparazzi.library.database.BlobInputStream;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.IImagesDbHelper;
 import eu.geopaparazzi.library.database.Image;
-import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.util.FileUtilities;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 
 import static eu.geopaparazzi.library.database.TableDescriptions.ImageDataTableFields;
@@ -119,7 +126,8 @@ public class DaoImages implements IImagesDbHelper {
         sB.append(ImageDataTableFields.COLUMN_ID.getFieldName());
         sB.append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
         sB.append(ImageDataTableFields.COLUMN_IMAGE.getFieldName()).append(" BLOB NOT NULL,");
-        sB.append(ImageDataTableFields.COLUMN_THUMBNAIL.getFieldName()).append(" BLOB NOT NULL");
+        sB.append(ImageDataTableFields.COLUMN_THUMBNAIL.getFieldName()).append(" BLOB NOT NULL,");
+        sB.append(ImageDataTableFields.COLUMN_REFERENCE.getFieldName()).append(" TEXT");
         sB.append(");");
         String CREATE_TABLE_IMAGEDATA = sB.toString();
 
@@ -146,6 +154,28 @@ public class DaoImages implements IImagesDbHelper {
         }
     }
 
+    /**
+     * Add the columns missing in databases created by older versions.
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void checkTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        if (!DaoGpsLog.existsColumnInTable(sqliteDatabase, TABLE_IMAGE_DATA, ImageDataTableFields.COLUMN_ID.getFieldName()))
+            return;
+        String referenceField = ImageDataTableFields.COLUMN_REFERENCE.getFieldName();
+        if (!DaoGpsLog.existsColumnInTable(sqliteDatabase, TABLE_IMAGE_DATA, referenceField)) {
+            DaoGpsLog.addFieldGPSTables(sqliteDatabase, TABLE_IMAGE_DATA, referenceField, "TEXT");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if new images are written in the {@link ImageFileStore}.
+     */
+    private static boolean isExternalStoreEnabled() {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GeopaparazziApplication.getInstance());
+        return preferences.getBoolean(LibraryConstants.PREFS_KEY_IMAGES_EXTERNAL_STORE, false);
+    }
 
     public long addImage(double lon, double lat, double altim, double azim, long timestamp, String text, byte[] image, byte[] thumb, long noteId)
             throws IOException {
@@ -154,7 +184,14 @@ public class DaoImages implements IImagesDbHelper {
         try {
             // first insert image data
             ContentValues imageDataValues = new ContentValues();
-            imageDataValues.put(ImageDataTableFields.COLUMN_IMAGE.getFieldName(), image);
+            if (isExternalStoreEnabled()) {
+                // only the reference in the db, the data column can't be null
+                String reference = ImageFileStore.store(sqliteDatabase, image);
+                imageDataValues.put(ImageDataTableFields.COLUMN_IMAGE.getFieldName(), new byte[0]);
+                imageDataValues.put(ImageDataTableFields.COLUMN_REFERENCE.getFieldName(), reference);
+            } else {
+                imageDataValues.put(ImageDataTableFields.COLUMN_IMAGE.getFieldName(), image);
+            }
             imageDataValues.put(ImageDataTableFields.COLUMN_THUMBNAIL.getFieldName(), thumb);
             long imageDataId = sqliteDatabase.insertOrThrow(TABLE_IMAGE_DATA, null, imageDataValues);
 
@@ -170,6 +207,10 @@ public class DaoImages implements IImagesDbHelper {
             values.put(ImageTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
             values.put(ImageTableFields.COLUMN_NOTE_ID.getFieldName(), noteId);
             long imageId = sqliteDatabase.insertOrThrow(TABLE_IMAGES, null, values);
+            if (noteId < 0) {
+                // only standalone images are searched, the others through their note
+                DaoSearchIndex.indexImage(sqliteDatabase, imageId, text);
+            }
 
             sqliteDatabase.setTransactionSuccessful();
 
@@ -190,6 +231,7 @@ public class DaoImages implements IImagesDbHelper {
      */
     public static void deleteImages(long... ids) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<String> references = new ArrayList<>();
         sqliteDatabase.beginTransaction();
         try {
             String[] asColumnsToReturn = {ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()};
@@ -224,6 +266,9 @@ public class DaoImages implements IImagesDbHelper {
                 SQLiteStatement deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            if (imageDataIdsWhereStr.length() > 0)
+                references.addAll(getReferences(sqliteDatabase, imageDataIdsWhereStr));
+
             // delete images data
             query = "delete from " + TABLE_IMAGE_DATA + " where " + imageDataIdsWhereStr;
             deleteStmt = sqliteDatabase.compileStatement(query);
@@ -236,6 +281,110 @@ public class DaoImages implements IImagesDbHelper {
         } finally {
             sqliteDatabase.endTransaction();
         }
+        deleteUnreferencedFiles(sqliteDatabase, references);
+    }
+
+    private static List<String> getReferences(SQLiteDatabase sqliteDatabase, String imageDataIdsWhereStr) {
+        String referenceField = ImageDataTableFields.COLUMN_REFERENCE.getFieldName();
+        List<String> references = new ArrayList<>();
+        String query = "SELECT DISTINCT " + referenceField + " FROM " + TABLE_IMAGE_DATA + " WHERE " + referenceField +
+                " IS NOT NULL AND (" + imageDataIdsWhereStr + ")";
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            while (c.moveToNext()) {
+                references.add(c.getString(0));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Remove the stored files that are no longer referenced, once the image data have been deleted.
+     */
+    private static void deleteUnreferencedFiles(SQLiteDatabase sqliteDatabase, List<String> references) {
+        String query = "SELECT count(*) FROM " + TABLE_IMAGE_DATA + " WHERE " +
+                ImageDataTableFields.COLUMN_REFERENCE.getFieldName() + " = ?";
+        for (String reference : references) {
+            try (Cursor c = sqliteDatabase.rawQuery(query, new String[]{reference})) {
+                if (c.moveToFirst() && c.getInt(0) == 0) {
+                    File file = ImageFileStore.getFile(sqliteDatabase, reference);
+                    if (file.exists() && !file.delete())
+                        GPLog.addLogEntry("DAOIMAGES", "Unable to delete stored image: " + file);
+                }
+            } catch (Exception e) {
+                GPLog.error("DAOIMAGES", e.getLocalizedMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Get a project database that can be shared on its own.
+     *
+     * <p>If images are kept in the {@link ImageFileStore}, the database is copied in the given
+     * folder and their data are written back in the copy, since the store does not travel
+     * with the database file. Else the project database itself is returned.</p>
+     *
+     * @param outputFolder the folder in which to create the copy, if needed.
+     * @return the database file to share.
+     * @throws IOException if something goes wrong.
+     */
+    public static File getPortableDatabase(File outputFolder) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        File databaseFile = new File(sqliteDatabase.getPath());
+        String referenceField = ImageDataTableFields.COLUMN_REFERENCE.getFieldName();
+        String countQuery = "SELECT count(*) FROM " + TABLE_IMAGE_DATA + " WHERE " + referenceField + " IS NOT NULL";
+        try (Cursor c = sqliteDatabase.rawQuery(countQuery, null)) {
+            if (!c.moveToFirst() || c.getInt(0) == 0)
+                return databaseFile;
+        }
+
+        File portableFile = new File(outputFolder, databaseFile.getName());
+        File walFile = new File(databaseFile.getPath() + "-wal");
+        File portableWalFile = new File(portableFile.getPath() + "-wal");
+        // the transaction keeps other writers out while copying
+        sqliteDatabase.beginTransaction();
+        try {
+            FileUtilities.copyFile(databaseFile, portableFile);
+            if (walFile.exists()) {
+                FileUtilities.copyFile(walFile, portableWalFile);
+            } else if (portableWalFile.exists() && !portableWalFile.delete()) {
+                throw new IOException("Unable to remove the old journal: " + portableWalFile);
+            }
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+
+        String idField = ImageDataTableFields.COLUMN_ID.getFieldName();
+        String query = "SELECT " + idField + ", " + referenceField + " FROM " + TABLE_IMAGE_DATA + " WHERE " +
+                referenceField + " IS NOT NULL";
+        String update = "UPDATE " + TABLE_IMAGE_DATA + " SET " + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + " = ?, " +
+                referenceField + " = NULL WHERE " + idField + " = ?";
+        SQLiteDatabase portableDatabase = SQLiteDatabase.openDatabase(portableFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            portableDatabase.beginTransaction();
+            try (Cursor c = portableDatabase.rawQuery(query, null);
+                 SQLiteStatement statement = portableDatabase.compileStatement(update)) {
+                while (c.moveToNext()) {
+                    File file = ImageFileStore.getFile(sqliteDatabase, c.getString(1));
+                    statement.bindBlob(1, FileUtilities.readFileToByte(file));
+                    statement.bindLong(2, c.getLong(0));
+                    statement.executeUpdateDelete();
+                }
+                portableDatabase.setTransactionSuccessful();
+            } finally {
+                portableDatabase.endTransaction();
+            }
+        } catch (IOException e) {
+            portableDatabase.close();
+            portableFile.delete();
+            throw e;
+        } catch (Exception e) {
+            portableDatabase.close();
+            portableFile.delete();
+            throw new IOException(e.getLocalizedMessage());
+        }
+        // closing the last connection also merges the journal into the file
+        portableDatabase.close();
+        return portableFile;
     }
 
     /**
@@ -246,6 +395,7 @@ public class DaoImages implements IImagesDbHelper {
      */
     public static void deleteImagesForNotes(long... noteIds) throws IOException {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        List<String> references = new ArrayList<>();
         sqliteDatabase.beginTransaction();
         try {
             String[] asColumnsToReturn = {ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()};
@@ -280,6 +430,9 @@ public class DaoImages implements IImagesDbHelper {
             SQLiteStatement deleteStmt = sqliteDatabase.compileStatement(query);
             deleteStmt.execute();
 
+            if (imageDataIdsWhereStr.length() > 0)
+                references.addAll(getReferences(sqliteDatabase, imageDataIdsWhereStr));
+
             // delete images data
             query = "delete from " + TABLE_IMAGE_DATA + " where " + imageDataIdsWhereStr;
             deleteStmt = sqliteDatabase.compileStatement(query);
@@ -292,6 +445,7 @@ public class DaoImages implements IImagesDbHelper {
         } finally {
             sqliteDatabase.endTransaction();
         }
+        deleteUnreferencedFiles(sqliteDatabase, references);
     }
 
 
@@ -379,6 +533,7 @@ public class DaoImages implements IImagesDbHelper {
             whereString = whereString + ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0";
         }
 
+        long start = Metrics.INSTANCE.startTimer();
         Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereString, null, null, null, strSortOrder);
         c.moveToFirst();
         while (!c.isAfterLast()) {
@@ -397,6 +552,7 @@ public class DaoImages implements IImagesDbHelper {
             c.moveToNext();
         }
         c.close();
+        Metrics.INSTANCE.stopTimer("dao.images.list", start);//NON-NLS
         return images;
     }
 
@@ -463,6 +619,11 @@ public class DaoImages implements IImagesDbHelper {
         if (sqliteDatabase == null) {
             sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
         }
+        String reference = getReference(sqliteDatabase, imageDataId);
+        if (reference != null) {
+            return FileUtilities.readFileToByte(ImageFileStore.getFile(sqliteDatabase, reference));
+        }
+
         String[] asColumnsToReturn;
         String whereStr;
         Cursor c;
@@ -479,57 +640,73 @@ public class DaoImages implements IImagesDbHelper {
                 imageData = c.getBlob(0);
             }
         } catch (Exception ex) {
-//            if (ex.getLocalizedMessage().contains("Couldn't read row")) {
-              try{
-                String sizeQuery = "SELECT " + ImageDataTableFields.COLUMN_ID.getFieldName() +//
-                        ", length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") " +//
-                        "FROM " + TABLE_IMAGE_DATA +//
-                        " WHERE " + whereStr;
-                //"length(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + ") > 1000000";
-                Cursor sizeCursor = sqliteDatabase.rawQuery(sizeQuery, null);
-                sizeCursor.moveToFirst();
-                long blobSize = 0;
-                if (!sizeCursor.isAfterLast()) {
-                    blobSize = sizeCursor.getLong(1);
-                }
-                sizeCursor.close();
-
-                ByteArrayOutputStream bout = new ByteArrayOutputStream();
-
-                int maxBlobSize = ImageUtilities.MAXBLOBSIZE;
-                if (blobSize > maxBlobSize) {
-                    for (long i = 1; i <= blobSize; i = i + maxBlobSize) {
-                        long from = i;
-                        long size = maxBlobSize;
-                        if (from + size > blobSize) {
-                            size = blobSize - from + 1;
-                        }
-                        String tmpQuery = "SELECT substr(" + ImageDataTableFields.COLUMN_IMAGE.getFieldName() + //
-                                "," + from + ", " + size + ") FROM " + TABLE_IMAGE_DATA + " WHERE " + whereStr;
-                        if (GPLog.LOG_HEAVY)
-                            GPLog.addLogEntry(this, "ISSUE QUERY: " + tmpQuery);
-                        Cursor imageCunchCursor = sqliteDatabase.rawQuery(tmpQuery, null);
-                        imageCunchCursor.moveToFirst();
-                        if (!imageCunchCursor.isAfterLast()) {
-                            byte[] blobData = imageCunchCursor.getBlob(0);
-                            bout.write(blobData);
-                        }
-                        imageCunchCursor.close();
+            // larger than the cursor window, read it in chunks straight into the final array
+            try {
+                BlobInputStream blobStream = BlobInputStream.open(sqliteDatabase, TABLE_IMAGE_DATA,
+                        ImageDataTableFields.COLUMN_IMAGE.getFieldName(), ImageDataTableFields.COLUMN_ID.getFieldName(), imageDataId);
+                if (blobStream != null) {
+                    try {
+                        imageData = blobStream.readAll();
+                    } finally {
+                        blobStream.close();
                     }
-                    imageData = bout.toByteArray();
-                    bout.close();
                 }
-            } catch (Exception e){
-                  Throwable throwable = e.initCause(ex);
-                  GPLog.error(this, null, throwable);
+            } catch (Exception e) {
+                Throwable throwable = e.initCause(ex);
+                GPLog.error(this, null, throwable);
             }
-
         } finally {
             c.close();
         }
         return imageData;
     }
 
+    /**
+     * @return the reference to the {@link ImageFileStore} or null if the data are in the db.
+     */
+    private static String getReference(SQLiteDatabase sqliteDatabase, long imageDataId) {
+        String query = "SELECT " + ImageDataTableFields.COLUMN_REFERENCE.getFieldName() + " FROM " + TABLE_IMAGE_DATA +
+                " WHERE " + ImageDataTableFields.COLUMN_ID.getFieldName() + " = " + imageDataId;
+        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+            if (c.moveToFirst())
+                return c.getString(0);
+        }
+        return null;
+    }
+
+    public InputStream getImageDataStream(long imageId) throws IOException {
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        String[] asColumnsToReturn = { //
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName()//
+        };
+        String whereStr = ImageTableFields.COLUMN_ID.getFieldName() + " = " + imageId;
+        Cursor c = sqliteDatabase.query(TABLE_IMAGES, asColumnsToReturn, whereStr, null, null, null, null);
+        long imageDataId = -1;
+        try {
+            if (c.moveToFirst()) {
+                imageDataId = c.getLong(0);
+            }
+        } finally {
+            c.close();
+        }
+
+        if (imageDataId != -1) {
+            return getImageDataStreamById(imageDataId, sqliteDatabase);
+        }
+        return null;
+    }
+
+    public InputStream getImageDataStreamById(long imageDataId, SQLiteDatabase sqliteDatabase) throws IOException {
+        if (sqliteDatabase == null) {
+            sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        }
+        String reference = getReference(sqliteDatabase, imageDataId);
+        if (reference != null) {
+            return new FileInputStream(ImageFileStore.getFile(sqliteDatabase, reference));
+        }
+        return BlobInputStream.open(sqliteDatabase, TABLE_IMAGE_DATA, ImageDataTableFields.COLUMN_IMAGE.getFieldName(),
+                ImageDataTableFields.COLUMN_ID.getFieldName(), imageDataId);
+    }
 
     public byte[] getImageThumbnail(long imageId) throws Exception {
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
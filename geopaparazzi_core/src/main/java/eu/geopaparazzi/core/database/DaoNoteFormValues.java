@@ -0,0 +1,216 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.forms.FormUtilities;
+import eu.geopaparazzi.library.forms.TagsManager;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
+
+/**
+ * The form values of the notes, extracted from the form json to be queried in sql.
+ *
+ * <p>There is one row per form item that has a value. Numeric values are also kept
+ * in {@link #COLUMN_VALUE_NUM}, so that for example all notes with a given species
+ * and a dbh above 30 are:</p>
+ *
+ * <pre>
+ * SELECT note_id FROM note_form_values WHERE key = 'species' AND value_text = ?
+ * INTERSECT
+ * SELECT note_id FROM note_form_values WHERE key = 'dbh' AND value_num &gt; 30
+ * </pre>
+ *
+ * <p>The rows are written by {@link DaoNotes} together with the form and removed by trigger
+ * when the note is deleted.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DaoNoteFormValues {
+
+    /**
+     * The form values table name.
+     */
+    public static final String TABLE_NOTE_FORM_VALUES = "note_form_values";
+    public static final String COLUMN_NOTE_ID = "note_id";
+    public static final String COLUMN_FORM = "form";
+    public static final String COLUMN_KEY = "key";
+    public static final String COLUMN_TYPE = "type";
+    public static final String COLUMN_VALUE_TEXT = "value_text";
+    public static final String COLUMN_VALUE_NUM = "value_num";
+
+    private static final String INSERT_QUERY = "INSERT INTO " + TABLE_NOTE_FORM_VALUES + " (" + COLUMN_NOTE_ID + ", " +
+            COLUMN_FORM + ", " + COLUMN_KEY + ", " + COLUMN_TYPE + ", " + COLUMN_VALUE_TEXT + ", " + COLUMN_VALUE_NUM +
+            ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Create and fill the form values table, if it does not exist yet.
+     *
+     * <p>Databases created with older versions are filled the first time they are opened.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void checkTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        if (!DatabaseManager.existsTable(sqliteDatabase, TABLE_NOTES) || DatabaseManager.existsTable(sqliteDatabase, TABLE_NOTE_FORM_VALUES)) {
+            return;
+        }
+        if (GPLog.LOG_HEAVY)
+            Log.i("DAONOTEFORMVALUES", "Create the note form values table.");
+
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL("CREATE TABLE " + TABLE_NOTE_FORM_VALUES + " (" +
+                    COLUMN_NOTE_ID + " INTEGER NOT NULL, " +
+                    COLUMN_FORM + " TEXT, " +
+                    COLUMN_KEY + " TEXT NOT NULL, " +
+                    COLUMN_TYPE + " TEXT, " +
+                    COLUMN_VALUE_TEXT + " TEXT, " +
+                    COLUMN_VALUE_NUM + " REAL)");
+            sqliteDatabase.execSQL("CREATE INDEX note_form_values_noteid_idx ON " + TABLE_NOTE_FORM_VALUES +
+                    " ( " + COLUMN_NOTE_ID + " )");
+            sqliteDatabase.execSQL("CREATE INDEX note_form_values_key_text_idx ON " + TABLE_NOTE_FORM_VALUES +
+                    " ( " + COLUMN_KEY + ", " + COLUMN_VALUE_TEXT + " )");
+            sqliteDatabase.execSQL("CREATE INDEX note_form_values_key_num_idx ON " + TABLE_NOTE_FORM_VALUES +
+                    " ( " + COLUMN_KEY + ", " + COLUMN_VALUE_NUM + " )");
+            sqliteDatabase.execSQL("CREATE TRIGGER " + TABLE_NOTE_FORM_VALUES + "_delete AFTER DELETE ON " + TABLE_NOTES +
+                    " BEGIN DELETE FROM " + TABLE_NOTE_FORM_VALUES + " WHERE " + COLUMN_NOTE_ID + " = old." +
+                    NotesTableFields.COLUMN_ID.getFieldName() + "; END");
+
+            SQLiteStatement insertStatement = sqliteDatabase.compileStatement(INSERT_QUERY);
+            String formField = NotesTableFields.COLUMN_FORM.getFieldName();
+            String query = "SELECT " + NotesTableFields.COLUMN_ID.getFieldName() + ", " + formField + " FROM " + TABLE_NOTES +
+                    " WHERE " + formField + " IS NOT NULL AND length(" + formField + ") > 0";
+            Cursor c = sqliteDatabase.rawQuery(query, null);
+            try {
+                while (c.moveToNext()) {
+                    insertValues(insertStatement, c.getLong(0), c.getString(1));
+                }
+            } finally {
+                c.close();
+                insertStatement.close();
+            }
+
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e("DAONOTEFORMVALUES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Replace the values of a note with the ones of its form.
+     *
+     * <p>To be called inside the transaction that writes the form.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @param noteId         the id of the note.
+     * @param form           the json form or <code>null</code>.
+     */
+    static void updateValues(SQLiteDatabase sqliteDatabase, long noteId, String form) {
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTE_FORM_VALUES + " WHERE " + COLUMN_NOTE_ID + " = ?",
+                new Object[]{noteId});
+        if (form == null || form.trim().length() == 0)
+            return;
+        SQLiteStatement insertStatement = sqliteDatabase.compileStatement(INSERT_QUERY);
+        try {
+            insertValues(insertStatement, noteId, form);
+        } finally {
+            insertStatement.close();
+        }
+    }
+
+    private static void insertValues(SQLiteStatement insertStatement, long noteId, String form) {
+        JSONArray formsArray;
+        try {
+            JSONObject sectionObject = new JSONObject(form);
+            if (!sectionObject.has(FormUtilities.ATTR_FORMS))
+                return;
+            formsArray = sectionObject.getJSONArray(FormUtilities.ATTR_FORMS);
+        } catch (Exception e) {
+            GPLog.error("DAONOTEFORMVALUES", "Unable to read the form of note " + noteId, e);
+            return;
+        }
+
+        for (int i = 0; i < formsArray.length(); i++) {
+            JSONObject formObject = formsArray.optJSONObject(i);
+            if (formObject == null)
+                continue;
+            String formName = formObject.optString(FormUtilities.ATTR_FORMNAME, null);
+            JSONArray formItems;
+            try {
+                formItems = TagsManager.getFormItems(formObject);
+            } catch (Exception e) {
+                GPLog.error("DAONOTEFORMVALUES", "Unable to read the form items of note " + noteId, e);
+                continue;
+            }
+            for (int j = 0; j < formItems.length(); j++) {
+                JSONObject formItem = formItems.optJSONObject(j);
+                if (formItem == null || !formItem.has(FormUtilities.TAG_KEY) || !formItem.has(FormUtilities.TAG_VALUE))
+                    continue;
+                Object value = formItem.opt(FormUtilities.TAG_VALUE);
+                if (value == null || value == JSONObject.NULL || value instanceof JSONObject || value instanceof JSONArray)
+                    continue;
+                String valueText = value.toString();
+                if (valueText.length() == 0)
+                    continue;
+                String type = formItem.optString(FormUtilities.TAG_TYPE, null);
+
+                insertStatement.clearBindings();
+                insertStatement.bindLong(1, noteId);
+                if (formName != null)
+                    insertStatement.bindString(2, formName);
+                insertStatement.bindString(3, formItem.optString(FormUtilities.TAG_KEY));
+                if (type != null)
+                    insertStatement.bindString(4, type);
+                insertStatement.bindString(5, valueText);
+                Double valueNum = toNumber(value, type);
+                if (valueNum != null)
+                    insertStatement.bindDouble(6, valueNum);
+                insertStatement.executeInsert();
+            }
+        }
+    }
+
+    private static Double toNumber(Object value, String type) {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        if (FormUtilities.TYPE_DOUBLE.equals(type) || FormUtilities.TYPE_INTEGER.equals(type)) {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -33,6 +33,7 @@ import eu.geopaparazzi.library.database.ANote;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.INotesDbHelper;
 import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.library.util.debug.Metrics;
 
 import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
 import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
@@ -179,6 +180,8 @@ public class DaoNotes implements INotesDbHelper {
             values.put(NotesTableFields.COLUMN_STYLE.getFieldName(), style);
         values.put(NotesTableFields.COLUMN_ISDIRTY.getFieldName(), 1);
         long noteId = sqliteDatabase.insertOrThrow(TABLE_NOTES, null, values);
+        DaoSearchIndex.indexNote(sqliteDatabase, noteId, form);
+        DaoNoteFormValues.updateValues(sqliteDatabase, noteId, form);
         return noteId;
     }
 
@@ -270,8 +273,19 @@ public class DaoNotes implements INotesDbHelper {
         String[] whereArgs = null;
 
         SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            DaoSearchIndex.indexNote(sqliteDatabase, id, jsonStr);
+            DaoNoteFormValues.updateValues(sqliteDatabase, id, jsonStr);
 
-        sqliteDatabase.update(TABLE_NOTES, updatedValues, where, whereArgs);
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            GPLog.error("DAONOTES", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
     }
 
     /**
@@ -307,17 +321,23 @@ public class DaoNotes implements INotesDbHelper {
                 ", " +//
                 NotesTableFields.COLUMN_ISDIRTY.getFieldName() +//
                 " FROM " + TABLE_NOTES;
+        String[] args = null;
+        String where = null;
         if (nswe != null) {
-            query = query + " WHERE (lon BETWEEN XXX AND XXX) AND (lat BETWEEN XXX AND XXX)";
-            query = query.replaceFirst("XXX", String.valueOf(nswe[2]));
-            query = query.replaceFirst("XXX", String.valueOf(nswe[3]));
-            query = query.replaceFirst("XXX", String.valueOf(nswe[1]));
-            query = query.replaceFirst("XXX", String.valueOf(nswe[0]));
+            // bound parameters, so that the lon/lat index is used and the statement is cached
+            where = "(" + NotesTableFields.COLUMN_LON.getFieldName() + " BETWEEN ? AND ?) AND (" +
+                    NotesTableFields.COLUMN_LAT.getFieldName() + " BETWEEN ? AND ?)";
+            args = new String[]{String.valueOf(nswe[2]), String.valueOf(nswe[3]), String.valueOf(nswe[1]), String.valueOf(nswe[0])};
         }
-        if (onlyDirty)
-            query = query + " AND " + NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = 1";
+        if (onlyDirty) {
+            String dirtyWhere = NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = 1";
+            where = where == null ? dirtyWhere : where + " AND " + dirtyWhere;
+        }
+        if (where != null)
+            query = query + " WHERE " + where;
 
-        Cursor c = sqliteDatabase.rawQuery(query, null);
+        long start = Metrics.INSTANCE.startTimer();
+        Cursor c = sqliteDatabase.rawQuery(query, args);
         List<Note> notes = new ArrayList<>();
         c.moveToFirst();
         while (!c.isAfterLast()) {
@@ -337,6 +357,7 @@ public class DaoNotes implements INotesDbHelper {
             c.moveToNext();
         }
         c.close();
+        Metrics.INSTANCE.stopTimer("dao.notes.list", start);//NON-NLS
         return notes;
     }
 
@@ -0,0 +1,232 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.forms.FormUtilities;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.ImageTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_IMAGES;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
+
+/**
+ * Full text search index over the notes and the standalone images.
+ *
+ * <p>The index is made of two FTS4 tables, whose docid is the id of the indexed note or image.
+ * Rows are written by the DAOs on insert and update, since the form values need to be extracted
+ * from the json, while deletes are handled by triggers.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class DaoSearchIndex {
+
+    /**
+     * The notes search table name.
+     */
+    public static final String TABLE_NOTES_FTS = "notes_fts";
+    /**
+     * The images search table name.
+     */
+    public static final String TABLE_IMAGES_FTS = "images_fts";
+    /**
+     * The column holding the flattened form values.
+     */
+    public static final String COLUMN_FORMVALUES = "formvalues";
+
+    private static final String TOKENIZER = "tokenize=unicode61 \"remove_diacritics=1\"";
+
+    /**
+     * Create and fill the search tables, if they do not exist yet.
+     *
+     * <p>Databases created with older versions are indexed the first time they are opened.</p>
+     *
+     * @param sqliteDatabase the database to use.
+     * @throws IOException if something goes wrong.
+     */
+    public static void checkTables(SQLiteDatabase sqliteDatabase) throws IOException {
+        if (!DatabaseManager.existsTable(sqliteDatabase, TABLE_NOTES) || !DatabaseManager.existsTable(sqliteDatabase, TABLE_IMAGES)
+                || DatabaseManager.existsTable(sqliteDatabase, TABLE_NOTES_FTS)) {
+            return;
+        }
+        if (GPLog.LOG_HEAVY)
+            Log.i("DAOSEARCHINDEX", "Create the search index.");
+
+        String noteIdField = NotesTableFields.COLUMN_ID.getFieldName();
+        String noteTextField = NotesTableFields.COLUMN_TEXT.getFieldName();
+        String noteDescriptionField = NotesTableFields.COLUMN_DESCRIPTION.getFieldName();
+        String imageIdField = ImageTableFields.COLUMN_ID.getFieldName();
+        String imageTextField = ImageTableFields.COLUMN_TEXT.getFieldName();
+
+        sqliteDatabase.beginTransaction();
+        try {
+            sqliteDatabase.execSQL("CREATE VIRTUAL TABLE " + TABLE_NOTES_FTS + " USING fts4(" +
+                    noteTextField + ", " + noteDescriptionField + ", " + COLUMN_FORMVALUES + ", " + TOKENIZER + ")");
+            sqliteDatabase.execSQL("CREATE VIRTUAL TABLE " + TABLE_IMAGES_FTS + " USING fts4(" +
+                    imageTextField + ", " + TOKENIZER + ")");
+            sqliteDatabase.execSQL("CREATE TRIGGER " + TABLE_NOTES_FTS + "_delete AFTER DELETE ON " + TABLE_NOTES +
+                    " BEGIN DELETE FROM " + TABLE_NOTES_FTS + " WHERE docid = old." + noteIdField + "; END");
+            sqliteDatabase.execSQL("CREATE TRIGGER " + TABLE_IMAGES_FTS + "_delete AFTER DELETE ON " + TABLE_IMAGES +
+                    " BEGIN DELETE FROM " + TABLE_IMAGES_FTS + " WHERE docid = old." + imageIdField + "; END");
+
+            SQLiteStatement insertStatement = sqliteDatabase.compileStatement("INSERT INTO " + TABLE_NOTES_FTS +
+                    " (docid, " + noteTextField + ", " + noteDescriptionField + ", " + COLUMN_FORMVALUES + ") VALUES (?, ?, ?, ?)");
+            String query = "SELECT " + noteIdField + ", " + noteTextField + ", " + noteDescriptionField + ", " +
+                    NotesTableFields.COLUMN_FORM.getFieldName() + " FROM " + TABLE_NOTES;
+            Cursor c = sqliteDatabase.rawQuery(query, null);
+            try {
+                while (c.moveToNext()) {
+                    insertStatement.bindLong(1, c.getLong(0));
+                    bindStringOrNull(insertStatement, 2, c.getString(1));
+                    bindStringOrNull(insertStatement, 3, c.getString(2));
+                    bindStringOrNull(insertStatement, 4, flattenForm(c.getString(3)));
+                    insertStatement.executeInsert();
+                }
+            } finally {
+                c.close();
+                insertStatement.close();
+            }
+
+            sqliteDatabase.execSQL("INSERT INTO " + TABLE_IMAGES_FTS + " (docid, " + imageTextField + ") SELECT " +
+                    imageIdField + ", " + imageTextField + " FROM " + TABLE_IMAGES + " WHERE " +
+                    ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0");
+
+            sqliteDatabase.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e("DAOSEARCHINDEX", e.getLocalizedMessage(), e);
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            sqliteDatabase.endTransaction();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Index or re-index a note, taking text and description from the notes table.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param noteId         the id of the note.
+     * @param form           the json form of the note or <code>null</code>.
+     */
+    static void indexNote(SQLiteDatabase sqliteDatabase, long noteId, String form) {
+        String id = String.valueOf(noteId);
+        sqliteDatabase.execSQL("DELETE FROM " + TABLE_NOTES_FTS + " WHERE docid = ?", new Object[]{id});
+        sqliteDatabase.execSQL("INSERT INTO " + TABLE_NOTES_FTS + " (docid, " +
+                        NotesTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                        NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", " + COLUMN_FORMVALUES + ") SELECT " +
+                        NotesTableFields.COLUMN_ID.getFieldName() + ", " +
+                        NotesTableFields.COLUMN_TEXT.getFieldName() + ", " +
+                        NotesTableFields.COLUMN_DESCRIPTION.getFieldName() + ", ? FROM " + TABLE_NOTES +
+                        " WHERE " + NotesTableFields.COLUMN_ID.getFieldName() + " = ?",
+                new Object[]{flattenForm(form), id});
+    }
+
+    /**
+     * Index a standalone image.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param imageId        the id of the image.
+     * @param name           the image name.
+     */
+    static void indexImage(SQLiteDatabase sqliteDatabase, long imageId, String name) {
+        sqliteDatabase.execSQL("INSERT INTO " + TABLE_IMAGES_FTS + " (docid, " +
+                ImageTableFields.COLUMN_TEXT.getFieldName() + ") VALUES (?, ?)", new Object[]{imageId, name});
+    }
+
+    /**
+     * Get the values of a form as a single text.
+     *
+     * @param form the json form.
+     * @return the space separated values or <code>null</code>.
+     */
+    public static String flattenForm(String form) {
+        if (form == null || form.trim().length() == 0)
+            return null;
+        try {
+            StringBuilder sb = new StringBuilder();
+            collectValues(new JSONObject(form), sb);
+            return sb.length() > 0 ? sb.toString() : null;
+        } catch (Exception e) {
+            GPLog.error("DAOSEARCHINDEX", "Unable to read form values.", e);
+            return null;
+        }
+    }
+
+    private static void collectValues(Object object, StringBuilder sb) throws Exception {
+        if (object instanceof JSONObject) {
+            JSONObject jsonObject = (JSONObject) object;
+            Iterator<String> keys = jsonObject.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = jsonObject.get(key);
+                if (key.equals(FormUtilities.TAG_VALUE) && !(value instanceof JSONObject) && !(value instanceof JSONArray)) {
+                    String valueStr = value.toString().trim();
+                    if (valueStr.length() > 0)
+                        sb.append(valueStr).append(' ');
+                } else {
+                    collectValues(value, sb);
+                }
+            }
+        } else if (object instanceof JSONArray) {
+            JSONArray jsonArray = (JSONArray) object;
+            for (int i = 0; i < jsonArray.length(); i++) {
+                collectValues(jsonArray.get(i), sb);
+            }
+        }
+    }
+
+    /**
+     * Convert a user filter to a prefix match query, each word has to match.
+     *
+     * @param filter the text typed by the user.
+     * @return the query for MATCH or <code>null</code> if there is nothing to search.
+     */
+    public static String toMatchQuery(String filter) {
+        if (filter == null)
+            return null;
+        StringBuilder sb = new StringBuilder();
+        for (String token : filter.trim().split("\\s+")) {
+            token = token.replace("\"", "");
+            if (token.length() == 0)
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append('"').append(token).append("*\"");
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+}
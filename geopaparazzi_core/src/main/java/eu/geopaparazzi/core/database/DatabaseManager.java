@@ -18,6 +18,7 @@
 package eu.geopaparazzi.core.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 
@@ -101,6 +102,22 @@ public class DatabaseManager {
         databaseHelper = null;
     }
 
+    /**
+     * Check if a table exists.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param tableName      the name of the table.
+     * @return <code>true</code> if the table exists.
+     */
+    static boolean existsTable(SQLiteDatabase sqliteDatabase, String tableName) {
+        Cursor c = sqliteDatabase.rawQuery("SELECT count(*) FROM sqlite_master WHERE name = ?", new String[]{tableName});
+        try {
+            return c.moveToFirst() && c.getInt(0) > 0;
+        } finally {
+            c.close();
+        }
+    }
+
     private static class DatabaseOpenHelper {
         private SQLiteDatabase db;
 
@@ -127,6 +144,9 @@ public class DatabaseManager {
                 db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
                 create(context);
             }
+            DaoSearchIndex.checkTables(db);
+            DaoNoteFormValues.checkTables(db);
+            DaoImages.checkTables(db);
         }
 
         public void close() {
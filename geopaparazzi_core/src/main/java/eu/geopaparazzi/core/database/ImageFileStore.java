@@ -0,0 +1,123 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import eu.geopaparazzi.library.util.FileUtilities;
+
+/**
+ * Content addressed store of the image data, kept in files beside the project database.
+ *
+ * <p>Each image is written once in a file named after the SHA-256 of its content, inside
+ * a subfolder named after the first two hex digits, so that equal images share the same file.
+ * The database keeps only the reference, as returned by {@link #store(SQLiteDatabase, byte[])}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ImageFileStore {
+    /**
+     * The prefix of the references to the stored files.
+     */
+    public static final String REFERENCE_PREFIX = "sha256:";
+    private static final String FOLDER_POSTFIX = "_images";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Get the store folder of a project database.
+     *
+     * @param sqliteDatabase the project database.
+     * @return the folder, which might not exist yet.
+     */
+    public static File getStoreFolder(SQLiteDatabase sqliteDatabase) {
+        File databaseFile = new File(sqliteDatabase.getPath());
+        String name = FileUtilities.getNameWithoutExtention(databaseFile);
+        return new File(databaseFile.getParentFile(), name + FOLDER_POSTFIX);
+    }
+
+    /**
+     * Write the data in the store, if not already there.
+     *
+     * @param sqliteDatabase the project database.
+     * @param data           the image data.
+     * @return the reference to keep in the database.
+     * @throws IOException if something goes wrong.
+     */
+    public static String store(SQLiteDatabase sqliteDatabase, byte[] data) throws IOException {
+        String hash = sha256(data);
+        File file = getFile(getStoreFolder(sqliteDatabase), hash);
+        if (!file.exists() || file.length() != data.length) {
+            File folder = file.getParentFile();
+            if (!folder.exists() && !folder.mkdirs())
+                throw new IOException("Unable to create the image store folder: " + folder);
+            // write aside and rename, so that a file with the hash name is always complete
+            File tmpFile = new File(folder, hash + ".tmp");
+            try (FileOutputStream fout = new FileOutputStream(tmpFile)) {
+                fout.write(data);
+                fout.getFD().sync();
+            }
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+                throw new IOException("Unable to write the image to the store: " + file);
+            }
+        }
+        return REFERENCE_PREFIX + hash;
+    }
+
+    /**
+     * Get the file of a stored image.
+     *
+     * @param sqliteDatabase the project database.
+     * @param reference      the reference returned by {@link #store(SQLiteDatabase, byte[])}.
+     * @return the file.
+     * @throws IOException if the reference is not valid.
+     */
+    public static File getFile(SQLiteDatabase sqliteDatabase, String reference) throws IOException {
+        if (reference == null || !reference.startsWith(REFERENCE_PREFIX))
+            throw new IOException("Not an image store reference: " + reference);
+        String hash = reference.substring(REFERENCE_PREFIX.length());
+        if (hash.length() != 64)
+            throw new IOException("Not an image store reference: " + reference);
+        return getFile(getStoreFolder(sqliteDatabase), hash);
+    }
+
+    private static File getFile(File storeFolder, String hash) {
+        return new File(new File(storeFolder, hash.substring(0, 2)), hash);
+    }
+
+    private static String sha256(byte[] data) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+                chars[i * 2 + 1] = HEX[digest[i] & 0x0F];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.objects.Note;
+import eu.geopaparazzi.library.database.ANote;
+import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.util.debug.Metrics;
+
+import static eu.geopaparazzi.library.database.TableDescriptions.ImageTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.NotesTableFields;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_IMAGES;
+import static eu.geopaparazzi.library.database.TableDescriptions.TABLE_NOTES;
+
+/**
+ * Pages through the notes and the standalone images, sorted in sql.
+ *
+ * <p>Pages are read with keyset pagination on (sort key, kind, id), so every page costs the same
+ * whatever its position. Only the columns needed by a list are read: the returned notes have
+ * no form, which has to be read by id when the note is opened.</p>
+ *
+ * <p>The items can be limited to the ones matching a full text search, see {@link DaoSearchIndex}.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class NotesListPager {
+    /**
+     * Sort by timestamp.
+     */
+    public static final int SORT_TIMESTAMP = 0;
+    /**
+     * Sort by name.
+     */
+    public static final int SORT_NAME = 1;
+    /**
+     * Sort by name, descending.
+     */
+    public static final int SORT_NAME_INVERSE = 2;
+    /**
+     * Sort by distance from a point.
+     */
+    public static final int SORT_DISTANCE = 3;
+    /**
+     * Sort by distance from a point, descending.
+     */
+    public static final int SORT_DISTANCE_INVERSE = 4;
+
+    private static final int KIND_NOTE = 0;
+    private static final int KIND_IMAGE = 1;
+
+    private final int sortMode;
+    private final double centerLon;
+    private final double centerLat;
+    private final int pageSize;
+    private final String matchQuery;
+
+    private boolean hasLastKey = false;
+    private String lastSortKey;
+    private int lastKind;
+    private long lastId;
+    private boolean isExhausted = false;
+
+    /**
+     * @param sortMode  one of the SORT_* modes.
+     * @param centerLon the longitude used by the distance sorting.
+     * @param centerLat the latitude used by the distance sorting.
+     * @param pageSize  the number of items per page.
+     */
+    public NotesListPager(int sortMode, double centerLon, double centerLat, int pageSize) {
+        this(sortMode, centerLon, centerLat, pageSize, null);
+    }
+
+    /**
+     * @param sortMode   one of the SORT_* modes.
+     * @param centerLon  the longitude used by the distance sorting.
+     * @param centerLat  the latitude used by the distance sorting.
+     * @param pageSize   the number of items per page.
+     * @param matchQuery an optional full text query, as created by {@link DaoSearchIndex#toMatchQuery(String)}.
+     */
+    public NotesListPager(int sortMode, double centerLon, double centerLat, int pageSize, String matchQuery) {
+        this.sortMode = sortMode;
+        this.centerLon = centerLon;
+        this.centerLat = centerLat;
+        this.pageSize = pageSize;
+        this.matchQuery = matchQuery;
+    }
+
+    /**
+     * @return a new pager over the same items, starting from the first page.
+     */
+    public NotesListPager copy() {
+        return new NotesListPager(sortMode, centerLon, centerLat, pageSize, matchQuery);
+    }
+
+    /**
+     * @return <code>true</code> if all items have been read.
+     */
+    public synchronized boolean isExhausted() {
+        return isExhausted;
+    }
+
+    /**
+     * Read the next page.
+     *
+     * @return the next items, empty when there are no more.
+     * @throws IOException if something goes wrong.
+     */
+    public synchronized List<ANote> nextPage() throws IOException {
+        List<ANote> items = new ArrayList<>();
+        if (isExhausted)
+            return items;
+
+        List<String> args = new ArrayList<>();
+        String notesQuery = getArmQuery(KIND_NOTE, TABLE_NOTES,
+                NotesTableFields.COLUMN_ID.getFieldName(),
+                NotesTableFields.COLUMN_LON.getFieldName(),
+                NotesTableFields.COLUMN_LAT.getFieldName(),
+                NotesTableFields.COLUMN_ALTIM.getFieldName(),
+                "0",
+                NotesTableFields.COLUMN_TEXT.getFieldName(),
+                NotesTableFields.COLUMN_TS.getFieldName(),
+                "-1", "-1", null, DaoSearchIndex.TABLE_NOTES_FTS, args);
+        String imagesQuery = getArmQuery(KIND_IMAGE, TABLE_IMAGES,
+                ImageTableFields.COLUMN_ID.getFieldName(),
+                ImageTableFields.COLUMN_LON.getFieldName(),
+                ImageTableFields.COLUMN_LAT.getFieldName(),
+                ImageTableFields.COLUMN_ALTIM.getFieldName(),
+                ImageTableFields.COLUMN_AZIM.getFieldName(),
+                ImageTableFields.COLUMN_TEXT.getFieldName(),
+                ImageTableFields.COLUMN_TS.getFieldName(),
+                ImageTableFields.COLUMN_NOTE_ID.getFieldName(),
+                ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName(),
+                ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0", DaoSearchIndex.TABLE_IMAGES_FTS, args);
+        String query = "SELECT * FROM (" + notesQuery + ") UNION ALL SELECT * FROM (" + imagesQuery + ")" +
+                getOrderBy() + " LIMIT " + pageSize;
+
+        SQLiteDatabase sqliteDatabase = GeopaparazziApplication.getInstance().getDatabase();
+        long start = Metrics.INSTANCE.startTimer();
+        Cursor c = null;
+        try {
+            c = sqliteDatabase.rawQuery(query, args.toArray(new String[0]));
+            while (c.moveToNext()) {
+                int kind = c.getInt(0);
+                long id = c.getLong(1);
+                double lon = c.getDouble(2);
+                double lat = c.getDouble(3);
+                double altim = c.getDouble(4);
+                double azim = c.getDouble(5);
+                String text = c.getString(6);
+                long ts = c.getLong(7);
+                long noteId = c.getLong(8);
+                long imageDataId = c.getLong(9);
+                if (kind == KIND_NOTE) {
+                    items.add(new Note(id, text, null, ts, lon, lat, altim, null, 0, null));
+                } else {
+                    items.add(new Image(id, text, lon, lat, altim, azim, imageDataId, noteId, ts));
+                }
+
+                hasLastKey = true;
+                lastSortKey = getSortKey(c, 10);
+                lastKind = kind;
+                lastId = id;
+            }
+        } catch (SQLException e) {
+            // also invalid search queries end up here, there is nothing more to read
+            isExhausted = true;
+            throw new IOException(e.getLocalizedMessage());
+        } finally {
+            if (c != null)
+                c.close();
+        }
+        Metrics.INSTANCE.stopTimer("dao.noteslist.page", start);//NON-NLS
+        if (items.size() < pageSize)
+            isExhausted = true;
+        return items;
+    }
+
+    /**
+     * Read the sort key as a string that converts back to the exact same value.
+     */
+    private String getSortKey(Cursor c, int index) {
+        switch (sortMode) {
+            case SORT_NAME:
+            case SORT_NAME_INVERSE:
+                return c.getString(index);
+            case SORT_DISTANCE:
+            case SORT_DISTANCE_INVERSE:
+                return String.valueOf(c.getDouble(index));
+            default:
+                return String.valueOf(c.getLong(index));
+        }
+    }
+
+    private boolean isDescending() {
+        return sortMode == SORT_NAME_INVERSE || sortMode == SORT_DISTANCE_INVERSE;
+    }
+
+    private String getSortExpression(String lonField, String latField, String textField, String tsField) {
+        switch (sortMode) {
+            case SORT_NAME:
+            case SORT_NAME_INVERSE:
+                return textField;
+            case SORT_DISTANCE:
+            case SORT_DISTANCE_INVERSE:
+                String dx = "(" + lonField + " - (" + centerLon + "))";
+                String dy = "(" + latField + " - (" + centerLat + "))";
+                return "(" + dx + " * " + dx + " + " + dy + " * " + dy + ")";
+            default:
+                return tsField;
+        }
+    }
+
+    /**
+     * Wraps the bound key so that it is compared with the sort key as the same type.
+     */
+    private String getKeyParameter() {
+        switch (sortMode) {
+            case SORT_NAME:
+            case SORT_NAME_INVERSE:
+                return "?";
+            case SORT_DISTANCE:
+            case SORT_DISTANCE_INVERSE:
+                return "CAST(? AS REAL)";
+            default:
+                return "CAST(? AS INTEGER)";
+        }
+    }
+
+    private String getOrderBy() {
+        String direction = isDescending() ? " DESC" : " ASC";
+        return " ORDER BY sortkey" + direction + ", kind" + direction + ", id" + direction;
+    }
+
+    /**
+     * Build the query of one table, already limited to the page after the last key.
+     */
+    private String getArmQuery(int kind, String table, String idField, String lonField, String latField, String altimField,
+                               String azimField, String textField, String tsField, String noteIdField, String imageDataIdField,
+                               String where, String ftsTable, List<String> args) {
+        String sortExpression = getSortExpression(lonField, latField, textField, tsField);
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ").append(kind).append(" AS kind, ");
+        sb.append(idField).append(" AS id, ");
+        sb.append(lonField).append(", ").append(latField).append(", ").append(altimField).append(", ");
+        sb.append(azimField).append(", ").append(textField).append(", ").append(tsField).append(", ");
+        sb.append(noteIdField).append(", ").append(imageDataIdField).append(", ");
+        sb.append(sortExpression).append(" AS sortkey");
+        sb.append(" FROM ").append(table);
+
+        List<String> conditions = new ArrayList<>();
+        if (where != null)
+            conditions.add(where);
+        if (matchQuery != null) {
+            conditions.add(idField + " IN (SELECT docid FROM " + ftsTable + " WHERE " + ftsTable + " MATCH ?)");
+            args.add(matchQuery);
+        }
+        if (hasLastKey) {
+            String after = isDescending() ? " < " : " > ";
+            String key = getKeyParameter();
+            if (kind == lastKind) {
+                conditions.add("(" + sortExpression + after + key + " OR (" + sortExpression + " = " + key + " AND " +
+                        idField + after + "?))");
+                args.add(lastSortKey);
+                args.add(lastSortKey);
+                args.add(String.valueOf(lastId));
+            } else {
+                // the kind decides the order on equal keys
+                boolean kindIsAfter = isDescending() ? kind < lastKind : kind > lastKind;
+                conditions.add(sortExpression + (kindIsAfter ? after.trim() + "= " : after) + key);
+                args.add(lastSortKey);
+            }
+        }
+        for (int i = 0; i < conditions.size(); i++) {
+            sb.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+        }
+        String direction = isDescending() ? " DESC" : " ASC";
+        sb.append(" ORDER BY sortkey").append(direction).append(", id").append(direction);
+        sb.append(" LIMIT ").append(pageSize);
+        return sb.toString();
+    }
+}
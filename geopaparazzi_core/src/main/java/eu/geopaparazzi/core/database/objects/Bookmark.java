@@ -17,6 +17,8 @@
  */
 package eu.geopaparazzi.core.database.objects;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
 
@@ -76,23 +78,20 @@ public class Bookmark implements KmlRepresenter {
     }
 
     @SuppressWarnings("nls")
-    public String toKmlString() throws Exception {
+    public void writeKml(Writer writer) throws IOException {
         String name = Utilities.makeXmlSafe(this.name);
-        StringBuilder sB = new StringBuilder();
-        sB.append("<Placemark>\n");
-        // sB.append("<styleUrl>#red-pushpin</styleUrl>\n");
-        sB.append("<styleUrl>#bookmark-icon</styleUrl>\n");
-        sB.append("<name>").append(name).append("</name>\n");
-        sB.append("<description>\n");
-        sB.append(name);
-        sB.append("</description>\n");
-        sB.append("<gx:balloonVisibility>1</gx:balloonVisibility>\n");
-        sB.append("<Point>\n");
-        sB.append("<coordinates>").append(lon).append(",").append(lat).append(",0</coordinates>\n");
-        sB.append("</Point>\n");
-        sB.append("</Placemark>\n");
-
-        return sB.toString();
+        writer.append("<Placemark>\n");
+        // writer.append("<styleUrl>#red-pushpin</styleUrl>\n");
+        writer.append("<styleUrl>#bookmark-icon</styleUrl>\n");
+        writer.append("<name>").append(name).append("</name>\n");
+        writer.append("<description>\n");
+        writer.append(name);
+        writer.append("</description>\n");
+        writer.append("<gx:balloonVisibility>1</gx:balloonVisibility>\n");
+        writer.append("<Point>\n");
+        writer.append("<coordinates>").append(String.valueOf(lon)).append(",").append(String.valueOf(lat)).append(",0</coordinates>\n");
+        writer.append("</Point>\n");
+        writer.append("</Placemark>\n");
     }
 
     /**
@@ -0,0 +1,87 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import eu.geopaparazzi.core.database.DaoGpsLog;
+import eu.geopaparazzi.library.gpx.GpxRepresenter;
+import eu.geopaparazzi.library.gpx.GpxUtilities;
+
+/**
+ * A gps log that writes its gpx representation reading the points straight from the database.
+ *
+ * <p>Only the bounds are kept, so that exporting a log needs the same memory whatever its size.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class GpxLogStream implements GpxRepresenter {
+    private final long logId;
+    private final double minLat;
+    private final double minLon;
+    private final double maxLat;
+    private final double maxLon;
+
+    /**
+     * Constructor.
+     *
+     * @param logId  the id of the log.
+     * @param minLat min lat.
+     * @param minLon min lon.
+     * @param maxLat max lat.
+     * @param maxLon max lon.
+     */
+    public GpxLogStream(long logId, double minLat, double minLon, double maxLat, double maxLon) {
+        this.logId = logId;
+        this.minLat = minLat;
+        this.minLon = minLon;
+        this.maxLat = maxLat;
+        this.maxLon = maxLon;
+    }
+
+    /**
+     * @return the id of the log.
+     */
+    public long getLogId() {
+        return logId;
+    }
+
+    public double getMinLat() {
+        return minLat;
+    }
+
+    public double getMinLon() {
+        return minLon;
+    }
+
+    public double getMaxLat() {
+        return maxLat;
+    }
+
+    public double getMaxLon() {
+        return maxLon;
+    }
+
+    public void writeGpx(Writer writer) throws IOException {
+        GpxUtilities.writeTrackStart(writer, "log_" + logId);
+        DaoGpsLog.writeGpxTrackPoints(logId, writer);
+        GpxUtilities.writeTrackEnd(writer);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.core.database.objects;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import eu.geopaparazzi.core.database.DaoGpsLog;
+import eu.geopaparazzi.library.kml.KmlStreamRepresenter;
+import eu.geopaparazzi.library.style.ColorUtilities;
+import eu.geopaparazzi.library.util.Utilities;
+
+/**
+ * A gps log that writes its kml placemark reading the points straight from the database.
+ *
+ * <p>Only the style is kept, so that exporting a log needs the same memory whatever its size.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class KmlLogStream implements KmlStreamRepresenter {
+    private final long logId;
+    private final String name;
+    private final String color;
+    private final float width;
+
+    /**
+     * Constructor.
+     *
+     * @param logId the id of the log.
+     * @param name  the name of the log.
+     * @param color the color of the log.
+     * @param width the width of the log.
+     */
+    public KmlLogStream(long logId, String name, String color, float width) {
+        this.logId = logId;
+        this.name = name;
+        this.color = color;
+        this.width = width;
+    }
+
+    /**
+     * @return the id of the log.
+     */
+    public long getLogId() {
+        return logId;
+    }
+
+    public void writeKml(Writer writer) throws IOException {
+        String placemarkStart = "<Placemark>\n" +
+                "<name>" + Utilities.makeXmlSafe(name) + "</name>\n" +
+                "<visibility>1</visibility>\n" +
+                "<LineString>\n" +
+                "<tessellate>1</tessellate>\n" +
+                "<coordinates>\n";
+        String placemarkEnd = "</coordinates>\n" +
+                "</LineString>\n" +
+                "<Style>\n" +
+                "<LineStyle>\n" +
+                "<color>#" + Integer.toHexString(ColorUtilities.toColor(color)) + "</color>\n" +
+                "<width>" + width + "</width>\n" +
+                "</LineStyle>\n" +
+                "</Style>\n" +
+                "</Placemark>\n";
+        DaoGpsLog.writeKmlCoordinates(logId, writer, placemarkStart, placemarkEnd);
+    }
+
+    public boolean hasImages() {
+        return false;
+    }
+
+    @Override
+    public List<String> getImageIds() {
+        return Collections.emptyList();
+    }
+}
@@ -19,10 +19,11 @@ package eu.geopaparazzi.core.database.objects;
 
 import android.location.Location;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 
 import eu.geopaparazzi.library.gpx.GpxRepresenter;
@@ -30,7 +31,6 @@ import eu.geopaparazzi.library.gpx.GpxUtilities;
 import eu.geopaparazzi.library.kml.KmlRepresenter;
 import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.library.util.DynamicDoubleArray;
-import eu.geopaparazzi.library.util.TimeUtilities;
 import eu.geopaparazzi.library.util.Utilities;
 
 import static java.lang.Math.abs;
@@ -188,33 +188,30 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
     }
 
     @SuppressWarnings("nls")
-    public String toKmlString() {
+    public void writeKml(Writer writer) throws IOException {
         String name = Utilities.makeXmlSafe(this.name);
-        StringBuilder sB = new StringBuilder();
-        sB.append("<Placemark>\n");
-        sB.append("<name>" + name + "</name>\n");
-        sB.append("<visibility>1</visibility>\n");
-        sB.append("<LineString>\n");
-        sB.append("<tessellate>1</tessellate>\n");
-        sB.append("<coordinates>\n");
+        writer.append("<Placemark>\n");
+        writer.append("<name>" + name + "</name>\n");
+        writer.append("<visibility>1</visibility>\n");
+        writer.append("<LineString>\n");
+        writer.append("<tessellate>1</tessellate>\n");
+        writer.append("<coordinates>\n");
         for( int i = 0; i < lonList.size(); i++ ) {
             double lon = lonList.get(i);
             double lat = latList.get(i);
-            sB.append(lon).append(",").append(lat).append(",1 \n");
+            writer.append(String.valueOf(lon)).append(",").append(String.valueOf(lat)).append(",1 \n");
         }
-        sB.append("</coordinates>\n");
-        sB.append("</LineString>\n");
-        sB.append("<Style>\n");
-        sB.append("<LineStyle>\n");
+        writer.append("</coordinates>\n");
+        writer.append("</LineString>\n");
+        writer.append("<Style>\n");
+        writer.append("<LineStyle>\n");
         int parsedColor = ColorUtilities.toColor(color);
         String hexColor = "#" + Integer.toHexString(parsedColor);
-        sB.append("<color>").append(hexColor).append("</color>\n");
-        sB.append("<width>").append(width).append("</width>\n");
-        sB.append("</LineStyle>\n");
-        sB.append("</Style>\n");
-        sB.append("</Placemark>\n");
-
-        return sB.toString();
+        writer.append("<color>").append(hexColor).append("</color>\n");
+        writer.append("<width>").append(String.valueOf(width)).append("</width>\n");
+        writer.append("</LineStyle>\n");
+        writer.append("</Style>\n");
+        writer.append("</Placemark>\n");
     }
 
     public boolean hasImages() {
@@ -269,28 +266,17 @@ public class Line implements KmlRepresenter, GpxRepresenter, Serializable {
         return maxLon;
     }
 
-    @SuppressWarnings("nls")
-    public String toGpxString() throws Exception {
-
-        String name = Utilities.makeXmlSafe(this.name);
-        StringBuilder sb = new StringBuilder();
-        sb.append(GpxUtilities.GPX_TRACK_START).append("\n");
-        sb.append(GpxUtilities.getTrackNameString(name)).append("\n");
-        sb.append(GpxUtilities.GPX_TRACKSEGMENT_START).append("\n");
+    public void writeGpx(Writer writer) throws IOException {
+        GpxUtilities.writeTrackStart(writer, Utilities.makeXmlSafe(this.name));
         int size = latList.size();
         double[] latArray = latList.getInternalArray();
         double[] lonArray = lonList.getInternalArray();
         double[] altimArray = altimList.getInternalArray();
         for( int i = 0; i < size; i++ ) {
-            String dateString = dateList.get(i);
-            long time = Long.parseLong(dateString);
             // TODO change this sooner or later - needs ts to be hold differently in db
-            dateString = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.format(new Date(time));
-            String trackPointString = GpxUtilities.getTrackPointString(latArray[i], lonArray[i], altimArray[i], dateString);
-            sb.append(trackPointString);
+            long time = Long.parseLong(dateList.get(i));
+            GpxUtilities.writeTrackPoint(writer, latArray[i], lonArray[i], altimArray[i], time);
         }
-        sb.append(GpxUtilities.GPX_TRACKSEGMENT_END).append("\n");
-        sb.append(GpxUtilities.GPX_TRACK_END).append("\n");
-        return sb.toString();
+        GpxUtilities.writeTrackEnd(writer);
     }
 }
@@ -20,6 +20,8 @@ package eu.geopaparazzi.core.database.objects;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -143,33 +145,32 @@ public class Note extends ANote implements KmlRepresenter, GpxRepresenter {
     }
 
     @SuppressWarnings("nls")
-    public String toKmlString() throws Exception {
+    public void writeKml(Writer writer) throws Exception {
         images = new ArrayList<>();
         String name = Utilities.makeXmlSafe(this.simpleText);
-        StringBuilder sB = new StringBuilder();
-        sB.append("<Placemark>\n");
-        // sB.append("<styleUrl>#red-pushpin</styleUrl>\n");
-        sB.append("<styleUrl>#info-icon</styleUrl>\n");
-        sB.append("<name>").append(name).append("</name>\n");
-        sB.append("<description>\n");
+        writer.append("<Placemark>\n");
+        // writer.append("<styleUrl>#red-pushpin</styleUrl>\n");
+        writer.append("<styleUrl>#info-icon</styleUrl>\n");
+        writer.append("<name>").append(name).append("</name>\n");
+        writer.append("<description>\n");
 
         if (form != null && form.length() > 0) {
             DaoImages daoImages = new DaoImages();
 
 
-            sB.append("<![CDATA[\n");
+            writer.append("<![CDATA[\n");
             JSONObject sectionObject = new JSONObject(form);
             if (sectionObject.has(FormUtilities.ATTR_SECTIONNAME)) {
                 String sectionName = sectionObject.getString(FormUtilities.ATTR_SECTIONNAME);
-                sB.append("<h1>").append(sectionName).append("</h1>\n");
+                writer.append("<h1>").append(sectionName).append("</h1>\n");
             }
 
             List<String> formsNames = TagsManager.getFormNames4Section(sectionObject);
             for (String formName : formsNames) {
-                sB.append("<h2>").append(formName).append("</h2>\n");
+                writer.append("<h2>").append(formName).append("</h2>\n");
 
-                sB.append("<table style=\"text-align: left; width: 100%;\" border=\"1\" cellpadding=\"5\" cellspacing=\"2\">");
-                sB.append("<tbody>");
+                writer.append("<table style=\"text-align: left; width: 100%;\" border=\"1\" cellpadding=\"5\" cellspacing=\"2\">");
+                writer.append("<tbody>");
 
                 JSONObject form4Name = TagsManager.getForm4Name(formName, sectionObject);
                 JSONArray formItems = TagsManager.getFormItems(form4Name);
@@ -196,11 +197,11 @@ public class Note extends ANote implements KmlRepresenter, GpxRepresenter {
                         for (String imageId : imageIdsSplit) {
                             Image image = daoImages.getImage(Long.parseLong(imageId));
                             String imgName = image.getName();
-                            sB.append("<tr>");
-                            sB.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
-                            sB.append("<img src=\"").append(imgName).append("\" width=\"300\">");
-                            sB.append("</td>");
-                            sB.append("</tr>");
+                            writer.append("<tr>");
+                            writer.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
+                            writer.append("<img src=\"").append(imgName).append("\" width=\"300\">");
+                            writer.append("</td>");
+                            writer.append("</tr>");
 
                             images.add(imageId);
                         }
@@ -208,15 +209,15 @@ public class Note extends ANote implements KmlRepresenter, GpxRepresenter {
                         if (value.trim().length() == 0) {
                             continue;
                         }
-                        sB.append("<tr>");
+                        writer.append("<tr>");
                         // FIXME
                         String imageId = value.trim();
                         Image image = daoImages.getImage(Long.parseLong(imageId));
                         String imgName = image.getName();
-                        sB.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
-                        sB.append("<img src=\"").append(imgName).append("\" width=\"300\">");
-                        sB.append("</td>");
-                        sB.append("</tr>");
+                        writer.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
+                        writer.append("<img src=\"").append(imgName).append("\" width=\"300\">");
+                        writer.append("</td>");
+                        writer.append("</tr>");
                         images.add(imageId);
                     } else if (type.equals(FormUtilities.TYPE_SKETCH)) {
                         if (value.trim().length() == 0) {
@@ -226,44 +227,42 @@ public class Note extends ANote implements KmlRepresenter, GpxRepresenter {
                         for (String imageId : imageIdsSplit) {
                             Image image = daoImages.getImage(Long.parseLong(imageId));
                             String imgName = image.getName();
-                            sB.append("<tr>");
-                            sB.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
-                            sB.append("<img src=\"").append(imgName).append("\" width=\"300\">");
-                            sB.append("</td>");
-                            sB.append("</tr>");
+                            writer.append("<tr>");
+                            writer.append("<td colspan=\"2\" style=\"text-align: left; vertical-align: top; width: 100%;\">");
+                            writer.append("<img src=\"").append(imgName).append("\" width=\"300\">");
+                            writer.append("</td>");
+                            writer.append("</tr>");
 
                             images.add(imageId);
                         }
                     } else {
-                        sB.append("<tr>");
-                        sB.append("<td style=\"text-align: left; vertical-align: top; width: 50%;\">");
-                        sB.append(label);
-                        sB.append("</td>");
-                        sB.append("<td style=\"text-align: left; vertical-align: top; width: 50%;\">");
-                        sB.append(value);
-                        sB.append("</td>");
-                        sB.append("</tr>");
+                        writer.append("<tr>");
+                        writer.append("<td style=\"text-align: left; vertical-align: top; width: 50%;\">");
+                        writer.append(label);
+                        writer.append("</td>");
+                        writer.append("<td style=\"text-align: left; vertical-align: top; width: 50%;\">");
+                        writer.append(value);
+                        writer.append("</td>");
+                        writer.append("</tr>");
                     }
                 }
-                sB.append("</tbody>");
-                sB.append("</table>");
+                writer.append("</tbody>");
+                writer.append("</table>");
             }
-            sB.append("]]>\n");
+            writer.append("]]>\n");
         } else {
             String description = Utilities.makeXmlSafe(this.description);
-            sB.append(description);
-            sB.append("\n");
-            sB.append(new Date(timeStamp));
+            writer.append(description);
+            writer.append("\n");
+            writer.append(String.valueOf(new Date(timeStamp)));
         }
 
-        sB.append("</description>\n");
-        sB.append("<gx:balloonVisibility>1</gx:balloonVisibility>\n");
-        sB.append("<Point>\n");
-        sB.append("<coordinates>").append(lon).append(",").append(lat).append(",0</coordinates>\n");
-        sB.append("</Point>\n");
-        sB.append("</Placemark>\n");
-
-        return sB.toString();
+        writer.append("</description>\n");
+        writer.append("<gx:balloonVisibility>1</gx:balloonVisibility>\n");
+        writer.append("<Point>\n");
+        writer.append("<coordinates>").append(String.valueOf(lon)).append(",").append(String.valueOf(lat)).append(",0</coordinates>\n");
+        writer.append("</Point>\n");
+        writer.append("</Placemark>\n");
     }
 
     public boolean hasImages() {
@@ -300,12 +299,11 @@ public class Note extends ANote implements KmlRepresenter, GpxRepresenter {
         return lon;
     }
 
-    public String toGpxString() throws Exception {
+    public void writeGpx(Writer writer) throws IOException {
         String description = Utilities.makeXmlSafe(this.description);
         description = description.replaceAll("\n", "; "); //$NON-NLS-1$//$NON-NLS-2$
         String name = Utilities.makeXmlSafe(this.simpleText);
         name = name.replaceAll("\n", "; "); //$NON-NLS-1$//$NON-NLS-2$
-        String wayPointString = GpxUtilities.getWayPointString(lat, lon, altim, name, description);
-        return wayPointString;
+        GpxUtilities.writeWayPoint(writer, lat, lon, altim, name, description);
     }
 }
@@ -28,6 +28,7 @@ import android.content.SharedPreferences.Editor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.BatteryManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AlertDialog;
@@ -101,6 +102,7 @@ import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.PositionUtilities;
 import eu.geopaparazzi.library.util.TextRunnable;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.map.GPBBox;
 import eu.geopaparazzi.map.GPMapPosition;
 import eu.geopaparazzi.map.GPMapView;
@@ -162,6 +164,18 @@ public class MapviewActivity extends AppCompatActivity implements IActivitySuppo
     private TextView batteryText;
     private ImageButton toggleEditingButton;
 
+    private static final long METRICS_REFRESH_MILLIS = 1000;
+    private static final int METRICS_OVERLAY_TIMERS = 8;
+    private TextView metricsText;
+    private final Handler metricsHandler = new Handler();
+    private final Runnable metricsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            metricsText.setText(Metrics.INSTANCE.getSummary(METRICS_OVERLAY_TIMERS));
+            metricsHandler.postDelayed(this, METRICS_REFRESH_MILLIS);
+        }
+    };
+
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
         setContentView(R.layout.activity_mapview);
@@ -191,6 +205,7 @@ public class MapviewActivity extends AppCompatActivity implements IActivitySuppo
 
         // COORDINATE TEXT VIEW
         coordView = findViewById(R.id.coordsText);
+        metricsText = findViewById(R.id.metricsText);
         latString = getString(R.string.lat);
         lonString = getString(R.string.lon);
 
@@ -343,14 +358,27 @@ public class MapviewActivity extends AppCompatActivity implements IActivitySuppo
 
     @Override
     protected void onPause() {
+        metricsHandler.removeCallbacks(metricsUpdater);
         LayerManager.INSTANCE.onPause(mapView);
         super.onPause();
     }
 
     @Override
     protected void onResume() {
-        LayerManager.INSTANCE.onResume(mapView, this);
+        // the editing layer is set only once the layers are attached
+        LayerManager.INSTANCE.onResume(mapView, this, this::checkEditing);
+
+        boolean showMetrics = mPeferences.getBoolean(LibraryConstants.PREFS_KEY_METRICS_OVERLAY, false);
+        metricsText.setVisibility(showMetrics ? View.VISIBLE : View.GONE);
+        if (showMetrics)
+            metricsHandler.post(metricsUpdater);
 
+        super.onResume();
+    }
+
+    private void checkEditing() {
+        if (isFinishing() || isDestroyed())
+            return;
         IEditableLayer editLayer = EditManager.INSTANCE.getEditLayer();
         if (editLayer == null) {
             disableEditing();
@@ -363,8 +391,6 @@ public class MapviewActivity extends AppCompatActivity implements IActivitySuppo
                 setLeftButtoonsEnablement(false);
             }
         }
-
-        super.onResume();
     }
 
     private void setTextScale() {
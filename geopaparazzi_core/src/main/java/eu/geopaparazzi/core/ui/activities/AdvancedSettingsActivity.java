@@ -29,14 +29,17 @@ import android.view.View;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 
+import java.io.File;
 import java.util.Collection;
 
+import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.core.activities.LogAnalysisActivity;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.GPLogPreferencesHandler;
 import eu.geopaparazzi.library.gps.GpsServiceUtilities;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
 
@@ -85,6 +88,26 @@ public class AdvancedSettingsActivity extends AppCompatActivity implements Check
         });
 
         initLogs(preferences);
+
+        CheckBox metricsOverlayCheckbox = findViewById(R.id.metricsOverlayCheckbox);
+        metricsOverlayCheckbox.setChecked(preferences.getBoolean(LibraryConstants.PREFS_KEY_METRICS_OVERLAY, false));
+        metricsOverlayCheckbox.setOnCheckedChangeListener(new CheckBox.OnCheckedChangeListener() {
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                Editor edit = preferences.edit();
+                edit.putBoolean(LibraryConstants.PREFS_KEY_METRICS_OVERLAY, isChecked);
+                edit.apply();
+            }
+        });
+
+        CheckBox imagesExternalStoreCheckbox = findViewById(R.id.imagesExternalStoreCheckbox);
+        imagesExternalStoreCheckbox.setChecked(preferences.getBoolean(LibraryConstants.PREFS_KEY_IMAGES_EXTERNAL_STORE, false));
+        imagesExternalStoreCheckbox.setOnCheckedChangeListener(new CheckBox.OnCheckedChangeListener() {
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                Editor edit = preferences.edit();
+                edit.putBoolean(LibraryConstants.PREFS_KEY_IMAGES_EXTERNAL_STORE, isChecked);
+                edit.apply();
+            }
+        });
     }
 
     @Override
@@ -171,6 +194,22 @@ public class AdvancedSettingsActivity extends AppCompatActivity implements Check
         startActivity(analyzeLogViewIntent);
     }
 
+    /**
+     * Export the performance metrics as csv and json.
+     *
+     * @param view parent.
+     */
+    public void exportMetrics(View view) {
+        try {
+            File exportDir = ResourcesManager.getInstance(GeopaparazziApplication.getInstance()).getApplicationExportDir();
+            File[] files = Metrics.INSTANCE.export(exportDir);
+            GPDialogs.infoDialog(this, getString(R.string.metrics_exported) + "\n" + files[0].getName() + "\n" + files[1].getName(), null);
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+            GPDialogs.errorDialog(this, e, null);
+        }
+    }
+
     /**
      * Clear log.
      *
@@ -177,8 +177,6 @@ public class ExportActivity extends AppCompatActivity implements
         mNfcAdapter = NfcAdapter.getDefaultAdapter(this);
         if (mNfcAdapter != null) {
             mNfcAdapter.setBeamPushUrisCallback(this, this);
-            File databaseFile = ResourcesManager.getInstance(this).getDatabaseFile();
-            mFileUris[0] = Uri.fromFile(databaseFile);
         }
     }
 
@@ -194,6 +192,16 @@ public class ExportActivity extends AppCompatActivity implements
 
     @Override
     public Uri[] createBeamUris(NfcEvent nfcEvent) {
+        File databaseFile;
+        try {
+            // images in the external store have to travel inside the database
+            File exportDir = ResourcesManager.getInstance(this).getApplicationExportDir();
+            databaseFile = DaoImages.getPortableDatabase(exportDir);
+        } catch (IOException e) {
+            GPLog.error(this, null, e);
+            return null;
+        }
+        mFileUris[0] = Uri.fromFile(databaseFile);
         GPLog.addLogEntry(this, "URI SENT: " + mFileUris[0]); //NON-NLS
         return mFileUris;
     }
@@ -36,6 +36,7 @@ import android.view.SubMenu;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
@@ -48,10 +49,13 @@ import android.widget.Toast;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.ANote;
@@ -74,7 +78,8 @@ import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoNotes;
-import eu.geopaparazzi.core.database.objects.ItemComparators;
+import eu.geopaparazzi.core.database.DaoSearchIndex;
+import eu.geopaparazzi.core.database.NotesListPager;
 import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.core.mapview.MapviewActivity;
 import eu.geopaparazzi.map.layers.systemlayers.NotesLayer;
@@ -86,8 +91,9 @@ import eu.geopaparazzi.map.layers.systemlayers.NotesLayer;
  */
 public class NotesListActivity extends AppCompatActivity {
     public static final String CURRENT_NOTES_COMPARATOR_INDEX = "CURRENT_NOTES_COMPARATOR_INDEX";//NON-NLS
+    private static final int SEARCH_PAGE_SIZE = 100;
+    private static final int LIST_PAGE_SIZE = 200;
     private String SHARE_NOTE_WITH = "";
-    private List<ANote> allNotesList = new ArrayList<>();
     private List<ANote> visibleNotesList = new ArrayList<>();
 //    private Comparator<ANote> notesSorter = new ItemComparators.NotesComparator(false);
 
@@ -106,11 +112,26 @@ public class NotesListActivity extends AppCompatActivity {
     private ListView listView;
 
     private String[] checkItems;
-    private Comparator<ANote>[] comparators;
     private int currentComparatorIndex = 0;
     private SharedPreferences mPreferences;
     private StringAsyncTask deletionTask;
     private boolean showZoomTo;
+    private double centerLon;
+    private double centerLat;
+
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Incremented at every new search, so that results of old searches are ignored.
+     */
+    private int searchGeneration = 0;
+    private NotesListPager listPager;
+    private boolean isLoadingPage;
+    /**
+     * The selection covers the whole list, also the pages not loaded yet: items are selected
+     * by default or not, and the toggled ones are the exceptions.
+     */
+    private boolean isSelectedByDefault = false;
+    private final Set<String> toggledSelection = new HashSet<>();
 
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -133,6 +154,8 @@ public class NotesListActivity extends AppCompatActivity {
         double[] mapCenterFromPreferences = PositionUtilities.getMapCenterFromPreferences(mPreferences, true, true);
         double lon = mapCenterFromPreferences[0];
         double lat = mapCenterFromPreferences[1];
+        centerLon = lon;
+        centerLat = lat;
 
         currentComparatorIndex = mPreferences.getInt(CURRENT_NOTES_COMPARATOR_INDEX, 0);
 
@@ -143,13 +166,6 @@ public class NotesListActivity extends AppCompatActivity {
                 getString(R.string.sortby_mapcenterdist), //
                 getString(R.string.sortby_mapcenterdist_inverse)//
         };
-        comparators = new Comparator[]{//
-                null, //
-                new ItemComparators.NotesComparator(),//
-                new ItemComparators.NotesComparator(true),//
-                new ItemComparators.NotesDistanceFromPointComparator(lon, lat),//
-                new ItemComparators.NotesDistanceFromPointComparator(lon, lat, true),//
-        };
 
         listView = findViewById(R.id.notesList);
 
@@ -166,13 +182,30 @@ public class NotesListActivity extends AppCompatActivity {
 
         filterText = findViewById(R.id.search_box);
         filterText.addTextChangedListener(filterTextWatcher);
+
+        listView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // ignore
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - SEARCH_PAGE_SIZE / 4) {
+                    loadListPage();
+                }
+            }
+        });
     }
 
 
     @Override
     protected void onResume() {
         super.onResume();
+        reloadList();
+    }
 
+    private void reloadList() {
         String filterStr = filterText.getText().toString();
         if (filterStr.length() > 0) {
             filterList(filterStr);
@@ -183,6 +216,7 @@ public class NotesListActivity extends AppCompatActivity {
 
     protected void onDestroy() {
         if (deletionTask != null) deletionTask.dispose();
+        searchExecutor.shutdownNow();
         filterText.removeTextChangedListener(filterTextWatcher);
         super.onDestroy();
     }
@@ -215,7 +249,7 @@ public class NotesListActivity extends AppCompatActivity {
                 @Override
                 public void onCancel(DialogInterface dialogInterface) {
                     try {
-                        refreshList();
+                        reloadList();
                     } catch (Exception e) {
                         GPLog.error(this, null, e);
                     }
@@ -233,49 +267,96 @@ public class NotesListActivity extends AppCompatActivity {
     private void refreshList() {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "refreshing notes list"); //$NON-NLS-1$
-        try {
-            visibleNotesList.clear();
-            collectAllNotes();
-            visibleNotesList.addAll(allNotesList);
-            if (comparators[currentComparatorIndex] != null) {
-                Collections.sort(visibleNotesList, comparators[currentComparatorIndex]);
-            }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
-        }
+        // sorting is done by the database, the sort dialog indexes match the pager sort modes
+        startPaging(new NotesListPager(currentComparatorIndex, centerLon, centerLat, LIST_PAGE_SIZE));
+    }
 
+    private void startPaging(NotesListPager pager) {
+        searchGeneration++;
+        listPager = pager;
+        isLoadingPage = false;
+        isSelectedByDefault = false;
+        toggledSelection.clear();
+        visibleNotesList.clear();
         redoAdapter();
+        loadListPage();
+    }
+
+    /**
+     * Load the next page of the list in background and append it to the list.
+     */
+    private void loadListPage() {
+        final NotesListPager pager = listPager;
+        if (isLoadingPage || pager == null || pager.isExhausted())
+            return;
+        isLoadingPage = true;
+        final int generation = searchGeneration;
+        searchExecutor.execute(() -> {
+            List<ANote> items;
+            try {
+                items = pager.nextPage();
+            } catch (Exception e) {
+                // also invalid search queries end up here while typing
+                GPLog.error(NotesListActivity.this, e.getLocalizedMessage(), e);
+                items = new ArrayList<>();
+            }
+            final List<ANote> page = items;
+            runOnUiThread(() -> {
+                if (generation != searchGeneration || isFinishing())
+                    return;
+                isLoadingPage = false;
+                for (ANote note : page) {
+                    note.setChecked(isSelected(note));
+                }
+                visibleNotesList.addAll(page);
+                arrayAdapter.notifyDataSetChanged();
+            });
+        });
+    }
+
+    private static String getSelectionKey(ANote note) {
+        return (note instanceof Image ? "image_" : "note_") + note.getId();//NON-NLS
     }
 
-    private void collectAllNotes() throws IOException {
-        allNotesList.clear();
-        List<Note> tmpNotesList = DaoNotes.getNotesList(null, false);
-        allNotesList.addAll(tmpNotesList);
-        List<Image> imagesList = DaoImages.getImagesList(false, true);
-        allNotesList.addAll(imagesList);
+    private boolean isSelected(ANote note) {
+        return isSelectedByDefault != toggledSelection.contains(getSelectionKey(note));
+    }
+
+    private void setSelected(ANote note, boolean isSelected) {
+        note.setChecked(isSelected);
+        if (isSelected == isSelectedByDefault) {
+            toggledSelection.remove(getSelectionKey(note));
+        } else {
+            toggledSelection.add(getSelectionKey(note));
+        }
+    }
+
+    /**
+     * The list holds notes without form, read the complete note when it is used.
+     */
+    private ANote getCompleteNote(ANote note) {
+        if (note instanceof Note) {
+            try {
+                ANote completeNote = new DaoNotes().getNoteById(note.getId());
+                if (completeNote != null)
+                    return completeNote;
+            } catch (IOException e) {
+                GPLog.error(this, null, e);
+            }
+        }
+        return note;
     }
 
     private void filterList(String filterText) {
         if (GPLog.LOG_HEAVY)
             GPLog.addLogEntry(this, "filter notes list"); //$NON-NLS-1$
-        try {
-            collectAllNotes();
-            visibleNotesList.clear();
-            filterText = filterText.toLowerCase();
-            for (ANote note : allNotesList) {
-                String name = note.getName();
-                String nameLower = name.toLowerCase();
-                if (nameLower.contains(filterText)) {
-                    visibleNotesList.add(note);
-                }
-            }
-        } catch (IOException e) {
-            GPLog.error(this, e.getLocalizedMessage(), e);
-            e.printStackTrace();
+        String matchQuery = DaoSearchIndex.toMatchQuery(filterText);
+        if (matchQuery == null) {
+            refreshList();
+            return;
         }
-
-        redoAdapter();
+        // the search is sorted and paged by the database as the unfiltered list
+        startPaging(new NotesListPager(currentComparatorIndex, centerLon, centerLat, SEARCH_PAGE_SIZE, matchQuery));
     }
 
     private void redoAdapter() {
@@ -317,7 +398,7 @@ public class NotesListActivity extends AppCompatActivity {
                 checkBox.setOnCheckedChangeListener(new CheckBox.OnCheckedChangeListener() {
                     public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                         checkBox.setChecked(isChecked);
-                        currentNote.setChecked(isChecked);
+                        setSelected(currentNote, isChecked);
                     }
                 });
 
@@ -351,7 +432,8 @@ public class NotesListActivity extends AppCompatActivity {
         listView.setAdapter(arrayAdapter);
     }
 
-    private void openMoreMenu(ImageButton button, final ANote currentNote) {
+    private void openMoreMenu(ImageButton button, ANote listNote) {
+        final ANote currentNote = getCompleteNote(listNote);
         String editLabel = null;
         if (currentNote instanceof Note) {
             Note note = (Note) currentNote;
@@ -389,11 +471,15 @@ public class NotesListActivity extends AppCompatActivity {
                     String name = currentNote.getName();
                     filterText.setText(name);
                 } else if (actionName.equals(selectAll)) {
+                    // also applies to the pages still to be loaded
+                    isSelectedByDefault = true;
+                    toggledSelection.clear();
                     for (ANote aNote : visibleNotesList) {
                         aNote.setChecked(true);
                     }
                     arrayAdapter.notifyDataSetChanged();
                 } else if (actionName.equals(invertSelection)) {
+                    isSelectedByDefault = !isSelectedByDefault;
                     for (ANote aNote : visibleNotesList) {
                         aNote.setChecked(!aNote.isChecked());
                     }
@@ -439,12 +525,13 @@ public class NotesListActivity extends AppCompatActivity {
                             String imageId = imageIds.get(0);
 
                             Image image = imageHelper.getImage(Long.parseLong(imageId));
+                            InputStream imageStream = imageHelper.getImageDataStreamById(image.getImageDataId(), null);
+                            if (imageStream != null) {
+                                String imageName = image.getName();
+                                imageFile = new File(tempDir, imageName);
 
-                            String imageName = image.getName();
-                            imageFile = new File(tempDir, imageName);
-
-                            byte[] imageData = imageHelper.getImageDataById(image.getImageDataId(), null);
-                            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                                ImageUtilities.writeImageStreamToFile(imageStream, imageFile.getAbsolutePath());
+                            }
                         }
                         if (imageFile != null) {
                             ShareUtilities.shareTextAndImage(NotesListActivity.this, SHARE_NOTE_WITH, formText,
@@ -467,8 +554,9 @@ public class NotesListActivity extends AppCompatActivity {
                 if (image.getName().endsWith(".png"))//NON-NLS
                     ext = ".png";//NON-NLS
                 File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                byte[] imageData = new DaoImages().getImageData(image.getId());
-                ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                InputStream imageStream = new DaoImages().getImageDataStream(image.getId());
+                if (imageStream != null)
+                    ImageUtilities.writeImageStreamToFile(imageStream, imageFile.getAbsolutePath());
                 if (imageFile.exists()) {
                     ShareUtilities.shareTextAndImage(NotesListActivity.this, SHARE_NOTE_WITH, osmUrl, imageFile);
                 } else {
@@ -511,8 +599,7 @@ public class NotesListActivity extends AppCompatActivity {
         } else if (currentNote instanceof Image) {
             try {
                 Image image = (Image) currentNote;
-                byte[] imageData = new DaoImages().getImageData(image.getId());
-                AppsUtilities.showImage(imageData, image.getName(), this);
+                AppsUtilities.showImage(new DaoImages().getImageDataStream(image.getId()), image.getName(), this);
             } catch (Exception e) {
                 GPLog.error(this, null, e);
             }
@@ -559,10 +646,18 @@ public class NotesListActivity extends AppCompatActivity {
                         runOnUiThread(new Runnable() {
                             @Override
                             public void run() {
-                                int total = 0;
-                                for (ANote aNote : visibleNotesList) {
-                                    if (aNote.isChecked()) {
-                                        total++;
+                                // the background work never touches the list, which keeps loading pages
+                                final List<ANote> selectedNotes = new ArrayList<>();
+                                final NotesListPager allNotesPager;
+                                final Set<String> unselectedKeys = new HashSet<>(toggledSelection);
+                                if (isSelectedByDefault && listPager != null) {
+                                    allNotesPager = listPager.copy();
+                                } else {
+                                    allNotesPager = null;
+                                    for (ANote aNote : visibleNotesList) {
+                                        if (aNote.isChecked()) {
+                                            selectedNotes.add(aNote);
+                                        }
                                     }
                                 }
 
@@ -570,15 +665,20 @@ public class NotesListActivity extends AppCompatActivity {
                                     protected String doBackgroundWork() {
                                         try {
                                             int index = 0;
-                                            for (ANote aNote : visibleNotesList) {
-                                                if (aNote.isChecked()) {
-                                                    if (aNote instanceof Note) {
-                                                        DaoNotes.deleteComplexNote((Note) aNote);
-                                                    } else if (aNote instanceof Image) {
-                                                        DaoImages.deleteImages(aNote.getId());
+                                            if (allNotesPager == null) {
+                                                for (ANote aNote : selectedNotes) {
+                                                    deleteListNote(aNote);
+                                                    publishProgress(index++);
+                                                }
+                                            } else {
+                                                // delete page by page, the pager reads after the last key so deletes do not shift it
+                                                while (!allNotesPager.isExhausted()) {
+                                                    for (ANote aNote : allNotesPager.nextPage()) {
+                                                        if (!unselectedKeys.contains(getSelectionKey(aNote))) {
+                                                            deleteListNote(aNote);
+                                                            publishProgress(index++);
+                                                        }
                                                     }
-                                                    publishProgress(index);
-                                                    index++;
                                                 }
                                             }
                                         } catch (Exception e) {
@@ -596,6 +696,8 @@ public class NotesListActivity extends AppCompatActivity {
                                         }
                                     }
                                 };
+                                // the number of notes is not known when all are selected
+                                Integer total = allNotesPager == null ? selectedNotes.size() : null;
                                 deletionTask.setProgressDialog(null, getString(R.string.removing_notes), false, total);
                                 deletionTask.execute();
                             }
@@ -605,6 +707,14 @@ public class NotesListActivity extends AppCompatActivity {
         );
     }
 
+    private void deleteListNote(ANote aNote) throws IOException {
+        if (aNote instanceof Note) {
+            DaoNotes.deleteComplexNote((Note) getCompleteNote(aNote));
+        } else if (aNote instanceof Image) {
+            DaoImages.deleteImages(aNote.getId());
+        }
+    }
+
 
     private TextWatcher filterTextWatcher = new TextWatcher() {
 
@@ -32,9 +32,7 @@ import android.widget.ProgressBar;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
@@ -48,7 +46,7 @@ import eu.geopaparazzi.library.util.TimeUtilities;
 import eu.geopaparazzi.core.R;
 import eu.geopaparazzi.core.database.DaoGpsLog;
 import eu.geopaparazzi.core.database.DaoNotes;
-import eu.geopaparazzi.core.database.objects.Line;
+import eu.geopaparazzi.core.database.objects.GpxLogStream;
 import eu.geopaparazzi.core.database.objects.Note;
 
 
@@ -135,11 +133,10 @@ public class GpxExportDialogFragment extends DialogFragment {
                     /*
                      * add gps logs
                      */
-                    HashMap<Long, Line> linesMap = DaoGpsLog.getLinesMap();
-                    Collection<Line> linesCollection = linesMap.values();
-                    for (Line line : linesCollection) {
+                    List<GpxLogStream> logsList = DaoGpsLog.getGpxLogStreams();
+                    for (GpxLogStream log : logsList) {
                         if (isInterrupted) break;
-                        gpxRepresenterList.add(line);
+                        gpxRepresenterList.add(log);
                         hasAtLeastOne = true;
                     }
                     /*
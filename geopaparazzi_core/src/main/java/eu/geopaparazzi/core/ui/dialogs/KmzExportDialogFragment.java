@@ -32,11 +32,8 @@ import android.widget.ProgressBar;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.database.DaoMetadata;
@@ -52,7 +49,7 @@ import eu.geopaparazzi.core.database.DaoGpsLog;
 import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoNotes;
 import eu.geopaparazzi.core.database.objects.Bookmark;
-import eu.geopaparazzi.core.database.objects.Line;
+import eu.geopaparazzi.core.database.objects.KmlLogStream;
 import eu.geopaparazzi.core.database.objects.LogMapItem;
 import eu.geopaparazzi.core.database.objects.Note;
 
@@ -141,27 +138,11 @@ public class KmzExportDialogFragment extends DialogFragment {
                     /*
                      * add gps logs
                      */
+                    // the points are read while writing, logs without points are skipped then
                     List<LogMapItem> gpslogs = DaoGpsLog.getGpslogs();
-                    HashMap<Long, LogMapItem> mapitemsMap = new HashMap<>();
                     for (LogMapItem log : gpslogs) {
                         if (isInterrupted) break;
-                        mapitemsMap.put(log.getId(), log);
-                        hasAtLeastOne = true;
-                    }
-
-                    HashMap<Long, Line> linesMap = DaoGpsLog.getLinesMap();
-                    Collection<Map.Entry<Long, Line>> linesSet = linesMap.entrySet();
-                    for (Map.Entry<Long, Line> lineEntry : linesSet) {
-                        if (isInterrupted) break;
-                        Long id = lineEntry.getKey();
-                        Line line = lineEntry.getValue();
-                        LogMapItem mapItem = mapitemsMap.get(id);
-                        if (mapItem == null) continue;
-                        float width = mapItem.getWidth();
-                        String color = mapItem.getColor();
-                        line.setStyle(width, color);
-                        line.setName(mapItem.getName());
-                        kmlRepresenterList.add(line);
+                        kmlRepresenterList.add(new KmlLogStream(log.getId(), log.getName(), log.getColor(), log.getWidth()));
                         hasAtLeastOne = true;
                     }
                     /*
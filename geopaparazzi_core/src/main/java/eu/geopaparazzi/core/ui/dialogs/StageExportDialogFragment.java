@@ -29,9 +29,13 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
 
+import java.io.File;
+
+import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.webproject.WebProjectManager;
 import eu.geopaparazzi.core.R;
+import eu.geopaparazzi.core.database.DaoImages;
 
 
 /**
@@ -113,12 +117,20 @@ public class StageExportDialogFragment extends DialogFragment {
     private void startExport() {
         new AsyncTask<String, Void, String>() {
             protected String doInBackground(String... params) {
+                File tempDir = ResourcesManager.getInstance(getActivity()).getTempDir();
+                File databaseFile = null;
                 try {
-                    String message = WebProjectManager.INSTANCE.uploadProject(getActivity(), serverUrl, user, pwd);
+                    // images in the external store have to travel inside the database
+                    databaseFile = DaoImages.getPortableDatabase(tempDir);
+                    String message = WebProjectManager.INSTANCE.uploadProject(getActivity(), databaseFile, serverUrl, user, pwd);
                     return message;
                 } catch (Exception e) {
                     GPLog.error(this, e.getLocalizedMessage(), e);
                     return "ERROR" + e.getLocalizedMessage();//NON-NLS
+                } finally {
+                    // remove the copy, never the project database
+                    if (databaseFile != null && tempDir.equals(databaseFile.getParentFile()))
+                        databaseFile.delete();
                 }
             }
 
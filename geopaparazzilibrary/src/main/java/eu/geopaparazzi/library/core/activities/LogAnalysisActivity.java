@@ -82,6 +82,7 @@ public class LogAnalysisActivity extends ListActivity implements View.OnClickLis
         super.onCreate(icicle);
         setContentView(R.layout.log_list);
 
+        GPLog.flush();
         query = GPLog.getLogQuery();
 
         try {
@@ -0,0 +1,180 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} over a blob, read in chunks that fit the cursor window.
+ *
+ * <p>Android has no incremental blob access, so the blob is read one <code>substr</code> chunk
+ * at a time. Only one chunk is held in memory, which allows to stream blobs larger than the
+ * cursor window, or than the available heap, to files and decoders.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class BlobInputStream extends InputStream {
+    /**
+     * The default chunk size, safely below the cursor window size.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private final SQLiteDatabase sqliteDatabase;
+    private final String chunkQuery;
+    private final String rowId;
+    private final long length;
+    private final int chunkSize;
+
+    private byte[] chunk;
+    private int chunkPosition;
+    private long position = 0;
+    private boolean isClosed = false;
+
+    /**
+     * Open a stream over a blob.
+     *
+     * @param sqliteDatabase the database to use.
+     * @param table          the table.
+     * @param blobColumn     the blob column.
+     * @param idColumn       the column identifying the row.
+     * @param id             the id of the row.
+     * @return the stream or <code>null</code> if the row or the blob do not exist.
+     */
+    public static BlobInputStream open(SQLiteDatabase sqliteDatabase, String table, String blobColumn, String idColumn, long id) {
+        String sizeQuery = "SELECT length(" + blobColumn + ") FROM " + table + " WHERE " + idColumn + " = ?";
+        Cursor c = sqliteDatabase.rawQuery(sizeQuery, new String[]{String.valueOf(id)});
+        try {
+            if (!c.moveToFirst() || c.isNull(0))
+                return null;
+            return new BlobInputStream(sqliteDatabase, table, blobColumn, idColumn, id, c.getLong(0), DEFAULT_CHUNK_SIZE);
+        } finally {
+            c.close();
+        }
+    }
+
+    private BlobInputStream(SQLiteDatabase sqliteDatabase, String table, String blobColumn, String idColumn, long id,
+                            long length, int chunkSize) {
+        this.sqliteDatabase = sqliteDatabase;
+        this.chunkQuery = "SELECT substr(" + blobColumn + ", ?, ?) FROM " + table + " WHERE " + idColumn + " = ?";
+        this.rowId = String.valueOf(id);
+        this.length = length;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the size of the blob in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    private boolean fillChunk() throws IOException {
+        if (isClosed)
+            throw new IOException("Stream closed.");
+        if (chunk != null && chunkPosition < chunk.length)
+            return true;
+        if (position >= length)
+            return false;
+
+        int size = (int) Math.min(chunkSize, length - position);
+        // substr is 1 based
+        String[] args = {String.valueOf(position + 1), String.valueOf(size), rowId};
+        Cursor c = sqliteDatabase.rawQuery(chunkQuery, args);
+        try {
+            if (!c.moveToFirst() || c.isNull(0))
+                throw new IOException("The blob has been removed while reading it.");
+            chunk = c.getBlob(0);
+            chunkPosition = 0;
+        } finally {
+            c.close();
+        }
+        if (chunk.length == 0)
+            throw new IOException("The blob has changed while reading it.");
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillChunk())
+            return -1;
+        position++;
+        return chunk[chunkPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!fillChunk())
+            return -1;
+        int count = Math.min(len, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, b, off, count);
+        chunkPosition += count;
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+        long skipped = Math.min(n, length - position);
+        long inChunk = chunk == null ? 0 : chunk.length - chunkPosition;
+        if (skipped < inChunk) {
+            chunkPosition += (int) skipped;
+        } else {
+            chunk = null;
+        }
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return chunk == null ? 0 : chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() {
+        isClosed = true;
+        chunk = null;
+    }
+
+    /**
+     * Read the whole blob in a single array, without intermediate copies.
+     *
+     * @return the blob data.
+     * @throws IOException if something goes wrong.
+     */
+    public byte[] readAll() throws IOException {
+        if (length - position > Integer.MAX_VALUE)
+            throw new IOException("Blob too large: " + length);
+        byte[] data = new byte[(int) (length - position)];
+        int offset = 0;
+        int read;
+        while (offset < data.length && (read = read(data, offset, data.length - offset)) != -1) {
+            offset += read;
+        }
+        return data;
+    }
+}
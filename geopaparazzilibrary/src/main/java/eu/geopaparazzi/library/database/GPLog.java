@@ -19,10 +19,7 @@ package eu.geopaparazzi.library.database;
 
 import java.io.IOException;
 import java.util.Date;
-import java.util.Map.Entry;
-import java.util.Set;
 
-import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.util.Log;
 import eu.geopaparazzi.library.GPApplication;
@@ -86,6 +83,8 @@ public class GPLog {
      */
     public static int GLOBAL_LOG_LEVEL = 0;
 
+    private static GPLogWriter logWriter;
+
     /**
      * Create the default log table.
      *
@@ -133,22 +132,29 @@ public class GPLog {
         }
     }
 
+    private static synchronized GPLogWriter getLogWriter() {
+        if (logWriter == null) {
+            logWriter = new GPLogWriter();
+        }
+        return logWriter;
+    }
+
     /**
      * Add a new log entry.
      *
+     * <p>The entry is written to the database in background, so that logging does not
+     * change the timing of the calling thread.</p>
+     *
      * @param logMessage the message to insert in the log.
      */
     public static void addLogEntry( String logMessage ) {
+        addLogEntry(logMessage, false);
+    }
+
+    private static void addLogEntry( String logMessage, boolean isError ) {
         try {
             Date date = new Date();
-            SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
-            if (sqliteDatabase != null && sqliteDatabase.isOpen()) {
-                ContentValues values = new ContentValues();
-                long time = date.getTime();
-                values.put(COLUMN_DATAORA, time);
-                values.put(COLUMN_LOGMSG, logMessage);
-                insertOrThrow(sqliteDatabase, TABLE_LOG, values);
-            }
+            getLogWriter().add(date.getTime(), logMessage, isError);
 
             if (LOG_ANDROID) {
                 StringBuilder sb = new StringBuilder();
@@ -202,7 +208,7 @@ public class GPLog {
         }
         sb.append(logMessage);
         try {
-            addLogEntry(sb.toString());
+            addLogEntry(sb.toString(), ERROR_TAG.equals(tag));
         } catch (Exception e) {
             Log.e(ERROR_TAG, "Error inserting in log.", e);
         }
@@ -245,31 +251,14 @@ public class GPLog {
             log("GPLOG_ERROR", stackTrace);
         }
     }
+
     /**
-     * Do an insert or throw with the proper error handling.
-     * @param table
-     * @param values
+     * Write the pending log entries to the database.
      *
-     * @return
-     * @throws IOException
+     * <p>To be called before reading the log table.</p>
      */
-    private static long insertOrThrow( SQLiteDatabase sqliteDatabase, String table, ContentValues values ) throws Exception {
-        if (sqliteDatabase == null || !sqliteDatabase.isOpen()) {
-            throw new Exception("Database not ready!");
-        }
-        long id = sqliteDatabase.insertOrThrow(table, null, values);
-        if (id == -1) {
-            Set<Entry<String, Object>> valueSet = values.valueSet();
-            StringBuilder sb = new StringBuilder();
-            sb.append("Insert failed with: \n");
-            for( Entry<String, Object> entry : valueSet ) {
-                sb.append("(").append(entry.getKey()).append(",");
-                sb.append(entry.getValue()).append(")\n");
-            }
-            String message = sb.toString();
-            throw new IOException(message);
-        }
-        return id;
+    public static void flush() {
+        getLogWriter().flush();
     }
 
     /**
@@ -279,6 +268,7 @@ public class GPLog {
      * @throws Exception  if something goes wrong.
      */
     public static void clearLogTable( SQLiteDatabase db ) throws Exception {
+        getLogWriter().clear();
         String deleteLogQuery = "delete from " + TABLE_LOG;
         db.beginTransaction();
         try {
@@ -0,0 +1,169 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import eu.geopaparazzi.library.GPApplication;
+
+/**
+ * Background writer of the log entries.
+ *
+ * <p>Entries are put in a lock free queue by the logging threads and written by a single daemon thread
+ * in batches, each in one transaction. The backlog is capped: once full, info entries are dropped while
+ * errors are still accepted up to a hard limit. The number of dropped entries is written to the log.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class GPLogWriter {
+    /**
+     * Backlog size over which info entries are dropped.
+     */
+    private static final int MAX_BACKLOG = 5000;
+    /**
+     * Backlog size over which also errors are dropped.
+     */
+    private static final int MAX_ERROR_BACKLOG = MAX_BACKLOG + 1000;
+    private static final int BATCH_SIZE = 200;
+    private static final long FLUSH_INTERVAL_MILLIS = 500;
+
+    private static class LogEntry {
+        final long time;
+        final String message;
+
+        LogEntry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<LogEntry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final Thread writerThread;
+
+    GPLogWriter() {
+        writerThread = new Thread(this::writeLoop, "gplog-writer");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+    }
+
+    /**
+     * Queue an entry, never blocks.
+     *
+     * @param time    the entry time.
+     * @param message the message.
+     * @param isError if <code>true</code>, the entry is kept also when the backlog is full.
+     */
+    void add(long time, String message, boolean isError) {
+        int size = backlog.incrementAndGet();
+        if (size > MAX_ERROR_BACKLOG || (size > MAX_BACKLOG && !isError)) {
+            backlog.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(new LogEntry(time, message));
+        if (size % BATCH_SIZE == 0)
+            LockSupport.unpark(writerThread);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+            try {
+                flush();
+            } catch (Exception e) {
+                Log.e(GPLog.ERROR_TAG, "Error writing the log.", e);
+            }
+        }
+    }
+
+    /**
+     * Write all the queued entries.
+     *
+     * <p>If the database is not available, the entries stay queued.</p>
+     */
+    synchronized void flush() {
+        if (queue.isEmpty() && dropped.get() == 0)
+            return;
+        SQLiteDatabase sqliteDatabase;
+        try {
+            sqliteDatabase = GPApplication.getInstance().getDatabase();
+        } catch (IOException e) {
+            // keep the entries queued for the next flush
+            Log.e(GPLog.ERROR_TAG, "Error getting the database to write the log.", e);
+            return;
+        }
+        if (sqliteDatabase == null || !sqliteDatabase.isOpen())
+            return;
+
+        int droppedCount = dropped.getAndSet(0);
+        if (droppedCount > 0) {
+            queue.offer(new LogEntry(System.currentTimeMillis(), "UU;INFO;GPLOG: " + droppedCount + " log entries dropped, backlog full."));
+            backlog.incrementAndGet();
+        }
+
+        SQLiteStatement insertStatement = sqliteDatabase.compileStatement(
+                "INSERT INTO " + GPLog.TABLE_LOG + " (" + GPLog.COLUMN_DATAORA + ", " + GPLog.COLUMN_LOGMSG + ") VALUES (?, ?)");
+        try {
+            while (!queue.isEmpty()) {
+                sqliteDatabase.beginTransaction();
+                try {
+                    LogEntry entry;
+                    int count = 0;
+                    while (count < BATCH_SIZE && (entry = queue.poll()) != null) {
+                        backlog.decrementAndGet();
+                        insertStatement.bindLong(1, entry.time);
+                        if (entry.message == null) {
+                            insertStatement.bindNull(2);
+                        } else {
+                            insertStatement.bindString(2, entry.message);
+                        }
+                        insertStatement.executeInsert();
+                        count++;
+                    }
+                    sqliteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqliteDatabase.endTransaction();
+                }
+            }
+        } finally {
+            insertStatement.close();
+        }
+    }
+
+    /**
+     * Drop all the queued entries.
+     */
+    synchronized void clear() {
+        while (queue.poll() != null) {
+            backlog.decrementAndGet();
+        }
+        dropped.set(0);
+    }
+}
@@ -20,6 +20,7 @@ package eu.geopaparazzi.library.database;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * Interface that helps handling images in the database.
@@ -74,6 +75,27 @@ public interface IImagesDbHelper {
      */
     byte[] getImageDataById(long imageDataId, SQLiteDatabase sqliteDatabase) throws Exception;
 
+    /**
+     * Get a stream over the image data by image id.
+     *
+     * <p>To be used where the image does not need to be in memory, as when writing it to file.</p>
+     *
+     * @param imageId the image id.
+     * @return the stream, to be closed, or null.
+     * @throws Exception if something goes wrong.
+     */
+    InputStream getImageDataStream(long imageId) throws Exception;
+
+    /**
+     * Get a stream over the image data by its <b>data</b> id.
+     *
+     * @param imageDataId the image data id.
+     * @param sqliteDatabase the optional db to use.
+     * @return the stream, to be closed, or null.
+     * @throws Exception if something goes wrong.
+     */
+    InputStream getImageDataStreamById(long imageDataId, SQLiteDatabase sqliteDatabase) throws Exception;
+
     /**
      * Get image thumbnail by image id.
      *
@@ -17,6 +17,8 @@
  */
 package eu.geopaparazzi.library.database;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -139,29 +141,26 @@ public class Image extends ANote implements KmlRepresenter {
     }
 
     @SuppressWarnings("nls")
-    public String toKmlString() {
-        StringBuilder sB = new StringBuilder();
-        sB.append("<Placemark>\n");
+    public void writeKml(Writer writer) throws IOException {
+        writer.append("<Placemark>\n");
         if (name != null && name.length() > 0) {
-            sB.append("<name>").append(name).append("</name>\n");
+            writer.append("<name>").append(name).append("</name>\n");
         } else {
-            sB.append("<name>").append(ts).append("</name>\n");
+            writer.append("<name>").append(String.valueOf(ts)).append("</name>\n");
         }
-        sB.append("<description><![CDATA[<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
-        sB.append("<html><head><title></title>");
-        sB.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-1\">");
-        sB.append("</head><body>");
-        sB.append("<img src=\"" + name + "\" width=\"300\">");
-        sB.append("</body></html>]]></description>\n");
-        // sB.append("<styleUrl>#yellow-pushpin</styleUrl>\n");
-        sB.append("<styleUrl>#camera-icon</styleUrl>\n");
-        sB.append("<Point>\n");
-        sB.append("<coordinates>").append(lon).append(",").append(lat).append(",").append(altim);
-        sB.append("</coordinates>\n");
-        sB.append("</Point>\n");
-        sB.append("</Placemark>\n");
-
-        return sB.toString();
+        writer.append("<description><![CDATA[<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">\n");
+        writer.append("<html><head><title></title>");
+        writer.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-1\">");
+        writer.append("</head><body>");
+        writer.append("<img src=\"" + name + "\" width=\"300\">");
+        writer.append("</body></html>]]></description>\n");
+        // writer.append("<styleUrl>#yellow-pushpin</styleUrl>\n");
+        writer.append("<styleUrl>#camera-icon</styleUrl>\n");
+        writer.append("<Point>\n");
+        writer.append("<coordinates>").append(String.valueOf(lon)).append(",").append(String.valueOf(lat)).append(",").append(String.valueOf(altim));
+        writer.append("</coordinates>\n");
+        writer.append("</Point>\n");
+        writer.append("</Placemark>\n");
     }
 
     public boolean hasImages() {
@@ -274,7 +274,11 @@ public class TableDescriptions {
         /**
          * The image thumbnail data.
          */
-        COLUMN_THUMBNAIL("thumbnail", byte[].class);
+        COLUMN_THUMBNAIL("thumbnail", byte[].class),
+        /**
+         * The reference to the image file, if the data are stored outside of the database.
+         */
+        COLUMN_REFERENCE("ref", String.class);
 
         private String fieldName;
         private Class fieldClass;
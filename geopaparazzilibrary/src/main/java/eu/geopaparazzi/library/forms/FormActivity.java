@@ -36,6 +36,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -311,13 +312,13 @@ public class FormActivity extends AppCompatActivity implements IFragmentListSupp
             String imageId = imageIds.get(0);
 
             Image image = imageHelper.getImage(Long.parseLong(imageId));
+            InputStream imageStream = imageHelper.getImageDataStreamById(image.getImageDataId(), null);
+            if (imageStream != null) {
+                String name = image.getName();
+                imageFile = new File(tempDir, name);
 
-            String name = image.getName();
-            imageFile = new File(tempDir, name);
-
-            byte[] imageData = imageHelper.getImageDataById(image.getImageDataId(), null);
-            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
-
+                ImageUtilities.writeImageStreamToFile(imageStream, imageFile.getAbsolutePath());
+            }
         }
         String formText = FormUtilities.formToPlainText(form, false);
         formText = formText + "\n" + osmUrl;
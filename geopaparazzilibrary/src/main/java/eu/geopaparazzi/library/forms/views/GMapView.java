@@ -135,8 +135,7 @@ public class GMapView extends View implements GView {
                         if (image.getName().endsWith(".png"))
                             ext = ".png";
                         File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                        byte[] imageData = imagesDbHelper.getImageData(image.getId());
-                        ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                        ImageUtilities.writeImageStreamToFile(imagesDbHelper.getImageDataStream(image.getId()), imageFile.getAbsolutePath());
 
                         intent.setDataAndType(Uri.fromFile(imageFile), "image/*"); //$NON-NLS-1$
                         context.startActivity(intent);
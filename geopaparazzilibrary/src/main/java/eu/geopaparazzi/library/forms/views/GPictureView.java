@@ -218,8 +218,7 @@ public class GPictureView extends View implements GView {
                             if (image.getName().endsWith(".png"))
                                 ext = ".png";
                             File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                            byte[] imageData = imagesDbHelper.getImageData(image.getId());
-                            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                            ImageUtilities.writeImageStreamToFile(imagesDbHelper.getImageDataStream(image.getId()), imageFile.getAbsolutePath());
 
                             Uri imageUri = FileProvider.getUriForFile(context, context.getApplicationContext().getPackageName() + ".library.fileprovider", imageFile);
                             intent.setDataAndType(imageUri, "image/*"); //$NON-NLS-1$
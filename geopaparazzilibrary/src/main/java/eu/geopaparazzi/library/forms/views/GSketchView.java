@@ -224,8 +224,7 @@ public class GSketchView extends View implements GView {
                             if (image.getName().endsWith(".png"))
                                 ext = ".png";
                             File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
-                            byte[] imageData = imagesDbHelper.getImageData(image.getId());
-                            ImageUtilities.writeImageDataToFile(imageData, imageFile.getAbsolutePath());
+                            ImageUtilities.writeImageStreamToFile(imagesDbHelper.getImageDataStream(image.getId()), imageFile.getAbsolutePath());
 
 
                             AppsUtilities.showImage(imageFile, context);
@@ -53,6 +53,7 @@ import eu.geopaparazzi.library.database.IGpsLogDbHelper;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.PositionUtilities;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.library.util.debug.TestMock;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.DEFAULT_LOG_WIDTH;
@@ -503,8 +504,10 @@ public class GpsService extends Service implements LocationListener, Listener {
                                 GPLog.addLogEntry(GpsService.this, "GPS DEBUG: loop while 3: " + System.nanoTime());
                             try {
                                 if (isDatabaseLogging) {
+                                    long start = Metrics.INSTANCE.startTimer();
                                     dbHelper.addGpsLogDataPoint(sqliteDatabase, gpsLogId, recLon, recLat, recAlt,
                                             lastGpsLocation.getTime());
+                                    Metrics.INSTANCE.stopTimer("gps.log.addpoint", start);//NON-NLS
                                 }
                             } catch (Exception e) {
                                 // we log the exception and try to go on
@@ -625,6 +628,8 @@ public class GpsService extends Service implements LocationListener, Listener {
             lastGpsLocation = null;
             return;
         }
+        long start = Metrics.INSTANCE.startTimer();
+        Metrics.INSTANCE.increment("gps.locations");//NON-NLS
         lastGpsLocation = new GpsLocation(loc);
         synchronized (lastGpsLocation) {
             lastLocationupdateMillis = SystemClock.elapsedRealtime();
@@ -638,6 +643,7 @@ public class GpsService extends Service implements LocationListener, Listener {
 
             broadcast("triggered by onLocationChanged");
         }
+        Metrics.INSTANCE.stopTimer("gps.location.handle", start);//NON-NLS
     }
 
     public void onStatusChanged(String provider, int status, Bundle extras) {
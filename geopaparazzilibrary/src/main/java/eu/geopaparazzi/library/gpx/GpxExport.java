@@ -19,8 +19,9 @@ package eu.geopaparazzi.library.gpx;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.Date;
 import java.util.List;
 
@@ -35,6 +36,7 @@ import eu.geopaparazzi.library.util.TimeUtilities;
  */
 @SuppressWarnings("nls")
 public class GpxExport {
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final File outputFile;
     private String name;
@@ -64,7 +66,7 @@ public class GpxExport {
 
         BufferedWriter bW = null;
         try {
-            bW = new BufferedWriter(new FileWriter(outputFile));
+            bW = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"), BUFFER_SIZE);
             bW.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
             bW.write("<gpx\n");
             bW.write("  version=\"1.0\"\n");
@@ -91,7 +93,7 @@ public class GpxExport {
                     + "\"/>\n");
             for( GpxRepresenter gpxRepresenter : gpxRepresenters ) {
                 try {
-                    bW.write(gpxRepresenter.toGpxString());
+                    gpxRepresenter.writeGpx(bW);
                 } catch (Exception e) {
                     GPLog.error(this, e.getLocalizedMessage(), e);
                 }
@@ -18,6 +18,7 @@
 package eu.geopaparazzi.library.gpx;
 
 import java.io.Serializable;
+import java.io.Writer;
 
 /**
  * Interface for objects that are able to represent themself as gpx item.
@@ -45,10 +46,13 @@ public interface GpxRepresenter extends Serializable {
     double getMaxLon();
 
     /**
-     * Transforms the object in its gpx representation.
-     *  
-     * @return the gpx representation.
+     * Writes the gpx representation of the object.
+     *
+     * <p>The representation is written as it is created, so that large objects
+     * are never held in memory as a whole.</p>
+     *
+     * @param writer the writer to write to.
      * @throws Exception  if something goes wrong.
      */
-    String toGpxString() throws Exception;
+    void writeGpx( Writer writer ) throws Exception;
 }
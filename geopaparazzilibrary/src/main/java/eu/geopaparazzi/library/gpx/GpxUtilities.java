@@ -18,6 +18,8 @@
 package eu.geopaparazzi.library.gpx;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,6 +56,25 @@ public class GpxUtilities {
      * 
      */
     public static final String GPX_TRACKSEGMENT_END = "</trkseg>";
+    /**
+     * The decimals written for coordinates, about a centimeter at the equator.
+     */
+    public static final int COORDINATE_DECIMALS = 7;
+    /**
+     * The decimals written for elevations.
+     */
+    public static final int ELEVATION_DECIMALS = 2;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L};
+    private static final double MAX_FIXED_VALUE = 1E9;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final ThreadLocal<StringBuilder> SCRATCH = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
 
     /**
      * Creates a Waypoint string from the point values.
@@ -77,33 +98,170 @@ public class GpxUtilities {
     }
 
     /**
-     * Creates a Trackpoint string from the point values.
-     * 
-     * @param lat latitude of the point.
-     * @param lon longitude of the point.
-     * @param elev elevation of the point.
-     * @param time the time at which the point was taken.
-     * @return the trackpoint string.
+     * Writes the start of a track with its name and the start of its segment.
+     *
+     * @param writer the writer to use.
+     * @param name   the xml safe name of the track.
+     * @throws IOException if something goes wrong.
      */
-    public static String getTrackPointString( double lat, double lon, double elev, String time ) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<trkpt lat=\"" + lat + "\" lon=\"" + lon + "\">").append("\n");
-        sb.append("  <ele>" + elev + "</ele>").append("\n");
-        sb.append("  <time>" + time + "</time>").append("\n");
-        sb.append("</trkpt>").append("\n");
-        return sb.toString();
+    public static void writeTrackStart( Writer writer, String name ) throws IOException {
+        writer.write(GPX_TRACK_START);
+        writer.write("\n<name>");
+        writer.write(name);
+        writer.write("</name>\n");
+        writer.write(GPX_TRACKSEGMENT_START);
+        writer.write("\n");
     }
 
     /**
-     * Creates a Track name string from the name.
-     * 
-     * @param name the name of the track.
-     * @return the gpx string.
+     * Writes the end of a segment and of its track.
+     *
+     * @param writer the writer to use.
+     * @throws IOException if something goes wrong.
      */
-    public static String getTrackNameString( String name ) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("<name>" + name + "</name>").append("\n");
-        return sb.toString();
+    public static void writeTrackEnd( Writer writer ) throws IOException {
+        writer.write(GPX_TRACKSEGMENT_END);
+        writer.write("\n");
+        writer.write(GPX_TRACK_END);
+        writer.write("\n");
+    }
+
+    /**
+     * Writes a Trackpoint from the point values.
+     *
+     * <p>Numbers and time are formatted without intermediate objects, so that it can be
+     * called for every point of a large log.</p>
+     *
+     * @param writer the writer to use.
+     * @param lat    latitude of the point.
+     * @param lon    longitude of the point.
+     * @param elev   elevation of the point.
+     * @param time   the utc time at which the point was taken, in milliseconds.
+     * @throws IOException if something goes wrong.
+     */
+    public static void writeTrackPoint( Writer writer, double lat, double lon, double elev, long time ) throws IOException {
+        StringBuilder sb = SCRATCH.get();
+        sb.setLength(0);
+        sb.append("<trkpt lat=\"");
+        appendDecimal(sb, lat, COORDINATE_DECIMALS);
+        sb.append("\" lon=\"");
+        appendDecimal(sb, lon, COORDINATE_DECIMALS);
+        sb.append("\">\n  <ele>");
+        appendDecimal(sb, elev, ELEVATION_DECIMALS);
+        sb.append("</ele>\n  <time>");
+        appendUtcTime(sb, time);
+        sb.append("</time>\n</trkpt>\n");
+        writer.append(sb);
+    }
+
+    /**
+     * Writes a Waypoint from the point values.
+     *
+     * @param writer the writer to use.
+     * @param lat    latitude of the point.
+     * @param lon    longitude of the point.
+     * @param elev   elevation of the point.
+     * @param name   the xml safe name of the point.
+     * @param desc   a xml safe description of the point.
+     * @throws IOException if something goes wrong.
+     */
+    public static void writeWayPoint( Writer writer, double lat, double lon, double elev, String name, String desc )
+            throws IOException {
+        StringBuilder sb = SCRATCH.get();
+        sb.setLength(0);
+        sb.append("<wpt lat=\"");
+        appendDecimal(sb, lat, COORDINATE_DECIMALS);
+        sb.append("\" lon=\"");
+        appendDecimal(sb, lon, COORDINATE_DECIMALS);
+        sb.append("\">\n  <ele>");
+        appendDecimal(sb, elev, ELEVATION_DECIMALS);
+        sb.append("</ele>\n");
+        writer.append(sb);
+        writer.write("  <name>");
+        writer.write(name);
+        writer.write("</name>\n  <cmt>");
+        writer.write(desc);
+        writer.write("</cmt>\n  <desc>");
+        writer.write(desc);
+        writer.write("</desc>\n</wpt>\n");
+    }
+
+    /**
+     * Appends a number with a fixed maximum of decimals, without trailing zeros.
+     *
+     * @param sb       the builder to append to.
+     * @param value    the number.
+     * @param decimals the decimals to keep, at most 7.
+     */
+    public static void appendDecimal( StringBuilder sb, double value, int decimals ) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FIXED_VALUE) {
+            sb.append(value);
+            return;
+        }
+        long power = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * power);
+        if (scaled == 0) {
+            sb.append('0');
+            return;
+        }
+        if (value < 0)
+            sb.append('-');
+        long integerPart = scaled / power;
+        long fractionPart = scaled % power;
+        sb.append(integerPart);
+        if (fractionPart == 0)
+            return;
+        int digits = decimals;
+        while (fractionPart % 10 == 0) {
+            fractionPart /= 10;
+            digits--;
+        }
+        sb.append('.');
+        for( long p = POWERS_OF_TEN[digits - 1]; p > fractionPart; p /= 10 ) {
+            sb.append('0');
+        }
+        sb.append(fractionPart);
+    }
+
+    /**
+     * Appends a time in the gpx utc format, as {@link eu.geopaparazzi.library.util.TimeUtilities#TIME_FORMATTER_GPX_UTC}
+     * would, but without creating any object.
+     *
+     * @param sb   the builder to append to.
+     * @param time the utc time in milliseconds.
+     */
+    public static void appendUtcTime( StringBuilder sb, long time ) {
+        long days = Math.floorDiv(time, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(time, MILLIS_PER_DAY) / 1000);
+
+        // civil date from the days since the epoch, proleptic gregorian calendar
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year < 1000)
+            sb.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+        sb.append(year).append('-');
+        appendTwoDigits(sb, month);
+        sb.append('-');
+        appendTwoDigits(sb, day);
+        sb.append('T');
+        appendTwoDigits(sb, secondOfDay / 3600);
+        sb.append(':');
+        appendTwoDigits(sb, (secondOfDay / 60) % 60);
+        sb.append(':');
+        appendTwoDigits(sb, secondOfDay % 60);
+        sb.append('Z');
+    }
+
+    private static void appendTwoDigits( StringBuilder sb, int value ) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
     }
 
     /**
@@ -0,0 +1,333 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.images;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copies jpeg images adding the gps position to their exif header, without re-encoding them.
+ *
+ * <p>Only the header segments are buffered, the compressed image data are copied as they come,
+ * so images of any size can be streamed. If the image already has an exif segment, its tiff
+ * structure is kept as is: a copy of the first ifd pointing to the new gps ifd is appended and
+ * the header is pointed to it, so no existing offset changes. Data that are not jpeg are
+ * copied unchanged.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class ExifGpsWriter {
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final int MARKER_COM = 0xFE;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final int TYPE_BYTE = 1;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+    private static final int ENTRY_SIZE = 12;
+
+    private final double lon;
+    private final double lat;
+    private final double elevation;
+    private final double azimuth;
+
+    /**
+     * @param lon       the longitude.
+     * @param lat       the latitude.
+     * @param elevation the elevation in meters.
+     * @param azimuth   the direction of the image from true north, negative or NaN if unknown.
+     */
+    public ExifGpsWriter(double lon, double lat, double elevation, double azimuth) {
+        this.lon = lon;
+        this.lat = lat;
+        this.elevation = elevation;
+        this.azimuth = azimuth;
+    }
+
+    /**
+     * Copy an image, adding the gps tags if it is a jpeg.
+     *
+     * @param in  the image data, read to the end but not closed.
+     * @param out the output, not closed.
+     * @throws IOException if something goes wrong.
+     */
+    public void copy(InputStream in, OutputStream out) throws IOException {
+        int first = in.read();
+        int second = first == -1 ? -1 : in.read();
+        if (first != 0xFF || second != MARKER_SOI || Double.isNaN(lon) || Double.isNaN(lat)) {
+            if (first != -1)
+                out.write(first);
+            if (second != -1)
+                out.write(second);
+            copyRemaining(in, out);
+            return;
+        }
+        out.write(first);
+        out.write(second);
+
+        boolean gpsWritten = false;
+        while (true) {
+            int marker = readMarker(in);
+            boolean isAppOrComment = (marker >= MARKER_APP0 && marker <= MARKER_APP15) || marker == MARKER_COM;
+            if (!isAppOrComment) {
+                // application segments are over, add ours before the image segments
+                if (!gpsWritten)
+                    writeSegment(out, MARKER_APP1, createExifSegment(null));
+                out.write(0xFF);
+                out.write(marker);
+                copyRemaining(in, out);
+                return;
+            }
+
+            byte[] payload = readSegment(in);
+            if (marker == MARKER_APP1 && !gpsWritten && isExif(payload)) {
+                byte[] exifPayload = createExifSegment(payload);
+                // if the gps tags do not fit or the exif is unreadable keep the original
+                writeSegment(out, MARKER_APP1, exifPayload != null ? exifPayload : payload);
+                gpsWritten = true;
+            } else {
+                writeSegment(out, marker, payload);
+            }
+        }
+    }
+
+    private static int readMarker(InputStream in) throws IOException {
+        int b = in.read();
+        if (b != 0xFF)
+            throw new IOException("Invalid jpeg marker.");
+        // markers can be preceded by fill bytes
+        while (b == 0xFF) {
+            b = in.read();
+        }
+        if (b == -1)
+            throw new EOFException();
+        return b;
+    }
+
+    private static byte[] readSegment(InputStream in) throws IOException {
+        int high = in.read();
+        int low = in.read();
+        if (high == -1 || low == -1)
+            throw new EOFException();
+        int length = (high << 8) | low;
+        if (length < 2)
+            throw new IOException("Invalid jpeg segment length.");
+        byte[] payload = new byte[length - 2];
+        int offset = 0;
+        while (offset < payload.length) {
+            int read = in.read(payload, offset, payload.length - offset);
+            if (read == -1)
+                throw new EOFException();
+            offset += read;
+        }
+        return payload;
+    }
+
+    private static void writeSegment(OutputStream out, int marker, byte[] payload) throws IOException {
+        int length = payload.length + 2;
+        out.write(0xFF);
+        out.write(marker);
+        out.write((length >> 8) & 0xFF);
+        out.write(length & 0xFF);
+        out.write(payload);
+    }
+
+    private static void copyRemaining(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static boolean isExif(byte[] payload) {
+        if (payload.length < EXIF_HEADER.length + 8)
+            return false;
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (payload[i] != EXIF_HEADER[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create the exif segment payload with the gps tags.
+     *
+     * @param exifPayload the existing exif payload or <code>null</code> to create a new one.
+     * @return the payload or <code>null</code> if the existing exif can't be extended.
+     */
+    private byte[] createExifSegment(byte[] exifPayload) {
+        byte[] tiff;
+        if (exifPayload == null) {
+            // empty big endian tiff: header and a first ifd without entries
+            tiff = new byte[]{'M', 'M', 0, 42, 0, 0, 0, 8, 0, 0, 0, 0, 0, 0};
+        } else {
+            tiff = new byte[exifPayload.length - EXIF_HEADER.length];
+            System.arraycopy(exifPayload, EXIF_HEADER.length, tiff, 0, tiff.length);
+        }
+        byte[] newTiff = addGpsIfd(tiff);
+        if (newTiff == null || EXIF_HEADER.length + newTiff.length + 2 > MAX_SEGMENT_LENGTH)
+            return null;
+        byte[] payload = new byte[EXIF_HEADER.length + newTiff.length];
+        System.arraycopy(EXIF_HEADER, 0, payload, 0, EXIF_HEADER.length);
+        System.arraycopy(newTiff, 0, payload, EXIF_HEADER.length, newTiff.length);
+        return payload;
+    }
+
+    private byte[] addGpsIfd(byte[] tiff) {
+        ByteOrder order;
+        if (tiff[0] == 'I' && tiff[1] == 'I') {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (tiff[0] == 'M' && tiff[1] == 'M') {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            return null;
+        }
+        ByteBuffer source = ByteBuffer.wrap(tiff).order(order);
+        if (source.getShort(2) != 42)
+            return null;
+        long ifd0Offset = source.getInt(4) & 0xFFFFFFFFL;
+        if (ifd0Offset < 8 || ifd0Offset + 2 > tiff.length)
+            return null;
+        int ifd0 = (int) ifd0Offset;
+        int entriesCount = source.getShort(ifd0) & 0xFFFF;
+        int nextIfdPosition = ifd0 + 2 + entriesCount * ENTRY_SIZE;
+        if (nextIfdPosition + 4 > tiff.length)
+            return null;
+        int nextIfd = source.getInt(nextIfdPosition);
+        boolean hasGps = false;
+        for (int i = 0; i < entriesCount; i++) {
+            if ((source.getShort(ifd0 + 2 + i * ENTRY_SIZE) & 0xFFFF) == TAG_GPS_IFD)
+                hasGps = true;
+        }
+
+        boolean hasDirection = !Double.isNaN(azimuth) && azimuth >= 0;
+        int gpsEntriesCount = hasDirection ? 9 : 7;
+        int gpsIfdSize = 2 + gpsEntriesCount * ENTRY_SIZE + 4;
+        int gpsDataSize = 24 + 24 + 8 + (hasDirection ? 8 : 0);
+        int newEntriesCount = entriesCount + (hasGps ? 0 : 1);
+        int newIfd0Size = 2 + newEntriesCount * ENTRY_SIZE + 4;
+
+        // offsets have to be word aligned
+        int gpsIfdOffset = tiff.length + (tiff.length % 2);
+        int gpsDataOffset = gpsIfdOffset + gpsIfdSize;
+        int newIfd0Offset = gpsDataOffset + gpsDataSize;
+        int newLength = newIfd0Offset + newIfd0Size;
+        if (newLength > MAX_SEGMENT_LENGTH)
+            return null;
+
+        ByteBuffer target = ByteBuffer.allocate(newLength).order(order);
+        target.put(tiff);
+        target.putInt(4, newIfd0Offset);
+
+        // gps ifd, entries sorted by tag
+        target.position(gpsIfdOffset);
+        target.putShort((short) gpsEntriesCount);
+        int dataOffset = gpsDataOffset;
+        putInlineEntry(target, 0x0000, TYPE_BYTE, new byte[]{2, 3, 0, 0}, 4);
+        putInlineEntry(target, 0x0001, TYPE_ASCII, new byte[]{(byte) (lat < 0 ? 'S' : 'N'), 0}, 2);
+        putOffsetEntry(target, 0x0002, TYPE_RATIONAL, 3, dataOffset);
+        dataOffset += 24;
+        putInlineEntry(target, 0x0003, TYPE_ASCII, new byte[]{(byte) (lon < 0 ? 'W' : 'E'), 0}, 2);
+        putOffsetEntry(target, 0x0004, TYPE_RATIONAL, 3, dataOffset);
+        dataOffset += 24;
+        putInlineEntry(target, 0x0005, TYPE_BYTE, new byte[]{(byte) (elevation < 0 ? 1 : 0)}, 1);
+        putOffsetEntry(target, 0x0006, TYPE_RATIONAL, 1, dataOffset);
+        dataOffset += 8;
+        if (hasDirection) {
+            putInlineEntry(target, 0x0010, TYPE_ASCII, new byte[]{'T', 0}, 2);
+            putOffsetEntry(target, 0x0011, TYPE_RATIONAL, 1, dataOffset);
+        }
+        target.putInt(0);
+
+        // gps values
+        putDegrees(target, Math.abs(lat));
+        putDegrees(target, Math.abs(lon));
+        putRational(target, Math.abs(Double.isNaN(elevation) ? 0 : elevation), 100);
+        if (hasDirection)
+            putRational(target, azimuth % 360.0, 100);
+
+        // copy of the first ifd, with the gps ifd entry added or replaced
+        target.position(newIfd0Offset);
+        target.putShort((short) newEntriesCount);
+        boolean gpsEntryWritten = false;
+        for (int i = 0; i < entriesCount; i++) {
+            int entryPosition = ifd0 + 2 + i * ENTRY_SIZE;
+            int tag = source.getShort(entryPosition) & 0xFFFF;
+            if (!gpsEntryWritten && tag >= TAG_GPS_IFD) {
+                putLongEntry(target, TAG_GPS_IFD, gpsIfdOffset);
+                gpsEntryWritten = true;
+                if (tag == TAG_GPS_IFD)
+                    continue;
+            }
+            target.put(tiff, entryPosition, ENTRY_SIZE);
+        }
+        if (!gpsEntryWritten)
+            putLongEntry(target, TAG_GPS_IFD, gpsIfdOffset);
+        target.putInt(nextIfd);
+        return target.array();
+    }
+
+    private static void putInlineEntry(ByteBuffer target, int tag, int type, byte[] value, int count) {
+        target.putShort((short) tag);
+        target.putShort((short) type);
+        target.putInt(count);
+        byte[] field = new byte[4];
+        System.arraycopy(value, 0, field, 0, Math.min(value.length, 4));
+        target.put(field);
+    }
+
+    private static void putOffsetEntry(ByteBuffer target, int tag, int type, int count, int offset) {
+        target.putShort((short) tag);
+        target.putShort((short) type);
+        target.putInt(count);
+        target.putInt(offset);
+    }
+
+    private static void putLongEntry(ByteBuffer target, int tag, int value) {
+        putOffsetEntry(target, tag, TYPE_LONG, 1, value);
+    }
+
+    private static void putDegrees(ByteBuffer target, double value) {
+        int degrees = (int) value;
+        double minutesDouble = (value - degrees) * 60.0;
+        int minutes = (int) minutesDouble;
+        double seconds = (minutesDouble - minutes) * 60.0;
+        putRational(target, degrees, 1);
+        putRational(target, minutes, 1);
+        putRational(target, seconds, 10000);
+    }
+
+    private static void putRational(ByteBuffer target, double value, int denominator) {
+        target.putInt((int) Math.round(value * denominator));
+        target.putInt(denominator);
+    }
+}
@@ -31,6 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.util.Date;
 
@@ -167,56 +168,25 @@ public class ImageUtilities {
     /**
      * Get an image and thumbnail from a file by its path.
      *
+     * <p>The image data are the file as is, the thumbnail is decoded subsampled
+     * and rotated following the exif orientation.</p>
+     *
      * @param imageFilePath the image path.
-     * @param tryCount      times to try in 300 millis loop, in case the image is
-     *                      not yet on disk. (ugly but no other way right now)
-     * @return the image and thumbnail data or null.
+     * @param tryCount      not used anymore.
+     * @return the image and thumbnail data.
+     * @throws IOException if the image can't be read.
      */
     public static byte[][] getImageAndThumbnailFromPath(String imageFilePath, int tryCount) throws IOException {
         byte[][] imageAndThumbNail = new byte[2][];
 
-        RandomAccessFile f = new RandomAccessFile(imageFilePath, "r");
-        byte[] imageByteArray = new byte[(int) f.length()];
-        f.readFully(imageByteArray);
-
-        // first read full image and check existence
-        Bitmap image = BitmapFactory.decodeByteArray(imageByteArray, 0, imageByteArray.length);
-//        int count = 0;
-//        while (image == null && ++count < tryCount) {
-//            try {
-//                Thread.sleep(300);
-//            } catch (InterruptedException e) {
-//                e.printStackTrace();
-//            }
-//            image = BitmapFactory.decodeFile(imageFilePath);
-//        }
-//        if (image == null) return null;
-
-        // It is necessary to rotate the image before converting to bytes, as the exif information
-        // will be lost afterwards and the image will be incorrectly oriented in some devices
-        float orientation = getRotation(imageFilePath);
-        if (orientation > 0) {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(orientation);
-
-            image = Bitmap.createBitmap(image, 0, 0, image.getWidth(),
-                    image.getHeight(), matrix, true);
+        byte[] imageByteArray;
+        try (RandomAccessFile f = new RandomAccessFile(imageFilePath, "r")) {
+            imageByteArray = new byte[(int) f.length()];
+            f.readFully(imageByteArray);
         }
 
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        // define sampling for thumbnail
-        float sampleSizeF = (float) width / (float) THUMBNAILWIDTH;
-        float newHeight = height / sampleSizeF;
-        Bitmap thumbnail = Bitmap.createScaledBitmap(image, THUMBNAILWIDTH, (int) newHeight, false);
-
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        thumbnail.compress(Bitmap.CompressFormat.JPEG, 90, stream);
-        byte[] thumbnailBytes = stream.toByteArray();
-
         imageAndThumbNail[0] = imageByteArray;
-        imageAndThumbNail[1] = thumbnailBytes;
+        imageAndThumbNail[1] = ThumbnailService.createThumbnails(imageFilePath, THUMBNAILWIDTH)[0];
         return imageAndThumbNail;
     }
 
@@ -238,6 +208,25 @@ public class ImageUtilities {
         }
     }
 
+    /**
+     * Write an image stream to disk, without keeping the image in memory.
+     *
+     * @param imageStream the stream to write, closed when done.
+     * @param imagePath   the path to write to.
+     * @throws IOException if the stream is <code>null</code> or the writing fails.
+     */
+    public static void writeImageStreamToFile(InputStream imageStream, String imagePath) throws IOException {
+        if (imageStream == null)
+            throw new IOException("No image data to write to: " + imagePath);
+        try (InputStream in = imageStream; FileOutputStream fout = new FileOutputStream(imagePath)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                fout.write(buffer, 0, read);
+            }
+        }
+    }
+
     /**
      * Calculates the optimum inSampleSize parameter based on the real
      * image size and the required subsampled size
@@ -322,20 +311,73 @@ public class ImageUtilities {
         return myBitmap;
     }
 
+    /**
+     * Apply a transparent color and a global alpha to a bitmap in a single pass over its pixels.
+     *
+     * <p>Differently from {@link #makeTransparent(Bitmap, int)} and {@link #makeBitmapTransparent(Bitmap, int)}
+     * no new bitmap is created if the supplied one is mutable.</p>
+     *
+     * @param bitmap           the bitmap to process.
+     * @param transparentColor an optional color to make transparent.
+     * @param alpha            an optional alpha value [0-255] to apply.
+     * @return the processed bitmap, which is the same as the input one if it was mutable and ARGB_8888.
+     */
+    public static Bitmap applyTransparency(Bitmap bitmap, Integer transparentColor, Integer alpha) {
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            Bitmap mutableBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+            bitmap.recycle();
+            bitmap = mutableBitmap;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = pixels[i];
+            if (transparentColor != null && pixel == transparentColor) {
+                pixels[i] = Color.TRANSPARENT;
+            } else if (alpha != null) {
+                int pixelAlpha = (pixel >>> 24) * alpha / 255;
+                pixels[i] = (pixelAlpha << 24) | (pixel & 0x00FFFFFF);
+            }
+        }
+        bitmap.setHasAlpha(true);
+        bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
     public static float getRotation(String imagePath) {
         try {
-            ExifInterface exif = new ExifInterface(imagePath);
-            int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
-                return 90f;
-            } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
-                return 180f;
-            } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-                return 270f;
-            }
+            return getRotation(new ExifInterface(imagePath));
+        } catch (IOException e) {
+        }
+        return 0f;
+    }
+
+    /**
+     * Get the rotation of an image from its exif header, without decoding it.
+     *
+     * @param imageStream the image stream, positioned at the start.
+     * @return the rotation in degrees.
+     */
+    public static float getRotation(InputStream imageStream) {
+        try {
+            return getRotation(new ExifInterface(imageStream));
         } catch (IOException e) {
         }
         return 0f;
     }
+
+    private static float getRotation(ExifInterface exif) {
+        int exifOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_NORMAL);
+        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) {
+            return 90f;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {
+            return 180f;
+        } else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
+            return 270f;
+        }
+        return 0f;
+    }
 }
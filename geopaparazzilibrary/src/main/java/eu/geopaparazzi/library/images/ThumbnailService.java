@@ -0,0 +1,413 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.images;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.library.GPApplication;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.MemoryUtilities;
+
+/**
+ * Creates and caches image thumbnails.
+ *
+ * <p>Thumbnails are decoded subsampled, so the full size image is never held in memory, and
+ * rotated following the exif orientation, which is read from the header only. Gallery views load
+ * them through {@link #load(String, int, ThumbnailSource, ImageView)}, which works on a small
+ * bounded pool and keeps the results in a memory cache backed by a disk cache in the application
+ * cache folder.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public enum ThumbnailService implements ComponentCallbacks2 {
+    INSTANCE;
+
+    /**
+     * The size of the thumbnails kept in the database.
+     */
+    public static final int SIZE_SMALL = ImageUtilities.THUMBNAILWIDTH;
+    /**
+     * The size for grids and lists on dense screens.
+     */
+    public static final int SIZE_MEDIUM = 256;
+    /**
+     * The size for previews.
+     */
+    public static final int SIZE_LARGE = 512;
+
+    private static final int[] SIZES = {SIZE_SMALL, SIZE_MEDIUM, SIZE_LARGE};
+    private static final int JPEG_QUALITY = 90;
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_SIZE = 48;
+    private static final int MEMORY_FRACTION = 16;
+    private static final int MAX_MEMORY_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_DISK_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int WRITES_BETWEEN_TRIMS = 32;
+    private static final String CACHE_FOLDER = "thumbnails";
+
+    /**
+     * Creates the thumbnail of an image, called on a background thread.
+     */
+    public interface ThumbnailSource {
+        /**
+         * @param size the thumbnail width.
+         * @return the thumbnail or <code>null</code> if not available.
+         * @throws Exception if something goes wrong.
+         */
+        Bitmap createThumbnail(int size) throws Exception;
+    }
+
+    private LruCache<String, Bitmap> memoryCache;
+    private ThreadPoolExecutor executor;
+    private File diskCacheFolder;
+    private int writesSinceTrim = 0;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ImageView, String> targets = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private synchronized void init() {
+        if (memoryCache != null)
+            return;
+        Context context = GPApplication.getInstance();
+        long memoryBytes = MemoryUtilities.getMemoryClassBytes(context);
+        int cacheSize = (int) Math.min(memoryBytes / MEMORY_FRACTION, MAX_MEMORY_CACHE_BYTES);
+        memoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        // when scrolling fast the oldest requests belong to views that are no longer visible
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "thumbnails");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        if (context != null) {
+            diskCacheFolder = new File(context.getCacheDir(), CACHE_FOLDER);
+            context.registerComponentCallbacks(this);
+        }
+    }
+
+    /**
+     * Get the smallest thumbnail size that covers a view.
+     *
+     * @param pixels the size of the view in pixels.
+     * @return one of the SIZE_* sizes.
+     */
+    public static int getSizeFor(int pixels) {
+        for (int size : SIZES) {
+            if (size >= pixels)
+                return size;
+        }
+        return SIZE_LARGE;
+    }
+
+    /**
+     * Create a thumbnail from an image file.
+     *
+     * @param imagePath the image path.
+     * @param size      the thumbnail width.
+     * @return the thumbnail or <code>null</code> if the image can't be decoded.
+     */
+    public static Bitmap createThumbnail(String imagePath, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        options.inSampleSize = ImageUtilities.calculateInSampleSize(options, size, size);
+        options.inJustDecodeBounds = false;
+        Bitmap image = BitmapFactory.decodeFile(imagePath, options);
+        if (image == null)
+            return null;
+        Bitmap thumbnail = scaleAndRotate(image, size, ImageUtilities.getRotation(imagePath));
+        if (thumbnail != image)
+            image.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Create a thumbnail from image data.
+     *
+     * @param imageData the encoded image.
+     * @param size      the thumbnail width.
+     * @return the thumbnail or <code>null</code> if the image can't be decoded.
+     */
+    public static Bitmap createThumbnail(byte[] imageData, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+        options.inSampleSize = ImageUtilities.calculateInSampleSize(options, size, size);
+        options.inJustDecodeBounds = false;
+        Bitmap image = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (image == null)
+            return null;
+        Bitmap thumbnail = scaleAndRotate(image, size, ImageUtilities.getRotation(new ByteArrayInputStream(imageData)));
+        if (thumbnail != image)
+            image.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Create thumbnails of several sizes from an image file, decoding it once.
+     *
+     * @param imagePath the image path.
+     * @param sizes     the thumbnail widths.
+     * @return the jpeg thumbnails, in the order of the sizes.
+     * @throws IOException if the image can't be decoded.
+     */
+    public static byte[][] createThumbnails(String imagePath, int... sizes) throws IOException {
+        int maxSize = 0;
+        for (int size : sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+        Bitmap largest = createThumbnail(imagePath, maxSize);
+        if (largest == null)
+            throw new IOException("Unable to decode the image: " + imagePath);
+
+        byte[][] thumbnails = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            Bitmap thumbnail = scaleAndRotate(largest, sizes[i], 0);
+            thumbnails[i] = toJpeg(thumbnail);
+            if (thumbnail != largest)
+                thumbnail.recycle();
+        }
+        largest.recycle();
+        return thumbnails;
+    }
+
+    /**
+     * Scale the image to the given width, never enlarging it, and rotate it in the same pass.
+     * The image is returned as is if there is nothing to do.
+     */
+    private static Bitmap scaleAndRotate(Bitmap image, int size, float rotation) {
+        boolean isSwapped = rotation == 90f || rotation == 270f;
+        int width = isSwapped ? image.getHeight() : image.getWidth();
+        float scale = Math.min(1f, (float) size / width);
+        if (scale == 1f && rotation == 0f)
+            return image;
+
+        Matrix matrix = new Matrix();
+        matrix.postScale(scale, scale);
+        if (rotation != 0f)
+            matrix.postRotate(rotation);
+        return Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
+    }
+
+    private static byte[] toJpeg(Bitmap bitmap) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Load a thumbnail into a view, from the caches or from its source on a background thread.
+     *
+     * <p>Must be called on the main thread. Views recycled by adapters can be reused freely, the
+     * thumbnail is only set if the view has not been asked for a different one meanwhile.</p>
+     *
+     * @param key    a key that identifies the image across sessions, for example db path, table and id.
+     * @param size   the thumbnail width, see {@link #getSizeFor(int)}.
+     * @param source creates the thumbnail when not cached.
+     * @param target the view to set the thumbnail in.
+     */
+    public void load(String key, final int size, final ThumbnailSource source, final ImageView target) {
+        init();
+        final String cacheKey = getCacheKey(key, size);
+        targets.put(target, cacheKey);
+        Bitmap cached = memoryCache.get(cacheKey);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+        target.setImageDrawable(null);
+
+        executor.execute(() -> {
+            if (!cacheKey.equals(targets.get(target)))
+                return;
+            try {
+                Bitmap thumbnail = readFromDisk(cacheKey);
+                if (thumbnail == null) {
+                    thumbnail = source.createThumbnail(size);
+                    if (thumbnail == null)
+                        return;
+                    writeToDisk(cacheKey, thumbnail);
+                }
+                memoryCache.put(cacheKey, thumbnail);
+                final Bitmap result = thumbnail;
+                mainHandler.post(() -> {
+                    if (cacheKey.equals(targets.get(target)))
+                        target.setImageBitmap(result);
+                });
+            } catch (Exception e) {
+                GPLog.error(this, "Unable to create the thumbnail for " + cacheKey, e);
+            }
+        });
+    }
+
+    /**
+     * Remove the cached thumbnails of an image, to be called when the image is removed or changed.
+     *
+     * @param key the key of the image.
+     */
+    public void remove(String key) {
+        init();
+        for (int size : SIZES) {
+            String cacheKey = getCacheKey(key, size);
+            memoryCache.remove(cacheKey);
+            File file = getDiskFile(cacheKey);
+            if (file != null && file.exists())
+                file.delete();
+        }
+    }
+
+    private static String getCacheKey(String key, int size) {
+        return key + "@" + size;
+    }
+
+    private File getDiskFile(String cacheKey) {
+        if (diskCacheFolder == null)
+            return null;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(cacheKey.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(diskCacheFolder, sb.toString());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private Bitmap readFromDisk(String cacheKey) {
+        File file = getDiskFile(cacheKey);
+        if (file == null || !file.exists())
+            return null;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        if (bitmap != null) {
+            // keeps the recently used thumbnails when trimming
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    private void writeToDisk(String cacheKey, Bitmap thumbnail) {
+        File file = getDiskFile(cacheKey);
+        if (file == null)
+            return;
+        File folder = file.getParentFile();
+        if (!folder.exists() && !folder.mkdirs())
+            return;
+        File tmpFile = new File(folder, file.getName() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmpFile)) {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, fout);
+        } catch (IOException e) {
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file))
+            tmpFile.delete();
+
+        boolean doTrim;
+        synchronized (this) {
+            doTrim = ++writesSinceTrim >= WRITES_BETWEEN_TRIMS;
+            if (doTrim)
+                writesSinceTrim = 0;
+        }
+        if (doTrim)
+            trimDisk();
+    }
+
+    /**
+     * Remove the least recently used files until the disk cache is below its size.
+     */
+    private synchronized void trimDisk() {
+        File[] files = diskCacheFolder.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_CACHE_BYTES)
+            return;
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_CACHE_BYTES * 3 / 4)
+                break;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (memoryCache == null)
+            return;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            memoryCache.trimToSize(memoryCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (memoryCache != null)
+            memoryCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // nothing to do
+    }
+}
@@ -18,6 +18,7 @@
 package eu.geopaparazzi.library.kml;
 
 import java.io.Serializable;
+import java.io.Writer;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.Image;
@@ -30,12 +31,12 @@ import eu.geopaparazzi.library.database.Image;
  */
 public interface KmlRepresenter extends Serializable {
     /**
-     * Transforms the object in its kml representation.
-     *  
-     * @return the kml representation.
+     * Writes the kml representation of the object.
+     *
+     * @param writer the writer to append the kml to.
      * @throws Exception  if something goes wrong.
      */
-    String toKmlString() throws Exception;
+    void writeKml(Writer writer) throws Exception;
 
     /**
      * Getter for image flag.
@@ -0,0 +1,30 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.kml;
+
+/**
+ * A {@link KmlRepresenter} of data too large to be held in memory, written straight to the kml.
+ *
+ * <p>Implementations read their data before writing anything, and if reading fails after that
+ * they close the elements they started, so that the kml stays valid. An exception thrown by
+ * {@link #writeKml(java.io.Writer)} is a failure of the writer and stops the export.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public interface KmlStreamRepresenter extends KmlRepresenter {
+}
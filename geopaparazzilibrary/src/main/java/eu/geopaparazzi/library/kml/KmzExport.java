@@ -17,13 +17,19 @@
  */
 package eu.geopaparazzi.library.kml;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.TreeSet;
-import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -41,6 +47,7 @@ import eu.geopaparazzi.library.database.Image;
  */
 @SuppressWarnings("nls")
 public class KmzExport {
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final File outputFile;
     private String name;
@@ -59,6 +66,11 @@ public class KmzExport {
     /**
      * Export.
      *
+     * <p>The kml is written into the kmz entry one placemark at the time, and the
+     * images are streamed from the database, so that nothing is held entirely in memory.
+     * Placemarks are rendered aside first, so that a failing one is skipped whole, while
+     * {@link KmlStreamRepresenter}s are written straight.</p>
+     *
      * @param context         the context to use.
      * @param kmlRepresenters the list of data representers.
      * @throws Exception if something goes wrong.
@@ -68,98 +80,104 @@ public class KmzExport {
             name = "Geopaparazzi Export";
         }
 
-        /*
-         * write the internal kml file
-         */
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-        stringBuilder.append("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"\n");
-        stringBuilder.append("xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n");
-        stringBuilder.append("<Document>\n");
-        stringBuilder.append("<name>");
-        stringBuilder.append(name);
-        stringBuilder.append("</name>\n");
-        addMarker(stringBuilder, "red-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/red-pushpin.png", 20, 2);
-        addMarker(stringBuilder, "yellow-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png", 20, 2);
-        addMarker(stringBuilder, "bookmark-icon", "http://maps.google.com/mapfiles/kml/pal4/icon39.png", 16, 16);
-        addMarker(stringBuilder, "camera-icon", "http://maps.google.com/mapfiles/kml/pal4/icon38.png", 16, 16);
-        addMarker(stringBuilder, "info-icon", "http://maps.google.com/mapfiles/kml/pal3/icon35.png", 16, 16);
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE))) {
+            /*
+             * write the internal kml file
+             */
+            zos.putNextEntry(new ZipEntry("kml.kml"));
+            // not closed, it would close the zip
+            Writer writer = new BufferedWriter(new OutputStreamWriter(zos, Charset.forName("UTF-8")), BUFFER_SIZE);
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\"\n");
+            writer.write("xmlns:kml=\"http://www.opengis.net/kml/2.2\" xmlns:atom=\"http://www.w3.org/2005/Atom\">\n");
+            writer.write("<Document>\n");
+            writer.write("<name>");
+            writer.write(name);
+            writer.write("</name>\n");
+            addMarker(writer, "red-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/red-pushpin.png", 20, 2);
+            addMarker(writer, "yellow-pushpin", "http://maps.google.com/mapfiles/kml/pushpin/ylw-pushpin.png", 20, 2);
+            addMarker(writer, "bookmark-icon", "http://maps.google.com/mapfiles/kml/pal4/icon39.png", 16, 16);
+            addMarker(writer, "camera-icon", "http://maps.google.com/mapfiles/kml/pal4/icon38.png", 16, 16);
+            addMarker(writer, "info-icon", "http://maps.google.com/mapfiles/kml/pal3/icon35.png", 16, 16);
 
-        for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
-            try {
-                stringBuilder.append(kmlRepresenter.toKmlString());
-            } catch (Exception e) {
-                GPLog.error(this, e.getLocalizedMessage(), e);
-                e.printStackTrace();
+            // every placemark is rendered aside and copied only if complete, a failing one is skipped whole
+            StringWriter placemark = new StringWriter();
+            char[] chars = new char[8192];
+            for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
+                if (kmlRepresenter instanceof KmlStreamRepresenter) {
+                    // too large to be rendered aside, it keeps the kml valid by itself
+                    kmlRepresenter.writeKml(writer);
+                    continue;
+                }
+                placemark.getBuffer().setLength(0);
+                try {
+                    kmlRepresenter.writeKml(placemark);
+                } catch (Exception e) {
+                    GPLog.error(this, e.getLocalizedMessage(), e);
+                    continue;
+                }
+                StringBuffer placemarkBuffer = placemark.getBuffer();
+                for (int start = 0; start < placemarkBuffer.length(); start += chars.length) {
+                    int end = Math.min(start + chars.length, placemarkBuffer.length());
+                    placemarkBuffer.getChars(start, end, chars, 0);
+                    writer.write(chars, 0, end - start);
+                }
             }
-        }
-        stringBuilder.append("</Document>\n");
-        stringBuilder.append("</kml>\n");
-
-        byte[] kmlBytes = stringBuilder.toString().getBytes(Charset.forName("UTF-8"));
+            writer.write("</Document>\n");
+            writer.write("</kml>\n");
+            writer.flush();
+            zos.closeEntry();
 
-        /*
-         * start adding the kml part
-         */
-        FileOutputStream fos = new FileOutputStream(outputFile);
-        ZipOutputStream zos = new ZipOutputStream(fos);
-        CRC32 crc = new CRC32();
-        String kmlName = "kml.kml";
-        crc.update(kmlBytes);
-        ZipEntry entry = new ZipEntry(kmlName);
-        entry.setMethod(ZipEntry.STORED);
-        entry.setCompressedSize(kmlBytes.length);
-        entry.setSize(kmlBytes.length);
-        entry.setCrc(crc.getValue());
-        zos.putNextEntry(entry);
-        zos.write(kmlBytes);
+            /*
+             * now add all images, the crc is computed by the zip while streaming
+             */
+            // jpegs are already compressed, don't spend time on them
+            zos.setLevel(Deflater.BEST_SPEED);
+            IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
+            TreeSet<String> addedImages = new TreeSet<String>();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
+                if (kmlRepresenter.hasImages()) {
+                    List<String> imageIds = kmlRepresenter.getImageIds();
+                    for (String imageId : imageIds) {
+                        long id = Long.parseLong(imageId);
+                        Image image = imagesDbHelper.getImage(id);
+                        if (image == null)
+                            continue;
+                        String imageName = image.getName();
 
-        /*
-         * now add all images
-         */
-        IImagesDbHelper imagesDbHelper = DefaultHelperClasses.getDefaulfImageHelper();
-        TreeSet<String> addedImages = new TreeSet<String>();
-        for (KmlRepresenter kmlRepresenter : kmlRepresenters) {
-            if (kmlRepresenter.hasImages()) {
-                List<String> imageIds = kmlRepresenter.getImageIds();
-                for (String imageId : imageIds) {
-                    long id = Long.parseLong(imageId);
-                    Image image = imagesDbHelper.getImage(id);
-                    String imageName = image.getName();
-
-                    if (!addedImages.add(imageName)){
-                        // don't add double images
-                        continue;
+                        if (!addedImages.add(imageName)) {
+                            // don't add double images
+                            continue;
+                        }
+                        try (InputStream imageStream = imagesDbHelper.getImageDataStream(id)) {
+                            if (imageStream == null)
+                                continue;
+                            zos.putNextEntry(new ZipEntry(imageName));
+                            int read;
+                            while ((read = imageStream.read(buffer)) != -1) {
+                                zos.write(buffer, 0, read);
+                            }
+                            zos.closeEntry();
+                        }
                     }
-                    byte[] imageData = imagesDbHelper.getImageData(id);
-
-                    crc.reset();
-                    crc.update(imageData);
-                    ZipEntry imageEntry = new ZipEntry(imageName);
-                    imageEntry.setMethod(ZipEntry.STORED);
-                    imageEntry.setCompressedSize(imageData.length);
-                    imageEntry.setSize(imageData.length);
-                    imageEntry.setCrc(crc.getValue());
-                    zos.putNextEntry(imageEntry);
-                    zos.write(imageData);
                 }
             }
         }
-        zos.close();
     }
 
-    private void addMarker(StringBuilder sb, String alias, String url, int x, int y) throws IOException {
-        sb.append("<Style id=\"" + alias + "\">\n");
-        sb.append("<IconStyle>\n");
-        sb.append("<scale>1.1</scale>\n");
-        sb.append("<Icon>\n");
-        sb.append("<href>" + url + "\n");
-        sb.append("</href>\n");
-        sb.append("</Icon>\n");
-        sb.append("<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\" />\n");
-        sb.append("</IconStyle>\n");
-        sb.append("<ListStyle>\n");
-        sb.append("</ListStyle>\n");
-        sb.append("</Style>\n");
+    private void addMarker(Writer writer, String alias, String url, int x, int y) throws IOException {
+        writer.write("<Style id=\"" + alias + "\">\n");
+        writer.write("<IconStyle>\n");
+        writer.write("<scale>1.1</scale>\n");
+        writer.write("<Icon>\n");
+        writer.write("<href>" + url + "\n");
+        writer.write("</href>\n");
+        writer.write("</Icon>\n");
+        writer.write("<hotSpot x=\"" + x + "\" y=\"" + y + "\" xunits=\"pixels\" yunits=\"pixels\" />\n");
+        writer.write("</IconStyle>\n");
+        writer.write("<ListStyle>\n");
+        writer.write("</ListStyle>\n");
+        writer.write("</Style>\n");
     }
 }
@@ -126,6 +126,41 @@ public class Style {
 
     public String themeField;
 
+    /**
+     * Create a copy of the style, the theme styles included.
+     *
+     * @return the copy.
+     */
+    public Style copy() {
+        Style style = new Style();
+        style.id = id;
+        style.name = name;
+        style.size = size;
+        style.fillcolor = fillcolor;
+        style.strokecolor = strokecolor;
+        style.fillalpha = fillalpha;
+        style.strokealpha = strokealpha;
+        style.shape = shape;
+        style.width = width;
+        style.labelsize = labelsize;
+        style.labelfield = labelfield;
+        style.labelvisible = labelvisible;
+        style.enabled = enabled;
+        style.order = order;
+        style.dashPattern = dashPattern;
+        style.minZoom = minZoom;
+        style.maxZoom = maxZoom;
+        style.decimationFactor = decimationFactor;
+        style.themeField = themeField;
+        if (themeMap != null) {
+            style.themeMap = new HashMap<>();
+            for (HashMap.Entry<String, Style> entry : themeMap.entrySet()) {
+                style.themeMap.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return style;
+    }
+
     /**
      * @return a string that can be used in a sql insert statement with
      * all the values placed.
@@ -29,6 +29,7 @@ import android.content.pm.ResolveInfo;
 import android.net.Uri;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -271,6 +272,26 @@ public class AppsUtilities {
         showImage(imageFile, context);
     }
 
+    /**
+     * Show an image streamed from the database.
+     *
+     * @param imageStream the image data stream, closed when done.
+     * @param imageName   the image name.
+     * @param context     the context to use.
+     * @throws Exception
+     */
+    public static void showImage(InputStream imageStream, String imageName, Context context) throws Exception {
+        File tempDir = ResourcesManager.getInstance(context).getTempDir();
+        String ext = ".jpg";
+        if (imageName.endsWith(".png")) {
+            ext = ".png";
+        }
+        File imageFile = new File(tempDir, ImageUtilities.getTempImageName(ext));
+        ImageUtilities.writeImageStreamToFile(imageStream, imageFile.getAbsolutePath());
+
+        showImage(imageFile, context);
+    }
+
     /**
      * Show and image.
      *
@@ -381,4 +381,20 @@ public interface LibraryConstants {
     String PREFS_KEY_SHOW_GPS_INFO = "show_gps_info";
     String PREFS_KEY_IGNORE_GPS_ACCURACY = "ignore_gps_accuracy";
 
+    /*
+     * online tiles disk cache
+     */
+    String PREFS_KEY_TILECACHE_TOTAL_MB = "PREFS_KEY_TILECACHE_TOTAL_MB";
+    String PREFS_KEY_TILECACHE_SOURCE_MB = "PREFS_KEY_TILECACHE_SOURCE_MB";
+
+    /*
+     * debug metrics
+     */
+    String PREFS_KEY_METRICS_OVERLAY = "PREFS_KEY_METRICS_OVERLAY";
+
+    /*
+     * image data stored in files beside the database
+     */
+    String PREFS_KEY_IMAGES_EXTERNAL_STORE = "PREFS_KEY_IMAGES_EXTERNAL_STORE";
+
 }
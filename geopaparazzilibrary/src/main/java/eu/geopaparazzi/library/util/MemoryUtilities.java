@@ -110,4 +110,22 @@ public class MemoryUtilities {
         return memMessage;
     }
 
+    /**
+     * Get the memory available to the application heap.
+     *
+     * @param context the context to use.
+     * @return the memory class of the device in bytes, or the max memory of the vm if not available.
+     */
+    public static long getMemoryClassBytes( Context context ) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (context != null) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager != null) {
+                long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+                return Math.min(memoryClassBytes, maxMemory);
+            }
+        }
+        return maxMemory;
+    }
+
 }
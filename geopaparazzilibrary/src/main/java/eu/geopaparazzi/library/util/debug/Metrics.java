@@ -0,0 +1,265 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util.debug;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.geopaparazzi.library.util.FileUtilities;
+import eu.geopaparazzi.library.util.TimeUtilities;
+
+/**
+ * Lightweight metrics of the hot paths: counters, timers and histograms.
+ *
+ * <p>Recording is lock free and does not allocate once a metric exists, so it can be used
+ * in tile queries and loading loops. Timers are histograms of microseconds:</p>
+ *
+ * <pre>
+ * long start = Metrics.INSTANCE.startTimer();
+ * ...
+ * Metrics.INSTANCE.stopTimer("tiles.mbtiles.query", start);
+ * </pre>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum Metrics {
+    INSTANCE;
+
+    private static final String UNIT_MICROS = "us";//NON-NLS
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MetricsHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile boolean isEnabled = true;
+
+    /**
+     * @param enabled if <code>false</code>, nothing is recorded.
+     */
+    public void setEnabled(boolean enabled) {
+        isEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * Increment a counter by one.
+     *
+     * @param name the counter name.
+     */
+    public void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param name  the counter name.
+     * @param delta the value to add.
+     */
+    public void increment(String name, long delta) {
+        if (!isEnabled)
+            return;
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null)
+                counter = newCounter;
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Record a value in a histogram.
+     *
+     * @param name  the histogram name.
+     * @param value the value.
+     */
+    public void record(String name, long value) {
+        if (!isEnabled)
+            return;
+        getHistogram(name, "").record(value);
+    }
+
+    /**
+     * @return the start time to pass to {@link #stopTimer(String, long)}.
+     */
+    public long startTimer() {
+        return isEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time elapsed since the start.
+     *
+     * @param name  the timer name.
+     * @param start the value returned by {@link #startTimer()}.
+     */
+    public void stopTimer(String name, long start) {
+        if (!isEnabled || start == 0)
+            return;
+        long micros = (System.nanoTime() - start) / 1000;
+        getHistogram(name, UNIT_MICROS).record(micros);
+    }
+
+    private MetricsHistogram getHistogram(String name, String unit) {
+        MetricsHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            MetricsHistogram newHistogram = new MetricsHistogram(name, unit);
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null)
+                histogram = newHistogram;
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the counters values by name, sorted.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * @return the snapshots of timers and histograms, sorted by name.
+     */
+    public List<MetricsHistogram.Snapshot> getSnapshots() {
+        List<MetricsHistogram.Snapshot> snapshots = new ArrayList<>();
+        for (MetricsHistogram histogram : histograms.values()) {
+            snapshots.add(histogram.getSnapshot());
+        }
+        Collections.sort(snapshots, (s1, s2) -> s1.name.compareTo(s2.name));
+        return snapshots;
+    }
+
+    /**
+     * Get a short text of the slowest timers and of the counters, for an overlay.
+     *
+     * @param maxTimers the max number of timers to show.
+     * @return the summary text.
+     */
+    public String getSummary(int maxTimers) {
+        List<MetricsHistogram.Snapshot> timers = new ArrayList<>();
+        for (MetricsHistogram.Snapshot snapshot : getSnapshots()) {
+            if (UNIT_MICROS.equals(snapshot.unit))
+                timers.add(snapshot);
+        }
+        Collections.sort(timers, (s1, s2) -> Long.compare(s2.p95, s1.p95));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < timers.size() && i < maxTimers; i++) {
+            MetricsHistogram.Snapshot timer = timers.get(i);
+            sb.append(timer.name).append(" n=").append(timer.count)//NON-NLS
+                    .append(" p50=").append(timer.p50 / 1000.0).append("ms")//NON-NLS
+                    .append(" p95=").append(timer.p95 / 1000.0).append("ms\n");//NON-NLS
+        }
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            sb.append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * @return all metrics as csv, one line per metric.
+     */
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("type;name;unit;count;min;max;mean;p50;p95;p99\n");//NON-NLS
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            sb.append("counter;").append(entry.getKey()).append(";;").append(entry.getValue()).append(";;;;;;\n");//NON-NLS
+        }
+        for (MetricsHistogram.Snapshot s : getSnapshots()) {
+            sb.append(UNIT_MICROS.equals(s.unit) ? "timer" : "histogram").append(";");//NON-NLS
+            sb.append(s.name).append(";").append(s.unit).append(";").append(s.count).append(";");
+            sb.append(s.min).append(";").append(s.max).append(";").append(s.mean).append(";");
+            sb.append(s.p50).append(";").append(s.p95).append(";").append(s.p99).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return all metrics as json.
+     * @throws JSONException if something goes wrong.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject root = new JSONObject();
+        root.put("timestamp", System.currentTimeMillis());//NON-NLS
+        JSONObject countersObj = new JSONObject();
+        for (Map.Entry<String, Long> entry : getCounters().entrySet()) {
+            countersObj.put(entry.getKey(), entry.getValue().longValue());
+        }
+        root.put("counters", countersObj);//NON-NLS
+        JSONArray histogramsArray = new JSONArray();
+        for (MetricsHistogram.Snapshot s : getSnapshots()) {
+            JSONObject h = new JSONObject();
+            h.put("name", s.name);//NON-NLS
+            h.put("unit", s.unit);//NON-NLS
+            h.put("count", s.count);//NON-NLS
+            h.put("min", s.min);//NON-NLS
+            h.put("max", s.max);//NON-NLS
+            h.put("mean", s.mean);//NON-NLS
+            h.put("p50", s.p50);//NON-NLS
+            h.put("p95", s.p95);//NON-NLS
+            h.put("p99", s.p99);//NON-NLS
+            histogramsArray.put(h);
+        }
+        root.put("histograms", histogramsArray);//NON-NLS
+        return root;
+    }
+
+    /**
+     * Export the metrics as csv and json files.
+     *
+     * @param folder the folder to write to.
+     * @return the written csv and json files.
+     * @throws IOException   if something goes wrong.
+     * @throws JSONException if something goes wrong.
+     */
+    public File[] export(File folder) throws IOException, JSONException {
+        String ts = TimeUtilities.INSTANCE.TIMESTAMPFORMATTER_LOCAL.format(new Date());
+        File csvFile = new File(folder, "metrics_" + ts + ".csv");//NON-NLS
+        File jsonFile = new File(folder, "metrics_" + ts + ".json");//NON-NLS
+        FileUtilities.writefile(toCsv(), csvFile);
+        FileUtilities.writefile(toJson().toString(2), jsonFile);
+        return new File[]{csvFile, jsonFile};
+    }
+
+    /**
+     * Remove all metrics.
+     */
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+}
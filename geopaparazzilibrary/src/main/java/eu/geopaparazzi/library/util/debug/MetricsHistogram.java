@@ -0,0 +1,115 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.library.util.debug;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of long values.
+ *
+ * <p>The last {@link #SIZE} samples are kept in a ring buffer and used for the percentiles,
+ * while count, sum, min and max cover all the recorded values.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MetricsHistogram {
+    /**
+     * The number of samples kept for the percentiles, a power of two.
+     */
+    public static final int SIZE = 1024;
+    private static final int MASK = SIZE - 1;
+
+    private final String name;
+    private final String unit;
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Snapshot of the histogram.
+     */
+    public static class Snapshot {
+        public String name;
+        public String unit;
+        public long count;
+        public long min;
+        public long max;
+        public double mean;
+        public long p50;
+        public long p95;
+        public long p99;
+    }
+
+    /**
+     * @param name the name of the metric.
+     * @param unit the unit of the values.
+     */
+    public MetricsHistogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value the value.
+     */
+    public void record(long value) {
+        long index = writeIndex.getAndIncrement();
+        samples.set((int) (index & MASK), value);
+        sum.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return the current snapshot, values recorded while taking it may or may not be in it.
+     */
+    public Snapshot getSnapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.name = name;
+        snapshot.unit = unit;
+        long count = writeIndex.get();
+        snapshot.count = count;
+        if (count == 0)
+            return snapshot;
+        snapshot.min = min.get();
+        snapshot.max = max.get();
+        snapshot.mean = sum.get() / (double) count;
+
+        int n = (int) Math.min(count, SIZE);
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = samples.get(i);
+        }
+        Arrays.sort(values);
+        snapshot.p50 = values[(int) (0.50 * (n - 1))];
+        snapshot.p95 = values[(int) (0.95 * (n - 1))];
+        snapshot.p99 = values[(int) (0.99 * (n - 1))];
+        return snapshot;
+    }
+}
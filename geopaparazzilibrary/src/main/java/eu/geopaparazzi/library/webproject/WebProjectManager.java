@@ -78,7 +78,25 @@ public enum WebProjectManager {
         try {
             ResourcesManager resourcesManager = ResourcesManager.getInstance(context);
             File databaseFile = resourcesManager.getDatabaseFile();
+            return uploadProject(context, databaseFile, server, user, passwd);
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+            return e.getLocalizedMessage();
+        }
+    }
 
+    /**
+     * Uploads a project database to the given server via POST.
+     *
+     * @param context      the {@link Context} to use.
+     * @param databaseFile the project database to upload.
+     * @param server       the server to which to upload.
+     * @param user         the username for authentication.
+     * @param passwd       the password for authentication.
+     * @return the return message.
+     */
+    public String uploadProject(Context context, File databaseFile, String server, String user, String passwd) {
+        try {
             server = addActionPath(server, UPLOADPATH);
             String result = NetworkUtilities.sendFilePost(context, server, databaseFile, user, passwd);
             if (GPLog.LOG) {
@@ -0,0 +1,107 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.gpx;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import eu.geopaparazzi.library.util.TimeUtilities;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the allocation free gpx formatting.
+ */
+@SuppressWarnings("nls")
+public class GpxUtilitiesTest {
+
+    @Test
+    public void testAppendDecimal() {
+        assertEquals("12.3456789", decimal(12.3456789, 7));
+        assertEquals("-12.3456789", decimal(-12.3456789, 7));
+        assertEquals("-0.5", decimal(-0.5, 7));
+        assertEquals("-123.46", decimal(-123.456, 2));
+        assertEquals("2.5", decimal(2.5, 7));
+        assertEquals("3", decimal(3.0, 2));
+        assertEquals("-3", decimal(-3.0, 2));
+        assertEquals("1", decimal(0.99999999, 7));
+        assertEquals("0", decimal(0.0, 7));
+        assertEquals("0", decimal(-0.0, 7));
+    }
+
+    @Test
+    public void testAppendDecimalSmallFractions() {
+        assertEquals("0.0000001", decimal(0.0000001, 7));
+        assertEquals("-0.0000001", decimal(-0.0000001, 7));
+        assertEquals("0.0000012", decimal(0.0000012, 7));
+        assertEquals("1.05", decimal(1.05, 2));
+        assertEquals("0.01", decimal(0.005, 2));
+        assertEquals("46.0000003", decimal(46.0000003, 7));
+        // below the precision there is no negative zero
+        assertEquals("0", decimal(0.00000004, 7));
+        assertEquals("0", decimal(-0.00000004, 7));
+        assertEquals("0", decimal(-0.004, 2));
+    }
+
+    @Test
+    public void testAppendDecimalOutOfRange() {
+        assertEquals(String.valueOf(Double.NaN), decimal(Double.NaN, 2));
+        assertEquals(String.valueOf(Double.NEGATIVE_INFINITY), decimal(Double.NEGATIVE_INFINITY, 2));
+        assertEquals(String.valueOf(-1E10), decimal(-1E10, 2));
+    }
+
+    @Test
+    public void testAppendUtcTime() throws Exception {
+        // leap days, the day after a non leap century and around the epoch
+        String[] dates = {"2000-02-29T12:30:45Z", "2016-02-29T23:59:59Z", "2100-03-01T00:00:00Z", "1900-02-28T06:07:08Z",
+                "1900-03-01T00:00:00Z", "1969-12-31T23:59:59Z", "1970-01-01T00:00:00Z", "1600-02-29T10:00:00Z",
+                "2038-01-19T03:14:08Z"};
+        for (String date : dates) {
+            long time = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.parse(date).getTime();
+            assertEquals(date, utcTime(time));
+            assertEquals(date, utcTime(time + 999));
+        }
+        // milliseconds before the epoch are truncated towards the past
+        assertEquals("1969-12-31T23:59:59Z", utcTime(-1));
+    }
+
+    @Test
+    public void testAppendUtcTimeAgainstFormatter() throws Exception {
+        long start = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.parse("1700-01-01T00:00:00Z").getTime();
+        long end = TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.parse("2400-01-01T00:00:00Z").getTime();
+        // a step that is not a whole number of days or seconds
+        long step = 86400000L * 3 + 3723457L;
+        for (long time = start; time < end; time += step) {
+            assertEquals(TimeUtilities.INSTANCE.TIME_FORMATTER_GPX_UTC.format(new Date(time)), utcTime(time));
+        }
+    }
+
+    private static String decimal(double value, int decimals) {
+        StringBuilder sb = new StringBuilder();
+        GpxUtilities.appendDecimal(sb, value, decimals);
+        return sb.toString();
+    }
+
+    private static String utcTime(long time) {
+        StringBuilder sb = new StringBuilder();
+        GpxUtilities.appendUtcTime(sb, time);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.library.images;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips of small jpeg images through the {@link ExifGpsWriter}.
+ */
+@SuppressWarnings("nls")
+public class ExifGpsWriterTest {
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_GPS_IFD = 0x8825;
+    private static final byte[] SCAN_DATA = {(byte) 0xFF, (byte) 0xDA, 0, 8, 1, 1, 0, 0, 63, 0, 0x12, 0x34, 0x56, (byte) 0xFF, 0, 0x78, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void testJpegWithoutExif() throws Exception {
+        byte[] jpeg = createJpeg(null);
+        byte[] result = copy(new ExifGpsWriter(11.5, -46.25, 1234.56, Double.NaN), jpeg);
+
+        assertTrue(endsWith(result, SCAN_DATA));
+        assertNotNull(getSegment(result, 0xE0));
+        ByteBuffer tiff = getTiff(result);
+        assertEquals(ByteOrder.BIG_ENDIAN, tiff.order());
+        int gpsIfd = getEntryValue(tiff, tiff.getInt(4), TAG_GPS_IFD);
+        assertEquals(7, tiff.getShort(gpsIfd));
+
+        assertEquals("S", getAscii(tiff, gpsIfd, 0x0001));
+        assertEquals(46.25, getDegrees(tiff, gpsIfd, 0x0002), 1E-6);
+        assertEquals("E", getAscii(tiff, gpsIfd, 0x0003));
+        assertEquals(11.5, getDegrees(tiff, gpsIfd, 0x0004), 1E-6);
+        assertEquals(0, getEntryValue(tiff, gpsIfd, 0x0005) >>> 24);
+        assertEquals(1234.56, getRational(tiff, getEntryValue(tiff, gpsIfd, 0x0006)), 1E-6);
+    }
+
+    @Test
+    public void testJpegWithExifAndGps() throws Exception {
+        byte[] exif = createExif(ByteOrder.LITTLE_ENDIAN, "Camera");
+        byte[] jpeg = createJpeg(exif);
+        byte[] result = copy(new ExifGpsWriter(-71.125, 42.5, -10, 90), jpeg);
+
+        assertTrue(endsWith(result, SCAN_DATA));
+        ByteBuffer tiff = getTiff(result);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, tiff.order());
+
+        // the original tiff is kept as is and the new first ifd has the same entries
+        byte[] originalTiff = Arrays.copyOfRange(exif, 6, exif.length);
+        byte[] newTiff = tiff.array();
+        assertArrayEquals(Arrays.copyOfRange(originalTiff, 8, originalTiff.length), Arrays.copyOfRange(newTiff, 8, originalTiff.length));
+        int ifd0 = tiff.getInt(4);
+        assertEquals(2, tiff.getShort(ifd0));
+        assertEquals("Camera", getAscii(tiff, ifd0, TAG_MAKE));
+
+        int gpsIfd = getEntryValue(tiff, ifd0, TAG_GPS_IFD);
+        assertNotEquals(getEntryValue(ByteBuffer.wrap(originalTiff).order(ByteOrder.LITTLE_ENDIAN), 8, TAG_GPS_IFD), gpsIfd);
+        assertEquals(9, tiff.getShort(gpsIfd));
+        assertEquals("N", getAscii(tiff, gpsIfd, 0x0001));
+        assertEquals(42.5, getDegrees(tiff, gpsIfd, 0x0002), 1E-6);
+        assertEquals("W", getAscii(tiff, gpsIfd, 0x0003));
+        assertEquals(71.125, getDegrees(tiff, gpsIfd, 0x0004), 1E-6);
+        assertEquals(1, getEntryValue(tiff, gpsIfd, 0x0005) & 0xFF);
+        assertEquals(10, getRational(tiff, getEntryValue(tiff, gpsIfd, 0x0006)), 1E-6);
+        assertEquals("T", getAscii(tiff, gpsIfd, 0x0010));
+        assertEquals(90, getRational(tiff, getEntryValue(tiff, gpsIfd, 0x0011)), 1E-6);
+    }
+
+    @Test
+    public void testNonJpegIsCopied() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 1, 2, 3};
+        assertArrayEquals(png, copy(new ExifGpsWriter(11, 46, 0, 0), png));
+    }
+
+    private static byte[] copy(ExifGpsWriter writer, byte[] image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.copy(new ByteArrayInputStream(image), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Create a jpeg made of the header segments and a fake scan.
+     */
+    private static byte[] createJpeg(byte[] exifPayload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        writeSegment(out, 0xE0, new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        if (exifPayload != null)
+            writeSegment(out, 0xE1, exifPayload);
+        writeSegment(out, 0xDB, new byte[65]);
+        out.write(SCAN_DATA);
+        return out.toByteArray();
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) throws IOException {
+        int length = payload.length + 2;
+        out.write(new byte[]{(byte) 0xFF, (byte) marker, (byte) (length >> 8), (byte) length});
+        out.write(payload);
+    }
+
+    /**
+     * Create an exif payload with the make and a gps ifd holding only the version.
+     */
+    private static byte[] createExif(ByteOrder order, String make) {
+        ByteBuffer buffer = ByteBuffer.allocate(6 + 8 + 30 + 18 + 8).order(order);
+        buffer.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        ByteBuffer tiff = buffer.slice().order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+        tiff.putShort((short) 42);
+        tiff.putInt(8);
+        // first ifd
+        tiff.putShort((short) 2);
+        tiff.putShort((short) TAG_MAKE).putShort((short) 2).putInt(make.length() + 1).putInt(8 + 30 + 18);
+        tiff.putShort((short) TAG_GPS_IFD).putShort((short) 4).putInt(1).putInt(8 + 30);
+        tiff.putInt(0);
+        // gps ifd
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0).putShort((short) 1).putInt(4).put(new byte[]{2, 2, 0, 0});
+        tiff.putInt(0);
+        // make value
+        tiff.put(make.getBytes()).put((byte) 0);
+        return buffer.array();
+    }
+
+    private static boolean endsWith(byte[] data, byte[] end) {
+        return Arrays.equals(Arrays.copyOfRange(data, data.length - end.length, data.length), end);
+    }
+
+    private static byte[] getSegment(byte[] jpeg, int marker) {
+        int position = 2;
+        while (position < jpeg.length && (jpeg[position + 1] & 0xFF) != 0xDA) {
+            int length = ((jpeg[position + 2] & 0xFF) << 8) | (jpeg[position + 3] & 0xFF);
+            if ((jpeg[position + 1] & 0xFF) == marker)
+                return Arrays.copyOfRange(jpeg, position + 4, position + 2 + length);
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private static ByteBuffer getTiff(byte[] jpeg) {
+        byte[] exif = getSegment(jpeg, 0xE1);
+        assertNotNull(exif);
+        assertEquals("Exif", new String(exif, 0, 4));
+        byte[] tiff = Arrays.copyOfRange(exif, 6, exif.length);
+        ByteOrder order = tiff[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer buffer = ByteBuffer.wrap(tiff).order(order);
+        assertEquals(42, buffer.getShort(2));
+        return buffer;
+    }
+
+    private static int getEntryPosition(ByteBuffer tiff, int ifd, int tag) {
+        int count = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int position = ifd + 2 + i * 12;
+            if ((tiff.getShort(position) & 0xFFFF) == tag)
+                return position;
+        }
+        fail("Missing tag: " + Integer.toHexString(tag));
+        return -1;
+    }
+
+    private static int getEntryValue(ByteBuffer tiff, int ifd, int tag) {
+        return tiff.getInt(getEntryPosition(tiff, ifd, tag) + 8);
+    }
+
+    private static String getAscii(ByteBuffer tiff, int ifd, int tag) {
+        int position = getEntryPosition(tiff, ifd, tag);
+        int count = tiff.getInt(position + 4);
+        int offset = count <= 4 ? position + 8 : tiff.getInt(position + 8);
+        return new String(tiff.array(), offset, count - 1);
+    }
+
+    private static double getRational(ByteBuffer tiff, int offset) {
+        return (double) tiff.getInt(offset) / tiff.getInt(offset + 4);
+    }
+
+    private static double getDegrees(ByteBuffer tiff, int ifd, int tag) {
+        int offset = getEntryValue(tiff, ifd, tag);
+        return getRational(tiff, offset) + getRational(tiff, offset + 8) / 60.0 + getRational(tiff, offset + 16) / 3600.0;
+    }
+}
@@ -217,7 +217,7 @@ public class InfoTool extends MapTool {
 
                                     Envelope env = new Envelope(west, east, south, north);
                                     int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                                    GeometryColumn gcol = db.getGeometryColumnsForTable(vectorLayer.getName());
+                                    GeometryColumn gcol = SpatialiteConnectionsHandler.INSTANCE.getGeometryColumn(vectorLayer.getDbPath(), vectorLayer.getName());
                                     Envelope repEnv = db.reproject(env, mapSrid, gcol.srid);
                                     QueryResult queryResult = db.getTableRecordsMapIn(vectorLayer.getName(), repEnv, -1, mapSrid, null);
                                     List<Feature> featuresList = MapUtilities.fromQueryResult(vectorLayer.getName(), vectorLayer.getDbPath(), queryResult);
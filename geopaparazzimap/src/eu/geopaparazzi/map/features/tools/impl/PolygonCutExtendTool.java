@@ -280,7 +280,7 @@ public class PolygonCutExtendTool extends MapTool {
                         ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(vectorDbLayer.getDbPath());
 
                         int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                        GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
+                        GeometryColumn gcol = SpatialiteConnectionsHandler.INSTANCE.getGeometryColumn(vectorDbLayer.getDbPath(), vectorDbLayer.getName());
                         env = db.reproject(env, mapSrid, gcol.srid);
                     }
 
@@ -47,6 +47,8 @@ import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.features.Feature;
 import eu.geopaparazzi.map.layers.LayerManager;
 import eu.geopaparazzi.map.layers.interfaces.IEditableLayer;
+import eu.geopaparazzi.map.layers.userlayers.SpatialiteTableLayer;
+import eu.geopaparazzi.map.layers.utils.SpatialiteEditingSession;
 
 /**
  * The main polygon layer editing tool group, which just shows the tool palette.
@@ -236,11 +238,18 @@ public class PolygonMainEditingToolGroup implements ToolGroup, OnClickListener,
 
                     Context context = v.getContext();
                     if (geometryType.toSpatialiteGeometryType().isGeometryCompatible(newGeom)) {
-                        editLayer.updateFeatureGeometry(cutExtendProcessedFeature, newGeom, LibraryConstants.SRID_WGS84_4326);
-
-                        editLayer.deleteFeatures(Collections.singletonList(cutExtendFeatureToRemove));
-                        // reset layer
-                        editLayer.reloadData();
+                        if (editLayer instanceof SpatialiteTableLayer) {
+                            // update and delete in one transaction, refreshing only the touched features
+                            SpatialiteTableLayer spatialiteLayer = (SpatialiteTableLayer) editLayer;
+                            SpatialiteEditingSession session = new SpatialiteEditingSession(spatialiteLayer.getDbPath(), spatialiteLayer.getName());
+                            session.updateGeometry(cutExtendProcessedFeature.getIdFieldValue(), newGeom, LibraryConstants.SRID_WGS84_4326);
+                            session.delete(cutExtendFeatureToRemove.getIdFieldValue());
+                            spatialiteLayer.commitEditingSession(session);
+                        } else {
+                            editLayer.updateFeatureGeometry(cutExtendProcessedFeature, newGeom, LibraryConstants.SRID_WGS84_4326);
+
+                            editLayer.deleteFeatures(Collections.singletonList(cutExtendFeatureToRemove));
+                        }
                     } else {
                         GPDialogs.warningDialog(context, context.getString(R.string.geom_incompatible_with_layer), null);
                         return;
@@ -215,7 +215,7 @@ public class SelectionTool extends MapTool {
 
                         ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(vectorDbLayer.getDbPath());
                         int mapSrid = LibraryConstants.SRID_WGS84_4326;
-                        GeometryColumn gcol = db.getGeometryColumnsForTable(vectorDbLayer.getName());
+                        GeometryColumn gcol = SpatialiteConnectionsHandler.INSTANCE.getGeometryColumn(vectorDbLayer.getDbPath(), vectorDbLayer.getName());
                         Envelope repEnv = db.reproject(env, mapSrid, gcol.srid);
                         this.features = vectorDbLayer.getFeatures(repEnv);
                     }
@@ -181,7 +181,7 @@ public class FeaturePageAdapter extends PagerAdapter {
         if (defaultGeometry != null) {
             try {
                 ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(feature.getDatabasePath());
-                GeometryColumn gcol = db.getGeometryColumnsForTable(feature.getTableName());
+                GeometryColumn gcol = SpatialiteConnectionsHandler.INSTANCE.getGeometryColumn(feature.getDatabasePath(), feature.getTableName());
                 Geometry reprojected = db.reproject(defaultGeometry, LibraryConstants.SRID_WGS84_4326, gcol.srid);
 
                 TextView areaTextView = new TextView(context);
@@ -29,12 +29,12 @@ import android.view.MenuItem;
 import android.view.WindowManager;
 import android.widget.TextView;
 
-import org.hortonmachine.dbs.compat.ASpatialDb;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.util.GPDialogs;
@@ -49,7 +49,6 @@ import eu.geopaparazzi.map.features.tools.impl.LineOnSelectionToolGroup;
 import eu.geopaparazzi.map.features.tools.impl.PointOnSelectionToolGroup;
 import eu.geopaparazzi.map.features.tools.impl.PolygonOnSelectionToolGroup;
 import eu.geopaparazzi.map.features.tools.interfaces.ToolGroup;
-import eu.geopaparazzi.map.layers.utils.SpatialiteConnectionsHandler;
 import eu.geopaparazzi.map.layers.utils.SpatialiteUtilities;
 
 /**
@@ -174,12 +173,13 @@ public class FeaturePagerActivity extends AppCompatActivity implements OnPageCha
     }
 
     private void saveData() throws java.lang.Exception {
+        List<Feature> dirtyFeatures = new ArrayList<>();
         for (Feature feature : featuresList) {
             if (feature.isDirty()) {
-                ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(feature.getDatabasePath());
-                SpatialiteUtilities.updateFeatureAlphanumericAttributes(db, feature);
+                dirtyFeatures.add(feature);
             }
         }
+        SpatialiteUtilities.updateFeaturesAlphanumericAttributes(dirtyFeatures);
     }
 
 
@@ -48,6 +48,7 @@ import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.ELayerTypes;
 import eu.geopaparazzi.map.layers.LayerManager;
 import eu.geopaparazzi.map.layers.interfaces.IGpLayer;
+import eu.geopaparazzi.map.layers.utils.MBTilesSeedDialogFragment;
 import eu.geopaparazzi.map.layers.utils.SpatialiteColorStrokeDialogFragment;
 import eu.geopaparazzi.map.layers.utils.SpatialiteColorStrokeObject;
 import eu.geopaparazzi.map.layers.utils.SpatialiteConnectionsHandler;
@@ -68,6 +69,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
     private String enableEditing;
     private String disableEditing;
     private String setTheme;
+    private String seedTiles;
 
 
     MapLayerAdapter(MapLayerListFragment mapLayerListFragment, ArrayList<MapLayerItem> list, int layoutId, int grabHandleId, boolean dragOnLongPress) {
@@ -85,6 +87,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
         enableEditing = activity.getString(R.string.menu_enable_editing);
         disableEditing = activity.getString(R.string.menu_disable_editing);
         setTheme = activity.getString(R.string.menu_select_theme);
+        seedTiles = activity.getString(R.string.menu_seed_tiles);
 
         setItemList(list);
     }
@@ -147,6 +150,7 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
                                 }
                                 case BITMAPTILESERVICE: {
                                     popup.getMenu().add(setAlpha);
+                                    popup.getMenu().add(seedTiles);
                                     break;
                                 }
                                 case SPATIALITE: {
@@ -291,6 +295,35 @@ class MapLayerAdapter extends DragItemAdapter<MapLayerItem, MapLayerAdapter.View
                                     }
                                 });
 
+                            } else if (actionName.equals(seedTiles)) {
+                                List<JSONObject> userLayersDefinitions = LayerManager.INSTANCE.getUserLayersDefinitions();
+                                JSONObject jsonObject = userLayersDefinitions.get(finalSelIndex);
+                                String name = jsonObject.getString(IGpLayer.LAYERNAME_TAG);
+                                String url = jsonObject.getString(IGpLayer.LAYERURL_TAG);
+                                String tilePath = jsonObject.getString(IGpLayer.LAYERPATH_TAG);
+                                int maxZoom = 19;
+                                if (jsonObject.has(IGpLayer.LAYERMAXZOOM_TAG))
+                                    maxZoom = jsonObject.getInt(IGpLayer.LAYERMAXZOOM_TAG);
+
+                                FragmentActivity activity = mapLayerListFragment.getActivity();
+                                double[] zoomBounds = MBTilesSeedDialogFragment.getMapViewBounds(activity);
+                                int minZoom = Math.min((int) zoomBounds[0], maxZoom);
+                                double[] bounds = new double[]{zoomBounds[1], zoomBounds[2], zoomBounds[3], zoomBounds[4]};
+                                String[] zooms = new String[maxZoom - minZoom + 1];
+                                boolean[] selZooms = new boolean[zooms.length];
+                                for (int i = 0; i < zooms.length; i++) {
+                                    zooms[i] = activity.getString(R.string.seed_max_zoom, minZoom + i);
+                                }
+                                selZooms[0] = true;
+                                GPDialogs.singleOptionDialog(activity, zooms, selZooms, () -> {
+                                    for (int i = 0; i < selZooms.length; i++) {
+                                        if (selZooms[i]) {
+                                            MBTilesSeedDialogFragment seedDialogFragment = MBTilesSeedDialogFragment.newInstance(name, url, tilePath, bounds, minZoom, minZoom + i);
+                                            seedDialogFragment.show(mapLayerListFragment.getSupportFragmentManager(), "Seed Tiles Dialog");//NON-NLS
+                                            break;
+                                        }
+                                    }
+                                });
                             } else if (actionName.equals(disableEditing)) {
                                 List<JSONObject> userLayersDefinitions = LayerManager.INSTANCE.getUserLayersDefinitions();
                                 JSONObject jsonObject = userLayersDefinitions.get(finalSelIndex);
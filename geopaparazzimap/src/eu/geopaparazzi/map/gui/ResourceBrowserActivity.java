@@ -1,8 +1,6 @@
 package eu.geopaparazzi.map.gui;
 
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.Toolbar;
@@ -19,6 +17,7 @@ import java.util.List;
 
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.images.ThumbnailService;
 import eu.geopaparazzi.library.util.AppsUtilities;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
@@ -76,7 +75,7 @@ public class ResourceBrowserActivity extends AppCompatActivity {
         gridView = findViewById(R.id.resourcesGridView);
         numImagesView = findViewById(R.id.numImages);
         refreshThumbnails(imageItems);
-        gridAdapter = new ResourceImageGridViewAdapter<>(this, R.layout.fragment_image_item, imageItems);
+        gridAdapter = new ResourceImageGridViewAdapter<>(this, R.layout.fragment_image_item, imageItems, storage);
         gridView.setAdapter(gridAdapter);
 
         gridView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
@@ -107,6 +106,7 @@ public class ResourceBrowserActivity extends AppCompatActivity {
             @Override
             public void run() {
                 storage.deleteResource(res);
+                ThumbnailService.INSTANCE.remove(ResourceImageGridViewAdapter.getThumbnailKey(storage, res));
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
@@ -175,9 +175,8 @@ public class ResourceBrowserActivity extends AppCompatActivity {
         List<Resource> resources = storage.getThumbnails(rowId); //, Resource.ResourceType.BLOB_IMAGE);
         int i=1;
         for (Resource r: resources) {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(r.getThumbnail(), 0, r.getThumbnail().length);
-            String title = getResources().getString(R.string.Document_title);
-            imageItems.add(new ResourceImageItem(bitmap, r.getName(), r));
+            // the thumbnail is decoded in background by the adapter
+            imageItems.add(new ResourceImageItem(null, r.getName(), r));
         }
         String text = getResources().getQuantityString(R.plurals.n_images, imageItems.size(), imageItems.size());
         numImagesView.setText(text);
@@ -2,6 +2,7 @@ package eu.geopaparazzi.map.gui;
 
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,9 +10,16 @@ import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
 import java.util.ArrayList;
 
+import eu.geopaparazzi.library.core.ResourcesManager;
+import eu.geopaparazzi.library.images.ThumbnailService;
 import eu.geopaparazzi.map.R;
+import eu.geopaparazzi.map.features.editing.resourcestorage.BlobResource;
+import eu.geopaparazzi.map.features.editing.resourcestorage.ExternalResource;
+import eu.geopaparazzi.map.features.editing.resourcestorage.Resource;
+import eu.geopaparazzi.map.features.editing.resourcestorage.ResourceStorage;
 
 
 /**
@@ -22,12 +30,50 @@ public class ResourceImageGridViewAdapter<T> extends ArrayAdapter<T> {
     private Context context;
     private int layoutResourceId;
     private ArrayList<ResourceImageItem> data = new ArrayList<ResourceImageItem>();
+    private ResourceStorage storage;
 
-    public ResourceImageGridViewAdapter(Context context, int layoutResourceId, ArrayList data) {
+    /**
+     * @param context          the context.
+     * @param layoutResourceId the item layout.
+     * @param data             the items, without bitmap the thumbnails are loaded in background.
+     * @param storage          the storage the items come from.
+     */
+    public ResourceImageGridViewAdapter(Context context, int layoutResourceId, ArrayList data, ResourceStorage storage) {
         super(context, layoutResourceId, data);
         this.layoutResourceId = layoutResourceId;
         this.context = context;
         this.data = data;
+        this.storage = storage;
+    }
+
+    /**
+     * @return the key of the cached thumbnails of a resource.
+     */
+    public static String getThumbnailKey(ResourceStorage storage, Resource resource) {
+        return storage.getDbPath() + "#" + storage.getTableName() + "#" + resource.getId();
+    }
+
+    /**
+     * Create a thumbnail, from the one in the database if there is one, else from the image.
+     */
+    private Bitmap createThumbnail(Resource resource, int size) throws Exception {
+        byte[] thumbnail = resource.getThumbnail();
+        if (thumbnail != null && thumbnail.length > 0)
+            return ThumbnailService.createThumbnail(thumbnail, size);
+
+        Resource completeResource = storage.getResource(resource.getId());
+        if (completeResource instanceof BlobResource) {
+            byte[] blob = ((BlobResource) completeResource).getBlob();
+            if (blob != null && completeResource.getType() == Resource.ResourceType.BLOB_IMAGE)
+                return ThumbnailService.createThumbnail(blob, size);
+        } else if (completeResource instanceof ExternalResource) {
+            ExternalResource externalResource = (ExternalResource) completeResource;
+            if (externalResource.getType() == Resource.ResourceType.EXTERNAL_IMAGE) {
+                File image = new File(ResourcesManager.getInstance(context).getMainStorageDir(), externalResource.getPath());
+                return ThumbnailService.createThumbnail(image.getAbsolutePath(), size);
+            }
+        }
+        return null;
     }
 
     @Override
@@ -46,9 +92,15 @@ public class ResourceImageGridViewAdapter<T> extends ArrayAdapter<T> {
             holder = (ViewHolder) row.getTag();
         }
 
-        ResourceImageItem item = data.get(position);
+        final ResourceImageItem item = data.get(position);
         holder.imageTitle.setText(item.getTitle());
-        holder.image.setImageBitmap(item.getImage());
+        if (item.getImage() != null) {
+            holder.image.setImageBitmap(item.getImage());
+        } else {
+            int size = ThumbnailService.getSizeFor(holder.image.getLayoutParams().width);
+            ThumbnailService.INSTANCE.load(getThumbnailKey(storage, item.getResource()), size,
+                    thumbnailSize -> createThumbnail(item.getResource(), thumbnailSize), holder.image);
+        }
         return row;
     }
 
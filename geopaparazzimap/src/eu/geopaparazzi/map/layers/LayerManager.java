@@ -17,6 +17,8 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import eu.geopaparazzi.library.GPApplication;
@@ -29,6 +31,7 @@ import eu.geopaparazzi.library.profiles.objects.ProfileSpatialitemaps;
 import eu.geopaparazzi.library.util.FileUtilities;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.IActivitySupporter;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.map.GPMapThemes;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
@@ -68,6 +71,41 @@ public enum LayerManager {
     private List<JSONObject> userLayersDefinitions = new ArrayList<>();
     private List<JSONObject> systemLayersDefinitions = new ArrayList<>();
 
+    /**
+     * A layer waiting to be prepared and attached to the map.
+     */
+    private static class PendingLayer {
+        final IGpLayer layer;
+        final boolean isEnabled;
+        Runnable onAttached;
+        volatile boolean isPrepared = false;
+        volatile boolean isFailed = false;
+        boolean isDisposed = false;
+
+        PendingLayer(IGpLayer layer, boolean isEnabled) {
+            this.layer = layer;
+            this.isEnabled = isEnabled;
+        }
+    }
+
+    /**
+     * The state of a running layers loading.
+     */
+    private static class LayersLoading {
+        final List<PendingLayer> pendingLayers;
+        Runnable onLoaded;
+        int nextIndex = 0;
+
+        LayersLoading(List<PendingLayer> pendingLayers, Runnable onLoaded) {
+            this.pendingLayers = pendingLayers;
+            this.onLoaded = onLoaded;
+        }
+    }
+
+    private static final int LOADER_THREADS = 3;
+    private ExecutorService layersLoader;
+    private volatile LayersLoading currentLoading;
+
     /**
      * Initialize the layers from preferences
      */
@@ -172,16 +210,31 @@ public enum LayerManager {
      * @throws JSONException
      */
     public void loadInMap(GPMapView mapView, IActivitySupporter activitySupporter) throws Exception {
+        loadInMap(mapView, activitySupporter, null);
+    }
+
+    /**
+     * Load all the layers in the map.
+     *
+     * <p>The layers data are read in background, the layers are attached to the map as they are ready.</p>
+     *
+     * @param mapView           the map view.
+     * @param activitySupporter
+     * @param onLoaded          an optional task to run on the UI thread once all layers are in the map.
+     * @throws JSONException
+     */
+    public void loadInMap(GPMapView mapView, IActivitySupporter activitySupporter, Runnable onLoaded) throws Exception {
         //--  Remove all the layers From Map:
 //ToDo Debug
         mapView.map().layers().removeIf(layer -> layer instanceof IGpLayer || layer instanceof BuildingLayer || layer instanceof LabelLayer);
+        // the editing layer is recreated and set again once it is attached
+        EditManager.INSTANCE.setEditLayer(null);
 
         if (ProfilesHandler.INSTANCE.ProfileChanged) {
             ProfilesHandler.INSTANCE.ProfileChanged = false;  // reset it
 
             // Remove all the layers From LayerManager List:
             userLayersDefinitions.clear();
-            EditManager.INSTANCE.setEditLayer(null);
 
             //-- Add all the layers from the profile --
             Profile activeProfile = ProfilesHandler.INSTANCE.getActiveProfile();
@@ -216,8 +269,7 @@ public enum LayerManager {
             EOnlineTileSources source = EOnlineTileSources.Open_Street_Map_Standard;
             LayerManager.INSTANCE.addBitmapTileService(source.getName(), source.getUrl(), source.getTilePath(), source.getMaxZoom(), 1f, null);
         }
-        //
-        loadMapLayers(mapView, userLayersDefinitions);
+        List<PendingLayer> pendingLayers = createMapLayers(mapView, userLayersDefinitions);
         //-- Add system layers --
         if (systemLayersDefinitions.size() > 0) {
             for (JSONObject layerDefinition : systemLayersDefinitions) {
@@ -227,46 +279,39 @@ public enum LayerManager {
                 if (hasEnabled)
                     isEnabled = layerDefinition.getBoolean(IGpLayer.LAYERENABLED_TAG);
 
+                IGpLayer sysLayer = null;
                 if (layerClass.equals(GpsLogsLayer.class.getCanonicalName())) {
-                    GpsLogsLayer sysLayer = new GpsLogsLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new GpsLogsLayer(mapView);
                 } else if (layerClass.equals(CurrentGpsLogLayer.class.getCanonicalName())) {
-                    CurrentGpsLogLayer sysLayer = new CurrentGpsLogLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new CurrentGpsLogLayer(mapView);
                 } else if (layerClass.equals(BookmarkLayer.class.getCanonicalName())) {
-                    BookmarkLayer sysLayer = new BookmarkLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new BookmarkLayer(mapView);
                 } else if (layerClass.equals(ImagesLayer.class.getCanonicalName())) {
-                    ImagesLayer sysLayer = new ImagesLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new ImagesLayer(mapView);
                 } else if (layerClass.equals(NotesLayer.class.getCanonicalName())) {
-                    NotesLayer sysLayer = new NotesLayer(mapView, activitySupporter);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new NotesLayer(mapView, activitySupporter);
                 } else if (layerClass.equals(GpsPositionLayer.class.getCanonicalName())) {
-                    GpsPositionLayer sysLayer = new GpsPositionLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new GpsPositionLayer(mapView);
                 } else if (layerClass.equals(GpsPositionTextLayer.class.getCanonicalName())) {
-                    GpsPositionTextLayer sysLayer = new GpsPositionTextLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new GpsPositionTextLayer(mapView);
                 } else if (layerClass.equals(GPMapScaleBarLayer.class.getCanonicalName())) {
-                    GPMapScaleBarLayer sysLayer = new GPMapScaleBarLayer(mapView);
-                    sysLayer.load();
-                    sysLayer.setEnabled(isEnabled);
+                    sysLayer = new GPMapScaleBarLayer(mapView);
                 }
+                if (sysLayer != null)
+                    pendingLayers.add(new PendingLayer(sysLayer, isEnabled));
             }
         } else {
-            loadSystemLayers(mapView, activitySupporter, systemLayersDefinitions);
+            pendingLayers.addAll(createSystemLayers(mapView, activitySupporter, systemLayersDefinitions));
         }
+        loadLayers(mapView, pendingLayers, onLoaded);
     }
 
     public void loadMapLayers(GPMapView mapView, List<JSONObject> mapLayersDefinitions) throws Exception {
+        loadLayers(mapView, createMapLayers(mapView, mapLayersDefinitions), null);
+    }
+
+    private List<PendingLayer> createMapLayers(GPMapView mapView, List<JSONObject> mapLayersDefinitions) {
+        List<PendingLayer> pendingLayers = new ArrayList<>();
         for (JSONObject layerDefinition : mapLayersDefinitions) {
             try {
                 String layerClass = layerDefinition.getString(IGpLayer.LAYERTYPE_TAG);
@@ -289,9 +334,10 @@ public enum LayerManager {
                             if (layerDefinition.has(IGpLayer.LAYERDO3D_TAG))
                                 do3d = layerDefinition.getBoolean(IGpLayer.LAYERDO3D_TAG);
 
-                            MapsforgeLayer mapsforgeLayer = new MapsforgeLayer(mapView, name, do3d, doLabels, mapPaths);
-                            mapsforgeLayer.load();
-                            mapsforgeLayer.setEnabled(isEnabled);
+                            JSONArray mapsIndex = layerDefinition.optJSONArray(IGpLayer.LAYERMAPSINDEX_TAG);
+
+                            MapsforgeLayer mapsforgeLayer = new MapsforgeLayer(mapView, name, do3d, doLabels, mapsIndex, mapPaths);
+                            pendingLayers.add(new PendingLayer(mapsforgeLayer, isEnabled));
                             break;
                         }
                         case MBTILES: {
@@ -300,16 +346,14 @@ public enum LayerManager {
                             if (layerDefinition.has(IGpLayer.LAYERALPHA_TAG))
                                 alpha = (float) layerDefinition.getDouble(IGpLayer.LAYERALPHA_TAG);
                             MBTilesLayer mbtilesLayer = new MBTilesLayer(mapView, path, alpha, null);
-                            mbtilesLayer.load();
-                            mbtilesLayer.setEnabled(isEnabled);
+                            pendingLayers.add(new PendingLayer(mbtilesLayer, isEnabled));
                             break;
                         }
                         case VECTORTILESSERVICE: {
                             String tilePath = layerDefinition.getString(IGpLayer.LAYERPATH_TAG);
                             String url = layerDefinition.getString(IGpLayer.LAYERURL_TAG);
                             VectorTilesServiceLayer vtsLayer = new VectorTilesServiceLayer(mapView, name, url, tilePath);
-                            vtsLayer.load();
-                            vtsLayer.setEnabled(isEnabled);
+                            pendingLayers.add(new PendingLayer(vtsLayer, isEnabled));
                             break;
                         }
                         case BITMAPTILESERVICE: {
@@ -322,8 +366,7 @@ public enum LayerManager {
                             if (layerDefinition.has(IGpLayer.LAYERALPHA_TAG))
                                 alpha = (float) layerDefinition.getDouble(IGpLayer.LAYERALPHA_TAG);
                             BitmapTileServiceLayer bitmapLayer = new BitmapTileServiceLayer(mapView, name, url, tilePath, maxZoom, alpha);
-                            bitmapLayer.load();
-                            bitmapLayer.setEnabled(isEnabled);
+                            pendingLayers.add(new PendingLayer(bitmapLayer, isEnabled));
                             break;
                         }
                         case SPATIALITE: {
@@ -334,50 +377,128 @@ public enum LayerManager {
                                 isEditing = layerDefinition.getBoolean(IGpLayer.LAYEREDITING_TAG);
 
                             SpatialiteTableLayer spatialiteLayer = new SpatialiteTableLayer(mapView, dbPath, name, isEditing);
-                            spatialiteLayer.load();
-                            spatialiteLayer.setEnabled(isEnabled);
+                            PendingLayer pendingLayer = new PendingLayer(spatialiteLayer, isEnabled);
                             if (isEditing) {
-                                EditManager.INSTANCE.setEditLayer(spatialiteLayer);
+                                pendingLayer.onAttached = () -> EditManager.INSTANCE.setEditLayer(spatialiteLayer);
                             }
+                            pendingLayers.add(pendingLayer);
                             break;
                         }
                     }
                 }
             } catch (Exception e) {
-                GPLog.error(this, "Unable to load layer: " + layerDefinition.toString(2), e);
+                GPLog.error(this, "Unable to load layer: " + layerDefinition, e);
             }
         }
-
+        return pendingLayers;
     }
 
     public void loadSystemLayers(GPMapView mapView, IActivitySupporter activitySupporter, List<JSONObject> systemLayersDefinitions) throws Exception {
-        GpsLogsLayer gpsLogsLayer = new GpsLogsLayer(mapView);
-        gpsLogsLayer.load();
-        systemLayersDefinitions.add(gpsLogsLayer.toJson());
-
-        CurrentGpsLogLayer currentGpsLogLayer = new CurrentGpsLogLayer(mapView);
-        currentGpsLogLayer.load();
-        systemLayersDefinitions.add(currentGpsLogLayer.toJson());
-
-        BookmarkLayer bookmarkLayer = new BookmarkLayer(mapView);
-        bookmarkLayer.load();
-        systemLayersDefinitions.add(bookmarkLayer.toJson());
+        loadLayers(mapView, createSystemLayers(mapView, activitySupporter, systemLayersDefinitions), null);
+    }
 
-        ImagesLayer imagesLayer = new ImagesLayer(mapView);
-        imagesLayer.load();
-        systemLayersDefinitions.add(imagesLayer.toJson());
+    private List<PendingLayer> createSystemLayers(GPMapView mapView, IActivitySupporter activitySupporter, List<JSONObject> systemLayersDefinitions) throws Exception {
+        List<IGpLayer> sysLayers = new ArrayList<>();
+        sysLayers.add(new GpsLogsLayer(mapView));
+        sysLayers.add(new CurrentGpsLogLayer(mapView));
+        sysLayers.add(new BookmarkLayer(mapView));
+        sysLayers.add(new ImagesLayer(mapView));
+        sysLayers.add(new NotesLayer(mapView, activitySupporter));
+        sysLayers.add(new GpsPositionLayer(mapView));
+        sysLayers.add(new GpsPositionTextLayer(mapView));
+
+        List<PendingLayer> pendingLayers = new ArrayList<>();
+        for (IGpLayer sysLayer : sysLayers) {
+            systemLayersDefinitions.add(sysLayer.toJson());
+            pendingLayers.add(new PendingLayer(sysLayer, true));
+        }
+        return pendingLayers;
+    }
 
-        NotesLayer notesLayer = new NotesLayer(mapView, activitySupporter);
-        notesLayer.load();
-        systemLayersDefinitions.add(notesLayer.toJson());
+    /**
+     * Prepare the layers concurrently and attach them to the map on the UI thread, keeping their order.
+     *
+     * <p>Every layer is attached as soon as it and all the layers before it are prepared, so the first
+     * layers (usually the basemap) show up while the heavy ones are still loading.</p>
+     *
+     * @param mapView       the map view.
+     * @param pendingLayers the layers in the order they need to be attached.
+     * @param onLoaded      an optional task to run on the UI thread once all layers are attached.
+     */
+    private void loadLayers(GPMapView mapView, List<PendingLayer> pendingLayers, Runnable onLoaded) {
+        LayersLoading loading = new LayersLoading(pendingLayers, onLoaded);
+        currentLoading = loading;
+        if (pendingLayers.isEmpty()) {
+            mapView.post(() -> attachPreparedLayers(loading));
+            return;
+        }
+        ExecutorService executor = getLayersLoader();
+        for (PendingLayer pendingLayer : pendingLayers) {
+            // lazy layers decide on the enabled state whether to read their data
+            pendingLayer.layer.setEnabled(pendingLayer.isEnabled);
+            executor.execute(() -> {
+                long start = Metrics.INSTANCE.startTimer();
+                try {
+                    pendingLayer.layer.prepare();
+                    Metrics.INSTANCE.stopTimer("layers.prepare." + pendingLayer.layer.getId(), start);//NON-NLS
+                } catch (Exception e) {
+                    pendingLayer.isFailed = true;
+                    GPLog.error(this, "Unable to load layer: " + pendingLayer.layer.getName(), e);
+                }
+                pendingLayer.isPrepared = true;
+                mapView.post(() -> attachPreparedLayers(loading));
+            });
+        }
+    }
 
-        GpsPositionLayer gpsPositionLayer = new GpsPositionLayer(mapView);
-        gpsPositionLayer.load();
-        systemLayersDefinitions.add(gpsPositionLayer.toJson());
+    /**
+     * Attach the prepared layers, to be called on the UI thread.
+     */
+    private void attachPreparedLayers(LayersLoading loading) {
+        List<PendingLayer> pendingLayers = loading.pendingLayers;
+        if (loading != currentLoading) {
+            // a newer loading started, the layers of this one are not wanted anymore
+            for (int i = loading.nextIndex; i < pendingLayers.size(); i++) {
+                PendingLayer pendingLayer = pendingLayers.get(i);
+                if (pendingLayer.isPrepared && !pendingLayer.isDisposed) {
+                    pendingLayer.isDisposed = true;
+                    pendingLayer.layer.dispose();
+                }
+            }
+            return;
+        }
+        while (loading.nextIndex < pendingLayers.size()) {
+            PendingLayer pendingLayer = pendingLayers.get(loading.nextIndex);
+            if (!pendingLayer.isPrepared)
+                return;
+            if (!pendingLayer.isFailed) {
+                try {
+                    pendingLayer.layer.load();
+                    pendingLayer.layer.setEnabled(pendingLayer.isEnabled);
+                    if (pendingLayer.onAttached != null)
+                        pendingLayer.onAttached.run();
+                } catch (Exception e) {
+                    GPLog.error(this, "Unable to load layer: " + pendingLayer.layer.getName(), e);
+                }
+            }
+            loading.nextIndex++;
+        }
+        if (loading.onLoaded != null) {
+            Runnable onLoaded = loading.onLoaded;
+            loading.onLoaded = null;
+            onLoaded.run();
+        }
+    }
 
-        GpsPositionTextLayer gpsPositionTextLayer = new GpsPositionTextLayer(mapView);
-        gpsPositionTextLayer.load();
-        systemLayersDefinitions.add(gpsPositionTextLayer.toJson());
+    private synchronized ExecutorService getLayersLoader() {
+        if (layersLoader == null) {
+            layersLoader = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+                Thread thread = new Thread(r, "layers-loader");//NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return layersLoader;
     }
 
 
@@ -471,32 +592,51 @@ public enum LayerManager {
 
 
     public void onResume(GPMapView mapView, IActivitySupporter activitySupporter) {
+        onResume(mapView, activitySupporter, null);
+    }
+
+    /**
+     * Reload the layers in the map.
+     *
+     * <p>The layers are attached in background, the editing layer is only available once
+     * they all are, so anything depending on it needs to go in the <code>onLoaded</code> task.</p>
+     *
+     * @param mapView           the map view.
+     * @param activitySupporter
+     * @param onLoaded          an optional task to run on the UI thread once all layers are in the map.
+     */
+    public void onResume(GPMapView mapView, IActivitySupporter activitySupporter, Runnable onLoaded) {
         if (mapView != null) {
             Layers layers = mapView.map().layers();
             // right now we dispose and reload
             try {
-                loadInMap(mapView, activitySupporter);
+                loadInMap(mapView, activitySupporter, () -> {
+                    for (Layer layer : layers) {
+                        if (layer instanceof IGpLayer) {
+                            IGpLayer gpLayer = (IGpLayer) layer;
+                            gpLayer.onResume();
+                        }
+                    }
+                    //ToDo Debug
+                    int count = (int) layers.stream().filter(l -> l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer).count();
+                    if (count > 0) {
+                        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
+                        String themeLabel = preferences.getString(MapUtilities.PREFERENCES_KEY_THEME, GPMapThemes.DEFAULT.getThemeLabel());
+                        mapView.setTheme(GPMapThemes.fromLabel(themeLabel));
+                    }
+                    if (onLoaded != null)
+                        onLoaded.run();
+                });
             } catch (Exception e) {
                 GPLog.error(this, null, e);
             }
-            for (Layer layer : layers) {
-                if (layer instanceof IGpLayer) {
-                    IGpLayer gpLayer = (IGpLayer) layer;
-                    gpLayer.onResume();
-                }
-            }
-            //ToDo Debug
-            int count = (int) layers.stream().filter(l -> l instanceof IVectorTileOfflineLayer || l instanceof IVectorTileOnlineLayer).count();
-            if (count > 0) {
-                SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
-                String themeLabel = preferences.getString(MapUtilities.PREFERENCES_KEY_THEME, GPMapThemes.DEFAULT.getThemeLabel());
-                mapView.setTheme(GPMapThemes.fromLabel(themeLabel));
-            }
         }
     }
 
     public void onPause(GPMapView mapView) {
         if (mapView != null) {
+            // layers still loading are disposed when they get ready
+            currentLoading = null;
 //            for (Layer layer : mapView.map().layers()) {
 //                if (layer instanceof IGpLayer) {
 //                    IGpLayer gpLayer = (IGpLayer) layer;
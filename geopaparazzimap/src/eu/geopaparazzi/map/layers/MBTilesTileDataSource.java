@@ -2,11 +2,6 @@ package eu.geopaparazzi.map.layers;
 
 import android.graphics.BitmapFactory;
 
-import org.hortonmachine.dbs.compat.ADb;
-import org.hortonmachine.dbs.compat.EDb;
-import org.hortonmachine.dbs.mbtiles.MBTilesDb;
-import org.oscim.android.canvas.AndroidGraphics;
-import org.oscim.backend.canvas.Bitmap;
 import org.oscim.layers.tile.MapTile;
 import org.oscim.tiling.ITileDataSink;
 import org.oscim.tiling.ITileDataSource;
@@ -14,10 +9,9 @@ import org.oscim.tiling.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
 import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.util.debug.Metrics;
+import eu.geopaparazzi.map.layers.utils.DecodedTilesCache;
 
 import static org.oscim.tiling.QueryResult.FAILED;
 
@@ -30,11 +24,15 @@ import static org.oscim.tiling.QueryResult.FAILED;
 public class MBTilesTileDataSource implements ITileDataSource {
     static final Logger log = LoggerFactory.getLogger(MBTilesTileDataSource.class);
 
-    private final MBTilesDb db;
-    private final ADb adb;
+    private final MBTilesTilePrefetcher prefetcher;
     private final Integer transparentColor;
     private Integer alpha;
 
+    /**
+     * Id of the decoded tiles of this source in the {@link DecodedTilesCache}.
+     */
+    private final String cacheId;
+
     /**
      * Build a tile data source.
      *
@@ -44,61 +42,59 @@ public class MBTilesTileDataSource implements ITileDataSource {
      * @throws Exception
      */
     MBTilesTileDataSource(String dbPath, Integer alpha, Integer transparentColor) throws Exception {
-        adb = EDb.SPATIALITE4ANDROID.getSpatialDb();
-        boolean exists = adb.open(dbPath);
-        if (!exists)
-            throw new RuntimeException("needs to exist");
+        prefetcher = new MBTilesTilePrefetcher(dbPath);
         this.alpha = alpha;
         this.transparentColor = transparentColor;
-        db = new MBTilesDb(adb);
-        db.setTileRowType("tms");
+
+        // the processing options are part of the id, since they change the decoded tiles
+        cacheId = dbPath + "#" + alpha + "#" + transparentColor;
     }
 
     @Override
     public void query(MapTile tile, ITileDataSink sink) {
         QueryResult res = FAILED;
+        long start = Metrics.INSTANCE.startTimer();
 
         try {
-            byte[] imageBytes = db.getTile(tile.tileX, tile.tileY, tile.zoomLevel);
-            if (transparentColor != null || alpha != null) {
-                android.graphics.Bitmap bmp = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-                if (transparentColor != null) {
-                    bmp = ImageUtilities.makeTransparent(bmp, transparentColor);
-                }
-                if (alpha != null) {
-                    bmp = ImageUtilities.makeBitmapTransparent(bmp, alpha);
+            android.graphics.Bitmap bmp = DecodedTilesCache.INSTANCE.get(cacheId, tile.tileX, tile.tileY, tile.zoomLevel);
+            if (bmp == null) {
+                Metrics.INSTANCE.increment("tiles.mbtiles.cachemiss");//NON-NLS
+                byte[] imageBytes = prefetcher.getTile(tile.tileX, tile.tileY, tile.zoomLevel);
+                if (transparentColor != null || alpha != null) {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inMutable = true;
+                    options.inPreferredConfig = android.graphics.Bitmap.Config.ARGB_8888;
+                    android.graphics.Bitmap processed = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length, options);
+                    processed = ImageUtilities.applyTransparency(processed, transparentColor, alpha);
+                    // the cached tiles are shared, so they are frozen once processed
+                    bmp = processed.copy(android.graphics.Bitmap.Config.ARGB_8888, false);
+                    processed.recycle();
+                } else {
+                    bmp = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
                 }
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                bmp.compress(android.graphics.Bitmap.CompressFormat.PNG, 100, bos);
-                imageBytes = bos.toByteArray();
+                DecodedTilesCache.INSTANCE.put(cacheId, tile.tileX, tile.tileY, tile.zoomLevel, bmp);
             }
 
-            Bitmap bitmap = AndroidGraphics.decodeBitmap(new ByteArrayInputStream(imageBytes));
-
-            sink.setTileImage(bitmap);
+            sink.setTileImage(DecodedTilesCache.toMapBitmap(bmp));
             res = QueryResult.SUCCESS;
+
+            prefetcher.onTileRequested(tile.tileX, tile.tileY, tile.zoomLevel);
         } catch (Exception e) {
             log.debug("{} Error: {}", tile, e.getMessage());
         } finally {
             sink.completed(res);
+            Metrics.INSTANCE.stopTimer("tiles.mbtiles.query", start);//NON-NLS
         }
     }
 
     @Override
     public void dispose() {
-        try {
-            adb.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        DecodedTilesCache.INSTANCE.removeLayer(cacheId);
+        prefetcher.dispose();
     }
 
     @Override
     public void cancel() {
-        try {
-            adb.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        prefetcher.cancel();
     }
 }
\ No newline at end of file
@@ -0,0 +1,321 @@
+package eu.geopaparazzi.map.layers;
+
+import android.util.LruCache;
+
+import org.hortonmachine.dbs.compat.ADb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Read-ahead for MBTiles databases.
+ *
+ * <p>Tiles are read through a small pool of read-only connections, so that several loaders can read
+ * in parallel. The tiles requested in a burst make up the viewport: once the requests settle, the ring of
+ * tiles around the viewport and its tiles on the next zoom level are read in background and kept in a
+ * bounded cache of raw tile bytes.</p>
+ *
+ * @author Andrea Antonello
+ */
+class MBTilesTilePrefetcher {
+    private static final int READERS_COUNT = 3;
+    private static final int PREFETCH_THREADS = 2;
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+    /**
+     * Time without new requests after which the requested tiles are taken as the viewport.
+     */
+    private static final long VIEWPORT_SETTLE_MS = 100;
+
+    /**
+     * Memory mapped I/O size, so that large orthophoto databases are served from the page cache.
+     */
+    private static final long MMAP_SIZE = 256L * 1024 * 1024;
+    /**
+     * Page cache size per connection in KiB (negative values are KiB for sqlite).
+     */
+    private static final int PAGE_CACHE_KB = 4096;
+
+    private final List<ADb> adbs = new ArrayList<>();
+    private final BlockingQueue<MBTilesDb> readers = new ArrayBlockingQueue<>(READERS_COUNT);
+    private final ThreadPoolExecutor prefetchExecutor;
+    private final LruCache<Long, byte[]> tilesCache;
+    private final Set<Long> pendingTiles = ConcurrentHashMap.newKeySet();
+    private final int maxZoom;
+
+    private final ScheduledExecutorService viewportScheduler;
+    private final Object viewportLock = new Object();
+    private int viewportZoom = -1;
+    private int viewportMinX;
+    private int viewportMinY;
+    private int viewportMaxX;
+    private int viewportMaxY;
+    private boolean isViewportScheduled = false;
+
+    /**
+     * A tile read, carrying its key so that it can be released if the task is dropped.
+     */
+    private class PrefetchTask implements Runnable {
+        final long key;
+        final int x;
+        final int y;
+        final int z;
+
+        PrefetchTask(long key, int x, int y, int z) {
+            this.key = key;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] tileBytes = readTile(x, y, z);
+                if (tileBytes != null)
+                    tilesCache.put(key, tileBytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                GPLog.error(this, null, e);
+            } finally {
+                pendingTiles.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Create the read-ahead for a database.
+     *
+     * @param dbPath the path to the mbtiles database.
+     * @throws Exception if the database can't be opened.
+     */
+    MBTilesTilePrefetcher(String dbPath) throws Exception {
+        int zoom = Integer.MAX_VALUE;
+        for (int i = 0; i < READERS_COUNT; i++) {
+            ADb adb = EDb.SPATIALITE4ANDROID.getSpatialDb();
+            boolean exists = adb.open(dbPath);
+            if (!exists)
+                throw new RuntimeException("needs to exist");
+            adbs.add(adb);
+            adb.execOnConnection(connection -> {
+                try (IHMStatement stmt = connection.createStatement()) {
+                    runPragma(stmt, "PRAGMA query_only = 1");//NON-NLS
+                    runPragma(stmt, "PRAGMA mmap_size = " + MMAP_SIZE);//NON-NLS
+                    runPragma(stmt, "PRAGMA cache_size = -" + PAGE_CACHE_KB);//NON-NLS
+                }
+                return null;
+            });
+            MBTilesDb db = new MBTilesDb(adb);
+            db.setTileRowType("tms");
+            if (i == 0) {
+                try {
+                    zoom = db.getMaxZoom();
+                } catch (Exception e) {
+                    // no metadata, prefetch children at any level
+                }
+            }
+            readers.add(db);
+        }
+        maxZoom = zoom;
+
+        int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, 16 * 1024 * 1024);
+        tilesCache = new LruCache<Long, byte[]>(cacheSize) {
+            @Override
+            protected int sizeOf(Long key, byte[] value) {
+                return value.length;
+            }
+        };
+
+        prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PREFETCH_QUEUE_SIZE), r -> {
+            Thread thread = new Thread(r, "mbtiles-prefetch");//NON-NLS
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, (task, executor) -> {
+            // as DiscardOldestPolicy, but the dropped tile is released, so it can be requested again
+            if (executor.isShutdown()) {
+                release(task);
+                return;
+            }
+            release(executor.getQueue().poll());
+            executor.execute(task);
+        });
+
+        viewportScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mbtiles-viewport");//NON-NLS
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void release(Runnable task) {
+        if (task instanceof PrefetchTask)
+            pendingTiles.remove(((PrefetchTask) task).key);
+    }
+
+    private static void runPragma(IHMStatement stmt, String pragma) throws Exception {
+        // some pragmas return the new value, so they are run as queries
+        try (IHMResultSet rs = stmt.executeQuery(pragma)) {
+            rs.next();
+        }
+    }
+
+    private static long getTileKey(int x, int y, int z) {
+        return ((long) z << 58) | ((long) x << 29) | y;
+    }
+
+    /**
+     * Get the bytes of a tile, from the read-ahead cache if available.
+     *
+     * @param x the tile column.
+     * @param y the tile row.
+     * @param z the zoom level.
+     * @return the tile bytes or <code>null</code> if the tile is not available.
+     * @throws Exception if something goes wrong.
+     */
+    byte[] getTile(int x, int y, int z) throws Exception {
+        byte[] tileBytes = tilesCache.get(getTileKey(x, y, z));
+        if (tileBytes != null)
+            return tileBytes;
+        return readTile(x, y, z);
+    }
+
+    private byte[] readTile(int x, int y, int z) throws Exception {
+        MBTilesDb db = readers.take();
+        try {
+            return db.getTile(x, y, z);
+        } finally {
+            readers.offer(db);
+        }
+    }
+
+    /**
+     * Add a requested tile to the viewport, whose surroundings are read once the requests settle.
+     *
+     * @param x the requested tile column.
+     * @param y the requested tile row.
+     * @param z the requested zoom level.
+     */
+    void onTileRequested(int x, int y, int z) {
+        synchronized (viewportLock) {
+            if (viewportZoom != z) {
+                viewportZoom = z;
+                viewportMinX = viewportMaxX = x;
+                viewportMinY = viewportMaxY = y;
+            } else {
+                viewportMinX = Math.min(viewportMinX, x);
+                viewportMaxX = Math.max(viewportMaxX, x);
+                viewportMinY = Math.min(viewportMinY, y);
+                viewportMaxY = Math.max(viewportMaxY, y);
+            }
+            if (isViewportScheduled)
+                return;
+            isViewportScheduled = true;
+        }
+        try {
+            viewportScheduler.schedule(this::prefetchViewport, VIEWPORT_SETTLE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // disposed
+        }
+    }
+
+    /**
+     * Schedule the background read of the ring of tiles around the viewport and of its tiles on the next zoom level.
+     */
+    private void prefetchViewport() {
+        int z;
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+        synchronized (viewportLock) {
+            isViewportScheduled = false;
+            z = viewportZoom;
+            if (z < 0)
+                return;
+            minX = viewportMinX;
+            minY = viewportMinY;
+            maxX = viewportMaxX;
+            maxY = viewportMaxY;
+            // the next burst of requests makes a new viewport
+            viewportZoom = -1;
+        }
+
+        // the next zoom level first and the ring last, since the oldest requests are dropped on overflow
+        if (z < maxZoom) {
+            for (int cx = minX * 2; cx <= maxX * 2 + 1; cx++) {
+                for (int cy = minY * 2; cy <= maxY * 2 + 1; cy++) {
+                    prefetch(cx, cy, z + 1);
+                }
+            }
+        }
+        int tilesInZoom = 1 << z;
+        for (int x = minX - 1; x <= maxX + 1; x++) {
+            for (int y = minY - 1; y <= maxY + 1; y++) {
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    continue;
+                if (x < 0 || y < 0 || x >= tilesInZoom || y >= tilesInZoom)
+                    continue;
+                prefetch(x, y, z);
+            }
+        }
+    }
+
+    private void prefetch(int x, int y, int z) {
+        long key = getTileKey(x, y, z);
+        if (tilesCache.get(key) != null || !pendingTiles.add(key))
+            return;
+        prefetchExecutor.execute(new PrefetchTask(key, x, y, z));
+    }
+
+    /**
+     * Drop the prefetch requests that have not started yet.
+     */
+    void cancel() {
+        synchronized (viewportLock) {
+            viewportZoom = -1;
+        }
+        for (Runnable runnable : prefetchExecutor.getQueue().toArray(new Runnable[0])) {
+            if (prefetchExecutor.remove(runnable))
+                release(runnable);
+        }
+    }
+
+    /**
+     * Stop the prefetching and close the connections.
+     */
+    void dispose() {
+        viewportScheduler.shutdownNow();
+        prefetchExecutor.shutdownNow();
+        try {
+            prefetchExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tilesCache.evictAll();
+        for (ADb adb : adbs) {
+            try {
+                adb.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        adbs.clear();
+    }
+}
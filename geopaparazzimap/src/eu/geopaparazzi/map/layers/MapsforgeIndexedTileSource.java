@@ -0,0 +1,323 @@
+package eu.geopaparazzi.map.layers;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.locationtech.jts.geom.Envelope;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.BoundingBox;
+import org.oscim.core.MapElement;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+import org.oscim.tiling.TileSource;
+import org.oscim.tiling.source.mapfile.MapFileTileSource;
+import org.oscim.tiling.source.mapfile.MapInfo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.debug.Metrics;
+
+/**
+ * A tile source over several mapsforge map files that routes every tile only to the files it intersects.
+ *
+ * <p>The bounds and zoom range of each file are kept in an index that can be serialized in the layer
+ * definition. Files that are already in the index are opened only when a tile first touches them, so
+ * that large collections of map files neither slow down the loading nor every single tile request.</p>
+ *
+ * @author Andrea Antonello
+ */
+public class MapsforgeIndexedTileSource extends TileSource {
+    private static final String PATH = "path";//NON-NLS
+    private static final String MODIFIED = "modified";//NON-NLS
+    private static final String WEST = "w";//NON-NLS
+    private static final String SOUTH = "s";//NON-NLS
+    private static final String EAST = "e";//NON-NLS
+    private static final String NORTH = "n";//NON-NLS
+    private static final String MINZOOM = "minzoom";//NON-NLS
+    private static final String MAXZOOM = "maxzoom";//NON-NLS
+
+    /**
+     * Index entry of a single map file.
+     */
+    private static class MapFileEntry {
+        String path;
+        long lastModified;
+        Envelope bounds;
+        int minZoom;
+        int maxZoom;
+        private MapFileTileSource tileSource;
+        private boolean failed = false;
+
+        /**
+         * @return the opened tile source of the file or <code>null</code> if it can't be opened.
+         */
+        synchronized MapFileTileSource getTileSource() {
+            if (tileSource == null && !failed) {
+                MapFileTileSource ts = new MapFileTileSource();
+                if (ts.setMapFile(path) && ts.open().isSuccess()) {
+                    tileSource = ts;
+                    MapInfo mapInfo = ts.getMapInfo();
+                    BoundingBox bb = mapInfo.boundingBox;
+                    bounds = new Envelope(bb.getMinLongitude(), bb.getMaxLongitude(), bb.getMinLatitude(), bb.getMaxLatitude());
+                    // the map info only has the base zoom levels, the range of the subfiles is in the header
+                    int[] zoomRange = readZoomRange(path);
+                    minZoom = zoomRange[0];
+                    maxZoom = zoomRange[1];
+                } else {
+                    failed = true;
+                }
+            }
+            return tileSource;
+        }
+
+        synchronized void close() {
+            if (tileSource != null) {
+                tileSource.close();
+                tileSource = null;
+            }
+        }
+    }
+
+    private final List<MapFileEntry> entries = new ArrayList<>();
+
+    /**
+     * Create the source.
+     *
+     * @param mapPaths the paths of the map files.
+     * @param index    an optional index as returned by {@link #getIndex()}, entries of changed files are ignored.
+     */
+    public MapsforgeIndexedTileSource(String[] mapPaths, JSONArray index) {
+        for (String mapPath : mapPaths) {
+            MapFileEntry entry = new MapFileEntry();
+            entry.path = mapPath;
+            entry.lastModified = new File(mapPath).lastModified();
+            if (index != null) {
+                for (int i = 0; i < index.length(); i++) {
+                    JSONObject jo = index.optJSONObject(i);
+                    if (jo != null && mapPath.equals(jo.optString(PATH)) && jo.optLong(MODIFIED) == entry.lastModified) {
+                        entry.bounds = new Envelope(jo.optDouble(WEST), jo.optDouble(EAST), jo.optDouble(SOUTH), jo.optDouble(NORTH));
+                        entry.minZoom = jo.optInt(MINZOOM);
+                        entry.maxZoom = jo.optInt(MAXZOOM);
+                        break;
+                    }
+                }
+            }
+            entries.add(entry);
+        }
+    }
+
+    @Override
+    public OpenResult open() {
+        boolean hasOne = false;
+        for (MapFileEntry entry : entries) {
+            if (entry.bounds == null) {
+                // not indexed yet, the header needs to be read
+                entry.getTileSource();
+            }
+            if (entry.bounds != null)
+                hasOne = true;
+        }
+        return hasOne ? OpenResult.SUCCESS : new OpenResult("No readable map file found.");//NON-NLS
+    }
+
+    @Override
+    public void close() {
+        for (MapFileEntry entry : entries) {
+            entry.close();
+        }
+    }
+
+    @Override
+    public ITileDataSource getDataSource() {
+        return new IndexedDataSource();
+    }
+
+    /**
+     * @return the index of bounds and zoom range of the map files, to be stored in the layer definition.
+     * @throws JSONException if something goes wrong.
+     */
+    public JSONArray getIndex() throws JSONException {
+        JSONArray index = new JSONArray();
+        for (MapFileEntry entry : entries) {
+            if (entry.bounds == null)
+                continue;
+            JSONObject jo = new JSONObject();
+            jo.put(PATH, entry.path);
+            jo.put(MODIFIED, entry.lastModified);
+            jo.put(WEST, entry.bounds.getMinX());
+            jo.put(SOUTH, entry.bounds.getMinY());
+            jo.put(EAST, entry.bounds.getMaxX());
+            jo.put(NORTH, entry.bounds.getMaxY());
+            jo.put(MINZOOM, entry.minZoom);
+            jo.put(MAXZOOM, entry.maxZoom);
+            index.put(jo);
+        }
+        return index;
+    }
+
+    /**
+     * Read the zoom range covered by the subfiles of a map file from its header.
+     *
+     * @param path the path of the map file.
+     * @return the min and max zoom level, or the whole zoom range if the header can't be read.
+     */
+    private static int[] readZoomRange(String path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            // magic bytes, header size, file version, file size, map date, bounding box and tile size
+            skipFully(in, 20 + 4 + 4 + 8 + 8 + 16 + 2);
+            skipString(in); // projection
+            byte flags = in.readByte();
+            if ((flags & 0x40) != 0)
+                skipFully(in, 8); // start position
+            if ((flags & 0x20) != 0)
+                skipFully(in, 1); // start zoom level
+            if ((flags & 0x10) != 0)
+                skipString(in); // language preference
+            if ((flags & 0x08) != 0)
+                skipString(in); // comment
+            if ((flags & 0x04) != 0)
+                skipString(in); // created by
+            for (int tags = 0; tags < 2; tags++) {
+                // poi and way tags
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++)
+                    skipString(in);
+            }
+            int subFiles = in.readUnsignedByte();
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (int i = 0; i < subFiles; i++) {
+                skipFully(in, 1); // base zoom level
+                min = Math.min(min, in.readUnsignedByte());
+                max = Math.max(max, in.readUnsignedByte());
+                skipFully(in, 16); // start address and size
+            }
+            if (min <= max)
+                return new int[]{min, max};
+        } catch (IOException e) {
+            GPLog.error("MapsforgeIndexedTileSource", path, e);//NON-NLS
+        }
+        return new int[]{0, Byte.MAX_VALUE};
+    }
+
+    private static void skipString(DataInputStream in) throws IOException {
+        // strings are prefixed with their length as variable byte encoded unsigned int
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        skipFully(in, length);
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0)
+                throw new EOFException();
+            count -= skipped;
+        }
+    }
+
+    private static Envelope getTileBounds(int x, int y, int z) {
+        double n = 1 << z;
+        double west = x / n * 360.0 - 180.0;
+        double east = (x + 1) / n * 360.0 - 180.0;
+        double north = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / n))));
+        double south = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y + 1) / n))));
+        return new Envelope(west, east, south, north);
+    }
+
+    /**
+     * Data source of a single tile loader, holding its own reader of every map file touched.
+     */
+    private class IndexedDataSource implements ITileDataSource {
+        private final ITileDataSource[] dataSources = new ITileDataSource[entries.size()];
+
+        @Override
+        public void query(MapTile tile, ITileDataSink sink) {
+            long start = Metrics.INSTANCE.startTimer();
+            Envelope tileBounds = getTileBounds(tile.tileX, tile.tileY, tile.zoomLevel);
+            CombinedSink combinedSink = new CombinedSink(sink);
+            for (int i = 0; i < dataSources.length; i++) {
+                MapFileEntry entry = entries.get(i);
+                if (entry.bounds == null || !entry.bounds.intersects(tileBounds))
+                    continue;
+                if (tile.zoomLevel < entry.minZoom || tile.zoomLevel > entry.maxZoom)
+                    continue;
+                ITileDataSource dataSource = dataSources[i];
+                if (dataSource == null) {
+                    MapFileTileSource tileSource = entry.getTileSource();
+                    if (tileSource == null)
+                        continue;
+                    dataSource = tileSource.getDataSource();
+                    dataSources[i] = dataSource;
+                }
+                try {
+                    dataSource.query(tile, combinedSink);
+                } catch (Exception e) {
+                    GPLog.error(this, entry.path, e);
+                }
+            }
+            sink.completed(combinedSink.result);
+            Metrics.INSTANCE.stopTimer("tiles.mapsforge.query", start);//NON-NLS
+        }
+
+        @Override
+        public void dispose() {
+            for (ITileDataSource dataSource : dataSources) {
+                if (dataSource != null)
+                    dataSource.dispose();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            for (ITileDataSource dataSource : dataSources) {
+                if (dataSource != null)
+                    dataSource.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sink that collects the data of several files and completes the tile only once.
+     */
+    private static class CombinedSink implements ITileDataSink {
+        private final ITileDataSink sink;
+        QueryResult result = QueryResult.TILE_NOT_FOUND;
+
+        CombinedSink(ITileDataSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void process(MapElement element) {
+            sink.process(element);
+        }
+
+        @Override
+        public void setTileImage(Bitmap bitmap) {
+            sink.setTileImage(bitmap);
+        }
+
+        @Override
+        public void completed(QueryResult result) {
+            if (result == QueryResult.SUCCESS || this.result == QueryResult.TILE_NOT_FOUND)
+                this.result = result;
+        }
+    }
+}
@@ -66,6 +66,16 @@ public interface IEditableLayer extends IGpLayer {
      */
     void updateFeatureGeometry(Feature feature, Geometry geometry, int geometrySrid) throws Exception;
 
+    /**
+     * Refresh only the given features of the layer, instead of reloading all of its data.
+     *
+     * @param insertedIds the ids of the features that have been inserted.
+     * @param updatedIds  the ids of the features that have been updated.
+     * @param deletedIds  the ids of the features that have been deleted.
+     * @throws Exception if something goes wrong.
+     */
+    void applyChanges(List<Long> insertedIds, List<Long> updatedIds, List<Long> deletedIds) throws Exception;
+
     /**
      * @return the type of the geometry fo rthis layer.
      */
@@ -28,6 +28,7 @@ public interface IGpLayer {
     String LAYERMAXZOOM_TAG = "maxzoom";
     String LAYERTRANSPARENTCOLOR_TAG = "transparentcolor";
     String LAYERALPHA_TAG = "alpha";
+    String LAYERMAPSINDEX_TAG = "mapsindex";
 
 
     String getId();
@@ -40,6 +41,17 @@ public interface IGpLayer {
 
     GPMapView getMapView();
 
+    /**
+     * Prepare the data of the layer before it is loaded in the map.
+     *
+     * <p>This is where the heavy I/O (opening files and databases, reading data) happens. It is
+     * called off the UI thread before {@link #load()} and must not touch the map layers.</p>
+     *
+     * @throws Exception if something goes wrong.
+     */
+    default void prepare() throws Exception {
+    }
+
     /**
      * Load the layer into the map view.
      */
@@ -14,6 +14,7 @@ import org.oscim.backend.CanvasAdapter;
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.backend.canvas.Color;
 import org.oscim.backend.canvas.Paint;
+import org.oscim.core.BoundingBox;
 import org.oscim.core.GeoPoint;
 import org.oscim.layers.marker.ItemizedLayer;
 import org.oscim.layers.marker.MarkerItem;
@@ -26,7 +27,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.GPApplication;
-import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.library.util.Compat;
 import eu.geopaparazzi.library.util.GPDialogs;
@@ -35,14 +35,21 @@ import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
+import eu.geopaparazzi.map.layers.utils.LazyDataLoader;
 
 public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements ItemizedLayer.OnItemGestureListener<MarkerItem>, ISystemLayer {
     private static final int FG_COLOR = 0xFF000000; // 100 percent black. AARRGGBB
     private static final int BG_COLOR = 0x80FF69B4; // 50 percent pink. AARRGGBB
     private static final int TRANSP_WHITE = 0x80FFFFFF; // 50 percent white. AARRGGBB
+    /**
+     * Zoom range in which the layer draws and reads its data.
+     */
+    public static final int MIN_ZOOM = 5;
+    public static final int MAX_ZOOM = 30;
     public static String NAME = null;
     private static Bitmap imagesBitmap;
     private GPMapView mapView;
+    private LazyDataLoader lazyLoader;
     private static String colorStr;
 
     public static final String TABLE_BOOKMARKS = "bookmarks";//NON-NLS
@@ -50,15 +57,15 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
     public BookmarkLayer(GPMapView mapView) {
         super(mapView.map(), getMarkerSymbol(mapView));
         this.mapView = mapView;
+        lazyLoader = new LazyDataLoader(this, mapView.map(), MIN_ZOOM, MAX_ZOOM, true);
         getName(mapView.getContext());
 
         setOnItemGestureListener(this);
+    }
 
-        try {
-            reloadData();
-        } catch (Exception e) {
-            GPLog.error(this, null, e);
-        }
+    @Override
+    public void prepare() throws Exception {
+        lazyLoader.prepare(true);
     }
 
     public static String getName(Context context) {
@@ -84,12 +91,21 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
     }
 
     public void reloadData() throws Exception {
+        if (lazyLoader != null && !lazyLoader.canLoad()) {
+            // not drawn at the moment, the data are read again once the layer is enabled and in zoom range
+            lazyLoader.setLoaded(false);
+            setItems(new ArrayList<>());
+            return;
+        }
         SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
 
+        BoundingBox bounds = lazyLoader != null ? lazyLoader.getLoadBounds() : map().getBoundingBox(0);
         List<MarkerItem> bookmarks = new ArrayList<>();
-        String query = "SELECT lon, lat, text FROM " + TABLE_BOOKMARKS;//NON-NLS
+        String query = "SELECT lon, lat, text FROM " + TABLE_BOOKMARKS + " WHERE lon BETWEEN ? AND ? AND lat BETWEEN ? AND ?";//NON-NLS
+        String[] args = {String.valueOf(bounds.getMinLongitude()), String.valueOf(bounds.getMaxLongitude()),
+                String.valueOf(bounds.getMinLatitude()), String.valueOf(bounds.getMaxLatitude())};
 
-        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+        try (Cursor c = sqliteDatabase.rawQuery(query, args)) {
             c.moveToFirst();
             while (!c.isAfterLast()) {
                 double lon = c.getDouble(0);
@@ -108,9 +124,23 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
         for (MarkerItem mi : bookmarks) {
             mi.setMarker(createAdvancedSymbol(mi, imagesBitmap));
         }
-        addItems(bookmarks);
 
-        update();
+        if (lazyLoader != null)
+            lazyLoader.setLoaded(true);
+        setItems(bookmarks);
+    }
+
+    /**
+     * Replace the items of the layer on the map thread.
+     *
+     * @param items the new items.
+     */
+    private void setItems(List<MarkerItem> items) {
+        map().post(() -> {
+            removeAllItems(false);
+            addItems(items);
+            update();
+        });
     }
 
 
@@ -144,6 +174,13 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
         setEnabled(true);
     }
 
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (lazyLoader != null)
+            lazyLoader.checkLoad();
+    }
+
     @Override
     public boolean onItemSingleTapUp(int index, MarkerItem item) {
         if (item != null) {
@@ -182,7 +219,8 @@ public class BookmarkLayer extends ItemizedLayer<MarkerItem> implements Itemized
 
     @Override
     public void dispose() {
-
+        if (lazyLoader != null)
+            lazyLoader.dispose();
     }
 
     @Override
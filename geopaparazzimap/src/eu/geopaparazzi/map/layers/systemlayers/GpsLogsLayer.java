@@ -12,17 +12,19 @@ import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.oscim.backend.canvas.Paint;
+import org.oscim.core.BoundingBox;
 import org.oscim.layers.vector.VectorLayer;
+import org.oscim.layers.vector.geometries.Drawable;
 import org.oscim.layers.vector.geometries.LineDrawable;
 import org.oscim.layers.vector.geometries.PointDrawable;
 import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.GPApplication;
-import eu.geopaparazzi.library.database.GPLog;
 
 import eu.geopaparazzi.library.style.ColorUtilities;
 import eu.geopaparazzi.map.GPMapView;
@@ -31,25 +33,32 @@ import eu.geopaparazzi.map.utils.MapUtilities;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
 import eu.geopaparazzi.map.layers.utils.GpsLog;
+import eu.geopaparazzi.map.layers.utils.LazyDataLoader;
 
 public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
 
+    /**
+     * Zoom range in which the layer draws and reads its data.
+     */
+    public static final int MIN_ZOOM = 7;
+    public static final int MAX_ZOOM = 30;
     public static String NAME = null;
     private final SharedPreferences peferences;
     private GPMapView mapView;
+    private LazyDataLoader lazyLoader;
 
     public GpsLogsLayer(GPMapView mapView) {
         super(mapView.map());
 
         peferences = PreferenceManager.getDefaultSharedPreferences(mapView.getContext());
         this.mapView = mapView;
+        lazyLoader = new LazyDataLoader(this, mapView.map(), MIN_ZOOM, MAX_ZOOM, true);
         getName(mapView.getContext());
+    }
 
-        try {
-            reloadData();
-        } catch (IOException e) {
-            GPLog.error(this, null, e);
-        }
+    @Override
+    public void prepare() throws Exception {
+        lazyLoader.prepare(true);
     }
 
     public static String getName(Context context) {
@@ -60,12 +69,18 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
     }
 
     public void reloadData() throws IOException {
+        if (lazyLoader != null && !lazyLoader.canLoad()) {
+            // not drawn at the moment, the data are read again once the layer is enabled and in zoom range
+            lazyLoader.setLoaded(false);
+            setDrawables(new ArrayList<>());
+            return;
+        }
         SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
-        List<GpsLog> logsList = MapUtilities.getGpsLogs(sqliteDatabase);
+        BoundingBox bounds = lazyLoader != null ? lazyLoader.getLoadBounds() : null;
+        List<GpsLog> logsList = MapUtilities.getGpsLogs(sqliteDatabase, bounds);
         GeometryFactory gf = new GeometryFactory();
 
-        tmpDrawables.clear();
-        mDrawables.clear();
+        List<Drawable> drawables = new ArrayList<>();
         for (GpsLog gpsLog : logsList) {
             LineString lineString = gf.createLineString(gpsLog.gpslogGeoPoints.toArray(new Coordinate[0]));
             Style lineStyle = Style.builder()
@@ -73,7 +88,7 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
                     .strokeWidth((float) gpsLog.width)
                     .cap(Paint.Cap.ROUND)
                     .build();
-            add(new LineDrawable(lineString, lineStyle));
+            drawables.add(new LineDrawable(lineString, lineStyle));
 
             Point startPoint = lineString.getStartPoint();
 
@@ -84,9 +99,27 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
                     .scaleZoomLevel(19)
                     .fillAlpha(1)
                     .build();
-            add(new PointDrawable(startPoint.getY(), startPoint.getX(), pointStyle));
+            drawables.add(new PointDrawable(startPoint.getY(), startPoint.getX(), pointStyle));
         }
-        update();
+        if (lazyLoader != null)
+            lazyLoader.setLoaded(true);
+        setDrawables(drawables);
+    }
+
+    /**
+     * Replace the drawables of the layer on the map thread.
+     *
+     * @param drawables the new drawables.
+     */
+    private void setDrawables(List<Drawable> drawables) {
+        map().post(() -> {
+            tmpDrawables.clear();
+            mDrawables.clear();
+            for (Drawable drawable : drawables) {
+                add(drawable);
+            }
+            update();
+        });
     }
 
 
@@ -99,6 +132,13 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
         setEnabled(true);
     }
 
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (lazyLoader != null)
+            lazyLoader.checkLoad();
+    }
+
     @Override
     public String getId() {
         return getName();
@@ -127,7 +167,8 @@ public class GpsLogsLayer extends VectorLayer implements ISystemLayer {
 
     @Override
     public void dispose() {
-
+        if (lazyLoader != null)
+            lazyLoader.dispose();
     }
 
     @Override
@@ -16,6 +16,7 @@ import org.oscim.backend.CanvasAdapter;
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.backend.canvas.Color;
 import org.oscim.backend.canvas.Paint;
+import org.oscim.core.BoundingBox;
 import org.oscim.core.GeoPoint;
 import org.oscim.layers.marker.ItemizedLayer;
 import org.oscim.layers.marker.MarkerItem;
@@ -42,10 +43,13 @@ import eu.geopaparazzi.library.util.Compat;
 import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
+import eu.geopaparazzi.map.layers.utils.GridClusters;
+import eu.geopaparazzi.map.layers.utils.LazyDataLoader;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_IMAGES_TEXT_VISIBLE;
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_IMAGES_VISIBLE;
@@ -54,32 +58,37 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
     private static final int FG_COLOR = 0xFF000000; // 100 percent black. AARRGGBB
     private static final int BG_COLOR = 0x80FF69B4; // 50 percent pink. AARRGGBB
     private static final int TRANSP_WHITE = 0x80FFFFFF; // 50 percent white. AARRGGBB
+    private static final int CLUSTER_COLOR = 0xC04682B4; // 75 percent steel blue. AARRGGBB
+    /**
+     * Zoom range in which the layer draws and reads its data.
+     */
+    public static final int MIN_ZOOM = 10;
+    public static final int MAX_ZOOM = 30;
     public static String NAME = null;
     private static Bitmap imagesBitmap;
     private boolean showLabels;
     private GPMapView mapView;
+    private LazyDataLoader lazyLoader;
     private static int textSize;
     private static String colorStr;
 
     public ImagesLayer(GPMapView mapView) {
         super(mapView.map(), getMarkerSymbol(mapView));
         this.mapView = mapView;
+        lazyLoader = new LazyDataLoader(this, mapView.map(), MIN_ZOOM, MAX_ZOOM, true);
         getName(mapView.getContext());
 
         setOnItemGestureListener(this);
 
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
-        boolean imagesVisible = preferences.getBoolean(PREFS_KEY_IMAGES_VISIBLE, true);
         showLabels = preferences.getBoolean(PREFS_KEY_IMAGES_TEXT_VISIBLE, true);
+    }
 
-        try {
-            if (imagesVisible)
-                reloadData();
-        } catch (IOException e) {
-            GPLog.error(this, null, e);
-        }
-
-
+    @Override
+    public void prepare() throws Exception {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
+        boolean imagesVisible = preferences.getBoolean(PREFS_KEY_IMAGES_VISIBLE, true);
+        lazyLoader.prepare(imagesVisible);
     }
 
     public static String getName(Context context) {
@@ -106,48 +115,80 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
     }
 
     public void reloadData() throws IOException {
+        if (lazyLoader != null && !lazyLoader.canLoad()) {
+            // not drawn at the moment, the data are read again once the layer is enabled and in zoom range
+            lazyLoader.setLoaded(false);
+            setItems(new ArrayList<>());
+            return;
+        }
         SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
 
+        BoundingBox bounds = lazyLoader != null ? lazyLoader.getLoadBounds() : map().getBoundingBox(0);
+        int zoom = map().getMapPosition().getZoomLevel();
+        boolean clustered = GridClusters.isClustered(zoom);
+        String query = GridClusters.getQuery(TableDescriptions.TABLE_IMAGES,
+                TableDescriptions.ImageTableFields.COLUMN_ID.getFieldName(),
+                TableDescriptions.ImageTableFields.COLUMN_LON.getFieldName(),
+                TableDescriptions.ImageTableFields.COLUMN_LAT.getFieldName(),
+                new String[]{
+                        TableDescriptions.ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName(),
+                        TableDescriptions.ImageTableFields.COLUMN_ALTIM.getFieldName(),
+                        TableDescriptions.ImageTableFields.COLUMN_TS.getFieldName(),
+                        TableDescriptions.ImageTableFields.COLUMN_TEXT.getFieldName()
+                },
+                TableDescriptions.ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0", clustered);
+
         List<MarkerItem> images = new ArrayList<>();
-        String[] asColumnsToReturn = {//
-                TableDescriptions.ImageTableFields.COLUMN_LON.getFieldName(),//
-                TableDescriptions.ImageTableFields.COLUMN_LAT.getFieldName(), //
-                TableDescriptions.ImageTableFields.COLUMN_IMAGEDATA_ID.getFieldName(),//
-                TableDescriptions.ImageTableFields.COLUMN_ALTIM.getFieldName(),//
-                TableDescriptions.ImageTableFields.COLUMN_TS.getFieldName(),//
-                TableDescriptions.ImageTableFields.COLUMN_TEXT.getFieldName()//
-        };
-        String strSortOrder = "_id ASC"; //NON-NLS
-        String whereString = TableDescriptions.ImageTableFields.COLUMN_NOTE_ID.getFieldName() + " < 0";
-        Cursor c = sqliteDatabase.query(TableDescriptions.TABLE_IMAGES, asColumnsToReturn, whereString, null, null, null, strSortOrder);
-        c.moveToFirst();
-        while (!c.isAfterLast()) {
-            double lon = c.getDouble(0);
-            double lat = c.getDouble(1);
-            long imageDataId = c.getLong(2);
-            double elev = c.getDouble(3);
-            long ts = c.getLong(4);
-            String text = c.getString(5);
-
-            String descr = "note: " + text + "\n" + //NON-NLS
-                    "id: " + imageDataId + "\n" +//NON-NLS
-                    "longitude: " + lon + "\n" +//NON-NLS
-                    "latitude: " + lat + "\n" +//NON-NLS
-                    "elevation: " + elev + "\n" +//NON-NLS
-                    "timestamp: " + TimeUtilities.INSTANCE.TIME_FORMATTER_LOCAL.format(new Date(ts));//NON-NLS
-
-            images.add(new MarkerItem(imageDataId, text, descr, new GeoPoint(lat, lon)));
-            c.moveToNext();
+        try (Cursor c = sqliteDatabase.rawQuery(query, GridClusters.getQueryArgs(bounds, zoom, clustered))) {
+            c.moveToFirst();
+            while (!c.isAfterLast()) {
+                int count = c.getInt(0);
+                double lon = c.getDouble(1);
+                double lat = c.getDouble(2);
+                if (count > 1) {
+                    GridClusters.ClusterItem cluster = new GridClusters.ClusterItem(count, new GeoPoint(lat, lon));
+                    cluster.setMarker(GridClusters.createClusterSymbol(count, CLUSTER_COLOR));
+                    images.add(cluster);
+                    c.moveToNext();
+                    continue;
+                }
+                long imageDataId = c.getLong(4);
+                double elev = c.getDouble(5);
+                long ts = c.getLong(6);
+                String text = c.getString(7);
+
+                String descr = "note: " + text + "\n" + //NON-NLS
+                        "id: " + imageDataId + "\n" +//NON-NLS
+                        "longitude: " + lon + "\n" +//NON-NLS
+                        "latitude: " + lat + "\n" +//NON-NLS
+                        "elevation: " + elev + "\n" +//NON-NLS
+                        "timestamp: " + TimeUtilities.INSTANCE.TIME_FORMATTER_LOCAL.format(new Date(ts));//NON-NLS
+
+                MarkerItem markerItem = new MarkerItem(imageDataId, text, descr, new GeoPoint(lat, lon));
+                markerItem.setMarker(createAdvancedSymbol(markerItem, imagesBitmap));
+                images.add(markerItem);
+                c.moveToNext();
+            }
         }
-        c.close();
 
+        Metrics.INSTANCE.record("layers.images.items", images.size());//NON-NLS
 
-        for (MarkerItem mi : images) {
-            mi.setMarker(createAdvancedSymbol(mi, imagesBitmap));
-        }
-        addItems(images);
+        if (lazyLoader != null)
+            lazyLoader.setLoaded(true);
+        setItems(images);
+    }
 
-        update();
+    /**
+     * Replace the items of the layer on the map thread.
+     *
+     * @param items the new items.
+     */
+    private void setItems(List<MarkerItem> items) {
+        map().post(() -> {
+            removeAllItems(false);
+            addItems(items);
+            update();
+        });
     }
 
 
@@ -160,8 +201,19 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
         setEnabled(true);
     }
 
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (lazyLoader != null)
+            lazyLoader.checkLoad();
+    }
+
     @Override
     public boolean onItemSingleTapUp(int index, MarkerItem item) {
+        if (item instanceof GridClusters.ClusterItem) {
+            GridClusters.zoomInto(map(), item.getPoint());
+            return true;
+        }
         if (item != null) {
             Context context = mapView.getContext();
             long uid = (long) item.getUid();
@@ -179,8 +231,7 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
             String ext = title.substring(length - 4, length);
             String tempImageName = ImageUtilities.getTempImageName(ext);
             IImagesDbHelper imageHelper = DefaultHelperClasses.getDefaulfImageHelper();
-            byte[] imageData = imageHelper.getImageDataById(imageDataId, null);
-            AppsUtilities.showImage(imageData, tempImageName, context);
+            AppsUtilities.showImage(imageHelper.getImageDataStreamById(imageDataId, null), tempImageName, context);
         } catch (java.lang.Exception e) {
             GPLog.error(this, null, e);
         }
@@ -276,7 +327,8 @@ public class ImagesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLa
 
     @Override
     public void dispose() {
-
+        if (lazyLoader != null)
+            lazyLoader.dispose();
     }
 
     @Override
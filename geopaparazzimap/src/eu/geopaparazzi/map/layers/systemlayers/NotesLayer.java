@@ -17,6 +17,7 @@ import org.oscim.backend.CanvasAdapter;
 import org.oscim.backend.canvas.Bitmap;
 import org.oscim.backend.canvas.Color;
 import org.oscim.backend.canvas.Paint;
+import org.oscim.core.BoundingBox;
 import org.oscim.core.GeoPoint;
 import org.oscim.layers.marker.ItemizedLayer;
 import org.oscim.layers.marker.MarkerItem;
@@ -32,7 +33,6 @@ import java.util.List;
 import eu.geopaparazzi.library.GPApplication;
 import eu.geopaparazzi.library.database.ANote;
 import eu.geopaparazzi.library.database.DefaultHelperClasses;
-import eu.geopaparazzi.library.database.GPLog;
 import eu.geopaparazzi.library.database.TableDescriptions;
 import eu.geopaparazzi.library.forms.FormActivity;
 import eu.geopaparazzi.library.forms.FormInfoHolder;
@@ -42,10 +42,13 @@ import eu.geopaparazzi.library.util.GPDialogs;
 import eu.geopaparazzi.library.util.IActivitySupporter;
 import eu.geopaparazzi.library.util.LibraryConstants;
 import eu.geopaparazzi.library.util.TimeUtilities;
+import eu.geopaparazzi.library.util.debug.Metrics;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.R;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.ISystemLayer;
+import eu.geopaparazzi.map.layers.utils.GridClusters;
+import eu.geopaparazzi.map.layers.utils.LazyDataLoader;
 
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_NOTES_TEXT_VISIBLE;
 import static eu.geopaparazzi.library.util.LibraryConstants.PREFS_KEY_NOTES_VISIBLE;
@@ -54,12 +57,19 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
     private static final int FG_COLOR = 0xFF000000; // 100 percent black. AARRGGBB
     private static final int BG_COLOR = 0x80FF69B4; // 50 percent pink. AARRGGBB
     private static final int TRANSP_WHITE = 0x80FFFFFF; // 50 percent white. AARRGGBB
+    private static final int CLUSTER_COLOR = 0xC0FF69B4; // 75 percent pink. AARRGGBB
+    /**
+     * Zoom range in which the layer draws and reads its data.
+     */
+    public static final int MIN_ZOOM = 5;
+    public static final int MAX_ZOOM = 30;
     private static String NAME = null;
     public static final String NONFORMSTART = "@";
 
     public static final int FORMUPDATE_RETURN_CODE = 669;
     private static Bitmap notesBitmap;
     private GPMapView mapView;
+    private LazyDataLoader lazyLoader;
     private IActivitySupporter activitySupporter;
     private static int textSize;
     private static String colorStr;
@@ -68,24 +78,21 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
     public NotesLayer(GPMapView mapView, IActivitySupporter activitySupporter) {
         super(mapView.map(), getMarkerSymbol(mapView));
         this.mapView = mapView;
+        lazyLoader = new LazyDataLoader(this, mapView.map(), MIN_ZOOM, MAX_ZOOM, true);
         getName(mapView.getContext());
 
         this.activitySupporter = activitySupporter;
         setOnItemGestureListener(this);
 
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
-        boolean notesVisible = preferences.getBoolean(PREFS_KEY_NOTES_VISIBLE, true);
-
         showLabels = preferences.getBoolean(PREFS_KEY_NOTES_TEXT_VISIBLE, true);
+    }
 
-        try {
-            if (notesVisible)
-                reloadData();
-        } catch (IOException e) {
-            GPLog.error(this, null, e);
-        }
-
-
+    @Override
+    public void prepare() throws Exception {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(GPApplication.getInstance());
+        boolean notesVisible = preferences.getBoolean(PREFS_KEY_NOTES_VISIBLE, true);
+        lazyLoader.prepare(notesVisible);
     }
 
     public static String getName(Context context) {
@@ -135,33 +142,45 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
     }
 
     public void reloadData() throws IOException {
+        if (lazyLoader != null && !lazyLoader.canLoad()) {
+            // not drawn at the moment, the data are read again once the layer is enabled and in zoom range
+            lazyLoader.setLoaded(false);
+            setItems(new ArrayList<>());
+            return;
+        }
         SQLiteDatabase sqliteDatabase = GPApplication.getInstance().getDatabase();
 
-        String query = "SELECT " +//NON-NLS
-                TableDescriptions.NotesTableFields.COLUMN_ID.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_LON.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_LAT.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_ALTIM.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_TEXT.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_TS.getFieldName() +
-                ", " +//
-                TableDescriptions.NotesTableFields.COLUMN_FORM.getFieldName() +//
-                " FROM " + TableDescriptions.TABLE_NOTES;//NON-NLS
-        query = query + " WHERE " + TableDescriptions.NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = 1";//NON-NLS
+        BoundingBox bounds = lazyLoader != null ? lazyLoader.getLoadBounds() : map().getBoundingBox(0);
+        int zoom = map().getMapPosition().getZoomLevel();
+        boolean clustered = GridClusters.isClustered(zoom);
+        String query = GridClusters.getQuery(TableDescriptions.TABLE_NOTES,
+                TableDescriptions.NotesTableFields.COLUMN_ID.getFieldName(),
+                TableDescriptions.NotesTableFields.COLUMN_LON.getFieldName(),
+                TableDescriptions.NotesTableFields.COLUMN_LAT.getFieldName(),
+                new String[]{
+                        TableDescriptions.NotesTableFields.COLUMN_ALTIM.getFieldName(),
+                        TableDescriptions.NotesTableFields.COLUMN_TEXT.getFieldName(),
+                        TableDescriptions.NotesTableFields.COLUMN_TS.getFieldName(),
+                        TableDescriptions.NotesTableFields.COLUMN_FORM.getFieldName()
+                },
+                TableDescriptions.NotesTableFields.COLUMN_ISDIRTY.getFieldName() + " = 1", clustered);
 
         List<MarkerItem> pts = new ArrayList<>();
-        try (Cursor c = sqliteDatabase.rawQuery(query, null)) {
+        try (Cursor c = sqliteDatabase.rawQuery(query, GridClusters.getQueryArgs(bounds, zoom, clustered))) {
             c.moveToFirst();
             while (!c.isAfterLast()) {
                 int i = 0;
-                long id = c.getLong(i++);
+                int count = c.getInt(i++);
                 double lon = c.getDouble(i++);
                 double lat = c.getDouble(i++);
+                if (count > 1) {
+                    GridClusters.ClusterItem cluster = new GridClusters.ClusterItem(count, new GeoPoint(lat, lon));
+                    cluster.setMarker(GridClusters.createClusterSymbol(count, CLUSTER_COLOR));
+                    pts.add(cluster);
+                    c.moveToNext();
+                    continue;
+                }
+                long id = c.getLong(i++);
                 double elev = c.getDouble(i++);
                 String text = c.getString(i++);
                 long ts = c.getLong(i++);
@@ -181,18 +200,30 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
                     descr = form;
                 }
 
-                pts.add(new MarkerItem(id, text, descr, new GeoPoint(lat, lon)));
+                MarkerItem markerItem = new MarkerItem(id, text, descr, new GeoPoint(lat, lon));
+                markerItem.setMarker(createAdvancedSymbol(markerItem, notesBitmap));
+                pts.add(markerItem);
                 c.moveToNext();
             }
-
-            for (MarkerItem mi : pts) {
-                mi.setMarker(createAdvancedSymbol(mi, notesBitmap));
-            }
-            addItems(pts);
         }
+        Metrics.INSTANCE.record("layers.notes.items", pts.size());//NON-NLS
 
+        if (lazyLoader != null)
+            lazyLoader.setLoaded(true);
+        setItems(pts);
+    }
 
-        update();
+    /**
+     * Replace the items of the layer on the map thread.
+     *
+     * @param items the new items.
+     */
+    private void setItems(List<MarkerItem> items) {
+        map().post(() -> {
+            removeAllItems(false);
+            addItems(items);
+            update();
+        });
     }
 
 
@@ -205,8 +236,19 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
         setEnabled(true);
     }
 
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        if (lazyLoader != null)
+            lazyLoader.checkLoad();
+    }
+
     @Override
     public boolean onItemSingleTapUp(int index, MarkerItem item) {
+        if (item instanceof GridClusters.ClusterItem) {
+            GridClusters.zoomInto(map(), item.getPoint());
+            return true;
+        }
         if (item != null) {
             String description = item.getSnippet();
             if (description.startsWith(NONFORMSTART)) {
@@ -329,7 +371,8 @@ public class NotesLayer extends ItemizedLayer<MarkerItem> implements ItemizedLay
 
     @Override
     public void dispose() {
-
+        if (lazyLoader != null)
+            lazyLoader.dispose();
     }
 
     @Override
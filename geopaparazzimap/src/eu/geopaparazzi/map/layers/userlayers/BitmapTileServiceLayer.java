@@ -5,12 +5,17 @@ import org.json.JSONObject;
 import org.oscim.android.cache.TileCache;
 import org.oscim.layers.tile.bitmap.BitmapTileLayer;
 import org.oscim.map.Layers;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.source.OkHttpEngine;
 import org.oscim.tiling.source.bitmap.BitmapTileSource;
 
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.interfaces.IRasterTileOnlineLayer;
+import eu.geopaparazzi.map.layers.utils.DecodedTilesCache;
+import eu.geopaparazzi.map.layers.utils.DecodedTilesDataSource;
 import eu.geopaparazzi.map.layers.utils.EOnlineTileSources;
+import eu.geopaparazzi.map.layers.utils.OnlineTilesDiskCache;
 
 public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTileOnlineLayer {
 
@@ -43,11 +48,35 @@ public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTi
     }
 
     private static BitmapTileSource getTileSource(GPMapView mapView, String url, String tilePath, int maxZoom) {
-        BitmapTileSource tileSource = BitmapTileSource.builder()
+        BitmapTileSource.Builder<?> builder = BitmapTileSource.builder()
                 .url(url)
                 .tilePath(tilePath)
-                .zoomMax(maxZoom).build();
-
+                .zoomMax(maxZoom);
+
+        OkHttpEngine.OkHttpFactory httpFactory = OnlineTilesDiskCache.INSTANCE.getHttpFactory(mapView.getContext(), url);
+        if (httpFactory != null) {
+            log.debug("use disk cache for {}", url);//NON-NLS
+            builder.httpFactory(httpFactory);
+        }
+
+        // recently decoded tiles are served from memory
+        String cacheId = url + tilePath;
+        BitmapTileSource tileSource = new BitmapTileSource(builder) {
+            @Override
+            public ITileDataSource getDataSource() {
+                return new DecodedTilesDataSource(super.getDataSource(), cacheId);
+            }
+
+            @Override
+            public void close() {
+                DecodedTilesCache.INSTANCE.removeLayer(cacheId);
+                super.close();
+            }
+        };
+        if (httpFactory != null)
+            return tileSource;
+
+        // no disk cache available, fall back to the small sqlite tile cache
         String cacheFile = tileSource.getUrl()
                 .toString()
                 .replaceFirst("https?://", "")//NON-NLS
@@ -76,6 +105,18 @@ public class BitmapTileServiceLayer extends BitmapTileLayer implements IRasterTi
         return mapView;
     }
 
+    public String getUrl() {
+        return url;
+    }
+
+    public String getTilePath() {
+        return tilePath;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
     @Override
     public void load() {
         Layers layers = map().layers();
@@ -1,13 +1,12 @@
 package eu.geopaparazzi.map.layers.userlayers;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.oscim.layers.tile.buildings.BuildingLayer;
 import org.oscim.layers.tile.vector.OsmTileLayer;
 import org.oscim.layers.tile.vector.labeling.LabelLayer;
 import org.oscim.map.Layers;
-import org.oscim.tiling.source.mapfile.MapFileTileSource;
-import org.oscim.tiling.source.mapfile.MultiMapFileTileSource;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -18,6 +17,7 @@ import java.util.stream.Collectors;
 import eu.geopaparazzi.library.util.FileUtilities;
 import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.layers.LayerGroups;
+import eu.geopaparazzi.map.layers.MapsforgeIndexedTileSource;
 import eu.geopaparazzi.map.layers.interfaces.IVectorTileOfflineLayer;
 
 public class MapsforgeLayer extends OsmTileLayer implements IVectorTileOfflineLayer {
@@ -28,10 +28,27 @@ public class MapsforgeLayer extends OsmTileLayer implements IVectorTileOfflineLa
     private boolean do3d;
     private boolean doLabels;
     private String[] mapPaths;
-    private MultiMapFileTileSource tileSource;
+    private JSONArray mapsIndex;
+    private MapsforgeIndexedTileSource tileSource;
+    private boolean isOpen = false;
 
     public MapsforgeLayer(GPMapView mapView, String name, boolean do3d, boolean doLabels, String... mapPaths) {
+        this(mapView, name, do3d, doLabels, null, mapPaths);
+    }
+
+    /**
+     * Create the layer.
+     *
+     * @param mapView   the map view.
+     * @param name      the layer name, if null it is created from the map files names.
+     * @param do3d      if true, the buildings layer is added.
+     * @param doLabels  if true, the labels layer is added.
+     * @param mapsIndex the optional index of bounds of the map files, as previously stored in the layer definition.
+     * @param mapPaths  the map files.
+     */
+    public MapsforgeLayer(GPMapView mapView, String name, boolean do3d, boolean doLabels, JSONArray mapsIndex, String... mapPaths) {
         super(mapView.map());
+        this.mapsIndex = mapsIndex;
         this.mapView = mapView;
         this.do3d = do3d;
         this.doLabels = doLabels;
@@ -48,17 +65,16 @@ public class MapsforgeLayer extends OsmTileLayer implements IVectorTileOfflineLa
         path = Arrays.stream(mapPaths).collect(Collectors.joining(PATHS_DELIMITER));
     }
 
+    @Override
+    public void prepare() {
+        tileSource = new MapsforgeIndexedTileSource(mapPaths, mapsIndex);
+        isOpen = tileSource.open().isSuccess();
+    }
+
     public void load() {
-        tileSource = new MultiMapFileTileSource();
-        boolean okToLoad = false;
-        for (String mapPath : mapPaths) {
-            MapFileTileSource ts = new MapFileTileSource();
-            okToLoad = ts.setMapFile(mapPath);
-            if (okToLoad) {
-                tileSource.add(ts);
-            }
-        }
-        if (okToLoad) {
+        if (tileSource == null)
+            prepare();
+        if (isOpen) {
             setTileSource(tileSource);
 
             Layers layers = mapView.map().layers();
@@ -115,6 +131,10 @@ public class MapsforgeLayer extends OsmTileLayer implements IVectorTileOfflineLa
         jo.put(LAYERPATH_TAG, path);
         jo.put(LAYERDO3D_TAG, do3d);
         jo.put(LAYERDOLABELS_TAG, doLabels);
+        if (tileSource != null)
+            mapsIndex = tileSource.getIndex();
+        if (mapsIndex != null)
+            jo.put(LAYERMAPSINDEX_TAG, mapsIndex);
         return jo;
     }
 
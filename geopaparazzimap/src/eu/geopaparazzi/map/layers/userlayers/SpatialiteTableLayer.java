@@ -3,11 +3,8 @@ package eu.geopaparazzi.map.layers.userlayers;
 import android.util.LongSparseArray;
 
 import org.hortonmachine.dbs.compat.ASpatialDb;
-import org.hortonmachine.dbs.compat.GeometryColumn;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
-import org.hortonmachine.dbs.datatypes.EDataType;
 import org.hortonmachine.dbs.datatypes.EGeometryType;
-import org.hortonmachine.dbs.datatypes.ESpatialiteGeometryType;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.locationtech.jts.geom.Coordinate;
@@ -19,6 +16,7 @@ import org.oscim.layers.vector.geometries.Drawable;
 import org.oscim.layers.vector.geometries.Style;
 import org.oscim.map.Layers;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import eu.geopaparazzi.library.database.GPLog;
@@ -33,7 +31,8 @@ import eu.geopaparazzi.map.layers.layerobjects.GPPointDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.GPPolygonDrawable;
 import eu.geopaparazzi.map.layers.layerobjects.IGPDrawable;
 import eu.geopaparazzi.map.layers.utils.SpatialiteConnectionsHandler;
-import eu.geopaparazzi.map.layers.utils.SpatialiteUtilities;
+import eu.geopaparazzi.map.layers.utils.SpatialiteEditingSession;
+import eu.geopaparazzi.map.layers.utils.SpatialiteTableMetadata;
 import eu.geopaparazzi.map.utils.MapUtilities;
 
 public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer {
@@ -42,15 +41,15 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
     private final String dbPath;
     private final String tableName;
     private boolean isEditing;
+    private boolean isPrepared = false;
     private EGeometryType geometryType;
-    private GeometryColumn gCol;
-    private List<String[]> tableColumnInfos;
 
     private Style pointStyle = null;
     private Style lineStyle = null;
     private Style polygonStyle = null;
 
-    private LongSparseArray<IGPDrawable> drawablesMap = null;
+    private eu.geopaparazzi.library.style.Style gpStyle;
+    private LongSparseArray<List<IGPDrawable>> drawablesMap = null;
 
     public SpatialiteTableLayer(GPMapView mapView, String dbPath, String tableName, boolean isEditing) {
         super(mapView.map());
@@ -60,9 +59,16 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
         this.isEditing = isEditing;
     }
 
+    @Override
+    public void prepare() throws Exception {
+        reloadData();
+        isPrepared = true;
+    }
+
     public void load() {
         try {
-            reloadData();
+            if (!isPrepared)
+                reloadData();
 
             Layers layers = mapView.map().layers();
             layers.add(this, LayerGroups.GROUP_MAPLAYERS.getGroupId());
@@ -78,30 +84,84 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
 
         SpatialiteConnectionsHandler.INSTANCE.openTable(dbPath, tableName);
 
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
-        gCol = db.getGeometryColumnsForTable(tableName);
-        tableColumnInfos = db.getTableColumns(tableName);
-        geometryType = SpatialiteConnectionsHandler.INSTANCE.getGeometryType(dbPath, tableName);
-        eu.geopaparazzi.library.style.Style gpStyle = SpatialiteConnectionsHandler.INSTANCE.getStyleForTable(dbPath, tableName, null);
+        SpatialiteTableMetadata metadata = SpatialiteConnectionsHandler.INSTANCE.getTableMetadata(dbPath, tableName);
+        geometryType = metadata.getGeometryType();
+        gpStyle = SpatialiteConnectionsHandler.INSTANCE.getStyleForTable(dbPath, tableName, null);
+        pointStyle = null;
+        lineStyle = null;
+        polygonStyle = null;
 
         List<Feature> features = getFeatures(null);
         drawablesMap = new LongSparseArray<>(features.size());
-
         for (Feature feature : features) {
-            Geometry geom = feature.getDefaultGeometry();
-            long id = feature.getIdFieldValue();
-
-            eu.geopaparazzi.library.style.Style themeStyle = null;
-            if (gpStyle.themeField != null) {
-                String userData = geom.getUserData().toString();
-                String[] split = userData.split(SpatialiteUtilities.LABEL_THEME_SEPARATOR);
-//                    String label = split[0];
-                String themeFieldValue = split[1];
-                themeStyle = gpStyle.themeMap.get(themeFieldValue);
+            addFeatureDrawables(feature);
+        }
+        update();
+    }
+
+    @Override
+    public void applyChanges(List<Long> insertedIds, List<Long> updatedIds, List<Long> deletedIds) throws Exception {
+        SpatialiteTableMetadata metadata = SpatialiteConnectionsHandler.INSTANCE.getTableMetadata(dbPath, tableName);
+        if (drawablesMap == null || metadata.primaryKey == null) {
+            // without primary key the read features can't be matched to the edited rowids
+            reloadData();
+            return;
+        }
+        for (Long id : deletedIds) {
+            removeFeatureDrawables(id);
+        }
+        for (Long id : updatedIds) {
+            removeFeatureDrawables(id);
+        }
+
+        List<Long> idsToRead = new ArrayList<>(insertedIds);
+        idsToRead.addAll(updatedIds);
+        if (idsToRead.size() > 0) {
+            StringBuilder whereSb = new StringBuilder();
+            whereSb.append(metadata.primaryKey).append(" in (");
+            for (int i = 0; i < idsToRead.size(); i++) {
+                if (i > 0) whereSb.append(",");
+                whereSb.append(idsToRead.get(i));
             }
+            whereSb.append(")");
+
+            ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
+            QueryResult queryResult = db.getTableRecordsMapIn(tableName, null, -1, LibraryConstants.SRID_WGS84_4326, whereSb.toString());
+            List<Feature> features = MapUtilities.fromQueryResult(tableName, dbPath, queryResult);
+            for (Feature feature : features) {
+                addFeatureDrawables(feature);
+            }
+        }
+        update();
+    }
+
+    private void addFeatureDrawables(Feature feature) {
+        Geometry geom = feature.getDefaultGeometry();
+        if (geom == null)
+            return;
+        long id = feature.getIdFieldValue();
+
+        eu.geopaparazzi.library.style.Style themeStyle = null;
+        if (gpStyle.themeField != null && gpStyle.themeMap != null) {
+            Object themeFieldValue = feature.getAttribute(gpStyle.themeField);
+            if (themeFieldValue != null)
+                themeStyle = gpStyle.themeMap.get(themeFieldValue.toString());
+        }
 
-            IGPDrawable drawable = null;
-            if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
+        List<IGPDrawable> drawables = new ArrayList<>();
+        int numGeometries = geom.getNumGeometries();
+        if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
+            Style style;
+            if (themeStyle != null) {
+                style = Style.builder()
+                        .buffer(themeStyle.size)
+                        .strokeWidth(themeStyle.width)
+                        .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
+                        .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
+                        .fillAlpha(themeStyle.fillalpha)
+                        .scaleZoomLevel(19)
+                        .build();
+            } else {
                 if (pointStyle == null) {
                     pointStyle = Style.builder()
                             .buffer(gpStyle.size)
@@ -112,29 +172,21 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
                             .scaleZoomLevel(19)
                             .build();
                 }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        Coordinate c = geometryN.getCoordinate();
-                        if (themeStyle != null) {
-                            Style pointThemeStyle = Style.builder()
-                                    .buffer(themeStyle.size)
-                                    .strokeWidth(themeStyle.width)
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .scaleZoomLevel(19)
-                                    .build();
-                            drawable = new GPPointDrawable(c.y, c.x, pointThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
-            } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
+                style = pointStyle;
+            }
+            for (int i = 0; i < numGeometries; i++) {
+                Coordinate c = geom.getGeometryN(i).getCoordinate();
+                drawables.add(new GPPointDrawable(c.y, c.x, style, id));
+            }
+        } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
+            Style style;
+            if (themeStyle != null) {
+                style = Style.builder()
+                        .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
+                        .strokeWidth(themeStyle.width)
+                        .cap(Paint.Cap.ROUND)
+                        .build();
+            } else {
                 if (lineStyle == null) {
                     lineStyle = Style.builder()
                             .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
@@ -142,25 +194,22 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
                             .cap(Paint.Cap.ROUND)
                             .build();
                 }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style lineThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPLineDrawable(geometryN, lineThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
-            } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
+                style = lineStyle;
+            }
+            for (int i = 0; i < numGeometries; i++) {
+                drawables.add(new GPLineDrawable(geom.getGeometryN(i), style, id));
+            }
+        } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
+            Style style;
+            if (themeStyle != null) {
+                style = Style.builder()
+                        .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
+                        .strokeWidth(themeStyle.width)
+                        .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
+                        .fillAlpha(themeStyle.fillalpha)
+                        .cap(Paint.Cap.ROUND)
+                        .build();
+            } else {
                 if (polygonStyle == null) {
                     polygonStyle = Style.builder()
                             .strokeColor(ColorUtilities.toColor(gpStyle.strokecolor))
@@ -170,32 +219,29 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
                             .cap(Paint.Cap.ROUND)
                             .build();
                 }
-                if (geom != null) {
-                    int numGeometries = geom.getNumGeometries();
-                    for (int i = 0; i < numGeometries; i++) {
-                        Geometry geometryN = geom.getGeometryN(i);
-                        if (themeStyle != null) {
-                            Style polygonThemeStyle = Style.builder()
-                                    .strokeColor(ColorUtilities.toColor(themeStyle.strokecolor))
-                                    .strokeWidth(themeStyle.width)
-                                    .fillColor(ColorUtilities.toColor(themeStyle.fillcolor))
-                                    .fillAlpha(themeStyle.fillalpha)
-                                    .cap(Paint.Cap.ROUND)
-                                    .build();
-                            drawable = new GPPolygonDrawable(geometryN, polygonThemeStyle, id);
-                            add((Drawable) drawable);
-                        } else {
-                            drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                            add((Drawable) drawable);
-                        }
-                    }
-                }
+                style = polygonStyle;
             }
-            if (drawable != null) {
-                drawablesMap.put(id, drawable);
+            for (int i = 0; i < numGeometries; i++) {
+                drawables.add(new GPPolygonDrawable(geom.getGeometryN(i), style, id));
             }
         }
-        update();
+
+        for (IGPDrawable drawable : drawables) {
+            add((Drawable) drawable);
+        }
+        if (drawables.size() > 0) {
+            drawablesMap.put(id, drawables);
+        }
+    }
+
+    private void removeFeatureDrawables(long id) {
+        List<IGPDrawable> drawables = drawablesMap.get(id);
+        if (drawables != null) {
+            for (IGPDrawable drawable : drawables) {
+                remove((Drawable) drawable);
+            }
+        }
+        drawablesMap.remove(id);
     }
 
     @Override
@@ -299,226 +345,42 @@ public class SpatialiteTableLayer extends VectorLayer implements IVectorDbLayer
     @Override
     public void addNewFeatureByGeometry(Geometry geometry, int geometrySrid)
             throws Exception {
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(getDbPath());
-
-
-        String geometryFieldName = gCol.geometryColumnName;
-        int srid = gCol.srid;
-        ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
-        String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
-        String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
-        String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
-
-
-        long newId = -1;
-        // get list of non geom fields and default values
-        String nonGeomFieldsNames = "";
-        String nonGeomFieldsValues = "";
-        for (String[] columnInfo : tableColumnInfos) {
-            String field = columnInfo[0];
-            String fieldType = columnInfo[1];
-            boolean ignore = SpatialiteUtilities.doIgnoreField(field);
-            if (!ignore) {
-                EDataType tableFieldType = EDataType.getType4Name(fieldType);
-                if (tableFieldType != null) {
-                    nonGeomFieldsNames = nonGeomFieldsNames + "," + field;
-                    String valueToSet = tableFieldType.getDefaultValueForSql();
-                    if (columnInfo[2].equals("1")) {
-                        long max = db.getMax(tableName, field);
-                        newId = max + 1;
-                        valueToSet = String.valueOf(newId);
-                    }
-                    nonGeomFieldsValues = nonGeomFieldsValues + "," + valueToSet;
-                }
-            }
-        }
-
-        boolean doTransform = true;
-        if (srid == geometrySrid) {
-            doTransform = false;
-        }
-
-        StringBuilder sbIn = new StringBuilder();
-        sbIn.append("insert into \"").append(tableName);//NON-NLS
-        sbIn.append("\" (");
-        sbIn.append(geometryFieldName);
-        // add fields
-        if (nonGeomFieldsNames.length() > 0) {
-            sbIn.append(nonGeomFieldsNames);
-        }
-        sbIn.append(") values (");//NON-NLS
-        if (doTransform)
-            sbIn.append("ST_Transform(");//NON-NLS
-        if (multiSingleCast != null)
-            sbIn.append(multiSingleCast).append("(");
-        if (spaceDimensionsCast != null)
-            sbIn.append(spaceDimensionsCast).append("(");
-        if (geometryTypeCast != null)
-            sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");//NON-NLS
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
-        sbIn.append(geometrySrid);
-        sbIn.append(")");
-        if (geometryTypeCast != null)
-            sbIn.append(")");
-        if (spaceDimensionsCast != null)
-            sbIn.append(")");
-        if (multiSingleCast != null)
-            sbIn.append(")");
-        if (doTransform) {
-            sbIn.append(",");
-            sbIn.append(srid);
-            sbIn.append(")");
-        }
-        // add field default values
-        if (nonGeomFieldsNames.length() > 0) {
-            sbIn.append(nonGeomFieldsValues);
-        }
-        sbIn.append(")");
-        String insertQuery = sbIn.toString();
-
-        db.executeInsertUpdateDeleteSql(insertQuery);
-
-
-        /*
-         * if everything went well, add also geometry to the layer
-         */
-        addNewGeometry(geometry, newId);
-        update();
-    }
-
-    private void addNewGeometry(Geometry geometry, long id) {
-        if (geometryType == EGeometryType.POINT || geometryType == EGeometryType.MULTIPOINT) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                Coordinate c = geometryN.getCoordinate();
-
-                GPPointDrawable drawable = new GPPointDrawable(c.y, c.x, pointStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-
-            }
-        } else if (geometryType == EGeometryType.LINESTRING || geometryType == EGeometryType.MULTILINESTRING) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPLineDrawable drawable = new GPLineDrawable(geometryN, lineStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        } else if (geometryType == EGeometryType.POLYGON || geometryType == EGeometryType.MULTIPOLYGON) {
-            int numGeometries = geometry.getNumGeometries();
-            for (int i = 0; i < numGeometries; i++) {
-                Geometry geometryN = geometry.getGeometryN(i);
-                GPPolygonDrawable drawable = new GPPolygonDrawable(geometryN, polygonStyle, id);
-                add(drawable);
-                drawablesMap.put(id, drawable);
-            }
-        }
+        SpatialiteEditingSession session = new SpatialiteEditingSession(dbPath, tableName);
+        session.insert(geometry, geometrySrid);
+        commitEditingSession(session);
     }
 
     @Override
     public void updateFeatureGeometry(Feature feature, Geometry geometry, int geometrySrid)
             throws Exception {
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(feature.getDatabasePath());
-        String geometryFieldName = gCol.geometryColumnName;
-        int srid = gCol.srid;
-        ESpatialiteGeometryType spatialiteGeometryType = geometryType.toSpatialiteGeometryType();
-        String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
-        String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
-        String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
-
-        boolean doTransform = true;
-        if (srid == geometrySrid) {
-            doTransform = false;
-        }
-
-        StringBuilder sbIn = new StringBuilder();
-        sbIn.append("update \"").append(tableName);//NON-NLS
-        sbIn.append("\" set ");//NON-NLS
-        sbIn.append(geometryFieldName);
-        sbIn.append(" = ");
-        if (doTransform)
-            sbIn.append("ST_Transform(");//NON-NLS
-        if (multiSingleCast != null)
-            sbIn.append(multiSingleCast).append("(");
-        if (spaceDimensionsCast != null)
-            sbIn.append(spaceDimensionsCast).append("(");
-        if (geometryTypeCast != null)
-            sbIn.append(geometryTypeCast).append("(");
-        sbIn.append("GeomFromText('");//NON-NLS
-        sbIn.append(geometry.toText());
-        sbIn.append("' , ");
-        sbIn.append(geometrySrid);
-        sbIn.append(")");
-        if (geometryTypeCast != null)
-            sbIn.append(")");
-        if (spaceDimensionsCast != null)
-            sbIn.append(")");
-        if (multiSingleCast != null)
-            sbIn.append(")");
-        if (doTransform) {
-            sbIn.append(",");
-            sbIn.append(srid);
-            sbIn.append(")");
-        }
-        sbIn.append("");
-        sbIn.append(" where ");//NON-NLS
-        sbIn.append(feature.getIdFieldName()).append("=");
-        sbIn.append(feature.getIdFieldValue());
-        String insertQuery = sbIn.toString();
-        db.executeInsertUpdateDeleteSql(insertQuery);
-
-
-        long id = feature.getIdFieldValue();
-        IGPDrawable drawable = drawablesMap.get(id);
-        if (drawable != null)
-            remove((Drawable) drawable);
-        drawablesMap.remove(id);
-
-        Geometry g = geometry;
-        if (doTransform) {
-            g = db.reproject(geometry, geometrySrid, srid);
-        }
-        addNewGeometry(g, id);
-        update();
+        SpatialiteEditingSession session = new SpatialiteEditingSession(dbPath, tableName);
+        session.updateGeometry(feature.getIdFieldValue(), geometry, geometrySrid);
+        commitEditingSession(session);
     }
 
     public void deleteFeatures(List<Feature> features) throws Exception {
         if (features.size() == 0) return;
-        Feature firstFeature = features.get(0);
-        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(firstFeature.getDatabasePath());
-        String tableName = firstFeature.getTableName();
-
-        StringBuilder sbIn = new StringBuilder();
-        sbIn.append("delete from \"").append(tableName);//NON-NLS
-        sbIn.append("\" where ");//NON-NLS
-
-        int idIndex = firstFeature.getIdIndex();
-        String indexName = firstFeature.getAttributeNames().get(idIndex);
-
-        StringBuilder sb = new StringBuilder();
+        SpatialiteEditingSession session = new SpatialiteEditingSession(dbPath, tableName);
         for (Feature feature : features) {
-            sb.append(" OR ");//NON-NLS
-            sb.append(indexName).append("=");
-            sb.append(feature.getAttributeValues().get(idIndex));
+            session.delete(feature.getIdFieldValue());
         }
-        String valuesPart = sb.substring(4);
-
-        sbIn.append(valuesPart);
-
-        String updateQuery = sbIn.toString();
-        db.executeInsertUpdateDeleteSql(updateQuery);
+        commitEditingSession(session);
+    }
 
-        for (Feature feature : features) {
-            long id = feature.getIdFieldValue();
-            IGPDrawable drawable = drawablesMap.get(id);
-            if (drawable != null)
-                remove((Drawable) drawable);
-            drawablesMap.remove(id);
+    /**
+     * Commit an editing session on this layer's table and refresh only the touched drawables.
+     *
+     * @param session the session to commit.
+     * @throws Exception if something goes wrong.
+     */
+    public void commitEditingSession(SpatialiteEditingSession session) throws Exception {
+        session.commit();
+
+        List<Long> updatedIds = new ArrayList<>(session.getUpdatedGeometryIds());
+        for (Long id : session.getUpdatedAttributesIds()) {
+            if (!updatedIds.contains(id))
+                updatedIds.add(id);
         }
-        update();
+        applyChanges(session.getInsertedIds(), updatedIds, session.getDeletedIds());
     }
 }
@@ -11,6 +11,7 @@ import eu.geopaparazzi.map.GPMapView;
 import eu.geopaparazzi.map.layers.LayerGroups;
 import eu.geopaparazzi.map.layers.VectorTilesOnlineSource;
 import eu.geopaparazzi.map.layers.interfaces.IVectorTileOnlineLayer;
+import eu.geopaparazzi.map.layers.utils.OnlineTilesDiskCache;
 
 public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTileOnlineLayer {
 
@@ -30,19 +31,17 @@ public class VectorTilesServiceLayer extends OsmTileLayer implements IVectorTile
     }
 
     public void load() {
+        OkHttpEngine.OkHttpFactory httpFactory = OnlineTilesDiskCache.INSTANCE.getHttpFactory(mapView.getContext(), url);
+        if (httpFactory == null)
+            httpFactory = new OkHttpEngine.OkHttpFactory();
         tileSource = VectorTilesOnlineSource.builder()
 //                .apiKey("xxxxxxx") // Put a proper API key
                 .url(url).tilePath(tilePath)
                 .zoomMin(0).zoomMax(20)
-                .httpFactory(new OkHttpEngine.OkHttpFactory())
+                .httpFactory(httpFactory)
                 //.locale("en")
                 .build();
 
-//            // Cache the tiles into a local SQLite database
-//            mCache = new TileCache(this, null, "tile.db");
-//            mCache.setCacheSize(512 * (1 << 10));
-//            tileSource.setCache(mCache);
-
         setTileSource(tileSource);
 
         Layers layers = mapView.map().layers();
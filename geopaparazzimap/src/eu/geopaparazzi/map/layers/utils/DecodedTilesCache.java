@@ -0,0 +1,171 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import org.oscim.android.canvas.AndroidBitmap;
+
+import java.util.Map;
+
+import eu.geopaparazzi.library.GPApplication;
+import eu.geopaparazzi.library.util.MemoryUtilities;
+
+/**
+ * Process wide cache of decoded tile bitmaps, shared by all the map layers.
+ *
+ * <p>The cache is bounded by a byte budget derived from the memory class of the device and keyed by
+ * layer id and tile position, so that zooming back and forth around the same place is served from RAM
+ * instead of reading and decoding the tiles again. It is trimmed when the system asks to release memory.</p>
+ *
+ * <p>The cached bitmaps are immutable and shared. The map recycles the bitmaps it is handed over, so they
+ * are passed to it through {@link #toMapBitmap(Bitmap)}, which ignores the recycle.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum DecodedTilesCache implements ComponentCallbacks2 {
+    INSTANCE;
+
+    /**
+     * Part of the memory class given to the cache.
+     */
+    private static final int MEMORY_FRACTION = 8;
+    private static final int MAX_CACHE_BYTES = 64 * 1024 * 1024;
+
+    private LruCache<String, Bitmap> tilesCache;
+
+    /**
+     * A map bitmap backed by a cached tile, which stays valid when the map is done with it.
+     */
+    private static class CachedTileBitmap extends AndroidBitmap {
+        CachedTileBitmap(Bitmap bitmap) {
+            super(bitmap);
+        }
+
+        @Override
+        public void recycle() {
+            // shared with the cache, left to the garbage collector once evicted
+        }
+    }
+
+    /**
+     * Wrap a cached tile to be handed to the map without copying it.
+     *
+     * @param bitmap the cached tile.
+     * @return the map bitmap.
+     */
+    public static org.oscim.backend.canvas.Bitmap toMapBitmap(Bitmap bitmap) {
+        return new CachedTileBitmap(bitmap);
+    }
+
+    private synchronized LruCache<String, Bitmap> getCache() {
+        if (tilesCache == null) {
+            Context context = GPApplication.getInstance();
+            long memoryBytes = MemoryUtilities.getMemoryClassBytes(context);
+            int cacheSize = (int) Math.min(memoryBytes / MEMORY_FRACTION, MAX_CACHE_BYTES);
+            tilesCache = new LruCache<String, Bitmap>(cacheSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+            if (context != null)
+                context.registerComponentCallbacks(this);
+        }
+        return tilesCache;
+    }
+
+    private static String getKey(String layerId, int x, int y, int z) {
+        return layerId + "/" + z + "/" + x + "/" + y;
+    }
+
+    /**
+     * Get a cached tile.
+     *
+     * @param layerId the id of the layer or source the tile belongs to.
+     * @param x       the tile column.
+     * @param y       the tile row.
+     * @param z       the zoom level.
+     * @return the bitmap or <code>null</code> if not cached.
+     */
+    public Bitmap get(String layerId, int x, int y, int z) {
+        return getCache().get(getKey(layerId, x, y, z));
+    }
+
+    /**
+     * Cache a decoded tile.
+     *
+     * @param layerId the id of the layer or source the tile belongs to.
+     * @param x       the tile column.
+     * @param y       the tile row.
+     * @param z       the zoom level.
+     * @param bitmap  the decoded tile.
+     */
+    public void put(String layerId, int x, int y, int z, Bitmap bitmap) {
+        getCache().put(getKey(layerId, x, y, z), bitmap);
+    }
+
+    /**
+     * Remove all the tiles of a layer, for example when its data change or it is removed from the map.
+     *
+     * @param layerId the id of the layer.
+     */
+    public void removeLayer(String layerId) {
+        LruCache<String, Bitmap> cache = getCache();
+        String prefix = layerId + "/";
+        for (Map.Entry<String, Bitmap> entry : cache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(prefix))
+                cache.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Remove all cached tiles.
+     */
+    public void clear() {
+        getCache().evictAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        LruCache<String, Bitmap> cache = getCache();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            // ui hidden, background or running moderate: keep the most recent half
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        getCache().evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // nothing to do
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import org.oscim.android.canvas.AndroidBitmap;
+import org.oscim.android.canvas.AndroidGraphics;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.core.MapElement;
+import org.oscim.layers.tile.MapTile;
+import org.oscim.tiling.ITileDataSink;
+import org.oscim.tiling.ITileDataSource;
+import org.oscim.tiling.QueryResult;
+
+/**
+ * A bitmap tile data source that serves the tiles from the {@link DecodedTilesCache}.
+ *
+ * <p>Tiles missing from the cache are loaded by the wrapped source, which decodes them,
+ * and are then cached on their way to the map.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DecodedTilesDataSource implements ITileDataSource {
+    private final ITileDataSource dataSource;
+    private final String cacheId;
+
+    /**
+     * Wrap a data source.
+     *
+     * @param dataSource the data source that loads and decodes the tiles.
+     * @param cacheId    the id of the tiles of the source in the cache.
+     */
+    public DecodedTilesDataSource(ITileDataSource dataSource, String cacheId) {
+        this.dataSource = dataSource;
+        this.cacheId = cacheId;
+    }
+
+    @Override
+    public void query(final MapTile tile, final ITileDataSink sink) {
+        android.graphics.Bitmap bmp = DecodedTilesCache.INSTANCE.get(cacheId, tile.tileX, tile.tileY, tile.zoomLevel);
+        if (bmp != null) {
+            sink.setTileImage(DecodedTilesCache.toMapBitmap(bmp));
+            sink.completed(QueryResult.SUCCESS);
+            return;
+        }
+
+        dataSource.query(tile, new ITileDataSink() {
+            @Override
+            public void process(MapElement element) {
+                sink.process(element);
+            }
+
+            @Override
+            public void setTileImage(Bitmap bitmap) {
+                if (bitmap instanceof AndroidBitmap) {
+                    android.graphics.Bitmap decoded = AndroidGraphics.getBitmap(bitmap);
+                    DecodedTilesCache.INSTANCE.put(cacheId, tile.tileX, tile.tileY, tile.zoomLevel, decoded);
+                    // the map must not recycle the cached bitmap
+                    bitmap = DecodedTilesCache.toMapBitmap(decoded);
+                }
+                sink.setTileImage(bitmap);
+            }
+
+            @Override
+            public void completed(QueryResult result) {
+                sink.completed(result);
+            }
+        });
+    }
+
+    @Override
+    public void dispose() {
+        dataSource.dispose();
+    }
+
+    @Override
+    public void cancel() {
+        dataSource.cancel();
+    }
+}
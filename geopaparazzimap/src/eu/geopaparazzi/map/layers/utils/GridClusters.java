@@ -0,0 +1,190 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import android.graphics.drawable.ShapeDrawable;
+import android.graphics.drawable.shapes.OvalShape;
+
+import org.oscim.android.canvas.AndroidGraphics;
+import org.oscim.backend.CanvasAdapter;
+import org.oscim.backend.canvas.Bitmap;
+import org.oscim.backend.canvas.Canvas;
+import org.oscim.backend.canvas.Color;
+import org.oscim.backend.canvas.Paint;
+import org.oscim.core.BoundingBox;
+import org.oscim.core.GeoPoint;
+import org.oscim.core.MapPosition;
+import org.oscim.layers.marker.MarkerItem;
+import org.oscim.layers.marker.MarkerSymbol;
+import org.oscim.map.Map;
+
+/**
+ * Viewport bounded point queries with grid based clustering for the low zoom levels.
+ *
+ * <p>The queries filter on the lon/lat columns through bound parameters, so that the lon/lat
+ * indexes of the tables are used. Up to {@link #CLUSTER_MAX_ZOOM} the points are aggregated in SQL
+ * into cells of a grid anchored at the world origin, so that the cells do not change while panning.</p>
+ *
+ * <p>Both the plain and the clustered queries return the same columns: the count of points,
+ * the lon and lat (the average for clusters), the id and then the requested fields. For clusters
+ * the id and the fields are those of the point with the lowest id, which makes single point cells
+ * usable as normal points.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class GridClusters {
+    /**
+     * The highest zoom level at which points are clustered.
+     */
+    public static final int CLUSTER_MAX_ZOOM = 14;
+    /**
+     * Grid cells per tile side, i.e. a cell is 64 pixels wide.
+     */
+    private static final int CELLS_PER_TILE = 4;
+    private static final int CLUSTER_SIZE = 48;
+
+    /**
+     * A cluster of points on the map.
+     */
+    public static class ClusterItem extends MarkerItem {
+        public final int count;
+
+        public ClusterItem(int count, GeoPoint geoPoint) {
+            super(null, String.valueOf(count), "", geoPoint);
+            this.count = count;
+        }
+    }
+
+    /**
+     * @param zoom the zoom level.
+     * @return <code>true</code> if points are clustered at the zoom level.
+     */
+    public static boolean isClustered(int zoom) {
+        return zoom <= CLUSTER_MAX_ZOOM;
+    }
+
+    /**
+     * @param zoom the zoom level.
+     * @return the side of a grid cell in degrees.
+     */
+    public static double getCellSize(int zoom) {
+        return 360.0 / (1 << zoom) / CELLS_PER_TILE;
+    }
+
+    /**
+     * Build the points query.
+     *
+     * @param table     the table to query.
+     * @param idField   the id field.
+     * @param lonField  the longitude field.
+     * @param latField  the latitude field.
+     * @param fields    the further fields to return.
+     * @param where     an optional further filter.
+     * @param clustered if <code>true</code>, the points are aggregated by grid cell.
+     * @return the query, to be used with the arguments of {@link #getQueryArgs(BoundingBox, int, boolean)}.
+     */
+    public static String getQuery(String table, String idField, String lonField, String latField, String[] fields, String where, boolean clustered) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("SELECT ");//NON-NLS
+        if (clustered) {
+            sb.append("count(*), avg(").append(lonField).append("), avg(").append(latField).append("), min(").append(idField).append(")");//NON-NLS
+        } else {
+            sb.append("1, ").append(lonField).append(", ").append(latField).append(", ").append(idField);
+        }
+        for (String field : fields) {
+            sb.append(", ").append(field);
+        }
+        sb.append(" FROM ").append(table);//NON-NLS
+        sb.append(" WHERE ").append(lonField).append(" BETWEEN ? AND ? AND ").append(latField).append(" BETWEEN ? AND ?");//NON-NLS
+        if (where != null)
+            sb.append(" AND ").append(where);//NON-NLS
+        if (clustered) {
+            sb.append(" GROUP BY CAST((").append(lonField).append(" + 180.0) / ? AS INTEGER), ");//NON-NLS
+            sb.append("CAST((").append(latField).append(" + 90.0) / ? AS INTEGER)");//NON-NLS
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the arguments of a query created with {@link #getQuery(String, String, String, String, String[], String, boolean)}.
+     *
+     * @param bounds    the bounds to query.
+     * @param zoom      the zoom level.
+     * @param clustered if <code>true</code>, the points are aggregated by grid cell.
+     * @return the query arguments.
+     */
+    public static String[] getQueryArgs(BoundingBox bounds, int zoom, boolean clustered) {
+        String w = String.valueOf(bounds.getMinLongitude());
+        String e = String.valueOf(bounds.getMaxLongitude());
+        String s = String.valueOf(bounds.getMinLatitude());
+        String n = String.valueOf(bounds.getMaxLatitude());
+        if (!clustered)
+            return new String[]{w, e, s, n};
+        String cellSize = String.valueOf(getCellSize(zoom));
+        return new String[]{w, e, s, n, cellSize, cellSize};
+    }
+
+    /**
+     * Create the symbol of a cluster, a circle with the count of points.
+     *
+     * @param count     the number of points.
+     * @param fillColor the fill color of the circle.
+     * @return the symbol.
+     */
+    public static MarkerSymbol createClusterSymbol(int count, int fillColor) {
+        ShapeDrawable circleDrawable = new ShapeDrawable(new OvalShape());
+        android.graphics.Paint circlePaint = circleDrawable.getPaint();
+        circlePaint.setAntiAlias(true);
+        circlePaint.setStyle(android.graphics.Paint.Style.FILL);
+        circlePaint.setColor(fillColor);
+        circleDrawable.setIntrinsicHeight(CLUSTER_SIZE);
+        circleDrawable.setIntrinsicWidth(CLUSTER_SIZE);
+        Bitmap circleBitmap = AndroidGraphics.drawableToBitmap(circleDrawable);
+
+        Paint textPainter = CanvasAdapter.newPaint();
+        textPainter.setStyle(Paint.Style.FILL);
+        textPainter.setColor(Color.WHITE);
+        textPainter.setTextSize(CLUSTER_SIZE / 3f);
+        textPainter.setTypeface(Paint.FontFamily.DEFAULT, Paint.FontStyle.BOLD);
+
+        String text = count > 9999 ? (count / 1000) + "k" : String.valueOf(count);//NON-NLS
+        Bitmap markerBitmap = CanvasAdapter.newBitmap(CLUSTER_SIZE, CLUSTER_SIZE, 0);
+        Canvas markerCanvas = CanvasAdapter.newCanvas();
+        markerCanvas.setBitmap(markerBitmap);
+        markerCanvas.drawBitmap(circleBitmap, 0, 0);
+        float textWidth = textPainter.getTextWidth(text);
+        float textHeight = textPainter.getTextHeight(text);
+        markerCanvas.drawText(text, (CLUSTER_SIZE - textWidth) / 2f, (CLUSTER_SIZE + textHeight) / 2f - textPainter.getFontDescent(), textPainter);
+
+        return new MarkerSymbol(markerBitmap, MarkerSymbol.HotspotPlace.CENTER, false);
+    }
+
+    /**
+     * Zoom the map into a cluster.
+     *
+     * @param map   the map.
+     * @param point the position of the cluster.
+     */
+    public static void zoomInto(Map map, GeoPoint point) {
+        MapPosition mapPosition = map.getMapPosition();
+        mapPosition.setPosition(point);
+        mapPosition.setZoomLevel(mapPosition.getZoomLevel() + 2);
+        map.animator().animateTo(mapPosition);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import org.oscim.core.BoundingBox;
+import org.oscim.core.MapPosition;
+import org.oscim.event.Event;
+import org.oscim.map.Map;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.debug.Metrics;
+import eu.geopaparazzi.map.layers.interfaces.IGpLayer;
+
+/**
+ * Defers the data loading of a layer until it would actually draw.
+ *
+ * <p>The data of the layer are read only once the layer is enabled and the map is inside the zoom
+ * range of the layer. Until then {@link IGpLayer#reloadData()} is expected to clear the items of the layer
+ * without touching the database, checking {@link #canLoad()}. The loading is triggered again when the layer
+ * gets enabled or the map zooms into the range, while the layer is reloaded to drop its items once it gets
+ * disabled or the map zooms out of the range.</p>
+ *
+ * <p>Layers that only read the data around the viewport get them reloaded once the map zooms or moves
+ * out of the area read last, see {@link #getLoadBounds()}.</p>
+ *
+ * <p>{@link IGpLayer#reloadData()} is called in background, so the layers read their data there and post
+ * the change of their items to the map thread.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class LazyDataLoader implements Map.UpdateListener {
+    /**
+     * Part of the viewport size read in addition on every side, to allow some panning without reloading.
+     */
+    private static final double BOUNDS_MARGIN = 0.5;
+    private static ExecutorService loadExecutor;
+
+    private final IGpLayer layer;
+    private final Map map;
+    private final int minZoom;
+    private final int maxZoom;
+    private final boolean isViewportBound;
+    private volatile BoundingBox loadedBounds;
+    private volatile int loadedZoom = -1;
+    private volatile boolean isPrepared = false;
+    private volatile boolean isLoaded = false;
+    private volatile boolean hasData = false;
+    private final AtomicBoolean isLoading = new AtomicBoolean(false);
+
+    /**
+     * Create the loader.
+     *
+     * @param layer   the layer to load.
+     * @param map     the map the layer is in.
+     * @param minZoom the min zoom at which the layer draws.
+     * @param maxZoom the max zoom at which the layer draws.
+     */
+    public LazyDataLoader(IGpLayer layer, Map map, int minZoom, int maxZoom) {
+        this(layer, map, minZoom, maxZoom, false);
+    }
+
+    /**
+     * Create the loader.
+     *
+     * @param layer           the layer to load.
+     * @param map             the map the layer is in.
+     * @param minZoom         the min zoom at which the layer draws.
+     * @param maxZoom         the max zoom at which the layer draws.
+     * @param isViewportBound if <code>true</code>, the layer reads only the data of {@link #getLoadBounds()}
+     *                        and is reloaded when the map zooms or leaves them.
+     */
+    public LazyDataLoader(IGpLayer layer, Map map, int minZoom, int maxZoom, boolean isViewportBound) {
+        this.layer = layer;
+        this.map = map;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.isViewportBound = isViewportBound;
+        map.events.bind(this);
+    }
+
+    private static synchronized ExecutorService getLoadExecutor() {
+        if (loadExecutor == null) {
+            loadExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "lazy-layers-loader");//NON-NLS
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return loadExecutor;
+    }
+
+    /**
+     * @return <code>true</code> if the layer is enabled and the map is in its zoom range.
+     */
+    public boolean canLoad() {
+        if (!layer.isEnabled())
+            return false;
+        int zoom = map.getMapPosition().getZoomLevel();
+        return zoom >= minZoom && zoom <= maxZoom;
+    }
+
+    /**
+     * Prepare the layer, loading its data only if it would draw.
+     *
+     * @param isVisible if <code>false</code> the layer is hidden by the user settings and never reads its data.
+     * @throws Exception if something goes wrong.
+     */
+    public void prepare(boolean isVisible) throws Exception {
+        if (!isVisible)
+            return;
+        isPrepared = true;
+        load();
+    }
+
+    private boolean isUpToDate() {
+        return canLoad() ? isLoaded : !hasData;
+    }
+
+    /**
+     * Load the data in background if they are not loaded and the layer would draw, or clear them
+     * if they are loaded and the layer would not draw.
+     */
+    public void checkLoad() {
+        if (!isPrepared || isLoading.get() || isUpToDate())
+            return;
+        getLoadExecutor().execute(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                GPLog.error(this, null, e);
+            }
+        });
+    }
+
+    private void load() throws Exception {
+        if (isUpToDate() || !isLoading.compareAndSet(false, true))
+            return;
+        long start = Metrics.INSTANCE.startTimer();
+        try {
+            layer.reloadData();
+        } finally {
+            isLoading.set(false);
+            Metrics.INSTANCE.stopTimer("layers.reload." + layer.getId(), start);//NON-NLS
+        }
+        // the map might have moved away while reading
+        if (isLoaded && needsReload(map.getMapPosition().getZoomLevel()))
+            isLoaded = false;
+        checkLoad();
+    }
+
+    /**
+     * Get the bounds to read for the current viewport, remembering them as the loaded area.
+     *
+     * @return the viewport bounds, expanded by a margin.
+     */
+    public BoundingBox getLoadBounds() {
+        BoundingBox bb = map.getBoundingBox(0);
+        double dLon = bb.getLongitudeSpan() * BOUNDS_MARGIN;
+        double dLat = bb.getLatitudeSpan() * BOUNDS_MARGIN;
+        BoundingBox bounds = new BoundingBox(//
+                Math.max(bb.getMinLatitude() - dLat, -90), Math.max(bb.getMinLongitude() - dLon, -180),//
+                Math.min(bb.getMaxLatitude() + dLat, 90), Math.min(bb.getMaxLongitude() + dLon, 180));
+        loadedBounds = bounds;
+        loadedZoom = map.getMapPosition().getZoomLevel();
+        return bounds;
+    }
+
+    private boolean needsReload(int zoom) {
+        if (!isViewportBound)
+            return false;
+        BoundingBox bounds = loadedBounds;
+        if (bounds == null || zoom != loadedZoom)
+            return true;
+        BoundingBox bb = map.getBoundingBox(0);
+        return bb.getMinLongitude() < bounds.getMinLongitude() || bb.getMaxLongitude() > bounds.getMaxLongitude()
+                || bb.getMinLatitude() < bounds.getMinLatitude() || bb.getMaxLatitude() > bounds.getMaxLatitude();
+    }
+
+    /**
+     * Set the loaded state, to be called by the layer after reading or clearing the data.
+     *
+     * @param loaded <code>true</code> if the data have been read, <code>false</code> if they have been cleared.
+     */
+    public void setLoaded(boolean loaded) {
+        isLoaded = loaded;
+        hasData = loaded;
+    }
+
+    @Override
+    public void onMapEvent(Event e, MapPosition mapPosition) {
+        if (e != Map.POSITION_EVENT)
+            return;
+        if (isLoaded && !isLoading.get() && needsReload(mapPosition.getZoomLevel()))
+            isLoaded = false;
+        checkLoad();
+    }
+
+    /**
+     * Stop listening to the map.
+     */
+    public void dispose() {
+        map.events.unbind(this);
+    }
+}
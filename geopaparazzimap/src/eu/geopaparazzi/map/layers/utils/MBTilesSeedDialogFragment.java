@@ -0,0 +1,224 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.support.v4.app.DialogFragment;
+import android.util.DisplayMetrics;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import org.locationtech.jts.geom.Envelope;
+import org.oscim.core.MercatorProjection;
+import org.oscim.core.Tile;
+
+import java.io.File;
+
+import eu.geopaparazzi.library.core.ResourcesManager;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.PositionUtilities;
+import eu.geopaparazzi.map.R;
+
+/**
+ * Dialog that seeds the tiles of an online bitmap tile service into an MBTiles file.
+ *
+ * <p>The seeded area is the one visible in the map view. The file is named after the layer and
+ * placed in the export folder, so running the seeding again resumes it.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MBTilesSeedDialogFragment extends DialogFragment {
+    private static final String NAME = "name";//NON-NLS
+    private static final String URL = "url";//NON-NLS
+    private static final String TILEPATH = "tilepath";//NON-NLS
+    private static final String BOUNDS = "bounds";//NON-NLS
+    private static final String MINZOOM = "minzoom";//NON-NLS
+    private static final String MAXZOOM = "maxzoom";//NON-NLS
+    private static final int THREADS_COUNT = 4;
+
+    private String name;
+    private String url;
+    private String tilePath;
+    private double[] bounds;
+    private int minZoom;
+    private int maxZoom;
+
+    private MBTilesSeeder seeder;
+    private AsyncTask<String, Integer, String> seedTask;
+    private AlertDialog alertDialog;
+    private TextView messageView;
+    private ProgressBar progressBar;
+    private Button positiveButton;
+    private volatile String progressMessage;
+
+    /**
+     * Create a dialog instance.
+     *
+     * @param name     the name of the layer, used for the mbtiles file.
+     * @param url      the base url of the service.
+     * @param tilePath the tile path, containing the {X}, {Y} and {Z} placeholders.
+     * @param bounds   the lat/long bounds to seed as [w, e, s, n].
+     * @param minZoom  the min zoom level.
+     * @param maxZoom  the max zoom level.
+     * @return the instance.
+     */
+    public static MBTilesSeedDialogFragment newInstance(String name, String url, String tilePath, double[] bounds, int minZoom, int maxZoom) {
+        MBTilesSeedDialogFragment f = new MBTilesSeedDialogFragment();
+        Bundle args = new Bundle();
+        args.putString(NAME, name);
+        args.putString(URL, url);
+        args.putString(TILEPATH, tilePath);
+        args.putDoubleArray(BOUNDS, bounds);
+        args.putInt(MINZOOM, minZoom);
+        args.putInt(MAXZOOM, maxZoom);
+        f.setArguments(args);
+        return f;
+    }
+
+    /**
+     * Get the bounds of the map view from the map center and zoom stored in the preferences.
+     *
+     * @param context the context to use.
+     * @return the current zoom level and the lat/long bounds as [zoom, w, e, s, n].
+     */
+    public static double[] getMapViewBounds(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        double[] lonLatZoom = PositionUtilities.getMapCenterFromPreferences(preferences, true, true);
+        int zoom = (int) lonLatZoom[2];
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        double mapSize = (double) Tile.SIZE * (1L << zoom);
+        double dx = metrics.widthPixels / 2.0 / mapSize;
+        double dy = metrics.heightPixels / 2.0 / mapSize;
+        double x = MercatorProjection.longitudeToX(lonLatZoom[0]);
+        double y = MercatorProjection.latitudeToY(lonLatZoom[1]);
+        return new double[]{zoom,
+                MercatorProjection.toLongitude(Math.max(0, x - dx)),
+                MercatorProjection.toLongitude(Math.min(1, x + dx)),
+                MercatorProjection.toLatitude(Math.min(1, y + dy)),
+                MercatorProjection.toLatitude(Math.max(0, y - dy))};
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        Bundle arguments = getArguments();
+        name = arguments.getString(NAME);
+        url = arguments.getString(URL);
+        tilePath = arguments.getString(TILEPATH);
+        bounds = arguments.getDoubleArray(BOUNDS);
+        minZoom = arguments.getInt(MINZOOM);
+        maxZoom = arguments.getInt(MAXZOOM);
+        setCancelable(false);
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle bundle) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        View progressView = getActivity().getLayoutInflater().inflate(R.layout.fragment_dialog_progress, null);
+        builder.setView(progressView);
+        builder.setTitle(R.string.seeding_tiles);
+
+        messageView = progressView.findViewById(R.id.downloadmessageview);
+        progressBar = progressView.findViewById(R.id.downloadprogressbar);
+        progressBar.setMax(100);
+
+        builder.setNegativeButton(android.R.string.cancel, (dialog, id) -> {
+            if (seeder != null)
+                seeder.cancel();
+        });
+        builder.setPositiveButton(android.R.string.ok, (dialog, id) -> {
+        });
+
+        alertDialog = builder.create();
+        return alertDialog;
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        AlertDialog d = (AlertDialog) getDialog();
+        if (d != null) {
+            positiveButton = d.getButton(Dialog.BUTTON_POSITIVE);
+            positiveButton.setEnabled(seedTask != null && seedTask.getStatus() == AsyncTask.Status.FINISHED);
+        }
+        if (seedTask == null)
+            startSeeding();
+    }
+
+    private void startSeeding() {
+        final Context context = getContext();
+        String fileName = name.replaceAll("[^a-zA-Z0-9_\\-]", "_") + ".mbtiles";//NON-NLS
+        File mbtilesFile;
+        try {
+            mbtilesFile = new File(ResourcesManager.getInstance(context).getApplicationExportDir(), fileName);
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+            messageView.setText(R.string.seeding_failed);
+            return;
+        }
+        seeder = new MBTilesSeeder(url, tilePath, mbtilesFile, THREADS_COUNT);
+
+        seedTask = new AsyncTask<String, Integer, String>() {
+            private boolean isFailed = false;
+
+            protected String doInBackground(String... params) {
+                seeder.setListener(stats -> {
+                    progressMessage = stats.toString();
+                    long total = Math.max(1, stats.tilesTotal);
+                    publishProgress((int) (stats.getTilesProcessed() * 100 / total));
+                });
+                try {
+                    Envelope envelope = new Envelope(bounds[0], bounds[1], bounds[2], bounds[3]);
+                    return seeder.seed(envelope, null, minZoom, maxZoom).toString();
+                } catch (Exception e) {
+                    GPLog.error(this, null, e);
+                    isFailed = true;
+                    return e.getLocalizedMessage();
+                }
+            }
+
+            protected void onProgressUpdate(Integer... progress) {
+                progressBar.setProgress(progress[0]);
+                messageView.setText(progressMessage);
+            }
+
+            protected void onPostExecute(String response) { // on UI thread!
+                progressBar.setVisibility(View.GONE);
+                if (isFailed) {
+                    messageView.setText(context.getString(R.string.seeding_failed) + " " + response);
+                } else if (seeder.isCancelled()) {
+                    messageView.setText(context.getString(R.string.seeding_interrupted) + "\n" + response);
+                } else {
+                    messageView.setText(context.getString(R.string.seeding_done, mbtilesFile.getAbsolutePath()) + "\n" + response);
+                }
+                if (positiveButton != null) positiveButton.setEnabled(true);
+            }
+        }.execute((String) null);
+    }
+
+}
@@ -0,0 +1,452 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.compat.ADb;
+import org.hortonmachine.dbs.compat.EDb;
+import org.hortonmachine.dbs.compat.IHMConnection;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.mbtiles.MBTilesDb;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.map.layers.userlayers.BitmapTileServiceLayer;
+
+/**
+ * Seeds an MBTiles database with the tiles of an online bitmap tile service.
+ *
+ * <p>Tiles are downloaded by a bounded pool of HTTP workers, while all the database work happens on the
+ * thread that calls {@link #seed(Envelope, Geometry, int, int)}. Tiles are stored deduplicated (identical
+ * tiles, as blank ocean tiles, share the same image row) behind a <code>tiles</code> view, so the result
+ * can be opened as any other MBTiles file.</p>
+ *
+ * <p>Seeding can be resumed: tiles already present in the database are not downloaded again.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MBTilesSeeder {
+
+    /**
+     * Listener for seeding progress.
+     */
+    public interface ISeedingListener {
+        /**
+         * Called every time a batch of tiles has been written.
+         *
+         * @param stats the current stats.
+         */
+        void onProgress(SeedingStats stats);
+    }
+
+    /**
+     * Throughput metrics of a seeding run.
+     */
+    public static class SeedingStats {
+        public long tilesTotal;
+        public long tilesDownloaded;
+        public long tilesSkipped;
+        public long tilesFailed;
+        public long tilesDuplicated;
+        public long bytesDownloaded;
+        public long startTime;
+        public long elapsedMillis;
+
+        /**
+         * @return the tiles processed so far.
+         */
+        public long getTilesProcessed() {
+            return tilesDownloaded + tilesSkipped + tilesFailed;
+        }
+
+        /**
+         * @return the downloaded tiles per second.
+         */
+        public double getTilesPerSecond() {
+            if (elapsedMillis == 0) return 0;
+            return tilesDownloaded * 1000.0 / elapsedMillis;
+        }
+
+        /**
+         * @return the downloaded bytes per second.
+         */
+        public double getBytesPerSecond() {
+            if (elapsedMillis == 0) return 0;
+            return bytesDownloaded * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "tiles: " + getTilesProcessed() + "/" + tilesTotal + //NON-NLS
+                    ", downloaded: " + tilesDownloaded + //NON-NLS
+                    ", skipped: " + tilesSkipped + //NON-NLS
+                    ", failed: " + tilesFailed + //NON-NLS
+                    ", duplicated: " + tilesDuplicated + //NON-NLS
+                    ", tiles/s: " + String.format("%.1f", getTilesPerSecond()) + //NON-NLS
+                    ", KB/s: " + String.format("%.1f", getBytesPerSecond() / 1024.0); //NON-NLS
+        }
+    }
+
+    private static class DownloadedTile {
+        int x;
+        int y;
+        int z;
+        byte[] bytes;
+    }
+
+    private static final int COMMIT_EVERY = 200;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int RETRIES = 2;
+
+    private final String url;
+    private final String tilePath;
+    private final File mbtilesFile;
+    private final int threadsCount;
+    private ISeedingListener listener;
+    private String userAgent = "geopaparazzi";//NON-NLS
+    private volatile boolean isCancelled = false;
+
+    /**
+     * Create a seeder for a bitmap tile service layer.
+     *
+     * @param layer        the layer to take the service url from.
+     * @param mbtilesFile  the mbtiles file to create or resume.
+     * @param threadsCount the number of parallel downloads.
+     */
+    public MBTilesSeeder(BitmapTileServiceLayer layer, File mbtilesFile, int threadsCount) {
+        this(layer.getUrl(), layer.getTilePath(), mbtilesFile, threadsCount);
+    }
+
+    /**
+     * Create a seeder.
+     *
+     * @param url          the base url of the service.
+     * @param tilePath     the tile path, containing the {X}, {Y} and {Z} placeholders.
+     * @param mbtilesFile  the mbtiles file to create or resume.
+     * @param threadsCount the number of parallel downloads.
+     */
+    public MBTilesSeeder(String url, String tilePath, File mbtilesFile, int threadsCount) {
+        this.url = url;
+        this.tilePath = tilePath;
+        this.mbtilesFile = mbtilesFile;
+        this.threadsCount = Math.max(1, threadsCount);
+    }
+
+    public void setListener(ISeedingListener listener) {
+        this.listener = listener;
+    }
+
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Stop the seeding after the tiles in progress.
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * @return <code>true</code> if the seeding has been cancelled.
+     */
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Run the seeding. This blocks and is supposed to be called from a background thread.
+     *
+     * @param bounds  the lat/long bounds of the area to seed.
+     * @param area    an optional lat/long polygon to restrict the seeded tiles to.
+     * @param minZoom the min zoom level.
+     * @param maxZoom the max zoom level.
+     * @return the stats of the run.
+     * @throws Exception if something goes wrong.
+     */
+    public SeedingStats seed(Envelope bounds, Geometry area, int minZoom, int maxZoom) throws Exception {
+        isCancelled = false;
+        PreparedGeometry preparedArea = area != null ? PreparedGeometryFactory.prepare(area) : null;
+        if (area != null)
+            bounds = area.getEnvelopeInternal();
+        GeometryFactory gf = new GeometryFactory();
+
+        SeedingStats stats = new SeedingStats();
+        stats.startTime = System.currentTimeMillis();
+        for (int z = minZoom; z <= maxZoom; z++) {
+            int[] range = getTileRange(bounds, z);
+            stats.tilesTotal += (long) (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+
+        boolean isNew = !mbtilesFile.exists();
+        try (ADb adb = EDb.SPATIALITE4ANDROID.getSpatialDb()) {
+            adb.open(mbtilesFile.getAbsolutePath());
+            if (isNew) {
+                createTables(adb);
+                MBTilesDb mbTilesDb = new MBTilesDb(adb);
+                String name = mbtilesFile.getName().replaceFirst("\\.mbtiles$", "");//NON-NLS
+                String format = tilePath != null && tilePath.toLowerCase().contains(".jpg") ? "jpg" : "png";//NON-NLS
+                mbTilesDb.fillMetadata((float) bounds.getMaxY(), (float) bounds.getMinY(), (float) bounds.getMinX(),
+                        (float) bounds.getMaxX(), name, format, minZoom, maxZoom);
+            } else if (!adb.hasTable("map")) {//NON-NLS
+                throw new IllegalArgumentException("The existing file was not created by the seeder and can't be resumed: " + mbtilesFile);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+            ExecutorCompletionService<DownloadedTile> completionService = new ExecutorCompletionService<>(executor);
+            try {
+                adb.execOnConnection(connection -> {
+                    boolean autoCommit = connection.getAutoCommit();
+                    connection.setAutoCommit(false);
+                    try (IHMPreparedStatement existsStmt = connection.prepareStatement("select 1 from map where zoom_level=? and tile_column=? and tile_row=?");//NON-NLS
+                         IHMPreparedStatement imageStmt = connection.prepareStatement("insert or ignore into images (tile_id, tile_data) values (?,?)");//NON-NLS
+                         IHMPreparedStatement mapStmt = connection.prepareStatement("insert or replace into map (zoom_level, tile_column, tile_row, tile_id) values (?,?,?,?)")) {//NON-NLS
+                        MessageDigest digest = MessageDigest.getInstance("SHA-1");//NON-NLS
+                        int inFlight = 0;
+                        int uncommitted = 0;
+                        for (int z = minZoom; z <= maxZoom && !isCancelled; z++) {
+                            int[] range = getTileRange(bounds, z);
+                            for (int x = range[0]; x <= range[2] && !isCancelled; x++) {
+                                for (int y = range[1]; y <= range[3] && !isCancelled; y++) {
+                                    if (preparedArea != null) {
+                                        Envelope tileEnv = getTileBounds(x, y, z);
+                                        if (!preparedArea.intersects(gf.toGeometry(tileEnv))) {
+                                            stats.tilesTotal--;
+                                            continue;
+                                        }
+                                    }
+                                    if (tileExists(existsStmt, x, y, z)) {
+                                        stats.tilesSkipped++;
+                                        continue;
+                                    }
+
+                                    final int fx = x;
+                                    final int fy = y;
+                                    final int fz = z;
+                                    completionService.submit(() -> download(fx, fy, fz));
+                                    inFlight++;
+                                    // keep the queue bounded, so that memory stays small
+                                    if (inFlight >= threadsCount * 2) {
+                                        uncommitted += writeTile(completionService.take(), imageStmt, mapStmt, digest, stats);
+                                        inFlight--;
+                                    }
+                                    if (uncommitted >= COMMIT_EVERY) {
+                                        commit(connection, stats);
+                                        uncommitted = 0;
+                                    }
+                                }
+                            }
+                        }
+                        while (inFlight > 0) {
+                            uncommitted += writeTile(completionService.take(), imageStmt, mapStmt, digest, stats);
+                            inFlight--;
+                        }
+                        commit(connection, stats);
+                    } finally {
+                        connection.setAutoCommit(autoCommit);
+                    }
+                    return null;
+                });
+            } finally {
+                executor.shutdownNow();
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+        stats.elapsedMillis = System.currentTimeMillis() - stats.startTime;
+        return stats;
+    }
+
+    private void commit(IHMConnection connection, SeedingStats stats) throws Exception {
+        connection.commit();
+        stats.elapsedMillis = System.currentTimeMillis() - stats.startTime;
+        if (listener != null)
+            listener.onProgress(stats);
+    }
+
+    private static void createTables(ADb adb) throws Exception {
+        adb.execOnConnection(connection -> {
+            try (IHMStatement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE metadata (name text, value text)");//NON-NLS
+                stmt.execute("CREATE UNIQUE INDEX name ON metadata (name)");//NON-NLS
+                stmt.execute("CREATE TABLE map (zoom_level integer, tile_column integer, tile_row integer, tile_id text)");//NON-NLS
+                stmt.execute("CREATE UNIQUE INDEX map_index ON map (zoom_level, tile_column, tile_row)");//NON-NLS
+                stmt.execute("CREATE TABLE images (tile_id text, tile_data blob)");//NON-NLS
+                stmt.execute("CREATE UNIQUE INDEX images_id ON images (tile_id)");//NON-NLS
+                stmt.execute("CREATE VIEW tiles AS SELECT map.zoom_level AS zoom_level, map.tile_column AS tile_column, " + //NON-NLS
+                        "map.tile_row AS tile_row, images.tile_data AS tile_data FROM map JOIN images ON images.tile_id = map.tile_id");//NON-NLS
+            }
+            return null;
+        });
+    }
+
+    private static boolean tileExists(IHMPreparedStatement existsStmt, int x, int y, int z) throws Exception {
+        existsStmt.setInt(1, z);
+        existsStmt.setInt(2, x);
+        existsStmt.setInt(3, toTmsRow(y, z));
+        try (IHMResultSet rs = existsStmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    private static int writeTile(Future<DownloadedTile> future, IHMPreparedStatement imageStmt, IHMPreparedStatement mapStmt,
+                                 MessageDigest digest, SeedingStats stats) throws Exception {
+        DownloadedTile tile;
+        try {
+            tile = future.get();
+        } catch (Exception e) {
+            stats.tilesFailed++;
+            return 0;
+        }
+        if (tile.bytes == null) {
+            stats.tilesFailed++;
+            return 0;
+        }
+        stats.tilesDownloaded++;
+        stats.bytesDownloaded += tile.bytes.length;
+
+        String tileId = toHex(digest.digest(tile.bytes));
+        imageStmt.setString(1, tileId);
+        imageStmt.setBytes(2, tile.bytes);
+        if (imageStmt.executeUpdate() == 0) {
+            // the same image is already stored
+            stats.tilesDuplicated++;
+        }
+        mapStmt.setInt(1, tile.z);
+        mapStmt.setInt(2, tile.x);
+        mapStmt.setInt(3, toTmsRow(tile.y, tile.z));
+        mapStmt.setString(4, tileId);
+        mapStmt.executeUpdate();
+        return 1;
+    }
+
+    private DownloadedTile download(int x, int y, int z) {
+        DownloadedTile tile = new DownloadedTile();
+        tile.x = x;
+        tile.y = y;
+        tile.z = z;
+        String tileUrl = url + tilePath.replace("{X}", String.valueOf(x))
+                .replace("{Y}", String.valueOf(y))
+                .replace("{Z}", String.valueOf(z));
+        for (int i = 0; i <= RETRIES && !isCancelled; i++) {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) new URL(tileUrl).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT);
+                connection.setReadTimeout(READ_TIMEOUT);
+                connection.setRequestProperty("User-Agent", userAgent);//NON-NLS
+                int responseCode = connection.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return tile;
+                }
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    continue;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    tile.bytes = readFully(in);
+                }
+                return tile;
+            } catch (IOException e) {
+                GPLog.error("MBTilesSeeder", tileUrl, e);//NON-NLS
+            } finally {
+                if (connection != null)
+                    connection.disconnect();
+            }
+        }
+        return tile;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static int toTmsRow(int y, int z) {
+        return (1 << z) - 1 - y;
+    }
+
+    /**
+     * Get the range of tiles covering some bounds.
+     *
+     * @param bounds the lat/long bounds.
+     * @param z      the zoom level.
+     * @return the range as [minX, minY, maxX, maxY] in the google tile schema.
+     */
+    static int[] getTileRange(Envelope bounds, int z) {
+        int minX = lonToTileX(bounds.getMinX(), z);
+        int maxX = lonToTileX(bounds.getMaxX(), z);
+        int minY = latToTileY(bounds.getMaxY(), z);
+        int maxY = latToTileY(bounds.getMinY(), z);
+        return new int[]{minX, minY, maxX, maxY};
+    }
+
+    private static int lonToTileX(double lon, int z) {
+        int n = 1 << z;
+        int x = (int) Math.floor((lon + 180.0) / 360.0 * n);
+        return Math.max(0, Math.min(n - 1, x));
+    }
+
+    private static int latToTileY(double lat, int z) {
+        int n = 1 << z;
+        double latRad = Math.toRadians(lat);
+        int y = (int) Math.floor((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n);
+        return Math.max(0, Math.min(n - 1, y));
+    }
+
+    private static Envelope getTileBounds(int x, int y, int z) {
+        double n = 1 << z;
+        double west = x / n * 360.0 - 180.0;
+        double east = (x + 1) / n * 360.0 - 180.0;
+        double north = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / n))));
+        double south = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (y + 1) / n))));
+        return new Envelope(west, east, south, north);
+    }
+}
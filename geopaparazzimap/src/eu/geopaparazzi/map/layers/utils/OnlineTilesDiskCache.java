@@ -0,0 +1,202 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.oscim.tiling.source.OkHttpEngine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.geopaparazzi.library.core.ResourcesManager;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.util.LibraryConstants;
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Shared persistent disk cache for online tile services.
+ *
+ * <p>Every tile source gets its own http cache folder inside the application support folder, bounded by a
+ * per source quota and evicted by LRU. Cached responses honour the expiry headers of the server and are
+ * revalidated through ETag/Last-Modified once stale, so that already visited areas are not downloaded again.
+ * The sum of all the source caches is kept below a total quota by dropping the least recently used sources.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public enum OnlineTilesDiskCache {
+    INSTANCE;
+
+    private static final String CACHE_FOLDER = "tilescache";//NON-NLS
+    private static final int DEFAULT_TOTAL_MB = 500;
+    private static final int DEFAULT_SOURCE_MB = 100;
+    /**
+     * Freshness given to tiles served without any caching header.
+     */
+    private static final int DEFAULT_MAX_AGE_SECONDS = 7 * 24 * 60 * 60;
+
+    private final Map<String, Cache> source2CacheMap = new HashMap<>();
+
+    /**
+     * Get the http factory to use for a tile source.
+     *
+     * @param context   the context to use.
+     * @param sourceUrl the url of the tile source.
+     * @return the factory or <code>null</code> if the cache folder is not available.
+     */
+    public synchronized OkHttpEngine.OkHttpFactory getHttpFactory(Context context, String sourceUrl) {
+        Cache cache = getCache(context, sourceUrl);
+        if (cache == null)
+            return null;
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .cache(cache)
+                .addNetworkInterceptor(chain -> {
+                    Response response = chain.proceed(chain.request());
+                    if (response.header("Cache-Control") == null && response.header("Expires") == null) {//NON-NLS
+                        return response.newBuilder()
+                                .header("Cache-Control", "public, max-age=" + DEFAULT_MAX_AGE_SECONDS)//NON-NLS
+                                .build();
+                    }
+                    return response;
+                });
+        return new OkHttpEngine.OkHttpFactory(builder);
+    }
+
+    private Cache getCache(Context context, String sourceUrl) {
+        String folderName = getFolderName(sourceUrl);
+        Cache cache = source2CacheMap.get(folderName);
+        if (cache != null)
+            return cache;
+        try {
+            File cacheRoot = getCacheRoot(context);
+            if (cacheRoot == null)
+                return null;
+
+            SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+            int totalMb = preferences.getInt(LibraryConstants.PREFS_KEY_TILECACHE_TOTAL_MB, DEFAULT_TOTAL_MB);
+            int sourceMb = preferences.getInt(LibraryConstants.PREFS_KEY_TILECACHE_SOURCE_MB, DEFAULT_SOURCE_MB);
+            File sourceFolder = new File(cacheRoot, folderName);
+            // touch the folder, it is the recency of the source for the total quota
+            if (!sourceFolder.exists() && !sourceFolder.mkdirs())
+                return null;
+            sourceFolder.setLastModified(System.currentTimeMillis());
+            trimToTotal(cacheRoot, totalMb * 1024L * 1024L);
+
+            cache = new Cache(sourceFolder, Math.min(sourceMb, totalMb) * 1024L * 1024L);
+            source2CacheMap.put(folderName, cache);
+            return cache;
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+            return null;
+        }
+    }
+
+    private File getCacheRoot(Context context) throws Exception {
+        File supportDir = ResourcesManager.getInstance(context).getApplicationSupporterDir();
+        File cacheRoot = new File(supportDir, CACHE_FOLDER);
+        if (!cacheRoot.exists() && !cacheRoot.mkdirs())
+            return null;
+        return cacheRoot;
+    }
+
+    private static String getFolderName(String sourceUrl) {
+        return sourceUrl.replaceFirst("https?://", "")//NON-NLS
+                .replaceAll("[^a-zA-Z0-9.\\-_]", "-");
+    }
+
+    /**
+     * Remove the least recently used source caches until the total size fits the quota.
+     */
+    private void trimToTotal(File cacheRoot, long totalBytes) {
+        File[] folders = cacheRoot.listFiles(File::isDirectory);
+        if (folders == null)
+            return;
+        List<File> candidates = new ArrayList<>();
+        long size = 0;
+        for (File folder : folders) {
+            size += getFolderSize(folder);
+            if (!source2CacheMap.containsKey(folder.getName()))
+                candidates.add(folder);
+        }
+        candidates.sort((f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File folder : candidates) {
+            if (size <= totalBytes)
+                break;
+            long folderSize = getFolderSize(folder);
+            if (deleteFolder(folder))
+                size -= folderSize;
+        }
+    }
+
+    private static long getFolderSize(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? getFolderSize(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    private static boolean deleteFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        return folder.delete();
+    }
+
+    /**
+     * Remove all the cached tiles.
+     *
+     * @param context the context to use.
+     */
+    public synchronized void clear(Context context) {
+        for (Cache cache : source2CacheMap.values()) {
+            try {
+                cache.evictAll();
+                cache.close();
+            } catch (Exception e) {
+                GPLog.error(this, null, e);
+            }
+        }
+        source2CacheMap.clear();
+        try {
+            File cacheRoot = getCacheRoot(context);
+            if (cacheRoot != null)
+                deleteFolder(cacheRoot);
+        } catch (Exception e) {
+            GPLog.error(this, null, e);
+        }
+    }
+}
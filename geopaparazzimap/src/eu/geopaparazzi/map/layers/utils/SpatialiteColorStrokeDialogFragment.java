@@ -305,6 +305,7 @@ public class SpatialiteColorStrokeDialogFragment extends DialogFragment {
                         style.size = mCurrentColorStrokeObject.shapeSize;
 
                         SpatialiteUtilities.updateStyle(db, style);
+                        SpatialiteConnectionsHandler.INSTANCE.invalidateMetadata(mCurrentColorStrokeObject.dbPath, mCurrentColorStrokeObject.tableName);
                     } catch (Exception e) {
                         GPLog.error(this, null, e);
                     }
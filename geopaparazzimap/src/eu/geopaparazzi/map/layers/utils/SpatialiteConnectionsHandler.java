@@ -12,6 +12,7 @@ import org.locationtech.jts.geom.Geometry;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
 
 import eu.geopaparazzi.library.style.Style;
 
@@ -20,6 +21,8 @@ public enum SpatialiteConnectionsHandler {
 
     HashMap<String, List<String>> connection2TablesMap = new HashMap<>();
     HashMap<String, ASpatialDb> connection2DbsMap = new HashMap<>();
+    HashMap<String, HashMap<String, SpatialiteTableMetadata>> connection2MetadataMap = new HashMap<>();
+    HashMap<String, Long> connection2SchemaVersionMap = new HashMap<>();
 
     /**
      * Call this to mark a table as in use.
@@ -31,7 +34,7 @@ public enum SpatialiteConnectionsHandler {
      * @param tableName the table to mark as opened.
      * @throws Exception
      */
-    public void openTable(String dbPath, String tableName) throws Exception {
+    public synchronized void openTable(String dbPath, String tableName) throws Exception {
         ASpatialDb db = getDb(dbPath);
         if (db.hasTable(tableName)) {
             List<String> openTables = connection2TablesMap.get(dbPath);
@@ -53,7 +56,7 @@ public enum SpatialiteConnectionsHandler {
      * @param tableName the table to dispose.
      * @throws Exception
      */
-    public void disposeTable(String dbPath, String tableName) throws Exception {
+    public synchronized void disposeTable(String dbPath, String tableName) throws Exception {
         ASpatialDb db = connection2DbsMap.get(dbPath);
         if (db == null)
             return;
@@ -72,6 +75,7 @@ public enum SpatialiteConnectionsHandler {
             if (openTables.size() == 0) {
                 // also close the connection to the db and remove it
                 connection2TablesMap.remove(dbPath);
+                invalidateMetadata(dbPath, null);
                 ASpatialDb removed = connection2DbsMap.remove(dbPath);
                 if (removed != null) {
                     removed.close();
@@ -81,6 +85,82 @@ public enum SpatialiteConnectionsHandler {
     }
 
 
+    /**
+     * Get the cached catalog information of a table.
+     *
+     * <p>The cache of a database is dropped when its schema version changes, so that
+     * added or altered tables are picked up.</p>
+     *
+     * @param dbPath    the db path.
+     * @param tableName the name of the table.
+     * @return the {@link SpatialiteTableMetadata}.
+     * @throws Exception
+     */
+    public synchronized SpatialiteTableMetadata getTableMetadata(String dbPath, String tableName) throws Exception {
+        ASpatialDb db = getDb(dbPath);
+
+        long schemaVersion = getSchemaVersion(db);
+        Long cachedVersion = connection2SchemaVersionMap.get(dbPath);
+        HashMap<String, SpatialiteTableMetadata> metadataMap = connection2MetadataMap.get(dbPath);
+        if (metadataMap == null || cachedVersion == null || cachedVersion != schemaVersion) {
+            metadataMap = new HashMap<>();
+            connection2MetadataMap.put(dbPath, metadataMap);
+            connection2SchemaVersionMap.put(dbPath, schemaVersion);
+        }
+
+        SpatialiteTableMetadata metadata = metadataMap.get(tableName);
+        if (metadata == null) {
+            GeometryColumn geometryColumn = db.getGeometryColumnsForTable(tableName);
+            List<String[]> tableColumns = db.getTableColumns(tableName);
+            metadata = new SpatialiteTableMetadata(tableName, geometryColumn, tableColumns);
+            metadataMap.put(tableName, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Drop the cached catalog information of a table.
+     *
+     * <p>Needs to be called after changes that do not touch the schema, as for example style updates.</p>
+     *
+     * @param dbPath    the db path.
+     * @param tableName the name of the table or <code>null</code> to drop all the tables of the db.
+     */
+    public synchronized void invalidateMetadata(String dbPath, String tableName) {
+        if (tableName == null) {
+            connection2MetadataMap.remove(dbPath);
+            connection2SchemaVersionMap.remove(dbPath);
+        } else {
+            HashMap<String, SpatialiteTableMetadata> metadataMap = connection2MetadataMap.get(dbPath);
+            if (metadataMap != null)
+                metadataMap.remove(tableName);
+        }
+    }
+
+    private long getSchemaVersion(ASpatialDb db) throws Exception {
+        Long schemaVersion = db.execOnConnection(connection -> {
+            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery("PRAGMA schema_version")) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+            return -1L;
+        });
+        return schemaVersion;
+    }
+
+    /**
+     * Get the geometry column of a table in a db.
+     *
+     * @param dbPath    the db path
+     * @param tableName the name of the table.
+     * @return the {@link GeometryColumn}.
+     * @throws Exception
+     */
+    public GeometryColumn getGeometryColumn(String dbPath, String tableName) throws Exception {
+        return getTableMetadata(dbPath, tableName).geometryColumn;
+    }
+
     /**
      * .
      * Get the geometry type of a table in a db.
@@ -91,20 +171,33 @@ public enum SpatialiteConnectionsHandler {
      * @throws Exception
      */
     public EGeometryType getGeometryType(String dbPath, String tableName) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        GeometryColumn geometryColumn = db.getGeometryColumnsForTable(tableName);
-        return geometryColumn.geometryType;
+        return getTableMetadata(dbPath, tableName).getGeometryType();
     }
 
-    public Style getStyleForTable(String dbPath, String tableName, String labelField) throws Exception {
-        ASpatialDb db = getDb(dbPath);
-        Style style4Table = SpatialiteUtilities.getStyle4Table(db, tableName, labelField);
-        return style4Table;
+    /**
+     * Get the style of a table.
+     *
+     * <p>The style is cached, a copy is returned so that it can be changed by the caller.</p>
+     *
+     * @param dbPath     the db path
+     * @param tableName  the name of the table.
+     * @param labelField the optional label field.
+     * @return the {@link Style}.
+     * @throws Exception
+     */
+    public synchronized Style getStyleForTable(String dbPath, String tableName, String labelField) throws Exception {
+        SpatialiteTableMetadata metadata = getTableMetadata(dbPath, tableName);
+        if (metadata.style == null || !Objects.equals(metadata.styleLabelField, labelField)) {
+            ASpatialDb db = getDb(dbPath);
+            metadata.style = SpatialiteUtilities.getStyle4Table(db, tableName, labelField);
+            metadata.styleLabelField = labelField;
+        }
+        return metadata.style.copy();
     }
 
     public List<Geometry> getGeometries(String dbPath, String tableName, Style gpStyle) throws Exception {
         ASpatialDb db = getDb(dbPath);
-        GeometryColumn gCol = db.getGeometryColumnsForTable(tableName);
+        GeometryColumn gCol = getGeometryColumn(dbPath, tableName);
         String query = SpatialiteUtilities.buildGeometriesInBoundsQuery(db, tableName, gCol, gpStyle, 4326, null);
 
         IGeometryParser gp = db.getType().getGeometryParser();
@@ -126,7 +219,7 @@ public enum SpatialiteConnectionsHandler {
         return geoms;
     }
 
-    public ASpatialDb getDb(String dbPath) throws Exception {
+    public synchronized ASpatialDb getDb(String dbPath) throws Exception {
         ASpatialDb spatialDb = connection2DbsMap.get(dbPath);
         if (spatialDb == null) {
             spatialDb = EDb.SPATIALITE4ANDROID.getSpatialDb();
@@ -0,0 +1,396 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.GeometryColumn;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.hortonmachine.dbs.compat.IHMResultSet;
+import org.hortonmachine.dbs.compat.IHMStatement;
+import org.hortonmachine.dbs.datatypes.EDataType;
+import org.hortonmachine.dbs.datatypes.ESpatialiteGeometryType;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import eu.geopaparazzi.map.features.Feature;
+
+/**
+ * A batch of edits on a spatialite table.
+ *
+ * <p>Inserts, updates and deletes are collected and then written in a single transaction
+ * through prepared statements with bound WKB geometries. After {@link #commit()} the ids of the
+ * touched features are available, so that layers can refresh only those. Tables without a primary
+ * key are edited through the rowid.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class SpatialiteEditingSession {
+
+    private enum EOperationType {
+        INSERT, UPDATE_GEOMETRY, UPDATE_ATTRIBUTES, DELETE
+    }
+
+    private static class EditOperation {
+        EOperationType type;
+        String sql;
+        Object[] values;
+        long id;
+    }
+
+    private final String dbPath;
+    private final String tableName;
+    private final SpatialiteTableMetadata metadata;
+    private final String idField;
+    private final boolean pkIsRowid;
+    private final WKBWriter wkbWriter = new WKBWriter();
+
+    private final List<EditOperation> operations = new ArrayList<>();
+    private final HashMap<Integer, String> geometryExpressionsMap = new HashMap<>();
+
+    private final List<Long> insertedIds = new ArrayList<>();
+    private final List<Long> updatedGeometryIds = new ArrayList<>();
+    private final List<Long> updatedAttributesIds = new ArrayList<>();
+    private final List<Long> deletedIds = new ArrayList<>();
+
+    /**
+     * Create a new editing session.
+     *
+     * @param dbPath    the db path.
+     * @param tableName the table to edit.
+     * @throws Exception if the table metadata can't be read.
+     */
+    public SpatialiteEditingSession(String dbPath, String tableName) throws Exception {
+        this.dbPath = dbPath;
+        this.tableName = tableName;
+        metadata = SpatialiteConnectionsHandler.INSTANCE.getTableMetadata(dbPath, tableName);
+        if (metadata.primaryKey == null) {
+            // tables without primary key are edited through the rowid
+            idField = SpatialiteUtilities.ROWID_PK;
+            pkIsRowid = true;
+            return;
+        }
+        idField = metadata.primaryKey;
+
+        boolean isRowid = false;
+        for (String[] columnInfo : metadata.tableColumnInfos) {
+            if (columnInfo[0].equals(metadata.primaryKey)) {
+                // only an INTEGER PRIMARY KEY is an alias of the rowid
+                isRowid = columnInfo[1].equalsIgnoreCase("INTEGER");
+                break;
+            }
+        }
+        pkIsRowid = isRowid;
+    }
+
+    /**
+     * @return the db path.
+     */
+    public String getDbPath() {
+        return dbPath;
+    }
+
+    /**
+     * @return the table name.
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Queue the insert of a new feature that has only the geometry (all other fields are default value).
+     *
+     * @param geometry     the geometry.
+     * @param geometrySrid the srid of the geometry.
+     */
+    public void insert(Geometry geometry, int geometrySrid) {
+        StringBuilder fieldsSb = new StringBuilder();
+        StringBuilder valuesSb = new StringBuilder();
+        fieldsSb.append(metadata.geometryColumn.geometryColumnName);
+        valuesSb.append(getGeometryExpression(geometrySrid));
+        for (String[] columnInfo : metadata.tableColumnInfos) {
+            String field = columnInfo[0];
+            if (SpatialiteUtilities.doIgnoreField(field) || field.equals(metadata.geometryColumn.geometryColumnName))
+                continue;
+            EDataType tableFieldType = EDataType.getType4Name(columnInfo[1]);
+            if (tableFieldType == null)
+                continue;
+            if (field.equals(metadata.primaryKey)) {
+                if (pkIsRowid)
+                    continue;
+                fieldsSb.append(",").append(field);
+                valuesSb.append(",?");
+            } else {
+                fieldsSb.append(",").append(field);
+                valuesSb.append(",").append(tableFieldType.getDefaultValueForSql());
+            }
+        }
+
+        EditOperation op = new EditOperation();
+        op.type = EOperationType.INSERT;
+        op.sql = "insert into \"" + tableName + "\" (" + fieldsSb + ") values (" + valuesSb + ")";//NON-NLS
+        op.values = new Object[]{wkbWriter.write(geometry)};
+        operations.add(op);
+    }
+
+    /**
+     * Queue the update of the geometry of a feature.
+     *
+     * @param id           the id of the feature.
+     * @param geometry     the new geometry.
+     * @param geometrySrid the srid of the geometry.
+     */
+    public void updateGeometry(long id, Geometry geometry, int geometrySrid) {
+        EditOperation op = new EditOperation();
+        op.type = EOperationType.UPDATE_GEOMETRY;
+        op.sql = "update \"" + tableName + "\" set " + metadata.geometryColumn.geometryColumnName + " = "//NON-NLS
+                + getGeometryExpression(geometrySrid) + " where " + idField + "=?";//NON-NLS
+        op.values = new Object[]{wkbWriter.write(geometry), id};
+        op.id = id;
+        operations.add(op);
+    }
+
+    /**
+     * Queue the update of the alphanumeric attributes of a feature.
+     *
+     * @param feature the feature to update.
+     */
+    public void updateAttributes(Feature feature) {
+        List<String> attributeNames = feature.getAttributeNames();
+        List<Object> attributeValues = feature.getAttributeValues();
+        List<String> attributeTypes = feature.getAttributeTypes();
+        int geometryIndex = feature.getGeometryIndex();
+        int idIndex = feature.getIdIndex();
+
+        StringBuilder sb = new StringBuilder();
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < attributeNames.size(); i++) {
+            if (i == idIndex || i == geometryIndex) {
+                continue;
+            }
+            String fieldName = attributeNames.get(i);
+            if (SpatialiteUtilities.doIgnoreField(fieldName))
+                continue;
+
+            Object value = attributeValues.get(i);
+            String valueStr = "";
+            if (value != null)
+                valueStr = value.toString();
+            EDataType dataType = EDataType.getType4Name(attributeTypes.get(i));
+            if (dataType == EDataType.TEXT || dataType == EDataType.DATE) {
+                sb.append(" , ").append(fieldName).append("=?");
+            } else {
+                // empty strings are stored as null in numeric fields
+                sb.append(" , ").append(fieldName).append("=NULLIF(?,'')");
+            }
+            values.add(valueStr);
+        }
+        if (values.isEmpty())
+            return;
+
+        long id = feature.getIdFieldValue();
+        values.add(id);
+
+        EditOperation op = new EditOperation();
+        op.type = EOperationType.UPDATE_ATTRIBUTES;
+        op.sql = "update \"" + tableName + "\" set " + sb.substring(3) + " where " + idField + "=?";//NON-NLS
+        op.values = values.toArray();
+        op.id = id;
+        operations.add(op);
+    }
+
+    /**
+     * Queue the delete of a feature.
+     *
+     * @param id the id of the feature to delete.
+     */
+    public void delete(long id) {
+        EditOperation op = new EditOperation();
+        op.type = EOperationType.DELETE;
+        op.sql = "delete from \"" + tableName + "\" where " + idField + "=?";//NON-NLS
+        op.values = new Object[]{id};
+        op.id = id;
+        operations.add(op);
+    }
+
+    /**
+     * @return <code>true</code> if no operation is queued.
+     */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * Write all queued operations in one transaction.
+     *
+     * <p>If something goes wrong, the whole transaction is rolled back.</p>
+     *
+     * @throws Exception if something goes wrong.
+     */
+    public void commit() throws Exception {
+        if (operations.isEmpty())
+            return;
+        ASpatialDb db = SpatialiteConnectionsHandler.INSTANCE.getDb(dbPath);
+        db.execOnConnection(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            HashMap<String, IHMPreparedStatement> statementsMap = new HashMap<>();
+            try {
+                long nextId = -1;
+                if (!pkIsRowid) {
+                    String maxSql = "select max(" + metadata.primaryKey + ") from \"" + tableName + "\"";//NON-NLS
+                    try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery(maxSql)) {
+                        nextId = rs.next() ? rs.getLong(1) + 1 : 1;
+                    }
+                }
+
+                for (EditOperation op : operations) {
+                    IHMPreparedStatement pStmt = statementsMap.get(op.sql);
+                    if (pStmt == null) {
+                        pStmt = connection.prepareStatement(op.sql);
+                        statementsMap.put(op.sql, pStmt);
+                    }
+                    int index = 1;
+                    for (Object value : op.values) {
+                        if (value instanceof byte[]) {
+                            pStmt.setBytes(index++, (byte[]) value);
+                        } else if (value instanceof Long) {
+                            pStmt.setLong(index++, (Long) value);
+                        } else {
+                            pStmt.setString(index++, (String) value);
+                        }
+                    }
+                    if (op.type == EOperationType.INSERT && !pkIsRowid) {
+                        long newId = nextId++;
+                        pStmt.setLong(index, newId);
+                        pStmt.executeUpdate();
+                        insertedIds.add(newId);
+                        continue;
+                    }
+                    pStmt.executeUpdate();
+
+                    switch (op.type) {
+                        case INSERT:
+                            try (IHMStatement stmt = connection.createStatement(); IHMResultSet rs = stmt.executeQuery("select last_insert_rowid()")) {//NON-NLS
+                                if (rs.next())
+                                    insertedIds.add(rs.getLong(1));
+                            }
+                            break;
+                        case UPDATE_GEOMETRY:
+                            if (!updatedGeometryIds.contains(op.id))
+                                updatedGeometryIds.add(op.id);
+                            break;
+                        case UPDATE_ATTRIBUTES:
+                            if (!updatedAttributesIds.contains(op.id))
+                                updatedAttributesIds.add(op.id);
+                            break;
+                        case DELETE:
+                            deletedIds.add(op.id);
+                            insertedIds.remove(op.id);
+                            updatedGeometryIds.remove(op.id);
+                            updatedAttributesIds.remove(op.id);
+                            break;
+                    }
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                insertedIds.clear();
+                updatedGeometryIds.clear();
+                updatedAttributesIds.clear();
+                deletedIds.clear();
+                throw e;
+            } finally {
+                for (IHMPreparedStatement pStmt : statementsMap.values()) {
+                    pStmt.close();
+                }
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        operations.clear();
+    }
+
+    /**
+     * @return the ids of the inserted features.
+     */
+    public List<Long> getInsertedIds() {
+        return insertedIds;
+    }
+
+    /**
+     * @return the ids of the features with updated geometry.
+     */
+    public List<Long> getUpdatedGeometryIds() {
+        return updatedGeometryIds;
+    }
+
+    /**
+     * @return the ids of the features with updated attributes.
+     */
+    public List<Long> getUpdatedAttributesIds() {
+        return updatedAttributesIds;
+    }
+
+    /**
+     * @return the ids of the deleted features.
+     */
+    public List<Long> getDeletedIds() {
+        return deletedIds;
+    }
+
+    private String getGeometryExpression(int geometrySrid) {
+        String expression = geometryExpressionsMap.get(geometrySrid);
+        if (expression != null)
+            return expression;
+
+        GeometryColumn gCol = metadata.geometryColumn;
+        ESpatialiteGeometryType spatialiteGeometryType = gCol.geometryType.toSpatialiteGeometryType();
+        String geometryTypeCast = spatialiteGeometryType.getGeometryTypeCast();
+        String spaceDimensionsCast = spatialiteGeometryType.getSpaceDimensionsCast();
+        String multiSingleCast = spatialiteGeometryType.getMultiSingleCast();
+        boolean doTransform = gCol.srid != geometrySrid;
+
+        StringBuilder sb = new StringBuilder();
+        if (doTransform)
+            sb.append("ST_Transform(");//NON-NLS
+        if (multiSingleCast != null)
+            sb.append(multiSingleCast).append("(");
+        if (spaceDimensionsCast != null)
+            sb.append(spaceDimensionsCast).append("(");
+        if (geometryTypeCast != null)
+            sb.append(geometryTypeCast).append("(");
+        sb.append("GeomFromWKB(?, ").append(geometrySrid).append(")");//NON-NLS
+        if (geometryTypeCast != null)
+            sb.append(")");
+        if (spaceDimensionsCast != null)
+            sb.append(")");
+        if (multiSingleCast != null)
+            sb.append(")");
+        if (doTransform) {
+            sb.append(",").append(gCol.srid).append(")");
+        }
+        expression = sb.toString();
+        geometryExpressionsMap.put(geometrySrid, expression);
+        return expression;
+    }
+}
@@ -0,0 +1,71 @@
+package eu.geopaparazzi.map.layers.utils;
+
+import org.hortonmachine.dbs.compat.GeometryColumn;
+import org.hortonmachine.dbs.datatypes.EGeometryType;
+
+import java.util.List;
+
+import eu.geopaparazzi.library.style.Style;
+
+/**
+ * Catalog information of a spatialite table, as cached by the {@link SpatialiteConnectionsHandler}.
+ *
+ * <p>This avoids to query the catalog tables every time a layer is reloaded or the map is tapped.</p>
+ */
+public class SpatialiteTableMetadata {
+    /**
+     * The table name.
+     */
+    public final String tableName;
+    /**
+     * The geometry column of the table, <code>null</code> if the table is not spatial.
+     */
+    public final GeometryColumn geometryColumn;
+    /**
+     * The column infos as returned by {@link org.hortonmachine.dbs.compat.ASpatialDb#getTableColumns(String)}.
+     */
+    public final List<String[]> tableColumnInfos;
+    /**
+     * The primary key field name, <code>null</code> if none is defined.
+     */
+    public final String primaryKey;
+    /**
+     * The style of the table, lazily loaded.
+     */
+    Style style;
+    /**
+     * The label field the style was loaded with.
+     */
+    String styleLabelField;
+
+    SpatialiteTableMetadata(String tableName, GeometryColumn geometryColumn, List<String[]> tableColumnInfos) {
+        this.tableName = tableName;
+        this.geometryColumn = geometryColumn;
+        this.tableColumnInfos = tableColumnInfos;
+
+        String pk = null;
+        for (String[] columnInfo : tableColumnInfos) {
+            if (columnInfo[2].equals("1")) {
+                pk = columnInfo[0];
+                break;
+            }
+        }
+        primaryKey = pk;
+    }
+
+    /**
+     * @return the srid of the geometry column or -1 if the table is not spatial.
+     */
+    public int getSrid() {
+        if (geometryColumn == null) return -1;
+        return geometryColumn.srid;
+    }
+
+    /**
+     * @return the geometry type or <code>null</code> if the table is not spatial.
+     */
+    public EGeometryType getGeometryType() {
+        if (geometryColumn == null) return null;
+        return geometryColumn.geometryType;
+    }
+}
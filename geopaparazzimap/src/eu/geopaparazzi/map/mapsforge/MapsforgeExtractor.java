@@ -0,0 +1,475 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.geopaparazzi.map.mapsforge;
+
+import org.hortonmachine.dbs.compat.ASpatialDb;
+import org.hortonmachine.dbs.compat.IHMConnection;
+import org.hortonmachine.dbs.compat.IHMPreparedStatement;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.WKBWriter;
+import org.oscim.core.GeoPoint;
+import org.oscim.core.MercatorProjection;
+import org.oscim.core.Tag;
+import org.oscim.core.Tile;
+import org.oscim.tiling.source.mapfile.MapDatabase;
+import org.oscim.tiling.source.mapfile.MapFileTileSource;
+import org.oscim.tiling.source.mapfile.MapReadResult;
+import org.oscim.tiling.source.mapfile.PointOfInterest;
+import org.oscim.tiling.source.mapfile.Way;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.library.database.GPLog;
+
+/**
+ * Extracts the roads, waterlines and contours (and optionally the pois) of a mapsforge map file into the
+ * spatialite extraction database.
+ *
+ * <p>The area is read at the detail zoom level of the map file and split in bands of tile rows over a
+ * pool of readers, each with its own map database. Ways that cross tile borders are returned by every
+ * tile they touch, so they are deduplicated on their geometry and tags. The records are written by the
+ * calling thread in batched transactions through prepared statements.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class MapsforgeExtractor {
+
+    /**
+     * Handler of the extracted pois, called on the thread that runs the extraction.
+     */
+    public interface IPoiHandler {
+        /**
+         * Handle a poi.
+         *
+         * @param lon  the longitude.
+         * @param lat  the latitude.
+         * @param tags the tags of the poi.
+         * @throws Exception if something goes wrong.
+         */
+        void handlePoi(double lon, double lat, List<Tag> tags) throws Exception;
+
+        /**
+         * Called after every batch of pois, to commit the pending work.
+         *
+         * @throws Exception if something goes wrong.
+         */
+        void flush() throws Exception;
+    }
+
+    /**
+     * Listener for the extraction progress.
+     */
+    public interface IProgressListener {
+        /**
+         * @param tilesDone  the number of tiles read.
+         * @param tilesTotal the total number of tiles.
+         */
+        void onProgress(int tilesDone, int tilesTotal);
+    }
+
+    /**
+     * The zoom level of the most detailed data in standard mapsforge files.
+     */
+    public static final byte DETAIL_ZOOM = 14;
+    private static final int FIELDS_COUNT = 20;
+    private static final int COMMIT_EVERY = 1000;
+    private static final int QUEUE_SIZE = 2000;
+
+    private static class Record {
+        String tableName;
+        List<Tag> tags;
+        byte[] geometryWkb;
+        double lon;
+        double lat;
+    }
+
+    /**
+     * Marks the end of a reader's work in the queue.
+     */
+    private static final Record END = new Record();
+
+    private final MapFileTileSource tileSource;
+    private final int threadsCount;
+    private boolean doPois = false;
+    private boolean doWays = false;
+    private boolean doWater = false;
+    private boolean doContours = false;
+    private String filter = null;
+    private boolean filterExcludes = false;
+    private IPoiHandler poiHandler;
+    private IProgressListener progressListener;
+    private volatile boolean isCancelled = false;
+
+    /**
+     * Create the extractor.
+     *
+     * @param tileSource   the opened map file source.
+     * @param threadsCount the number of parallel readers.
+     */
+    public MapsforgeExtractor(MapFileTileSource tileSource, int threadsCount) {
+        this.tileSource = tileSource;
+        this.threadsCount = Math.max(1, threadsCount);
+    }
+
+    public void setDoWays(boolean doWays) {
+        this.doWays = doWays;
+    }
+
+    public void setDoWater(boolean doWater) {
+        this.doWater = doWater;
+    }
+
+    public void setDoContours(boolean doContours) {
+        this.doContours = doContours;
+    }
+
+    /**
+     * Set the handler for pois, which are extracted only if one is set.
+     *
+     * @param poiHandler    the handler.
+     * @param filter        an optional lowercase text the tags of the pois are checked against.
+     * @param filterExcludes if true, pois matching the filter are excluded, else only those are kept.
+     */
+    public void setPoiHandler(IPoiHandler poiHandler, String filter, boolean filterExcludes) {
+        this.poiHandler = poiHandler;
+        this.doPois = poiHandler != null;
+        this.filter = filter != null && filter.length() > 0 ? filter : null;
+        this.filterExcludes = filterExcludes;
+    }
+
+    public void setProgressListener(IProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    /**
+     * Get the number of tiles that the extraction of an area reads.
+     */
+    public static int getTilesCount(double n, double s, double w, double e) {
+        int[] range = getTileRange(n, s, w, e);
+        return (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+    }
+
+    private static int[] getTileRange(double n, double s, double w, double e) {
+        int minX = MercatorProjection.longitudeToTileX(w, DETAIL_ZOOM);
+        int maxX = MercatorProjection.longitudeToTileX(e, DETAIL_ZOOM);
+        int minY = MercatorProjection.latitudeToTileY(n, DETAIL_ZOOM);
+        int maxY = MercatorProjection.latitudeToTileY(s, DETAIL_ZOOM);
+        return new int[]{minX, minY, maxX, maxY};
+    }
+
+    /**
+     * Run the extraction. This blocks and has to be called from a background thread.
+     *
+     * @param db the extraction database.
+     * @param n  north bound.
+     * @param s  south bound.
+     * @param w  west bound.
+     * @param e  east bound.
+     * @return the number of inserted ways.
+     * @throws Exception if something goes wrong.
+     */
+    public int extract(ASpatialDb db, double n, double s, double w, double e) throws Exception {
+        isCancelled = false;
+        int[] range = getTileRange(n, s, w, e);
+        int tilesTotal = (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+
+        BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        Set<Long> waysKeys = ConcurrentHashMap.newKeySet();
+        Set<Long> poisKeys = ConcurrentHashMap.newKeySet();
+        AtomicInteger tilesDone = new AtomicInteger();
+
+        // split the rows in bands, more than the readers to balance dense and empty areas
+        int rows = range[3] - range[1] + 1;
+        int bandsCount = Math.min(rows, threadsCount * 4);
+        int rowsPerBand = (int) Math.ceil(rows / (double) bandsCount);
+        bandsCount = (int) Math.ceil(rows / (double) rowsPerBand);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        List<Future<?>> futures = new ArrayList<>();
+        // one database per reader thread
+        ThreadLocal<MapDatabase> mapDatabases = new ThreadLocal<>();
+        List<MapDatabase> allDatabases = new ArrayList<>();
+        try {
+            for (int band = 0; band < bandsCount; band++) {
+                int fromY = range[1] + band * rowsPerBand;
+                int toY = Math.min(range[3], fromY + rowsPerBand - 1);
+                futures.add(executor.submit(() -> {
+                    try {
+                        MapDatabase mapDatabase = mapDatabases.get();
+                        if (mapDatabase == null) {
+                            mapDatabase = new MapDatabase(tileSource);
+                            mapDatabases.set(mapDatabase);
+                            synchronized (allDatabases) {
+                                allDatabases.add(mapDatabase);
+                            }
+                        }
+                        readBand(mapDatabase, range[0], range[2], fromY, toY, n, s, w, e, queue, waysKeys, poisKeys, tilesDone);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception ex) {
+                        GPLog.error(this, null, ex);
+                    } finally {
+                        try {
+                            queue.put(END);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            return write(db, queue, bandsCount, tilesDone, tilesTotal);
+        } finally {
+            isCancelled = true;
+            queue.clear();
+            executor.shutdownNow();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            synchronized (allDatabases) {
+                for (MapDatabase mapDatabase : allDatabases) {
+                    mapDatabase.dispose();
+                }
+            }
+        }
+    }
+
+    private void readBand(MapDatabase mapDatabase, int fromX, int toX, int fromY, int toY, double n, double s, double w, double e,
+                          BlockingQueue<Record> queue, Set<Long> waysKeys, Set<Long> poisKeys, AtomicInteger tilesDone) throws Exception {
+        GeometryFactory gf = new GeometryFactory();
+        WKBWriter wkbWriter = new WKBWriter();
+        for (int y = fromY; y <= toY && !isCancelled; y++) {
+            for (int x = fromX; x <= toX && !isCancelled; x++) {
+                MapReadResult mapReadResult = mapDatabase.readMapData(new Tile(x, y, DETAIL_ZOOM));
+                if (mapReadResult != null) {
+                    if (doPois) {
+                        for (PointOfInterest poi : mapReadResult.pointOfInterests) {
+                            double lon = poi.position.getLongitude();
+                            double lat = poi.position.getLatitude();
+                            if (lon < w || lon > e || lat < s || lat > n || !matchesFilter(poi.tags))
+                                continue;
+                            if (!poisKeys.add(getKey(poi.tags, lon, lat)))
+                                continue;
+                            Record record = new Record();
+                            record.tags = poi.tags;
+                            record.lon = lon;
+                            record.lat = lat;
+                            queue.put(record);
+                        }
+                    }
+                    if (doWays || doWater || doContours) {
+                        for (Way way : mapReadResult.ways) {
+                            String tableName = getTableName(way.tags);
+                            if (tableName == null)
+                                continue;
+                            for (GeoPoint[] line : way.geoPoints) {
+                                if (line.length < 2)
+                                    continue;
+                                long key = getKey(way.tags, line);
+                                if (!waysKeys.add(key))
+                                    continue;
+                                Coordinate[] coordinates = new Coordinate[line.length];
+                                for (int i = 0; i < line.length; i++) {
+                                    coordinates[i] = new Coordinate(line[i].getLongitude(), line[i].getLatitude());
+                                }
+                                LineString lineString = gf.createLineString(coordinates);
+                                Record record = new Record();
+                                record.tableName = tableName;
+                                record.tags = way.tags;
+                                record.geometryWkb = wkbWriter.write(lineString);
+                                queue.put(record);
+                            }
+                        }
+                    }
+                }
+                tilesDone.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean matchesFilter(List<Tag> tags) {
+        if (filter == null)
+            return true;
+        boolean contains = false;
+        for (Tag tag : tags) {
+            if ((tag.key != null && tag.key.toLowerCase().contains(filter))
+                    || (tag.value != null && tag.value.toLowerCase().contains(filter))) {
+                contains = true;
+                break;
+            }
+        }
+        return filterExcludes != contains;
+    }
+
+    private String getTableName(List<Tag> tags) {
+        for (Tag tag : tags) {
+            String key = tag.key;
+            if (doWays && MapsforgeExtractorUtilities.isWay(key)) {
+                return MapsforgeExtractorUtilities.TABLENAME_WAYS;
+            } else if (doContours && MapsforgeExtractorUtilities.isContour(key)) {
+                return MapsforgeExtractorUtilities.TABLENAME_CONTOURS;
+            } else if (doWater && MapsforgeExtractorUtilities.isWaterline(key)) {
+                return MapsforgeExtractorUtilities.TABLENAME_WATERLINES;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mapsforge files do not carry the osm ids, so the identity of a way is given by its tags and nodes.
+     */
+    private static long getKey(List<Tag> tags, GeoPoint[] line) {
+        long hash = getTagsHash(tags);
+        for (GeoPoint geoPoint : line) {
+            hash = hash * 31 + geoPoint.latitudeE6;
+            hash = hash * 31 + geoPoint.longitudeE6;
+        }
+        return hash;
+    }
+
+    private static long getKey(List<Tag> tags, double lon, double lat) {
+        long hash = getTagsHash(tags);
+        hash = hash * 31 + Double.doubleToLongBits(lon);
+        hash = hash * 31 + Double.doubleToLongBits(lat);
+        return hash;
+    }
+
+    private static long getTagsHash(List<Tag> tags) {
+        long hash = 1125899906842597L;
+        for (Tag tag : tags) {
+            hash = hash * 31 + (tag.key != null ? tag.key.hashCode() : 0);
+            hash = hash * 31 + (tag.value != null ? tag.value.hashCode() : 0);
+        }
+        return hash;
+    }
+
+    private int write(ASpatialDb db, BlockingQueue<Record> queue, int readersCount, AtomicInteger tilesDone, int tilesTotal) throws Exception {
+        Integer insertedCount = db.execOnConnection(connection -> {
+            Map<String, IHMPreparedStatement> statementsMap = new HashMap<>();
+            // the tag keys are assigned to the generic fields in order of appearance
+            Map<String, Integer> key2FieldMap = new HashMap<>();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            int inserted = 0;
+            int pending = 0;
+            int lastProgress = -1;
+            try {
+                int finishedReaders = 0;
+                while (finishedReaders < readersCount) {
+                    Record record = queue.poll(500, TimeUnit.MILLISECONDS);
+                    if (record == END) {
+                        finishedReaders++;
+                    } else if (record != null) {
+                        if (record.tableName == null) {
+                            poiHandler.handlePoi(record.lon, record.lat, record.tags);
+                        } else {
+                            IHMPreparedStatement pStmt = statementsMap.get(record.tableName);
+                            if (pStmt == null) {
+                                pStmt = connection.prepareStatement(getInsertSql(record.tableName));
+                                statementsMap.put(record.tableName, pStmt);
+                            }
+                            String[] values = new String[FIELDS_COUNT];
+                            for (Tag tag : record.tags) {
+                                Integer field = key2FieldMap.get(tag.key);
+                                if (field == null) {
+                                    if (key2FieldMap.size() == FIELDS_COUNT) {
+                                        // no more free fields
+                                        continue;
+                                    }
+                                    field = key2FieldMap.size();
+                                    key2FieldMap.put(tag.key, field);
+                                }
+                                values[field] = tag.value;
+                            }
+                            for (int i = 0; i < FIELDS_COUNT; i++) {
+                                pStmt.setString(i + 1, values[i] != null ? values[i] : "");
+                            }
+                            pStmt.setBytes(FIELDS_COUNT + 1, record.geometryWkb);
+                            try {
+                                pStmt.executeUpdate();
+                                inserted++;
+                            } catch (Exception ex) {
+                                // ignore only the one unable to import
+                                GPLog.error(this, null, ex);
+                            }
+                        }
+                        pending++;
+                        if (pending >= COMMIT_EVERY) {
+                            commit(connection);
+                            pending = 0;
+                        }
+                    } else if (isCancelled) {
+                        break;
+                    }
+
+                    int done = tilesDone.get();
+                    if (progressListener != null && done != lastProgress) {
+                        progressListener.onProgress(done, tilesTotal);
+                        lastProgress = done;
+                    }
+                }
+                commit(connection);
+            } catch (Exception ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                for (IHMPreparedStatement pStmt : statementsMap.values()) {
+                    pStmt.close();
+                }
+                connection.setAutoCommit(autoCommit);
+            }
+            return inserted;
+        });
+        return insertedCount;
+    }
+
+    private void commit(IHMConnection connection) throws Exception {
+        connection.commit();
+        if (poiHandler != null)
+            poiHandler.flush();
+    }
+
+    private static String getInsertSql(String tableName) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder questionMarks = new StringBuilder();
+        for (int i = 1; i <= FIELDS_COUNT; i++) {
+            fields.append("field").append(i).append(",");//NON-NLS
+            questionMarks.append("?,");
+        }
+        return "insert into " + tableName + " (" + fields + "geometry) values (" + questionMarks + //NON-NLS
+                "CastToSingle(CastToXY(CastToLineString(GeomFromWKB(?, 4326)))))";//NON-NLS
+    }
+}
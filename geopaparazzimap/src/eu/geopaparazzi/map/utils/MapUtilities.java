@@ -7,6 +7,7 @@ import android.support.annotation.NonNull;
 import org.hortonmachine.dbs.compat.objects.QueryResult;
 import org.hortonmachine.dbs.datatypes.EDataType;
 import org.locationtech.jts.geom.Coordinate;
+import org.oscim.core.BoundingBox;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -70,6 +71,18 @@ public class MapUtilities {
 
     @NonNull
     public static List<GpsLog> getGpsLogs(SQLiteDatabase sqliteDatabase) {
+        return getGpsLogs(sqliteDatabase, null);
+    }
+
+    /**
+     * Get the visible gps logs.
+     *
+     * @param sqliteDatabase the db to use.
+     * @param bounds         if not <code>null</code>, only the logs with points inside the bounds are read.
+     * @return the logs.
+     */
+    @NonNull
+    public static List<GpsLog> getGpsLogs(SQLiteDatabase sqliteDatabase, BoundingBox bounds) {
         StringBuilder sB = new StringBuilder();
         sB.append("select l.");
         sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
@@ -89,6 +102,22 @@ public class MapUtilities {
         sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
         sB.append(" = p.");
         sB.append(TableDescriptions.GpsLogsPropertiesTableFields.COLUMN_LOGID.getFieldName());
+        String[] args = null;
+        if (bounds != null) {
+            sB.append(" and l.");
+            sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
+            sB.append(" in (select distinct ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_LOGID.getFieldName());
+            sB.append(" from ");
+            sB.append(TABLE_GPSLOG_DATA);
+            sB.append(" where ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LON.getFieldName());
+            sB.append(" between ? and ? and ");
+            sB.append(TableDescriptions.GpsLogsDataTableFields.COLUMN_DATA_LAT.getFieldName());
+            sB.append(" between ? and ?)");
+            args = new String[]{String.valueOf(bounds.getMinLongitude()), String.valueOf(bounds.getMaxLongitude()),
+                    String.valueOf(bounds.getMinLatitude()), String.valueOf(bounds.getMaxLatitude())};
+        }
         sB.append(" order by ");
         sB.append(TableDescriptions.GpsLogsTableFields.COLUMN_ID.getFieldName());
         String query = sB.toString();
@@ -96,7 +125,7 @@ public class MapUtilities {
         List<GpsLog> logsList = new ArrayList<>();
         Cursor c = null;
         try {
-            c = sqliteDatabase.rawQuery(query, null);
+            c = sqliteDatabase.rawQuery(query, args);
             c.moveToFirst();
             while (!c.isAfterLast()) {
                 try {
@@ -526,8 +526,6 @@ package eu.geopaparazzi.plugins.defaultexports;
 import android.content.Context;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
@@ -588,27 +586,14 @@ public class ExportImagesMenuEntry extends MenuEntry {
             }
 
 
-            final DaoImages imageHelper = new DaoImages();
+            final ImagesExporter imagesExporter = new ImagesExporter(outFolder);
             StringAsyncTask exportImagesTask = new StringAsyncTask(context) {
                 protected String doBackgroundWork() {
                     try {
-                        for (int i = 0; i < imagesList.size(); i++) {
-                            Image image = imagesList.get(i);
-                            try {
-                                byte[] imageData = imageHelper.getImageData(image.getId());
-                                if (imageData != null) {
-                                    File imageFile = new File(outFolder, image.getName());
-
-                                    FileOutputStream fos = new FileOutputStream(imageFile);
-                                    fos.write(imageData);
-                                    fos.close();
-                                }
-                            } catch (IOException e) {
-                                GPLog.error(this, "For file: " + image.getName(), e);
-                            } finally {
-                                publishProgress(i);
-                            }
-                        }
+                        List<String> failed = imagesExporter.export(imagesList,
+                                (image, exportedCount, isOk) -> publishProgress(exportedCount));
+                        if (failed.size() > 0)
+                            return "ERROR: " + failed;
                     } catch (Exception e) {
                         return "ERROR: " + e.getLocalizedMessage();
                     }
@@ -0,0 +1,280 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.defaultexports;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.library.database.GPLog;
+import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.images.ExifGpsWriter;
+
+/**
+ * Exports the project images to a folder.
+ *
+ * <p>The calling thread is the only one reading from the database. It streams each image in
+ * chunks to a pool of writers through a bounded queue, and the writers copy them to file adding
+ * the gps position to the exif header. Memory use is bounded by the queue sizes and the chunk
+ * size, whatever the number and size of the images.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class ImagesExporter {
+    private static final int WRITERS_COUNT = 3;
+    private static final int JOBS_QUEUE_SIZE = 4;
+    private static final int CHUNKS_PER_JOB = 8;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final byte[] END_OF_IMAGE = new byte[0];
+    private static final ImageJob END_OF_JOBS = new ImageJob(null, null);
+
+    /**
+     * Notified by the writer threads.
+     */
+    interface ProgressListener {
+        /**
+         * @param image         the image that has been handled.
+         * @param exportedCount the number of images handled so far.
+         * @param isOk          <code>true</code> if the file has been written.
+         */
+        void onImageExported(Image image, int exportedCount, boolean isOk);
+    }
+
+    /**
+     * An image being streamed from the reader to a writer.
+     */
+    private static class ImageJob {
+        final Image image;
+        final String fileName;
+        final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_JOB);
+        volatile boolean hasReadError = false;
+
+        ImageJob(Image image, String fileName) {
+            this.image = image;
+            this.fileName = fileName;
+        }
+    }
+
+    /**
+     * Reads the chunks of a job until the end of the image.
+     */
+    private static class ChunksInputStream extends InputStream {
+        private final ImageJob job;
+        private byte[] chunk;
+        private int position;
+        private boolean isEnded = false;
+
+        ChunksInputStream(ImageJob job) {
+            this.job = job;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (!isEnded && (chunk == null || position >= chunk.length)) {
+                try {
+                    chunk = job.chunks.take();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                position = 0;
+                if (chunk == END_OF_IMAGE)
+                    isEnded = true;
+            }
+            return !isEnded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk())
+                return -1;
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!nextChunk())
+                return -1;
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Consume the rest of the image, so that the reader is never left waiting.
+         */
+        void drain() throws IOException {
+            while (nextChunk()) {
+                position = chunk.length;
+            }
+        }
+    }
+
+    private final File outFolder;
+    private final DaoImages imageHelper = new DaoImages();
+
+    /**
+     * @param outFolder the folder to write the images to.
+     */
+    ImagesExporter(File outFolder) {
+        this.outFolder = outFolder;
+    }
+
+    /**
+     * Export the images, returning when all files have been written.
+     *
+     * @param images   the images to export.
+     * @param listener notified after each image, from the writer threads.
+     * @return the names of the images that could not be exported.
+     * @throws InterruptedException if the export is interrupted.
+     */
+    List<String> export(List<Image> images, final ProgressListener listener) throws InterruptedException {
+        final BlockingQueue<ImageJob> jobs = new ArrayBlockingQueue<>(JOBS_QUEUE_SIZE);
+        final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger exportedCount = new AtomicInteger();
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS_COUNT, r -> {
+            Thread thread = new Thread(r, "images-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < WRITERS_COUNT; i++) {
+            writers.execute(() -> {
+                try {
+                    ImageJob job;
+                    while ((job = jobs.take()) != END_OF_JOBS) {
+                        boolean isOk = write(job);
+                        if (!isOk)
+                            failed.add(job.image.getName());
+                        listener.onImageExported(job.image, exportedCount.incrementAndGet(), isOk);
+                    }
+                } catch (InterruptedException e) {
+                    // export interrupted
+                }
+            });
+        }
+
+        // images can share the same name, but the writers must never write to the same file
+        Set<String> fileNames = new HashSet<>();
+        try {
+            for (Image image : images) {
+                ImageJob job = new ImageJob(image, getUniqueName(image.getName(), fileNames));
+                jobs.put(job);
+                read(job);
+            }
+        } finally {
+            for (int i = 0; i < WRITERS_COUNT; i++) {
+                jobs.put(END_OF_JOBS);
+            }
+            writers.shutdown();
+        }
+        writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return failed;
+    }
+
+    private static String getUniqueName(String name, Set<String> fileNames) {
+        String uniqueName = name;
+        int dotIndex = name.lastIndexOf('.');
+        String base = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+        String extension = dotIndex > 0 ? name.substring(dotIndex) : "";
+        for (int i = 1; !fileNames.add(uniqueName.toLowerCase()); i++) {
+            uniqueName = base + "_" + i + extension;
+        }
+        return uniqueName;
+    }
+
+    /**
+     * Stream the image data to the job, always ending it.
+     */
+    private void read(ImageJob job) throws InterruptedException {
+        try (InputStream imageStream = imageHelper.getImageDataStream(job.image.getId())) {
+            if (imageStream == null) {
+                job.hasReadError = true;
+                return;
+            }
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int filled = 0;
+            int read;
+            while ((read = imageStream.read(buffer, filled, buffer.length - filled)) != -1) {
+                filled += read;
+                if (filled == buffer.length) {
+                    job.chunks.put(buffer);
+                    buffer = new byte[CHUNK_SIZE];
+                    filled = 0;
+                }
+            }
+            if (filled > 0)
+                job.chunks.put(Arrays.copyOf(buffer, filled));
+        } catch (IOException e) {
+            GPLog.error(this, "For file: " + job.image.getName(), e);
+            job.hasReadError = true;
+        } catch (InterruptedException e) {
+            // the image is incomplete, the writer has to drop it
+            job.hasReadError = true;
+            throw e;
+        } finally {
+            job.chunks.put(END_OF_IMAGE);
+        }
+    }
+
+    /**
+     * Write the image of a job to file.
+     *
+     * @return <code>true</code> if the whole image has been written.
+     */
+    private boolean write(ImageJob job) {
+        Image image = job.image;
+        File imageFile = new File(outFolder, job.fileName);
+        ChunksInputStream in = new ChunksInputStream(job);
+        boolean isOk = false;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(imageFile), CHUNK_SIZE)) {
+            new ExifGpsWriter(image.getLon(), image.getLat(), image.getAltim(), image.getAzim()).copy(in, out);
+            isOk = true;
+        } catch (Exception e) {
+            GPLog.error(this, "For file: " + image.getName(), e);
+        }
+        try {
+            in.drain();
+        } catch (IOException e) {
+            // interrupted, nothing more to do
+        }
+        if (!isOk || job.hasReadError) {
+            imageFile.delete();
+            return false;
+        }
+        return true;
+    }
+}
@@ -29,41 +29,25 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.ProgressBar;
 
-import com.itextpdf.text.Anchor;
-import com.itextpdf.text.Chapter;
-import com.itextpdf.text.Chunk;
 import com.itextpdf.text.Document;
-import com.itextpdf.text.DocumentException;
-import com.itextpdf.text.Element;
-import com.itextpdf.text.Paragraph;
-import com.itextpdf.text.Phrase;
-import com.itextpdf.text.pdf.PdfPCell;
-import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfWriter;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import eu.geopaparazzi.core.GeopaparazziApplication;
 import eu.geopaparazzi.core.R;
-import eu.geopaparazzi.core.database.DaoImages;
 import eu.geopaparazzi.core.database.DaoMetadata;
 import eu.geopaparazzi.core.database.DaoNotes;
 import eu.geopaparazzi.core.database.objects.Note;
 import eu.geopaparazzi.library.core.ResourcesManager;
 import eu.geopaparazzi.library.database.GPLog;
-import eu.geopaparazzi.library.database.Image;
-import eu.geopaparazzi.library.forms.FormUtilities;
-import eu.geopaparazzi.library.forms.TagsManager;
 import eu.geopaparazzi.library.util.TimeUtilities;
-import eu.geopaparazzi.library.util.Utilities;
 
 
 /**
@@ -79,7 +63,7 @@ public class PdfExportDialogFragment extends DialogFragment {
     private ProgressBar progressBar;
     private String exportPath;
 
-    private boolean isInterrupted = false;
+    private volatile boolean isInterrupted = false;
     private AlertDialog alertDialog;
     private Button positiveButton;
     private long[] exportIds;
@@ -185,17 +169,29 @@ public class PdfExportDialogFragment extends DialogFragment {
                     document.addAuthor("Geopaparazzi User");
                     document.addCreator("Geopaparazzi - http://www.geopaparazzi.eu");
 
-                    List<Long> idsToExport = new ArrayList<>();
+                    Set<Long> idsToExport = new HashSet<>();
                     for (int i = 0; i < exportIds.length; i++) {
                         idsToExport.add(exportIds[i]);
                     }
-                    int index = 1;
+                    List<Note> notesToExport = new ArrayList<>();
                     for (Note note : notesList) {
                         if (idsToExport.contains(note.getId())) {
-                            processNote(document, note, index++);
+                            notesToExport.add(note);
                         }
                     }
 
+                    PdfImageCache imageCache = new PdfImageCache(context.getCacheDir());
+                    boolean isDone = new PdfReportWriter(imageCache).write(document, notesToExport, () -> isInterrupted);
+                    if (!isDone) {
+                        try {
+                            document.close();
+                        } catch (Exception e) {
+                            // incomplete document, removed below
+                        }
+                        pdfOutputFile.delete();
+                        return INTERRUPTED;
+                    }
+
                     document.close();
 
                     return pdfOutputFile.getAbsolutePath();
@@ -231,181 +227,6 @@ public class PdfExportDialogFragment extends DialogFragment {
         }.execute((String) null);
     }
 
-    public void processNote(Document document, Note note, int count) throws Exception {
-        String name = Utilities.makeXmlSafe(note.getName());
-        String form = note.getForm();
-
-        DaoImages daoImages = new DaoImages();
-        if (form != null && form.length() > 0) {
-            JSONObject sectionObject = new JSONObject(form);
-            if (!sectionObject.has(FormUtilities.ATTR_SECTIONNAME)) {
-                return;
-            }
-            String sectionName = sectionObject.getString(FormUtilities.ATTR_SECTIONNAME);
-            Anchor anchor = new Anchor(sectionName);
-            anchor.setName(sectionName);
-            Chapter currentChapter = new Chapter(new Paragraph(anchor), count);
-            addEmptyLine(currentChapter, 1);
-
-            PdfPTable infoTable = new PdfPTable(2);
-            infoTable.setHeaderRows(0);
-            infoTable.setWidthPercentage(90);
-            currentChapter.add(infoTable);
-
-            addKeyValueToTableRow(infoTable, "Timestamp", new Date(note.getTimeStamp()).toString());
-            addKeyValueToTableRow(infoTable, "Latitude", note.getLat() + "");
-            addKeyValueToTableRow(infoTable, "Longitude", note.getLon() + "");
-
-
-            List<String> formsNames = TagsManager.getFormNames4Section(sectionObject);
-            for (String formName : formsNames) {
-                addEmptyLine(currentChapter, 3);
-                Paragraph section = new Paragraph(formName);
-                currentChapter.addSection(section);
-                addEmptyLine(currentChapter, 1);
-
-                PdfPTable currentTable = new PdfPTable(2);
-                currentTable.setHeaderRows(0);
-                currentTable.setWidthPercentage(90);
-                currentChapter.add(currentTable);
-
-                JSONObject form4Name = TagsManager.getForm4Name(formName, sectionObject);
-                JSONArray formItems = TagsManager.getFormItems(form4Name);
-                for (int i = 0; i < formItems.length(); i++) {
-                    JSONObject formItem = formItems.getJSONObject(i);
-                    if (!formItem.has(FormUtilities.TAG_KEY)) {
-                        continue;
-                    }
-
-                    String type = formItem.getString(FormUtilities.TAG_TYPE);
-                    String key = formItem.getString(FormUtilities.TAG_KEY);
-                    String value = formItem.getString(FormUtilities.TAG_VALUE);
-
-                    String label = key;
-                    if (formItem.has(FormUtilities.TAG_LABEL)) {
-                        label = formItem.getString(FormUtilities.TAG_LABEL);
-                    }
-
-                    if (type.equals(FormUtilities.TYPE_PICTURES)) {
-                        if (value.trim().length() == 0) {
-                            continue;
-                        }
-                        String[] imageIdsSplit = value.split(Note.IMAGES_SEPARATOR);
-                        for (String imageId : imageIdsSplit) {
-                            if (imageId != null && imageId.trim().length() > 0) {
-                                Image image = daoImages.getImage(Long.parseLong(imageId));
-                                String imgName = image.getName();
-                                byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                                com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                                Paragraph caption = new Paragraph(imgName);
-                                caption.setAlignment(Element.ALIGN_CENTER);
-
-                                PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                                keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                                keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                                keyCell.setPadding(10);
-                                currentTable.addCell(keyCell);
-                                PdfPCell valueCell = new PdfPCell();
-                                valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                                valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                                valueCell.setPadding(10);
-                                valueCell.addElement(itextImage);
-                                valueCell.addElement(caption);
-                                currentTable.addCell(valueCell);
-                            }
-                        }
-                    } else if (type.equals(FormUtilities.TYPE_MAP)) {
-                        if (value.trim().length() == 0) {
-                            continue;
-                        }
-                        String imageId = value.trim();
-                        if (imageId != null && imageId.trim().length() > 0) {
-                            Image image = daoImages.getImage(Long.parseLong(imageId));
-                            String imgName = image.getName();
-                            byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                            com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                            Paragraph caption = new Paragraph(imgName);
-                            caption.setAlignment(Element.ALIGN_CENTER);
-
-                            PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                            keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            keyCell.setPadding(10);
-                            currentTable.addCell(keyCell);
-                            PdfPCell valueCell = new PdfPCell();
-                            valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                            valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                            valueCell.setPadding(10);
-                            valueCell.addElement(itextImage);
-                            valueCell.addElement(caption);
-                            currentTable.addCell(valueCell);
-                        }
-                    } else if (type.equals(FormUtilities.TYPE_SKETCH)) {
-                        if (value.trim().length() == 0) {
-                            continue;
-                        }
-                        String[] imageIdsSplit = value.split(Note.IMAGES_SEPARATOR);
-                        for (String imageId : imageIdsSplit) {
-                            if (imageId != null && imageId.trim().length() > 0) {
-                                Image image = daoImages.getImage(Long.parseLong(imageId));
-                                String imgName = image.getName();
-                                byte[] imageData = daoImages.getImageData(Long.parseLong(imageId));
-                                com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
-                                Paragraph caption = new Paragraph(imgName);
-                                caption.setAlignment(Element.ALIGN_CENTER);
-
-                                PdfPCell keyCell = new PdfPCell(new Phrase(label));
-                                keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                                keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                                keyCell.setPadding(10);
-                                currentTable.addCell(keyCell);
-                                PdfPCell valueCell = new PdfPCell();
-                                valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-                                valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-                                valueCell.setPadding(10);
-                                valueCell.addElement(itextImage);
-                                valueCell.addElement(caption);
-                                currentTable.addCell(valueCell);
-                            }
-                        }
-                    } else {
-                        addKeyValueToTableRow(currentTable, label, value);
-                    }
-                }
-
-//                addKeyValueToTableRow(currentTable, "test", "testvalue");
-
-            }
-
-            document.add(currentChapter);
-            document.newPage();
-
-        }
-
-
-    }
-
-    private void addKeyValueToTableRow(PdfPTable table, String key, String value) {
-        PdfPCell keyCell = new PdfPCell(new Paragraph(key));
-        keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-        keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-        keyCell.setPadding(10);
-        table.addCell(keyCell);
-
-        PdfPCell valueCell = new PdfPCell(new Phrase(value));
-        valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
-        valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-        valueCell.setPadding(10);
-        table.addCell(valueCell);
-    }
-
-    public void addEmptyLine(Chapter element, int number) throws DocumentException {
-        for (int i = 0; i < number; i++) {
-            Paragraph p = new Paragraph(" ");
-            element.add(p);
-        }
-    }
-
     public void onStart() {
         super.onStart();
         AlertDialog d = (AlertDialog) getDialog();
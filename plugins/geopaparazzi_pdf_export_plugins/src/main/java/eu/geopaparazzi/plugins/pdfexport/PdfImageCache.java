@@ -0,0 +1,180 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.pdfexport;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import eu.geopaparazzi.core.GeopaparazziApplication;
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.images.ImageUtilities;
+import eu.geopaparazzi.library.images.ThumbnailService;
+
+/**
+ * Disk cache of the images downscaled to print resolution for the pdf reports.
+ *
+ * <p>The images are kept as encoded data, ready to be handed to iText, in files named after
+ * the project database, the image data and its timestamp, so that repeated exports of the
+ * same notes only read the cache. It is safe to use from several threads.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class PdfImageCache {
+    /**
+     * The width of the images in the report, about 300 dpi in a table cell of an A4 page.
+     */
+    static final int PRINT_SIZE = 1024;
+    private static final String CACHE_FOLDER = "pdf_images";
+    private static final long MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+
+    private final File cacheDir;
+    private final File cacheFolder;
+    private final DaoImages daoImages = new DaoImages();
+
+    /**
+     * @param cacheDir the application cache folder.
+     */
+    PdfImageCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+        this.cacheFolder = new File(cacheDir, CACHE_FOLDER);
+    }
+
+    /**
+     * Get the image data at print resolution, creating it if not cached.
+     *
+     * @param image the image.
+     * @return the encoded image, the original data if it can't be decoded.
+     * @throws IOException if something goes wrong.
+     */
+    byte[] getPrintImage(Image image) throws IOException {
+        File file = getFile(image);
+        if (file.exists()) {
+            byte[] data = readFile(file);
+            // keeps the recently used images when trimming
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        }
+
+        // decode from a file, so that the original image is never held in memory
+        File sourceFile = File.createTempFile("pdf_image", ".tmp", cacheDir);
+        Bitmap printImage;
+        try {
+            InputStream imageStream = daoImages.getImageDataStream(image.getId());
+            if (imageStream == null)
+                throw new IOException("No data found for image: " + image.getName());
+            ImageUtilities.writeImageStreamToFile(imageStream, sourceFile.getAbsolutePath());
+            printImage = ThumbnailService.createThumbnail(sourceFile.getAbsolutePath(), PRINT_SIZE);
+            if (printImage == null)
+                return readFile(sourceFile);
+        } finally {
+            sourceFile.delete();
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // sketches can be transparent
+        if (printImage.hasAlpha()) {
+            printImage.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        } else {
+            printImage.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream);
+        }
+        printImage.recycle();
+        byte[] data = stream.toByteArray();
+        writeFile(file, data);
+        return data;
+    }
+
+    /**
+     * Remove the least recently used files until the cache is below its size.
+     */
+    synchronized void trim() {
+        File[] files = cacheFolder.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES)
+            return;
+        Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES * 3 / 4)
+                break;
+            long length = file.length();
+            if (file.delete())
+                total -= length;
+        }
+    }
+
+    private File getFile(Image image) throws IOException {
+        String databasePath = GeopaparazziApplication.getInstance().getDatabase().getPath();
+        String key = databasePath + "#" + image.getImageDataId() + "@" + image.getTs() + "@" + PRINT_SIZE;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(cacheFolder, sb.toString());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (InputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset != data.length)
+                throw new IOException("Truncated cache file: " + file);
+        }
+        return data;
+    }
+
+    /**
+     * Write aside and rename, so that concurrent readers never see a partial file.
+     */
+    private void writeFile(File file, byte[] data) {
+        if (!cacheFolder.exists() && !cacheFolder.mkdirs())
+            return;
+        File tmpFile = new File(cacheFolder, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmpFile)) {
+            fout.write(data);
+        } catch (IOException e) {
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(file))
+            tmpFile.delete();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Geopaparazzi - Digital field mapping on Android based devices
+ * Copyright (C) 2016  HydroloGIS (www.hydrologis.com)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.geopaparazzi.plugins.pdfexport;
+
+import com.itextpdf.text.Anchor;
+import com.itextpdf.text.Chapter;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Paragraph;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import eu.geopaparazzi.core.database.DaoImages;
+import eu.geopaparazzi.core.database.objects.Note;
+import eu.geopaparazzi.library.database.Image;
+import eu.geopaparazzi.library.forms.FormUtilities;
+import eu.geopaparazzi.library.forms.TagsManager;
+
+/**
+ * Writes the notes to a pdf document.
+ *
+ * <p>The chapters of the notes, with their images at print resolution, are prepared by a pool
+ * of workers. The calling thread is the only one adding them to the document, in the order of
+ * the notes. Only a few chapters are prepared ahead of the writer, so that memory use does not
+ * depend on the number of notes.</p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+class PdfReportWriter {
+    private static final int WORKERS_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int CHAPTERS_AHEAD = WORKERS_COUNT * 2;
+
+    private final PdfImageCache imageCache;
+
+    /**
+     * @param imageCache the cache of the print resolution images.
+     */
+    PdfReportWriter(PdfImageCache imageCache) {
+        this.imageCache = imageCache;
+    }
+
+    /**
+     * Write the notes, one chapter per page.
+     *
+     * @param document      the open document.
+     * @param notes         the notes to write.
+     * @param isInterrupted checked before each chapter is written.
+     * @return <code>false</code> if interrupted.
+     * @throws Exception if something goes wrong.
+     */
+    boolean write(Document document, List<Note> notes, BooleanSupplier isInterrupted) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS_COUNT, r -> {
+            Thread thread = new Thread(r, "pdf-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Chapter>> chapters = new ArrayDeque<>();
+        try {
+            Iterator<Note> notesIterator = notes.iterator();
+            int index = 1;
+            while (notesIterator.hasNext() || !chapters.isEmpty()) {
+                while (notesIterator.hasNext() && chapters.size() < CHAPTERS_AHEAD) {
+                    final Note note = notesIterator.next();
+                    final int count = index++;
+                    chapters.add(workers.submit(() -> createChapter(note, count)));
+                }
+                if (isInterrupted.getAsBoolean())
+                    return false;
+
+                Chapter chapter;
+                try {
+                    chapter = chapters.poll().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+                if (chapter != null) {
+                    document.add(chapter);
+                    document.newPage();
+                }
+            }
+            return true;
+        } finally {
+            workers.shutdownNow();
+            imageCache.trim();
+        }
+    }
+
+    /**
+     * Create the chapter of a note.
+     *
+     * @param note  the note.
+     * @param count the chapter number.
+     * @return the chapter or <code>null</code> if the note has no form.
+     * @throws Exception if something goes wrong.
+     */
+    private Chapter createChapter(Note note, int count) throws Exception {
+        String form = note.getForm();
+        if (form == null || form.length() == 0) {
+            return null;
+        }
+
+        DaoImages daoImages = new DaoImages();
+        JSONObject sectionObject = new JSONObject(form);
+        if (!sectionObject.has(FormUtilities.ATTR_SECTIONNAME)) {
+            return null;
+        }
+        String sectionName = sectionObject.getString(FormUtilities.ATTR_SECTIONNAME);
+        Anchor anchor = new Anchor(sectionName);
+        anchor.setName(sectionName);
+        Chapter currentChapter = new Chapter(new Paragraph(anchor), count);
+        addEmptyLine(currentChapter, 1);
+
+        PdfPTable infoTable = new PdfPTable(2);
+        infoTable.setHeaderRows(0);
+        infoTable.setWidthPercentage(90);
+        currentChapter.add(infoTable);
+
+        addKeyValueToTableRow(infoTable, "Timestamp", new Date(note.getTimeStamp()).toString());
+        addKeyValueToTableRow(infoTable, "Latitude", note.getLat() + "");
+        addKeyValueToTableRow(infoTable, "Longitude", note.getLon() + "");
+
+        List<String> formsNames = TagsManager.getFormNames4Section(sectionObject);
+        for (String formName : formsNames) {
+            addEmptyLine(currentChapter, 3);
+            Paragraph section = new Paragraph(formName);
+            currentChapter.addSection(section);
+            addEmptyLine(currentChapter, 1);
+
+            PdfPTable currentTable = new PdfPTable(2);
+            currentTable.setHeaderRows(0);
+            currentTable.setWidthPercentage(90);
+            currentChapter.add(currentTable);
+
+            JSONObject form4Name = TagsManager.getForm4Name(formName, sectionObject);
+            JSONArray formItems = TagsManager.getFormItems(form4Name);
+            for (int i = 0; i < formItems.length(); i++) {
+                JSONObject formItem = formItems.getJSONObject(i);
+                if (!formItem.has(FormUtilities.TAG_KEY)) {
+                    continue;
+                }
+
+                String type = formItem.getString(FormUtilities.TAG_TYPE);
+                String key = formItem.getString(FormUtilities.TAG_KEY);
+                String value = formItem.getString(FormUtilities.TAG_VALUE);
+
+                String label = key;
+                if (formItem.has(FormUtilities.TAG_LABEL)) {
+                    label = formItem.getString(FormUtilities.TAG_LABEL);
+                }
+
+                if (type.equals(FormUtilities.TYPE_PICTURES) || type.equals(FormUtilities.TYPE_SKETCH)) {
+                    if (value.trim().length() == 0) {
+                        continue;
+                    }
+                    String[] imageIdsSplit = value.split(Note.IMAGES_SEPARATOR);
+                    for (String imageId : imageIdsSplit) {
+                        if (imageId != null && imageId.trim().length() > 0) {
+                            addImageToTableRow(daoImages, currentTable, label, imageId);
+                        }
+                    }
+                } else if (type.equals(FormUtilities.TYPE_MAP)) {
+                    String imageId = value.trim();
+                    if (imageId.length() > 0) {
+                        addImageToTableRow(daoImages, currentTable, label, imageId);
+                    }
+                } else {
+                    addKeyValueToTableRow(currentTable, label, value);
+                }
+            }
+        }
+        return currentChapter;
+    }
+
+    private void addImageToTableRow(DaoImages daoImages, PdfPTable table, String label, String imageId) throws Exception {
+        Image image = daoImages.getImage(Long.parseLong(imageId));
+        String imgName = image.getName();
+        byte[] imageData = imageCache.getPrintImage(image);
+        com.itextpdf.text.Image itextImage = com.itextpdf.text.Image.getInstance(imageData);
+        Paragraph caption = new Paragraph(imgName);
+        caption.setAlignment(Element.ALIGN_CENTER);
+
+        PdfPCell keyCell = new PdfPCell(new Phrase(label));
+        keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        keyCell.setPadding(10);
+        table.addCell(keyCell);
+        PdfPCell valueCell = new PdfPCell();
+        valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        valueCell.setPadding(10);
+        valueCell.addElement(itextImage);
+        valueCell.addElement(caption);
+        table.addCell(valueCell);
+    }
+
+    private void addKeyValueToTableRow(PdfPTable table, String key, String value) {
+        PdfPCell keyCell = new PdfPCell(new Paragraph(key));
+        keyCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        keyCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        keyCell.setPadding(10);
+        table.addCell(keyCell);
+
+        PdfPCell valueCell = new PdfPCell(new Phrase(value));
+        valueCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+        valueCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        valueCell.setPadding(10);
+        table.addCell(valueCell);
+    }
+
+    private void addEmptyLine(Chapter element, int number) {
+        for (int i = 0; i < number; i++) {
+            Paragraph p = new Paragraph(" ");
+            element.add(p);
+        }
+    }
+}